@@ -0,0 +1,462 @@
+package org.ncgr.blast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A disk-backed cache of blastn results, so that repeat runs over mostly the same sequences only search the new or changed ones.
+ * Sequences are identified by a SHA-1 hash of their bases, not their headers. Each cache entry holds one query's HSPs against each
+ * subject it has been searched against, keyed by subject hash, for one set of blastn parameters; subjects with no HSPs are recorded
+ * too, so they aren't searched again. Entries are gzipped binary files in a two-level directory under the cache directory. When the
+ * cache grows past its maximum size the least recently used entries are deleted, using the file modification time, which is
+ * touched on every hit, so that recency carries over between runs. Safe to use from many threads at once.
+ *
+ * @author Sam Hokin
+ */
+public class BlastCache {
+
+    // the default maximum cache size, from the blast.cache.max.mb system property
+    static long DEFAULT_MAX_BYTES = Long.getLong("blast.cache.max.mb", 1024L)*1024*1024;
+
+    // eviction stops when the cache is down to this fraction of its maximum size, so it doesn't run on every put
+    static final double EVICT_TO_FRACTION = 0.9;
+
+    // identifies an entry file and its format version
+    static final int MAGIC = 0x4E424331; // NBC1
+
+    static final String SUFFIX = ".bin";
+
+    File dir;
+    long maxBytes;
+
+    // entry file sizes, and their total
+    ConcurrentHashMap<File,Long> sizes = new ConcurrentHashMap<File,Long>();
+    AtomicLong totalBytes = new AtomicLong();
+
+    // statistics for this instance
+    AtomicLong queryHits = new AtomicLong();      // queries with every subject cached
+    AtomicLong queryPartials = new AtomicLong();  // queries with some subjects cached
+    AtomicLong queryMisses = new AtomicLong();    // queries with no subjects cached
+    AtomicLong subjectHits = new AtomicLong();
+    AtomicLong subjectMisses = new AtomicLong();
+    AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Open a cache in the given directory, creating it if need be, with the default maximum size.
+     */
+    public BlastCache(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Open a cache in the given directory, creating it if need be.
+     *
+     * @param dir the cache directory
+     * @param maxBytes the size past which least recently used entries are evicted
+     */
+    public BlastCache(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create BLAST cache directory "+dir);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        File[] subdirs = dir.listFiles();
+        if (subdirs!=null) {
+            for (File subdir : subdirs) {
+                File[] files = subdir.listFiles();
+                if (files==null) continue;
+                for (File file : files) {
+                    if (file.getName().endsWith(SUFFIX)) {
+                        sizes.put(file, file.length());
+                        totalBytes.addAndGet(file.length());
+                    } else {
+                        // a temporary file left by an interrupted put
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the cache key for a sequence: the SHA-1 hash of its upper-cased bases, in hex.
+     */
+    public static String hash(String sequence) {
+        return toHex(sha1(sequence.toUpperCase()));
+    }
+
+    /**
+     * Return the blastn parameters as a canonical String, with the parameter names stripped of dashes and sorted, and the
+     * input and output parameters dropped, as in BlastUtils.getBlastnCommand. The tabular output format is included so that
+     * entries are dropped if its columns change.
+     */
+    public static String getParameterKey(Map<String,String> parameters) {
+        TreeMap<String,String> sorted = new TreeMap<String,String>();
+        for (String parameter : parameters.keySet()) {
+            String value = parameters.get(parameter);
+            parameter = parameter.replace("-","");
+            if (!parameter.equals("outfmt") &&
+                !parameter.equals("out") &&
+                !parameter.equals("subject") &&
+                !parameter.equals("db") &&
+                !parameter.equals("query")) {
+                sorted.put(parameter, value==null ? "" : value);
+            }
+        }
+        StringBuilder key = new StringBuilder("outfmt="+TabularHsp.FORMAT);
+        for (String parameter : sorted.keySet()) {
+            key.append(" ").append(parameter).append("=").append(sorted.get(parameter));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return the cached results for a query with the given parameters, or null if there are none. Statistics are not updated;
+     * see recordLookup.
+     *
+     * @param queryHash the query's hash
+     * @param parameterKey the blastn parameters from getParameterKey
+     */
+    public Entry get(String queryHash, String parameterKey) {
+        File file = getFile(queryHash, parameterKey);
+        if (!file.exists()) return null;
+        try {
+            Entry entry = read(file);
+            if (!entry.queryHash.equals(queryHash) || !entry.parameterKey.equals(parameterKey)) {
+                throw new IOException("BLAST cache entry "+file+" doesn't match its key.");
+            }
+            // mark it recently used
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException ex) {
+            // a corrupt or foreign entry is dropped and the query is searched again
+            remove(file);
+            return null;
+        }
+    }
+
+    /**
+     * Store the results for a query, replacing any stored before, and evict old entries if the cache is now too big.
+     */
+    public void put(Entry entry) throws IOException {
+        File file = getFile(entry.queryHash, entry.parameterKey);
+        File subdir = file.getParentFile();
+        if (!subdir.isDirectory() && !subdir.mkdirs() && !subdir.isDirectory()) {
+            throw new IOException("Could not create BLAST cache directory "+subdir);
+        }
+        // write to a temporary file and move it into place, so readers never see a partial entry
+        File temp = File.createTempFile(file.getName(), ".tmp", subdir);
+        try {
+            write(entry, temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+        long size = file.length();
+        Long oldSize = sizes.put(file, size);
+        totalBytes.addAndGet(size - (oldSize==null ? 0 : oldSize));
+        if (totalBytes.get()>maxBytes) evict(file);
+    }
+
+    /**
+     * Record a lookup of a query against a number of subjects, of which some had to be searched, for getStatistics.
+     */
+    public void recordLookup(int subjectCount, int missingCount) {
+        subjectHits.addAndGet(subjectCount - missingCount);
+        subjectMisses.addAndGet(missingCount);
+        if (missingCount==0) {
+            queryHits.incrementAndGet();
+        } else if (missingCount==subjectCount) {
+            queryMisses.incrementAndGet();
+        } else {
+            queryPartials.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the fraction of query-subject pairs looked up since this cache was opened that didn't need a search.
+     */
+    public double getHitRate() {
+        long lookups = subjectHits.get() + subjectMisses.get();
+        return lookups==0 ? 0.0 : (double)subjectHits.get()/lookups;
+    }
+
+    /**
+     * Return a one-line summary of the hits, misses and size of the cache.
+     */
+    public String getStatistics() {
+        return String.format("BLAST cache %s: %d queries fully cached, %d partly, %d not; %d of %d query-subject pairs cached (%.1f%%); "+
+                             "%d entries, %.1f of %.1f MB, %d evicted.",
+                             dir, queryHits.get(), queryPartials.get(), queryMisses.get(),
+                             subjectHits.get(), subjectHits.get()+subjectMisses.get(), 100.0*getHitRate(),
+                             sizes.size(), totalBytes.get()/1024.0/1024.0, maxBytes/1024.0/1024.0, evictions.get());
+    }
+
+    /**
+     * Delete the least recently used entries until the cache is back under EVICT_TO_FRACTION of its maximum size, keeping the given one.
+     */
+    synchronized void evict(File keep) {
+        if (totalBytes.get()<=maxBytes) return;
+        List<File> files = new ArrayList<File>(sizes.keySet());
+        final Map<File,Long> lastModified = new HashMap<File,Long>();
+        for (File file : files) lastModified.put(file, file.lastModified());
+        Collections.sort(files, (a, b) -> Long.compare(lastModified.get(a), lastModified.get(b)));
+        long target = (long)(maxBytes*EVICT_TO_FRACTION);
+        for (File file : files) {
+            if (totalBytes.get()<=target) break;
+            if (file.equals(keep)) continue;
+            remove(file);
+            evictions.incrementAndGet();
+        }
+    }
+
+    void remove(File file) {
+        file.delete();
+        Long size = sizes.remove(file);
+        if (size!=null) totalBytes.addAndGet(-size);
+    }
+
+    /**
+     * Entries are named by the hash of their key and spread over 256 subdirectories.
+     */
+    File getFile(String queryHash, String parameterKey) {
+        String name = toHex(sha1(queryHash+"\n"+parameterKey));
+        return new File(new File(dir, name.substring(0,2)), name.substring(2)+SUFFIX);
+    }
+
+    static Entry read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt()!=MAGIC) throw new IOException("Not a BLAST cache entry: "+file);
+            Entry entry = new Entry(in.readUTF(), in.readUTF());
+            int subjectCount = in.readInt();
+            byte[] hash = new byte[20];
+            for (int i=0; i<subjectCount; i++) {
+                in.readFully(hash);
+                int hspCount = in.readInt();
+                List<CachedHsp> hsps = new ArrayList<CachedHsp>(hspCount);
+                for (int j=0; j<hspCount; j++) {
+                    hsps.add(CachedHsp.read(in));
+                }
+                entry.hspsBySubject.put(toHex(hash), hsps);
+            }
+            return entry;
+        }
+    }
+
+    static void write(Entry entry, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(entry.queryHash);
+            out.writeUTF(entry.parameterKey);
+            out.writeInt(entry.hspsBySubject.size());
+            for (String subjectHash : entry.hspsBySubject.keySet()) {
+                out.write(fromHex(subjectHash));
+                List<CachedHsp> hsps = entry.hspsBySubject.get(subjectHash);
+                out.writeInt(hsps.size());
+                for (CachedHsp hsp : hsps) hsp.write(out);
+            }
+        }
+    }
+
+    static byte[] sha1(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has SHA-1
+            throw new RuntimeException(ex);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length*2];
+        for (int i=0; i<bytes.length; i++) {
+            hex[2*i] = digits[(bytes[i]>>4)&0xf];
+            hex[2*i+1] = digits[bytes[i]&0xf];
+        }
+        return new String(hex);
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length()/2];
+        for (int i=0; i<bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2*i, 2*i+2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * The cached HSPs of one query against the subjects it has been searched against, keyed by subject hash.
+     */
+    public static class Entry {
+
+        String queryHash;
+        String parameterKey;
+        Map<String,List<CachedHsp>> hspsBySubject = new HashMap<String,List<CachedHsp>>();
+
+        public Entry(String queryHash, String parameterKey) {
+            this.queryHash = queryHash;
+            this.parameterKey = parameterKey;
+        }
+
+        /**
+         * Return true if the query has been searched against the given subject.
+         */
+        public boolean hasSubject(String subjectHash) {
+            return hspsBySubject.containsKey(subjectHash);
+        }
+
+        /**
+         * Return the HSPs against the given subject, empty if it was searched with no HSPs, or null if it wasn't searched.
+         */
+        public List<CachedHsp> getHsps(String subjectHash) {
+            return hspsBySubject.get(subjectHash);
+        }
+
+        /**
+         * Record the HSPs from searching the given subject, which may be none.
+         */
+        public void putHsps(String subjectHash, List<CachedHsp> hsps) {
+            hspsBySubject.put(subjectHash, hsps);
+        }
+
+        public Set<String> getSubjectHashes() {
+            return hspsBySubject.keySet();
+        }
+
+    }
+
+    /**
+     * The fields of an HSP that are kept in the cache: those of the TabularHsp columns other than the IDs and title.
+     */
+    public static class CachedHsp {
+
+        int qstart;
+        int qend;
+        int sstart;
+        int send;
+        double evalue;
+        double bitscore;
+        int score;
+        int length;
+        int nident;
+        int gaps;
+        String qseq;
+        String sseq;
+
+        /**
+         * Copy the current line of a reused TabularHsp.
+         */
+        public CachedHsp(TabularHsp hsp) {
+            qstart = hsp.getQstart();
+            qend = hsp.getQend();
+            sstart = hsp.getSstart();
+            send = hsp.getSend();
+            evalue = hsp.getEvalue();
+            bitscore = hsp.getBitscore();
+            score = hsp.getScore();
+            length = hsp.getLength();
+            nident = hsp.getNident();
+            gaps = hsp.getGaps();
+            qseq = hsp.getQseq();
+            sseq = hsp.getSseq();
+        }
+
+        CachedHsp() {
+        }
+
+        /** the alignment length */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Return an Hsp with the cached fields, as TabularHsp.toHsp does.
+         */
+        public Hsp toHsp() {
+            Hsp hsp = new Hsp();
+            hsp.setHspBitScore(String.valueOf(bitscore));
+            hsp.setHspScore(String.valueOf(score));
+            hsp.setHspEvalue(String.valueOf(evalue));
+            hsp.setHspQueryFrom(String.valueOf(qstart));
+            hsp.setHspQueryTo(String.valueOf(qend));
+            hsp.setHspHitFrom(String.valueOf(sstart));
+            hsp.setHspHitTo(String.valueOf(send));
+            hsp.setHspIdentity(String.valueOf(nident));
+            hsp.setHspGaps(String.valueOf(gaps));
+            hsp.setHspAlignLen(String.valueOf(length));
+            hsp.setHspQseq(qseq);
+            hsp.setHspHseq(sseq);
+            return hsp;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(qstart);
+            out.writeInt(qend);
+            out.writeInt(sstart);
+            out.writeInt(send);
+            out.writeDouble(evalue);
+            out.writeDouble(bitscore);
+            out.writeInt(score);
+            out.writeInt(length);
+            out.writeInt(nident);
+            out.writeInt(gaps);
+            writeBases(out, qseq);
+            writeBases(out, sseq);
+        }
+
+        static CachedHsp read(DataInputStream in) throws IOException {
+            CachedHsp hsp = new CachedHsp();
+            hsp.qstart = in.readInt();
+            hsp.qend = in.readInt();
+            hsp.sstart = in.readInt();
+            hsp.send = in.readInt();
+            hsp.evalue = in.readDouble();
+            hsp.bitscore = in.readDouble();
+            hsp.score = in.readInt();
+            hsp.length = in.readInt();
+            hsp.nident = in.readInt();
+            hsp.gaps = in.readInt();
+            hsp.qseq = readBases(in);
+            hsp.sseq = readBases(in);
+            return hsp;
+        }
+
+        // aligned sequences are ASCII (bases, IUPAC codes and gaps), one byte each
+        static void writeBases(DataOutputStream out, String bases) throws IOException {
+            byte[] bytes = bases.getBytes(StandardCharsets.US_ASCII);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        static String readBases(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+    }
+
+}
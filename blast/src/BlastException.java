@@ -0,0 +1,62 @@
+package org.ncgr.blast;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a BLAST+ program fails: it exits with a non-zero value, times out, or its output can't be read.
+ * Carries the exit value and whatever the program wrote to standard error.
+ *
+ * @author Sam Hokin
+ */
+public class BlastException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    String program;
+    int exitValue;
+    boolean timedOut;
+    String stderr;
+
+    /**
+     * @param message the error message
+     * @param program the program that was run, e.g. blastn
+     * @param exitValue the program's exit value, or -1 if it was killed
+     * @param timedOut true if the program was killed for running past its timeout
+     * @param stderr what the program wrote to standard error, possibly truncated
+     * @param cause the exception that ended reading the program's output, or null
+     */
+    public BlastException(String message, String program, int exitValue, boolean timedOut, String stderr, Throwable cause) {
+        super(message, cause);
+        this.program = program;
+        this.exitValue = exitValue;
+        this.timedOut = timedOut;
+        this.stderr = stderr;
+    }
+
+    public String getProgram() {
+        return program;
+    }
+
+    public int getExitValue() {
+        return exitValue;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public String getStderr() {
+        return stderr;
+    }
+
+    /**
+     * Include the program's standard error in the message.
+     */
+    @Override
+    public String getMessage() {
+        String message = super.getMessage();
+        if (stderr!=null && stderr.trim().length()>0) message += ": "+stderr.trim();
+        return message;
+    }
+
+}
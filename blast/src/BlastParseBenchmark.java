@@ -0,0 +1,147 @@
+package org.ncgr.blast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compare the BLAST XML (BlastXMLReader) and tabular (BlastTabularReader) output readers on the same synthetic HSPs, held in memory
+ * so that only parsing is timed. Each handler reads the coordinates and checks the alignment length, as SequenceBlaster does.
+ *
+ * @author Sam Hokin
+ */
+public class BlastParseBenchmark {
+
+    static final int HITS_PER_QUERY = 50;
+    static final int HSPS_PER_HIT = 4;
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+
+        int hspCount = 200000;
+        if (args.length>0) hspCount = Integer.parseInt(args[0]);
+
+        try {
+            Random random = new Random(17);
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            ByteArrayOutputStream tabular = new ByteArrayOutputStream();
+            writeSyntheticOutput(hspCount, random, xml, tabular);
+            byte[] xmlBytes = xml.toByteArray();
+            byte[] tabularBytes = tabular.toByteArray();
+            System.out.println(hspCount+" HSPs: XML "+xmlBytes.length/1024/1024+" MB, tabular "+tabularBytes.length/1024/1024+" MB");
+
+            final long[] sum = new long[1];
+            for (int round=1; round<=ROUNDS; round++) {
+                long start = System.nanoTime();
+                BlastXMLReader.read(new ByteArrayInputStream(xmlBytes), (iteration, hit, hsp) -> {
+                        sum[0] += Integer.parseInt(hsp.getHspQueryFrom()) + Integer.parseInt(hsp.getHspHitFrom());
+                        if (hsp.getHspQseq().length()<=SequenceBlaster.MAX_MOTIF_LENGTH) sum[0]++;
+                    });
+                long xmlNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                BlastTabularReader.read(new ByteArrayInputStream(tabularBytes), (hsp) -> {
+                        sum[0] += hsp.getQstart() + hsp.getSstart();
+                        if (hsp.getLength()<=SequenceBlaster.MAX_MOTIF_LENGTH) sum[0]++;
+                    });
+                long tabularNanos = System.nanoTime() - start;
+                System.out.println("round "+round+": XML "+rate(hspCount, xmlBytes.length, xmlNanos)+
+                                   "; tabular "+rate(hspCount, tabularBytes.length, tabularNanos)+
+                                   "; tabular is "+String.format("%.1f", (double)xmlNanos/tabularNanos)+"x faster");
+            }
+            // keep the handlers' work from being optimized away
+            if (sum[0]==42) System.out.println();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+
+    }
+
+    static String rate(int hspCount, int bytes, long nanos) {
+        double seconds = nanos/1e9;
+        return String.format("%d ms, %.0f HSPs/s, %.0f MB/s", nanos/1000000, hspCount/seconds, bytes/1024.0/1024.0/seconds);
+    }
+
+    /**
+     * Write the same random HSPs as blastn -outfmt 5 XML and as tabular output with the TabularHsp.FORMAT columns.
+     */
+    static void writeSyntheticOutput(int hspCount, Random random, ByteArrayOutputStream xmlStream, ByteArrayOutputStream tabularStream) throws IOException {
+        PrintWriter xml = new PrintWriter(new OutputStreamWriter(xmlStream, StandardCharsets.UTF_8));
+        PrintWriter tab = new PrintWriter(new OutputStreamWriter(tabularStream, StandardCharsets.UTF_8));
+        xml.println("<?xml version=\"1.0\"?>");
+        xml.println("<!DOCTYPE BlastOutput PUBLIC \"-//NCBI//NCBI BlastOutput/EN\" \"http://www.ncbi.nlm.nih.gov/dtd/NCBI_BlastOutput.dtd\">");
+        xml.println("<BlastOutput>");
+        xml.println("  <BlastOutput_program>blastn</BlastOutput_program>");
+        xml.println("  <BlastOutput_version>BLASTN 2.5.0+</BlastOutput_version>");
+        xml.println("  <BlastOutput_db>subjects</BlastOutput_db>");
+        xml.println("  <BlastOutput_iterations>");
+        int hsps = 0;
+        int queryNum = 0;
+        char[] bases = { 'A', 'C', 'G', 'T' };
+        while (hsps<hspCount) {
+            queryNum++;
+            String queryDef = "query"+queryNum+" synthetic query";
+            xml.println("    <Iteration>");
+            xml.println("      <Iteration_iter-num>"+queryNum+"</Iteration_iter-num>");
+            xml.println("      <Iteration_query-ID>Query_"+queryNum+"</Iteration_query-ID>");
+            xml.println("      <Iteration_query-def>"+queryDef+"</Iteration_query-def>");
+            xml.println("      <Iteration_query-len>1000</Iteration_query-len>");
+            xml.println("      <Iteration_hits>");
+            for (int h=1; h<=HITS_PER_QUERY && hsps<hspCount; h++) {
+                String hitDef = "subject"+h+" synthetic subject";
+                xml.println("        <Hit>");
+                xml.println("          <Hit_num>"+h+"</Hit_num>");
+                xml.println("          <Hit_id>gnl|BL_ORD_ID|"+h+"</Hit_id>");
+                xml.println("          <Hit_def>"+hitDef+"</Hit_def>");
+                xml.println("          <Hit_accession>"+h+"</Hit_accession>");
+                xml.println("          <Hit_len>1000</Hit_len>");
+                xml.println("          <Hit_hsps>");
+                for (int k=1; k<=HSPS_PER_HIT && hsps<hspCount; k++) {
+                    int length = 12 + random.nextInt(40);
+                    char[] seq = new char[length];
+                    for (int i=0; i<length; i++) seq[i] = bases[random.nextInt(4)];
+                    String qseq = new String(seq);
+                    int qstart = 1 + random.nextInt(900);
+                    int sstart = 1 + random.nextInt(900);
+                    String bitscore = String.format("%.1f", 1.8*length);
+                    String evalue = String.format("%.2g", 1e6*Math.pow(2, -2*length));
+                    xml.println("            <Hsp>");
+                    xml.println("              <Hsp_num>"+k+"</Hsp_num>");
+                    xml.println("              <Hsp_bit-score>"+bitscore+"</Hsp_bit-score>");
+                    xml.println("              <Hsp_score>"+length+"</Hsp_score>");
+                    xml.println("              <Hsp_evalue>"+evalue+"</Hsp_evalue>");
+                    xml.println("              <Hsp_query-from>"+qstart+"</Hsp_query-from>");
+                    xml.println("              <Hsp_query-to>"+(qstart+length-1)+"</Hsp_query-to>");
+                    xml.println("              <Hsp_hit-from>"+sstart+"</Hsp_hit-from>");
+                    xml.println("              <Hsp_hit-to>"+(sstart+length-1)+"</Hsp_hit-to>");
+                    xml.println("              <Hsp_query-frame>1</Hsp_query-frame>");
+                    xml.println("              <Hsp_hit-frame>1</Hsp_hit-frame>");
+                    xml.println("              <Hsp_identity>"+length+"</Hsp_identity>");
+                    xml.println("              <Hsp_positive>"+length+"</Hsp_positive>");
+                    xml.println("              <Hsp_gaps>0</Hsp_gaps>");
+                    xml.println("              <Hsp_align-len>"+length+"</Hsp_align-len>");
+                    xml.println("              <Hsp_qseq>"+qseq+"</Hsp_qseq>");
+                    xml.println("              <Hsp_hseq>"+qseq+"</Hsp_hseq>");
+                    xml.println("              <Hsp_midline>"+qseq.replaceAll(".", "|")+"</Hsp_midline>");
+                    xml.println("            </Hsp>");
+                    tab.println("query"+queryNum+"\tsubject"+h+"\t"+qstart+"\t"+(qstart+length-1)+"\t"+sstart+"\t"+(sstart+length-1)+"\t"+
+                                evalue+"\t"+bitscore+"\t"+length+"\t"+length+"\t"+length+"\t0\t"+qseq+"\t"+qseq+"\t"+hitDef);
+                    hsps++;
+                }
+                xml.println("          </Hit_hsps>");
+                xml.println("        </Hit>");
+            }
+            xml.println("      </Iteration_hits>");
+            xml.println("    </Iteration>");
+        }
+        xml.println("  </BlastOutput_iterations>");
+        xml.println("</BlastOutput>");
+        xml.flush();
+        tab.flush();
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.ncgr.blast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a BLAST+ program as a child process with no temporary files: the input is written to its standard input on one thread
+ * while the calling thread reads its standard output, standard error is drained on another thread so the process can't block on
+ * it, and the process is killed if it runs past a timeout. Only the process itself is killed, so a wrapper script should exec the
+ * real program. Any failure is thrown as a BlastException carrying the exit value and standard error. Safe to call from many
+ * threads at once.
+ *
+ * @author Sam Hokin
+ */
+public class BlastProcess {
+
+    // the most standard error kept for a BlastException
+    static final int MAX_STDERR_BYTES = 64*1024;
+
+    // daemon threads, so that they never keep the JVM alive
+    static final ThreadFactory DAEMON_THREADS = (runnable) -> {
+        Thread thread = new Thread(runnable, "blast-process-io");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    // standard input writers and standard error drains for all running processes
+    static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(DAEMON_THREADS);
+
+    // kills processes that run past their timeout
+    static final ScheduledExecutorService TIMEOUT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(DAEMON_THREADS);
+
+    /**
+     * Reads a process's standard output; anything left unread is discarded.
+     */
+    public interface OutputReader<T> {
+        T read(InputStream in) throws Exception;
+    }
+
+    /**
+     * Run a command, feeding it the given input and returning what the reader makes of its output.
+     *
+     * @param command the program and its arguments
+     * @param input the bytes to write to standard input, or null for none
+     * @param reader reads standard output on the calling thread
+     * @param timeoutMillis the process is killed after this long; zero for no timeout
+     * @return the reader's result
+     * @throws BlastException if the process can't be started, exits with a non-zero value, times out, or the reader fails
+     */
+    public static <T> T run(List<String> command, final byte[] input, OutputReader<T> reader, long timeoutMillis) throws BlastException, InterruptedException {
+        String program = new File(command.get(0)).getName();
+        final Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException ex) {
+            throw new BlastException("Could not run "+program, program, -1, false, null, ex);
+        }
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeout = null;
+        if (timeoutMillis>0) {
+            timeout = TIMEOUT_EXECUTOR.schedule(() -> {
+                    timedOut.set(true);
+                    process.destroyForcibly();
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        // a write error only matters if the process fails, in which case the exit value says more
+        IO_EXECUTOR.submit(() -> {
+                try (OutputStream out = process.getOutputStream()) {
+                    if (input!=null) out.write(input);
+                }
+                return null;
+            });
+        Future<String> stderr = IO_EXECUTOR.submit(() -> drain(process.getErrorStream(), MAX_STDERR_BYTES));
+        T result = null;
+        Exception readException = null;
+        try (InputStream in = process.getInputStream()) {
+            // readers such as StAX may close the stream at the end of their input, but the rest still has to be drained
+            result = reader.read(new FilterInputStream(in) {
+                    @Override
+                    public void close() {}
+                });
+            drain(in, 0);
+        } catch (Exception ex) {
+            readException = ex;
+            process.destroyForcibly();
+        }
+        int exitValue;
+        try {
+            exitValue = process.waitFor();
+        } catch (InterruptedException ex) {
+            process.destroyForcibly();
+            throw ex;
+        } finally {
+            if (timeout!=null) timeout.cancel(false);
+        }
+        String errors = null;
+        try {
+            errors = stderr.get();
+        } catch (ExecutionException ex) {
+            // standard error is only used for messages
+        }
+        if (timedOut.get()) {
+            throw new BlastException(program+" timed out after "+timeoutMillis+" ms", program, exitValue, true, errors, readException);
+        }
+        if (exitValue!=0) {
+            throw new BlastException(program+" returned exit value "+exitValue, program, exitValue, false, errors, readException);
+        }
+        if (readException!=null) {
+            throw new BlastException("Error reading "+program+" output: "+readException, program, exitValue, false, errors, readException);
+        }
+        return result;
+    }
+
+    /**
+     * Read a stream to its end, returning up to the first maxBytes of it as a String.
+     */
+    static String drain(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n=in.read(buffer))!=-1) {
+            int keep = Math.min(n, maxBytes-kept.size());
+            if (keep>0) kept.write(buffer, 0, keep);
+        }
+        return new String(kept.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.ncgr.blast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A streaming reader for BLAST tabular output (-outfmt 6 or 7) with the columns in TabularHsp.FORMAT, which splits lines by hand
+ * out of a byte buffer and hands each one to an HspHandler in a single reused TabularHsp. Comment lines (outfmt 7) and blank
+ * lines are skipped.
+ *
+ * @author Sam Hokin
+ */
+public class BlastTabularReader {
+
+    static final int BUFFER_SIZE = 64*1024;
+
+    /**
+     * Receives the HSPs in output order. The TabularHsp is reused for the next line once handleHsp returns.
+     */
+    public interface HspHandler {
+        void handleHsp(TabularHsp hsp);
+    }
+
+    /**
+     * Read tabular output from the given stream, passing each HSP line to the handler. The stream is not closed.
+     *
+     * @param in the tabular BLAST output
+     * @param handler receives the HSPs
+     * @return the number of HSPs read
+     * @throws NumberFormatException if a line doesn't have the TabularHsp.FORMAT columns
+     */
+    public static long read(InputStream in, HspHandler handler) throws IOException {
+        TabularHsp hsp = new TabularHsp();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // buffer[0..filled) holds unread bytes, and lines start at lineStart
+        int filled = 0;
+        int lineStart = 0;
+        long count = 0;
+        int n;
+        while ((n=in.read(buffer, filled, buffer.length-filled))!=-1) {
+            int scanFrom = filled;
+            filled += n;
+            for (int i=scanFrom; i<filled; i++) {
+                if (buffer[i]=='\n') {
+                    if (handleLine(buffer, lineStart, i, hsp, handler)) count++;
+                    lineStart = i + 1;
+                }
+            }
+            // move the partial line to the front, growing the buffer if a line fills it
+            if (lineStart>0) {
+                System.arraycopy(buffer, lineStart, buffer, 0, filled-lineStart);
+                filled -= lineStart;
+                lineStart = 0;
+            } else if (filled==buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length*2);
+            }
+        }
+        // a last line without a newline
+        if (filled>0 && handleLine(buffer, 0, filled, hsp, handler)) count++;
+        return count;
+    }
+
+    static boolean handleLine(byte[] buffer, int start, int end, TabularHsp hsp, HspHandler handler) {
+        if (end>start && buffer[end-1]=='\r') end--;
+        if (end==start || buffer[start]=='#') return false;
+        hsp.parse(buffer, start, end);
+        handler.handleHsp(hsp);
+        return true;
+    }
+
+}
@@ -1,18 +1,23 @@
 package org.ncgr.blast;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 
 import org.biojava.nbio.core.sequence.DNASequence;
 import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
@@ -25,38 +30,148 @@ import org.biojava.nbio.core.sequence.io.FastaWriterHelper;
  */
 public class BlastUtils {
 
+    // the directory containing the BLAST+ executables, from the blast.bin.dir system property; if not set they're run from the PATH
+    static String BLAST_BIN_DIR = System.getProperty("blast.bin.dir");
+
+    // BLAST+ runs are killed after this long, from the blast.timeout.seconds system property; zero for no timeout
+    static long TIMEOUT_MILLIS = Long.getLong("blast.timeout.seconds", 0L)*1000;
+
+    /**
+     * Set how long a BLAST+ run may take before it's killed and a BlastException is thrown; zero for no timeout.
+     */
+    public static void setTimeoutSeconds(long seconds) {
+        TIMEOUT_MILLIS = seconds*1000;
+    }
+
+    /**
+     * Return the command for the given BLAST+ executable, e.g. blastn, in BLAST_BIN_DIR if that is set.
+     */
+    public static String getExecutable(String name) {
+        if (BLAST_BIN_DIR==null || BLAST_BIN_DIR.length()==0) {
+            return name;
+        } else {
+            return new File(BLAST_BIN_DIR, name).getPath();
+        }
+    }
+
     /**
      * Run blastn with some fixed parameters, taking two sequences and word size as input.
      *
      * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
      * @param queryFilename the name of the FASTA file containing the query sequence(s)
-     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject, db and query will be ignored.
+     * @throws BlastException if blastn fails or times out
      */
     public static BlastOutput runBlastn(String subjectFilename, String queryFilename, Map<String,String> parameters) throws IOException, InterruptedException, JAXBException {
-        Runtime rt = Runtime.getRuntime();
-        String filename = "/tmp/blastutils_"+System.currentTimeMillis();
-        String command = "blastn -outfmt 5 -subject "+subjectFilename+" -query "+queryFilename;
+        List<String> command = getBlastnCommand("5", "-subject", subjectFilename, queryFilename, parameters);
+        return BlastProcess.run(command, null, (in) -> BlastXMLReader.readBlastOutput(in), TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Run blastn against a BLAST database made with makeBlastDB, piping the query to it and streaming the HSPs from its output
+     * to a handler rather than building the whole BlastOutput. Safe to call concurrently.
+     *
+     * @param dbName the name of the BLAST database
+     * @param queryFasta the query sequence(s) in FASTA format
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject, db and query will be ignored.
+     * @param handler receives the HSPs one at a time
+     * @return the BlastOutput header, without iterations
+     * @throws BlastException if blastn fails or times out
+     */
+    public static BlastOutput runBlastnDB(String dbName, byte[] queryFasta, Map<String,String> parameters, final BlastXMLReader.HspHandler handler)
+        throws IOException, InterruptedException {
+        List<String> command = getBlastnCommand("5", "-db", dbName, "-", parameters);
+        return BlastProcess.run(command, queryFasta, (in) -> BlastXMLReader.read(in, handler), TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Run blastn against a BLAST database made with makeBlastDB, piping the query to it and requesting tabular output with the
+     * TabularHsp.FORMAT columns, which is parsed from blastn's standard output as it runs. Safe to call concurrently.
+     *
+     * @param dbName the name of the BLAST database
+     * @param queryFasta the query sequence(s) in FASTA format
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject, db and query will be ignored.
+     * @param handler receives the HSPs one at a time, in a reused TabularHsp
+     * @return the number of HSPs
+     * @throws BlastException if blastn fails or times out
+     */
+    public static long runBlastnDBTabular(String dbName, byte[] queryFasta, Map<String,String> parameters, final BlastTabularReader.HspHandler handler)
+        throws IOException, InterruptedException {
+        List<String> command = getBlastnCommand(TabularHsp.FORMAT, "-db", dbName, "-", parameters);
+        return BlastProcess.run(command, queryFasta, (in) -> BlastTabularReader.read(in, handler), TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Run blastn against the sequences in a FASTA file, piping the query to it and requesting tabular output with the
+     * TabularHsp.FORMAT columns, which is parsed from blastn's standard output as it runs. Safe to call concurrently.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFasta the query sequence(s) in FASTA format
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject, db and query will be ignored.
+     * @param handler receives the HSPs one at a time, in a reused TabularHsp
+     * @return the number of HSPs
+     * @throws BlastException if blastn fails or times out
+     */
+    public static long runBlastnTabular(String subjectFilename, byte[] queryFasta, Map<String,String> parameters, final BlastTabularReader.HspHandler handler)
+        throws IOException, InterruptedException {
+        List<String> command = getBlastnCommand(TabularHsp.FORMAT, "-subject", subjectFilename, "-", parameters);
+        return BlastProcess.run(command, queryFasta, (in) -> BlastTabularReader.read(in, handler), TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Return the blastn command line for the given output format and target (-subject file or -db name), writing to standard output.
+     *
+     * @param queryFilename the query FASTA file, or - for standard input
+     */
+    static List<String> getBlastnCommand(String outfmt, String targetOption, String target, String queryFilename, Map<String,String> parameters) {
+        List<String> command = new ArrayList<String>();
+        command.add(getExecutable("blastn"));
+        command.add("-outfmt");
+        command.add(outfmt);
+        command.add(targetOption);
+        command.add(target);
+        command.add("-query");
+        command.add(queryFilename);
         for (String parameter : parameters.keySet()) {
-            parameter = parameter.replace("-",""); // remove dash as a courtesy
             String value = parameters.get(parameter);
+            parameter = parameter.replace("-",""); // remove dash as a courtesy
             if (!parameter.equals("outfmt") &&
                 !parameter.equals("out") &&
                 !parameter.equals("subject") &&
+                !parameter.equals("db") &&
                 !parameter.equals("query")) {
-                command += " -"+parameter+" "+value;
+                command.add("-"+parameter);
+                if (value!=null && value.length()>0) command.add(value);
             }
-            // indicate the query range that we're searching in the file name
-            if (parameter.equals("query_loc")) filename += "_"+value;
-        }
-        filename += ".xml";
-        command += " -out "+filename;
-        Process pr = rt.exec(command);
-        pr.waitFor();
-        if (pr.exitValue()!=0) {
-            System.err.println("Aborting: blastn returned exit value "+pr.exitValue());
-            System.exit(pr.exitValue());
         }
-        return getBlastOutput(filename);
+        return command;
+    }
+
+    /**
+     * Return a sequence in FASTA format for piping to blastn.
+     */
+    public static byte[] getFasta(DNASequence sequence) {
+        return (">"+sequence.getOriginalHeader()+"\n"+sequence.getSequenceAsString()+"\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Make a nucleotide BLAST database from a FASTA file with makeblastdb.
+     *
+     * @param fastaFilename the name of the FASTA file containing the sequences
+     * @param dbName the name (path prefix) of the database files to create
+     * @throws BlastException if makeblastdb fails or times out
+     */
+    public static void makeBlastDB(String fastaFilename, String dbName) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(getExecutable("makeblastdb"));
+        command.add("-dbtype");
+        command.add("nucl");
+        command.add("-in");
+        command.add(fastaFilename);
+        command.add("-out");
+        command.add(dbName);
+        // the standard output is just a summary
+        BlastProcess.run(command, null, (in) -> null, TIMEOUT_MILLIS);
     }
 
     /**
@@ -66,10 +181,11 @@ public class BlastUtils {
      * @return a BlastOutput instance
      */
     public static BlastOutput getBlastOutput(String filename) throws JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance(BlastOutput.class);
-        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-        BlastOutput blastOutput = (BlastOutput) jaxbUnmarshaller.unmarshal(new File(filename));
-        return blastOutput;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename))) {
+            return BlastXMLReader.readBlastOutput(in);
+        } catch (IOException|XMLStreamException ex) {
+            throw new JAXBException(ex.getMessage(), ex);
+        }
     }
 
     /**
@@ -79,33 +195,58 @@ public class BlastUtils {
      * @return a BlastOutput instance
      */
     public static BlastOutput getBlastOutput(URL url) throws JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance(BlastOutput.class);
-        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
+        Unmarshaller jaxbUnmarshaller = BlastXMLReader.getJAXBContext().createUnmarshaller();
         BlastOutput blastOutput = (BlastOutput) jaxbUnmarshaller.unmarshal(url);
         return blastOutput;
     }
     
+    // the probability of each letter being produced randomly; other characters count as 1.00
+    static final char[] LETTERS = { 'A',  'T',  'C',  'G',  'W',  'K',  'R',  'M',  'Y',  'S',  'N'  };
+    static final double[] PROBS = { 0.35, 0.35, 0.15, 0.15, 1.00, 0.50, 0.50, 0.50, 0.50, 0.30, 1.00 };
+
+    // -log10 of each character's probability, indexed by character
+    static final double[] LOG_SCORES = new double[256];
+    static {
+        for (int i=0; i<LETTERS.length; i++) LOG_SCORES[LETTERS[i]] = -Math.log10(PROBS[i]);
+    }
+
+    // the combined character for each pair of ASCII characters, with IUB/IUPAC codes for mismatches
+    static final char[] IUB_COMBINATIONS = new char[128*128];
+    static {
+        for (char c1=0; c1<128; c1++) {
+            for (char c2=0; c2<128; c2++) IUB_COMBINATIONS[c1*128+c2] = combineIUB(c1, c2);
+        }
+    }
+
     /**
      * Return a double score for an input DNA sequence equal to the log of the inverse of the probability of each letter being produced randomly.
-     * The probabilities for each are set at the top. Longer sequences naturally get much larger scores.
+     * The probabilities for each are set at the top. Longer sequences naturally get much larger scores. The logs are summed rather than
+     * the probabilities multiplied, so long sequences don't underflow.
      *
      * @param  sequence a string sequence of DNA letters
      * @return an integer score
      */
     public static double scoreDNASequence(String sequence) {
-        char[] letters = { 'A',  'T',  'C',  'G',  'W',  'K',  'R',  'M',  'Y',  'S',  'N'  };
-        double[] probs = { 0.35, 0.35, 0.15, 0.15, 1.00, 0.50, 0.50, 0.50, 0.50, 0.30, 1.00 };
-        char[] chars = sequence.toCharArray();
-        double totalProb = 1.00;
-        for (int i=0; i<chars.length; i++) {
-            for (int j=0; j<letters.length; j++) {
-                if (chars[i]==letters[j]) {
-                    totalProb *= probs[j];
-                    j = chars.length;
-                }
-            }
+        double score = 0.0;
+        for (int i=0; i<sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (c<256) score += LOG_SCORES[c];
+        }
+        return score;
+    }
+
+    /**
+     * Score an array of DNA sequences with scoreDNASequence.
+     *
+     * @param sequences string sequences of DNA letters
+     * @return the scores, in the same order
+     */
+    public static double[] scoreDNASequences(String[] sequences) {
+        double[] scores = new double[sequences.length];
+        for (int i=0; i<sequences.length; i++) {
+            scores[i] = scoreDNASequence(sequences[i]);
         }
-        return -Math.log10(totalProb);
+        return scores;
     }
 
     /**
@@ -121,37 +262,83 @@ public class BlastUtils {
         if (seq1.length()!=seq2.length()) {
             return null;
         }
-        char[] seq1Chars = seq1.toCharArray();
-        char[] seq2Chars = seq2.toCharArray();
-        String combined = "";
-        for (int i=0; i<seq1Chars.length; i++) {
-            if ( seq1Chars[i]==seq2Chars[i] ) {
-                combined += seq1Chars[i];  // identical
-            } else if ( useIUB && (seq1Chars[i]=='A'||seq1Chars[i]=='G') && (seq2Chars[i]=='A'||seq2Chars[i]=='G') ) {
-                combined += 'R';           // puRine
-            } else if ( useIUB && (seq1Chars[i]=='C'||seq1Chars[i]=='T') && (seq2Chars[i]=='C'||seq2Chars[i]=='T') ) {
-                combined += 'Y';           // pYrimidines
-            } else if ( useIUB && (seq1Chars[i]=='G'||seq1Chars[i]=='T') && (seq2Chars[i]=='G'||seq2Chars[i]=='T') ) {
-                combined += 'K';           // Ketones
-            } else if ( useIUB && (seq1Chars[i]=='A'||seq1Chars[i]=='C') && (seq2Chars[i]=='A'||seq2Chars[i]=='C') ) {
-                combined += 'M';           // aMino groups
-            } else if ( useIUB && (seq1Chars[i]=='C'||seq1Chars[i]=='G') && (seq2Chars[i]=='C'||seq2Chars[i]=='G') ) {
-                combined += 'S';           // Strong interaction
-            } else if ( useIUB && (seq1Chars[i]=='A'||seq1Chars[i]=='T') && (seq2Chars[i]=='A'||seq2Chars[i]=='T') ) {
-                combined += 'W';           // Weak interaction
-            } else if ( useIUB && (seq1Chars[i]!='A') && (seq2Chars[i]!='A') ) {
-                combined += 'B';
-            } else if ( useIUB && (seq1Chars[i]!='C') && (seq2Chars[i]!='C') ) {
-                combined += 'D';
-            } else if ( useIUB && (seq1Chars[i]!='G') && (seq2Chars[i]!='G') ) {
-                combined += 'H';
-            } else if ( useIUB && (seq1Chars[i]!='T') && (seq2Chars[i]!='T') ) {
-                combined += 'V';
+        char[] combined = new char[seq1.length()];
+        combine(seq1, seq2, useIUB, combined);
+        return new String(combined);
+    }
+
+    /**
+     * Combine pairs of DNA sequences with combineDNASequences, reusing one buffer.
+     *
+     * @param seqs1 string sequences of DNA letters
+     * @param seqs2 string sequences of DNA letters, the same number as seqs1
+     * @param useIUB boolean indicating whether to use IUB/IUPAC codes for mismatches; only N is used if false
+     * @return the combined sequences, in the same order; null where a pair is not the same length
+     */
+    public static String[] combineDNASequences(String[] seqs1, String[] seqs2, boolean useIUB) {
+        if (seqs1.length!=seqs2.length) {
+            throw new IllegalArgumentException("There are "+seqs1.length+" first sequences but "+seqs2.length+" second sequences.");
+        }
+        String[] combined = new String[seqs1.length];
+        char[] buffer = new char[64];
+        for (int i=0; i<seqs1.length; i++) {
+            int length = seqs1[i].length();
+            if (seqs2[i].length()!=length) continue;
+            if (buffer.length<length) buffer = new char[Math.max(length, 2*buffer.length)];
+            combine(seqs1[i], seqs2[i], useIUB, buffer);
+            combined[i] = new String(buffer, 0, length);
+        }
+        return combined;
+    }
+
+    /**
+     * Write the combination of two sequences of the same length to the start of the buffer.
+     */
+    static void combine(String seq1, String seq2, boolean useIUB, char[] buffer) {
+        for (int i=0; i<seq1.length(); i++) {
+            char c1 = seq1.charAt(i);
+            char c2 = seq2.charAt(i);
+            if (c1==c2) {
+                buffer[i] = c1;
+            } else if (!useIUB) {
+                buffer[i] = 'N';
+            } else if (c1<128 && c2<128) {
+                buffer[i] = IUB_COMBINATIONS[c1*128+c2];
             } else {
-                combined += 'N';
+                buffer[i] = combineIUB(c1, c2);
             }
         }
-        return combined;
+    }
+
+    /**
+     * Return the IUB/IUPAC code for a pair of DNA letters, the letter if they're identical.
+     */
+    static char combineIUB(char c1, char c2) {
+        if ( c1==c2 ) {
+            return c1;  // identical
+        } else if ( (c1=='A'||c1=='G') && (c2=='A'||c2=='G') ) {
+            return 'R'; // puRine
+        } else if ( (c1=='C'||c1=='T') && (c2=='C'||c2=='T') ) {
+            return 'Y'; // pYrimidines
+        } else if ( (c1=='G'||c1=='T') && (c2=='G'||c2=='T') ) {
+            return 'K'; // Ketones
+        } else if ( (c1=='A'||c1=='C') && (c2=='A'||c2=='C') ) {
+            return 'M'; // aMino groups
+        } else if ( (c1=='C'||c1=='G') && (c2=='C'||c2=='G') ) {
+            return 'S'; // Strong interaction
+        } else if ( (c1=='A'||c1=='T') && (c2=='A'||c2=='T') ) {
+            return 'W'; // Weak interaction
+        } else if ( c1!='A' && c2!='A' ) {
+            return 'B';
+        } else if ( c1!='C' && c2!='C' ) {
+            return 'D';
+        } else if ( c1!='G' && c2!='G' ) {
+            return 'H';
+        } else if ( c1!='T' && c2!='T' ) {
+            return 'V';
+        } else {
+            return 'N';
+        }
     }
 
     /**
@@ -162,8 +349,7 @@ public class BlastUtils {
     public static void readBlastXML(String filepath) throws JAXBException {
 
             File file = new File(filepath);
-            JAXBContext jaxbContext = JAXBContext.newInstance(BlastOutput.class);
-            Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
+            Unmarshaller jaxbUnmarshaller = BlastXMLReader.getJAXBContext().createUnmarshaller();
             
             BlastOutput blastOutput = (BlastOutput) jaxbUnmarshaller.unmarshal(file);
             System.out.println("======== BlastOutput ========-");
@@ -0,0 +1,176 @@
+package org.ncgr.blast;
+
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A streaming reader for BLAST XML output (-outfmt 5) which hands each HSP to an HspHandler as it is read, so memory use
+ * doesn't grow with the number of iterations, hits or HSPs. Iterations, hits and HSPs are read directly with StAX; only the
+ * small BlastOutput_param, Iteration_stat and BlastOutput_mbstat sections are unmarshalled with JAXB.
+ *
+ * @author Sam Hokin
+ */
+public class BlastXMLReader {
+
+    // JAXBContext is thread-safe and expensive to create, so there's just one
+    static JAXBContext jaxbContext;
+
+    // configured once; the DOCTYPE's external DTD is not fetched
+    static XMLInputFactory inputFactory;
+
+    /**
+     * Receives the HSPs, in file order, along with their iteration (query) and hit. The Iteration and Hit have their own
+     * fields set but not their hits or HSPs; an Iteration's statistics and message are set by the time endIteration is called.
+     */
+    public interface HspHandler {
+        void handleHsp(Iteration iteration, Hit hit, Hsp hsp);
+        default void endIteration(Iteration iteration) {}
+    }
+
+    /**
+     * Return the shared JAXBContext for the BLAST XML classes.
+     */
+    public static synchronized JAXBContext getJAXBContext() throws JAXBException {
+        if (jaxbContext==null) jaxbContext = JAXBContext.newInstance(BlastOutput.class);
+        return jaxbContext;
+    }
+
+    static synchronized XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        if (inputFactory==null) {
+            inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        }
+        return inputFactory.createXMLStreamReader(in);
+    }
+
+    /**
+     * Read BLAST XML from the given stream, passing each HSP to the handler. The stream is not closed.
+     *
+     * @param in the BLAST XML
+     * @param handler receives the HSPs
+     * @return a BlastOutput containing the header fields, parameters and mbstat, without the iterations
+     */
+    public static BlastOutput read(InputStream in, HspHandler handler) throws XMLStreamException, JAXBException {
+        BlastOutput blastOutput = new BlastOutput();
+        Unmarshaller unmarshaller = getJAXBContext().createUnmarshaller();
+        XMLStreamReader reader = createReader(in);
+        try {
+            Iteration iteration = null;
+            Hit hit = null;
+            int event = reader.getEventType();
+            while (true) {
+                if (event==XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    // JAXB leaves the reader on the event after the section, which must not be skipped
+                    if (name.equals("BlastOutput_param")) {
+                        blastOutput.setBlastOutputParam(unmarshaller.unmarshal(reader, BlastOutputParam.class).getValue());
+                        event = reader.getEventType();
+                        continue;
+                    } else if (name.equals("BlastOutput_mbstat")) {
+                        blastOutput.setBlastOutputMbstat(unmarshaller.unmarshal(reader, BlastOutputMbstat.class).getValue());
+                        event = reader.getEventType();
+                        continue;
+                    } else if (name.equals("Iteration_stat")) {
+                        iteration.setIterationStat(unmarshaller.unmarshal(reader, IterationStat.class).getValue());
+                        event = reader.getEventType();
+                        continue;
+                    }
+                    switch (name) {
+                    case "BlastOutput_program": blastOutput.setBlastOutputProgram(reader.getElementText()); break;
+                    case "BlastOutput_version": blastOutput.setBlastOutputVersion(reader.getElementText()); break;
+                    case "BlastOutput_reference": blastOutput.setBlastOutputReference(reader.getElementText()); break;
+                    case "BlastOutput_db": blastOutput.setBlastOutputDb(reader.getElementText()); break;
+                    case "BlastOutput_query-ID": blastOutput.setBlastOutputQueryID(reader.getElementText()); break;
+                    case "BlastOutput_query-def": blastOutput.setBlastOutputQueryDef(reader.getElementText()); break;
+                    case "BlastOutput_query-len": blastOutput.setBlastOutputQueryLen(reader.getElementText()); break;
+                    case "BlastOutput_query-seq": blastOutput.setBlastOutputQuerySeq(reader.getElementText()); break;
+                    case "Iteration": iteration = new Iteration(); break;
+                    case "Iteration_iter-num": iteration.setIterationIterNum(reader.getElementText()); break;
+                    case "Iteration_query-ID": iteration.setIterationQueryID(reader.getElementText()); break;
+                    case "Iteration_query-def": iteration.setIterationQueryDef(reader.getElementText()); break;
+                    case "Iteration_query-len": iteration.setIterationQueryLen(reader.getElementText()); break;
+                    case "Iteration_message": iteration.setIterationMessage(reader.getElementText()); break;
+                    case "Hit": hit = new Hit(); break;
+                    case "Hit_num": hit.setHitNum(reader.getElementText()); break;
+                    case "Hit_id": hit.setHitId(reader.getElementText()); break;
+                    case "Hit_def": hit.setHitDef(reader.getElementText()); break;
+                    case "Hit_accession": hit.setHitAccession(reader.getElementText()); break;
+                    case "Hit_len": hit.setHitLen(reader.getElementText()); break;
+                    case "Hsp": handler.handleHsp(iteration, hit, readHsp(reader)); break;
+                    default: break;
+                    }
+                } else if (event==XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Iteration")) {
+                    handler.endIteration(iteration);
+                    iteration = null;
+                    hit = null;
+                }
+                if (!reader.hasNext()) break;
+                event = reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+        return blastOutput;
+    }
+
+    /**
+     * Read a whole BLAST XML document with JAXB, without fetching the DOCTYPE's external DTD. The stream is not closed.
+     */
+    public static BlastOutput readBlastOutput(InputStream in) throws XMLStreamException, JAXBException {
+        XMLStreamReader reader = createReader(in);
+        try {
+            return getJAXBContext().createUnmarshaller().unmarshal(reader, BlastOutput.class).getValue();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read an Hsp element, leaving the reader on its end tag.
+     */
+    static Hsp readHsp(XMLStreamReader reader) throws XMLStreamException {
+        Hsp hsp = new Hsp();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event==XMLStreamConstants.END_ELEMENT) {
+                if (reader.getLocalName().equals("Hsp")) break;
+            } else if (event==XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                String value = reader.getElementText();
+                switch (name) {
+                case "Hsp_num": hsp.setHspNum(value); break;
+                case "Hsp_bit-score": hsp.setHspBitScore(value); break;
+                case "Hsp_score": hsp.setHspScore(value); break;
+                case "Hsp_evalue": hsp.setHspEvalue(value); break;
+                case "Hsp_query-from": hsp.setHspQueryFrom(value); break;
+                case "Hsp_query-to": hsp.setHspQueryTo(value); break;
+                case "Hsp_hit-from": hsp.setHspHitFrom(value); break;
+                case "Hsp_hit-to": hsp.setHspHitTo(value); break;
+                case "Hsp_pattern-from": hsp.setHspPatternFrom(value); break;
+                case "Hsp_pattern-to": hsp.setHspPatternTo(value); break;
+                case "Hsp_query-frame": hsp.setHspQueryFrame(value); break;
+                case "Hsp_hit-frame": hsp.setHspHitFrame(value); break;
+                case "Hsp_identity": hsp.setHspIdentity(value); break;
+                case "Hsp_positive": hsp.setHspPositive(value); break;
+                case "Hsp_gaps": hsp.setHspGaps(value); break;
+                case "Hsp_align-len": hsp.setHspAlignLen(value); break;
+                case "Hsp_density": hsp.setHspDensity(value); break;
+                case "Hsp_qseq": hsp.setHspQseq(value); break;
+                case "Hsp_hseq": hsp.setHspHseq(value); break;
+                case "Hsp_midline": hsp.setHspMidline(value); break;
+                default: break;
+                }
+            }
+        }
+        return hsp;
+    }
+
+}
@@ -0,0 +1,153 @@
+package org.ncgr.blast;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads FASTA records one at a time from a stream, so that files of any number of sequences can be processed without loading them
+ * all. The header is the whole line after the &gt;, as in BioJava's FastaReaderHelper, and the sequence is the record's lines
+ * concatenated with whitespace removed, as bytes, with the case left as it is.
+ *
+ * @author Sam Hokin
+ */
+public class FastaRecordReader implements Closeable {
+
+    InputStream in;
+    byte[] buffer = new byte[64*1024];
+    int position;
+    int limit;
+
+    // the header of the next record, already read
+    String nextHeader;
+    boolean started;
+
+    /**
+     * A FASTA header and sequence.
+     */
+    public static class Record {
+        public String header;
+        public byte[] sequence;
+
+        public Record(String header, byte[] sequence) {
+            this.header = header;
+            this.sequence = sequence;
+        }
+
+        public String getSequenceAsString() {
+            return new String(sequence, StandardCharsets.US_ASCII);
+        }
+    }
+
+    public FastaRecordReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Return the next record, or null at the end of the stream. Anything before the first header is ignored.
+     */
+    public Record next() throws IOException {
+        if (!started) {
+            started = true;
+            // skip to the first header
+            int b;
+            while ((b=read())!=-1 && b!='>') {
+                if (b!='\n') skipLine();
+            }
+            if (b==-1) return null;
+            nextHeader = readLine();
+        }
+        if (nextHeader==null) return null;
+        String header = nextHeader;
+        nextHeader = null;
+        byte[] sequence = new byte[256];
+        int length = 0;
+        boolean lineStart = true;
+        int b;
+        while ((b=read())!=-1) {
+            if (lineStart && b=='>') {
+                nextHeader = readLine();
+                break;
+            }
+            lineStart = b=='\n';
+            if (b=='\n' || b=='\r' || b==' ' || b=='\t') continue;
+            if (length==sequence.length) {
+                byte[] grown = new byte[sequence.length*2];
+                System.arraycopy(sequence, 0, grown, 0, length);
+                sequence = grown;
+            }
+            sequence[length++] = (byte) b;
+        }
+        byte[] trimmed = new byte[length];
+        System.arraycopy(sequence, 0, trimmed, 0, length);
+        return new Record(header, trimmed);
+    }
+
+    /**
+     * Read up to maxRecords records, stopping early once their sequences total maxBytes; empty at the end of the stream.
+     */
+    public List<Record> next(int maxRecords, long maxBytes) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        long bytes = 0;
+        Record record;
+        while (records.size()<maxRecords && bytes<maxBytes && (record=next())!=null) {
+            records.add(record);
+            bytes += record.sequence.length;
+        }
+        return records;
+    }
+
+    /**
+     * Read all the records from a stream.
+     */
+    public static List<Record> readAll(InputStream in) throws IOException {
+        try (FastaRecordReader reader = new FastaRecordReader(in)) {
+            return reader.next(Integer.MAX_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    int read() throws IOException {
+        if (position==limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit<=0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    void skipLine() throws IOException {
+        int b;
+        while ((b=read())!=-1 && b!='\n');
+    }
+
+    /**
+     * Read the rest of a line as UTF-8, without its terminator.
+     */
+    String readLine() throws IOException {
+        byte[] line = new byte[128];
+        int length = 0;
+        int b;
+        while ((b=read())!=-1 && b!='\n') {
+            if (length==line.length) {
+                byte[] grown = new byte[line.length*2];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = (byte) b;
+        }
+        if (length>0 && line[length-1]=='\r') length--;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
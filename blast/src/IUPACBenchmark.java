@@ -0,0 +1,135 @@
+package org.ncgr.blast;
+
+import java.util.Random;
+
+/**
+ * Compare BlastUtils.scoreDNASequence and combineDNASequences, single and bulk, with the original implementations they replaced,
+ * on random motif pairs like those SequenceBlaster makes. The results are checked to be the same before anything is timed.
+ *
+ * @author Sam Hokin
+ */
+public class IUPACBenchmark {
+
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+
+        int motifCount = 200000;
+        if (args.length>0) motifCount = Integer.parseInt(args[0]);
+
+        // motif pairs of 8 to 27 bases which mostly agree, plus some that already contain N
+        Random random = new Random(23);
+        String bases = "ACGT";
+        String[] seqs1 = new String[motifCount];
+        String[] seqs2 = new String[motifCount];
+        for (int i=0; i<motifCount; i++) {
+            int length = 8 + random.nextInt(20);
+            char[] seq1 = new char[length];
+            char[] seq2 = new char[length];
+            for (int j=0; j<length; j++) {
+                seq1[j] = random.nextInt(50)==0 ? 'N' : bases.charAt(random.nextInt(4));
+                seq2[j] = random.nextInt(5)==0 ? bases.charAt(random.nextInt(4)) : seq1[j];
+            }
+            seqs1[i] = new String(seq1);
+            seqs2[i] = new String(seq2);
+        }
+
+        // check first
+        String[] combinedN = BlastUtils.combineDNASequences(seqs1, seqs2, false);
+        String[] combinedIUB = BlastUtils.combineDNASequences(seqs1, seqs2, true);
+        double[] scores = BlastUtils.scoreDNASequences(combinedN);
+        for (int i=0; i<motifCount; i++) {
+            if (!combinedN[i].equals(legacyCombine(seqs1[i], seqs2[i], false)) || !combinedIUB[i].equals(legacyCombine(seqs1[i], seqs2[i], true))) {
+                System.err.println("Combined sequences differ for "+seqs1[i]+" and "+seqs2[i]);
+                System.exit(1);
+            }
+            if (Math.round(100.0*scores[i])!=Math.round(100.0*legacyScore(combinedN[i]))) {
+                System.err.println("Scores differ for "+combinedN[i]+": "+scores[i]+" vs "+legacyScore(combinedN[i]));
+                System.exit(1);
+            }
+        }
+        System.out.println(motifCount+" motif pairs: combined sequences and rounded scores match the original implementations.");
+
+        long sum = 0;
+        for (int round=1; round<=ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i=0; i<motifCount; i++) {
+                sum += Math.round(100.0*legacyScore(legacyCombine(seqs1[i], seqs2[i], false)));
+            }
+            long legacyNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i=0; i<motifCount; i++) {
+                sum += Math.round(100.0*BlastUtils.scoreDNASequence(BlastUtils.combineDNASequences(seqs1[i], seqs2[i], false)));
+            }
+            long singleNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (double score : BlastUtils.scoreDNASequences(BlastUtils.combineDNASequences(seqs1, seqs2, false))) {
+                sum += Math.round(100.0*score);
+            }
+            long bulkNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i=0; i<motifCount; i++) {
+                sum += legacyCombine(seqs1[i], seqs2[i], true).length();
+            }
+            long legacyIUBNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String combined : BlastUtils.combineDNASequences(seqs1, seqs2, true)) {
+                sum += combined.length();
+            }
+            long bulkIUBNanos = System.nanoTime() - start;
+            System.out.println("round "+round+": combine+score original "+millis(legacyNanos)+", new "+millis(singleNanos)+
+                               ", bulk "+millis(bulkNanos)+" ("+String.format("%.1f", (double)legacyNanos/bulkNanos)+"x); "+
+                               "IUB combine original "+millis(legacyIUBNanos)+", bulk "+millis(bulkIUBNanos)+
+                               " ("+String.format("%.1f", (double)legacyIUBNanos/bulkIUBNanos)+"x)");
+        }
+        // keep the work from being optimized away
+        if (sum==42) System.out.println();
+
+    }
+
+    static String millis(long nanos) {
+        return String.format("%d ms", nanos/1000000);
+    }
+
+    /**
+     * BlastUtils.scoreDNASequence as it was: a search of the letters for each character, multiplying probabilities. The original
+     * ended the search with j = chars.length, which loops forever on a sequence shorter than the index of one of its letters,
+     * such as an 8-base motif containing N, so it ends with break here.
+     */
+    static double legacyScore(String sequence) {
+        char[] letters = { 'A',  'T',  'C',  'G',  'W',  'K',  'R',  'M',  'Y',  'S',  'N'  };
+        double[] probs = { 0.35, 0.35, 0.15, 0.15, 1.00, 0.50, 0.50, 0.50, 0.50, 0.30, 1.00 };
+        char[] chars = sequence.toCharArray();
+        double totalProb = 1.00;
+        for (int i=0; i<chars.length; i++) {
+            for (int j=0; j<letters.length; j++) {
+                if (chars[i]==letters[j]) {
+                    totalProb *= probs[j];
+                    break;
+                }
+            }
+        }
+        return -Math.log10(totalProb);
+    }
+
+    /**
+     * BlastUtils.combineDNASequences as it was: String concatenation in the loop.
+     */
+    static String legacyCombine(String seq1, String seq2, boolean useIUB) {
+        if (seq1.length()!=seq2.length()) {
+            return null;
+        }
+        String combined = "";
+        for (int i=0; i<seq1.length(); i++) {
+            char c1 = seq1.charAt(i);
+            char c2 = seq2.charAt(i);
+            if (c1==c2 || useIUB) {
+                combined += BlastUtils.combineIUB(c1, c2);
+            } else {
+                combined += 'N';
+            }
+        }
+        return combined;
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.ncgr.blast;
+
+/**
+ * A set of fixed-width int tuples, such as (ID, start, end), packed into one int array in the order they were added, with an
+ * open-addressing hash index for constant-time membership. Not thread-safe.
+ *
+ * @author Sam Hokin
+ */
+public class IntTupleSet {
+
+    int width;
+    int size;
+
+    // the tuples, width ints each, in insertion order
+    int[] tuples;
+
+    // tuple number plus one for each hash slot, zero if empty; the length is a power of two
+    int[] slots;
+
+    /**
+     * @param width the number of ints in each tuple, from 1 to 3
+     */
+    public IntTupleSet(int width) {
+        if (width<1 || width>3) throw new IllegalArgumentException("Tuple width must be 1, 2 or 3.");
+        this.width = width;
+        tuples = new int[4*width];
+        slots = new int[8];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return element k of tuple i, in insertion order.
+     */
+    public int get(int i, int k) {
+        return tuples[i*width+k];
+    }
+
+    public boolean add(int a) {
+        return add(a, 0, 0);
+    }
+
+    public boolean add(int a, int b) {
+        return add(a, b, 0);
+    }
+
+    /**
+     * Add a tuple, ignoring the elements past the width, returning true if it wasn't already in the set.
+     */
+    public boolean add(int a, int b, int c) {
+        int mask = slots.length - 1;
+        int slot = hash(a, b, c) & mask;
+        while (slots[slot]!=0) {
+            if (matches(slots[slot]-1, a, b, c)) return false;
+            slot = (slot+1) & mask;
+        }
+        if (size*width==tuples.length) {
+            int[] grown = new int[tuples.length*2];
+            System.arraycopy(tuples, 0, grown, 0, tuples.length);
+            tuples = grown;
+        }
+        int offset = size*width;
+        tuples[offset] = a;
+        if (width>1) tuples[offset+1] = b;
+        if (width>2) tuples[offset+2] = c;
+        slots[slot] = ++size;
+        // keep the index at most half full
+        if (size*2>slots.length) rehash();
+        return true;
+    }
+
+    public boolean contains(int a) {
+        return contains(a, 0, 0);
+    }
+
+    public boolean contains(int a, int b) {
+        return contains(a, b, 0);
+    }
+
+    public boolean contains(int a, int b, int c) {
+        int mask = slots.length - 1;
+        int slot = hash(a, b, c) & mask;
+        while (slots[slot]!=0) {
+            if (matches(slots[slot]-1, a, b, c)) return true;
+            slot = (slot+1) & mask;
+        }
+        return false;
+    }
+
+    boolean matches(int i, int a, int b, int c) {
+        int offset = i*width;
+        return tuples[offset]==a && (width<2 || tuples[offset+1]==b) && (width<3 || tuples[offset+2]==c);
+    }
+
+    int hash(int a, int b, int c) {
+        int h = a*0x9E3779B9;
+        if (width>1) h = (h ^ b)*0x9E3779B9;
+        if (width>2) h = (h ^ c)*0x9E3779B9;
+        return h ^ (h>>>16);
+    }
+
+    void rehash() {
+        slots = new int[slots.length*2];
+        int mask = slots.length - 1;
+        for (int i=0; i<size; i++) {
+            int offset = i*width;
+            int slot = hash(tuples[offset], width>1 ? tuples[offset+1] : 0, width>2 ? tuples[offset+2] : 0) & mask;
+            while (slots[slot]!=0) slot = (slot+1) & mask;
+            slots[slot] = i + 1;
+        }
+    }
+
+}
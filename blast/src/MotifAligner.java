@@ -0,0 +1,152 @@
+package org.ncgr.blast;
+
+import java.util.List;
+
+import org.biojava.nbio.alignment.template.GapPenalty;
+import org.biojava.nbio.core.alignment.template.SubstitutionMatrix;
+import org.biojava.nbio.core.sequence.compound.DNACompoundSet;
+import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
+
+/**
+ * Scores pairwise alignments of short DNA sequences such as motifs with the same results as BioJava's SmithWaterman (local)
+ * or NeedlemanWunsch (global) aligners, using an affine-gap dynamic programming kernel on primitive arrays. Only the score is
+ * computed, not the alignment itself, and each thread reuses its own score rows, so scoring a pair allocates nothing but
+ * the result. Affine and linear gap penalties are supported. Safe to use from many threads at once.
+ *
+ * @author Sam Hokin
+ */
+public class MotifAligner {
+
+    // scores below this can't be reached, but adding a penalty to them can't overflow
+    static final int NEGATIVE_INFINITY = Integer.MIN_VALUE/2;
+
+    // substitution scores indexed by the two bases; bases not in the compound set or matrix are not in known
+    int[][] scores = new int[128][128];
+    boolean[] known = new boolean[128];
+
+    // BioJava's negative gap penalties: a gap of length k scores gapOpen + k*gapExtension
+    int gapOpen;
+    int gapExtension;
+
+    boolean local;
+
+    // constant and dynamic gap penalties are scored differently, so are left to BioJava
+    boolean gapsSupported;
+
+    // each thread's score rows, grown as needed
+    ThreadLocal<int[][]> rows = ThreadLocal.withInitial(() -> new int[6][0]);
+
+    /**
+     * The score of an alignment, and its similarity and distance as BioJava's Scorer defines them.
+     */
+    public static class Score {
+        public double score;
+        public double similarity;
+        public double distance;
+    }
+
+    /**
+     * @param matrix the substitution matrix, e.g. SubstitutionMatrixHelper.getNuc4_4()
+     * @param gapPenalty the gap open and extension penalties
+     * @param local true for SmithWaterman local alignment, false for NeedlemanWunsch global alignment
+     */
+    public MotifAligner(SubstitutionMatrix<NucleotideCompound> matrix, GapPenalty gapPenalty, boolean local) {
+        this.gapOpen = gapPenalty.getOpenPenalty();
+        this.gapExtension = gapPenalty.getExtensionPenalty();
+        this.local = local;
+        this.gapsSupported = gapPenalty.getType()==GapPenalty.Type.AFFINE || gapPenalty.getType()==GapPenalty.Type.LINEAR;
+        // the compounds are those of a DNASequence made from a String, as in SequenceBlaster
+        List<NucleotideCompound> compounds = DNACompoundSet.getDNACompoundSet().getAllCompounds();
+        for (NucleotideCompound from : compounds) {
+            String fromBase = from.getBase();
+            if (fromBase.length()!=1 || fromBase.charAt(0)>=128) continue;
+            char f = fromBase.charAt(0);
+            boolean fromKnown = true;
+            for (NucleotideCompound to : compounds) {
+                String toBase = to.getBase();
+                if (toBase.length()!=1 || toBase.charAt(0)>=128) continue;
+                try {
+                    scores[f][toBase.charAt(0)] = matrix.getValue(from, to);
+                } catch (RuntimeException ex) {
+                    // not in the matrix, so it's left to BioJava
+                    fromKnown = false;
+                }
+            }
+            known[f] = fromKnown;
+        }
+    }
+
+    /**
+     * Return true if the kernel can score these sequences; otherwise use a BioJava aligner.
+     */
+    public boolean canAlign(String query, String target) {
+        return gapsSupported && isKnown(query) && isKnown(target);
+    }
+
+    boolean isKnown(String sequence) {
+        for (int i=0; i<sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (c>=128 || !known[c]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Score the alignment of query with target, which canAlign must allow.
+     */
+    public Score align(String query, String target) {
+        int m = query.length();
+        int n = target.length();
+        int[][] r = rows.get();
+        if (r[0].length<n+1) {
+            for (int k=0; k<r.length; k++) r[k] = new int[n+1];
+        }
+        // for the previous and current rows: the best score ending in a match or mismatch, a gap in the query and a gap in the target
+        int[] prevM = r[0];
+        int[] currM = r[1];
+        int[] prevQ = r[2];
+        int[] currQ = r[3];
+        int[] prevT = r[4];
+        int[] currT = r[5];
+        prevM[0] = 0;
+        prevQ[0] = NEGATIVE_INFINITY;
+        prevT[0] = NEGATIVE_INFINITY;
+        for (int j=1; j<=n; j++) {
+            prevM[j] = local ? 0 : NEGATIVE_INFINITY;
+            prevQ[j] = local ? NEGATIVE_INFINITY : gapOpen + j*gapExtension;
+            prevT[j] = NEGATIVE_INFINITY;
+        }
+        int best = 0;
+        for (int i=1; i<=m; i++) {
+            int[] substitution = scores[query.charAt(i-1)];
+            currM[0] = local ? 0 : NEGATIVE_INFINITY;
+            currQ[0] = NEGATIVE_INFINITY;
+            currT[0] = local ? NEGATIVE_INFINITY : gapOpen + i*gapExtension;
+            for (int j=1; j<=n; j++) {
+                int match = Math.max(prevM[j-1], Math.max(prevQ[j-1], prevT[j-1])) + substitution[target.charAt(j-1)];
+                if (local && match<0) match = 0;
+                currM[j] = match;
+                currQ[j] = Math.max(Math.max(currM[j-1], currT[j-1]) + gapOpen + gapExtension, currQ[j-1] + gapExtension);
+                currT[j] = Math.max(Math.max(prevM[j], prevQ[j]) + gapOpen + gapExtension, prevT[j] + gapExtension);
+                if (local && match>best) best = match;
+            }
+            int[] swap = prevM; prevM = currM; currM = swap;
+            swap = prevQ; prevQ = currQ; currQ = swap;
+            swap = prevT; prevT = currT; currT = swap;
+        }
+        if (!local) best = Math.max(prevM[n], Math.max(prevQ[n], prevT[n]));
+        // maximum and minimum scores as BioJava's AbstractPairwiseSequenceAligner sets them
+        int maxQuery = 0;
+        for (int i=0; i<m; i++) maxQuery += scores[query.charAt(i)][query.charAt(i)];
+        int maxTarget = 0;
+        for (int j=0; j<n; j++) maxTarget += scores[target.charAt(j)][target.charAt(j)];
+        double max = Math.max(maxQuery, maxTarget);
+        double min = local ? 0 : 2*gapOpen + (m+n)*gapExtension;
+        Score score = new Score();
+        score.score = best;
+        score.similarity = 1.0*(score.score-min)/(max-min);
+        score.distance = 1.0*(max-score.score)/(max-min);
+        return score;
+    }
+
+}
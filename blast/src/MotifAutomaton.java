@@ -0,0 +1,165 @@
+package org.ncgr.blast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton over groups of motif variants, which finds the groups that have at least one variant in a sequence
+ * in a single pass over it. Matching is literal and case-sensitive, like String.contains. The automaton is built once as a
+ * full transition table over the bytes that occur in the motifs, with each state's groups as a bitmask; a built automaton is
+ * immutable, so any number of threads can scan with it at once.
+ *
+ * @author Sam Hokin
+ */
+public class MotifAutomaton {
+
+    int groupCount;
+    int words;                 // longs per group mask
+
+    int[] codes = new int[256]; // byte to alphabet code; zero for bytes not in any motif
+    int stride;                 // alphabet size plus one
+
+    int[] transitions;         // state*stride + code to next state
+    long[] groups;             // state*words to the groups matched on reaching the state
+    boolean[] matches;         // true if a state matches any group
+
+    // groups with an empty variant, which every sequence contains
+    long[] alwaysCovered;
+    long[] allGroups;
+
+    /**
+     * Build the automaton for the given groups of motif variants.
+     *
+     * @param motifGroups the variants of each group, as bytes
+     */
+    public MotifAutomaton(List<List<byte[]>> motifGroups) {
+        groupCount = motifGroups.size();
+        words = Math.max(1, (groupCount+63)/64);
+        alwaysCovered = new long[words];
+        allGroups = new long[words];
+        for (int g=0; g<groupCount; g++) allGroups[g/64] |= 1L<<(g%64);
+
+        // the alphabet is just the bytes in the motifs
+        int alphabet = 0;
+        for (List<byte[]> group : motifGroups) {
+            for (byte[] motif : group) {
+                for (byte b : motif) {
+                    if (codes[b&0xff]==0) codes[b&0xff] = ++alphabet;
+                }
+            }
+        }
+        stride = alphabet + 1;
+
+        // the trie, with -1 for missing edges
+        int maxStates = 1;
+        for (List<byte[]> group : motifGroups) {
+            for (byte[] motif : group) maxStates += motif.length;
+        }
+        transitions = new int[maxStates*stride];
+        Arrays.fill(transitions, -1);
+        groups = new long[maxStates*words];
+        int states = 1;
+        for (int g=0; g<groupCount; g++) {
+            for (byte[] motif : motifGroups.get(g)) {
+                if (motif.length==0) {
+                    alwaysCovered[g/64] |= 1L<<(g%64);
+                    continue;
+                }
+                int state = 0;
+                for (byte b : motif) {
+                    int edge = state*stride + codes[b&0xff];
+                    if (transitions[edge]==-1) transitions[edge] = states++;
+                    state = transitions[edge];
+                }
+                groups[state*words+g/64] |= 1L<<(g%64);
+            }
+        }
+
+        // breadth-first, fill in the failure transitions and add each state's failure groups to its own
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c=0; c<stride; c++) {
+            int next = transitions[c];
+            if (next==-1) {
+                transitions[c] = 0;
+            } else {
+                failure[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head<tail) {
+            int state = queue[head++];
+            for (int w=0; w<words; w++) groups[state*words+w] |= groups[failure[state]*words+w];
+            for (int c=0; c<stride; c++) {
+                int edge = state*stride + c;
+                int next = transitions[edge];
+                int fallback = transitions[failure[state]*stride + c];
+                if (next==-1) {
+                    transitions[edge] = fallback;
+                } else {
+                    failure[next] = fallback;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        transitions = Arrays.copyOf(transitions, states*stride);
+        groups = Arrays.copyOf(groups, states*words);
+        matches = new boolean[states];
+        for (int state=0; state<states; state++) {
+            for (int w=0; w<words; w++) {
+                if (groups[state*words+w]!=0) matches[state] = true;
+            }
+        }
+    }
+
+    /**
+     * Build the automaton from motif sequences read from FASTA files, one group per file.
+     */
+    public static MotifAutomaton fromRecords(List<List<FastaRecordReader.Record>> recordGroups) {
+        List<List<byte[]>> motifGroups = new ArrayList<List<byte[]>>();
+        for (List<FastaRecordReader.Record> records : recordGroups) {
+            List<byte[]> motifs = new ArrayList<byte[]>();
+            for (FastaRecordReader.Record record : records) motifs.add(record.sequence);
+            motifGroups.add(motifs);
+        }
+        return new MotifAutomaton(motifGroups);
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Return a bitmask of the groups with a variant in sequence[0..length), one bit per group in longs of 64,
+     * stopping as soon as every group is found.
+     */
+    public long[] getCoveredGroups(byte[] sequence, int length) {
+        long[] covered = alwaysCovered.clone();
+        if (Arrays.equals(covered, allGroups)) return covered;
+        int state = 0;
+        for (int i=0; i<length; i++) {
+            state = transitions[state*stride + codes[sequence[i]&0xff]];
+            if (matches[state]) {
+                boolean all = true;
+                for (int w=0; w<words; w++) {
+                    covered[w] |= groups[state*words+w];
+                    all = all && covered[w]==allGroups[w];
+                }
+                if (all) break;
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Return true if the sequence has a variant from every group; false if there are no groups.
+     */
+    public boolean coversAll(byte[] sequence) {
+        if (groupCount==0) return false;
+        return Arrays.equals(getCoveredGroups(sequence, sequence.length), allGroups);
+    }
+
+}
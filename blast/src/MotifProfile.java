@@ -0,0 +1,285 @@
+package org.ncgr.blast;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * A position frequency matrix built up one motif at a time, in the coordinates of a seed motif (SequenceBlaster's top motif).
+ * Each motif added is placed at the ungapped offset against the seed with the most matching bases, and its A, C, G and T bases
+ * are counted in the columns it overlaps; other characters and bases that fall outside the seed aren't counted. From the counts
+ * come the position weight matrix, the information content and a MEME-format motif file, without writing the motifs out and
+ * reading them back in.
+ *
+ * The counts are int[column][base] with the bases in A, C, G, T order, like Matrix.getData in the motifs module, so a profile
+ * can be handed to MatrixSet and scanned like any of the JASPAR matrices; the PWM uses the same pseudocount.
+ *
+ * @author Sam Hokin
+ */
+public class MotifProfile {
+
+    public static final int BASES = 4;
+    public static final char[] LETTERS = { 'A', 'C', 'G', 'T' };
+
+    // the total pseudocount added to each column for the PWM, split by the background, as in the motifs module's MatrixSet
+    public static final double PSEUDOCOUNT = 0.8;
+
+    // the uniform background
+    public static final double[] UNIFORM = { 0.25, 0.25, 0.25, 0.25 };
+
+    // maps a character to its base index, -1 for anything that isn't A, C, G or T (in either case)
+    static final byte[] BASE_INDEX = new byte[128];
+    static {
+        Arrays.fill(BASE_INDEX, (byte) -1);
+        BASE_INDEX['A'] = 0; BASE_INDEX['a'] = 0;
+        BASE_INDEX['C'] = 1; BASE_INDEX['c'] = 1;
+        BASE_INDEX['G'] = 2; BASE_INDEX['g'] = 2;
+        BASE_INDEX['T'] = 3; BASE_INDEX['t'] = 3;
+    }
+
+    static DecimalFormat prob = new DecimalFormat("0.000000");
+    static DecimalFormat bits = new DecimalFormat("0.000");
+
+    byte[] seed;          // base indexes of the seed motif
+    int width;
+    int[] counts;         // [column*BASES + base]
+    int[] columnSums;     // [column]
+    int sites;
+
+    /**
+     * Start a profile on the given seed motif, which is counted as its first site.
+     */
+    public MotifProfile(String seed) {
+        width = seed.length();
+        this.seed = new byte[width];
+        for (int i=0; i<width; i++) this.seed[i] = getBaseIndex(seed.charAt(i));
+        counts = new int[width*BASES];
+        columnSums = new int[width];
+        add(seed, 0);
+    }
+
+    /**
+     * Return the base index (0-3 for A, C, G, T) of the given character, or -1 if it isn't one of them.
+     */
+    public static byte getBaseIndex(char c) {
+        return (c<BASE_INDEX.length) ? BASE_INDEX[c] : -1;
+    }
+
+    /**
+     * Add a motif at its best offset against the seed, returning the offset (the seed column of the motif's first base).
+     */
+    public int add(String motif) {
+        int offset = getBestOffset(motif);
+        add(motif, offset);
+        return offset;
+    }
+
+    /**
+     * Add a motif with its first base at the given seed column, which may be negative.
+     */
+    public void add(String motif, int offset) {
+        int from = Math.max(0, -offset);
+        int to = Math.min(motif.length(), width-offset);
+        for (int i=from; i<to; i++) {
+            int base = getBaseIndex(motif.charAt(i));
+            if (base>=0) {
+                counts[(offset+i)*BASES+base]++;
+                columnSums[offset+i]++;
+            }
+        }
+        sites++;
+    }
+
+    /**
+     * Return the ungapped offset of the motif against the seed with the most matching bases, the smallest shift on a tie.
+     */
+    public int getBestOffset(String motif) {
+        int length = motif.length();
+        byte[] bases = new byte[length];
+        for (int i=0; i<length; i++) bases[i] = getBaseIndex(motif.charAt(i));
+        int bestOffset = 0;
+        int bestMatches = -1;
+        for (int shift=0; shift<Math.max(width, length); shift++) {
+            for (int sign=1; sign>=-1; sign-=2) {
+                int offset = sign*shift;
+                if (offset<=-length || offset>=width || (shift==0 && sign<0)) continue;
+                int matches = 0;
+                int from = Math.max(0, -offset);
+                int to = Math.min(length, width-offset);
+                for (int i=from; i<to; i++) {
+                    if (bases[i]>=0 && bases[i]==seed[offset+i]) matches++;
+                }
+                if (matches>bestMatches) {
+                    bestMatches = matches;
+                    bestOffset = offset;
+                }
+            }
+        }
+        return bestOffset;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getSiteCount() {
+        return sites;
+    }
+
+    public int getCount(int column, int base) {
+        return counts[column*BASES+base];
+    }
+
+    public int getColumnSum(int column) {
+        return columnSums[column];
+    }
+
+    /**
+     * Return the counts as an int[column][base] array, like Matrix.getData.
+     */
+    public int[][] getCounts() {
+        int[][] vals = new int[width][BASES];
+        for (int i=0; i<width; i++) {
+            System.arraycopy(counts, i*BASES, vals[i], 0, BASES);
+        }
+        return vals;
+    }
+
+    /**
+     * Return the frequency of the base in the column; the background for an empty column.
+     */
+    public double getFrequency(int column, int base, double[] background) {
+        if (columnSums[column]==0) return background[base];
+        return (double)counts[column*BASES+base]/(double)columnSums[column];
+    }
+
+    /**
+     * Return the position frequency matrix as double[column][base], uniform in empty columns.
+     */
+    public double[][] getFrequencies() {
+        double[][] freqs = new double[width][BASES];
+        for (int i=0; i<width; i++) {
+            for (int j=0; j<BASES; j++) freqs[i][j] = getFrequency(i, j, UNIFORM);
+        }
+        return freqs;
+    }
+
+    /**
+     * Return the position weight matrix of log2-odds scores against the uniform background.
+     */
+    public double[][] getPWM() {
+        return getPWM(UNIFORM);
+    }
+
+    /**
+     * Return the position weight matrix of log2-odds scores against the given A, C, G, T background, with PSEUDOCOUNT
+     * split across the bases in proportion to the background.
+     */
+    public double[][] getPWM(double[] background) {
+        double[][] pwm = new double[width][BASES];
+        for (int i=0; i<width; i++) {
+            for (int j=0; j<BASES; j++) {
+                double p = (counts[i*BASES+j] + PSEUDOCOUNT*background[j]) / (columnSums[i] + PSEUDOCOUNT);
+                pwm[i][j] = Math.log(p/background[j])/Math.log(2.0);
+            }
+        }
+        return pwm;
+    }
+
+    /**
+     * Return the information content in bits of each column against the uniform background.
+     */
+    public double[] getInformationContent() {
+        return getInformationContent(UNIFORM);
+    }
+
+    /**
+     * Return the information content in bits of each column, the relative entropy of its frequencies to the given background.
+     * Empty columns have none.
+     */
+    public double[] getInformationContent(double[] background) {
+        double[] ic = new double[width];
+        for (int i=0; i<width; i++) {
+            for (int j=0; j<BASES; j++) {
+                double p = getFrequency(i, j, background);
+                if (p>0.0) ic[i] += p*Math.log(p/background[j])/Math.log(2.0);
+            }
+        }
+        return ic;
+    }
+
+    /**
+     * Return the total information content in bits against the uniform background.
+     */
+    public double getTotalInformationContent() {
+        double total = 0.0;
+        for (double ic : getInformationContent()) total += ic;
+        return total;
+    }
+
+    /**
+     * Return the consensus sequence: the most frequent base of each column, N for an empty column.
+     */
+    public String getConsensus() {
+        char[] consensus = new char[width];
+        for (int i=0; i<width; i++) {
+            consensus[i] = 'N';
+            int best = 0;
+            for (int j=0; j<BASES; j++) {
+                if (counts[i*BASES+j]>best) {
+                    best = counts[i*BASES+j];
+                    consensus[i] = LETTERS[j];
+                }
+            }
+        }
+        return new String(consensus);
+    }
+
+    /**
+     * Write the profile as a minimal MEME-format motif file with the uniform background, for MEME suite tools and sequence logos.
+     */
+    public void writeMEME(Writer writer, String name) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("MEME version 4");
+        out.println();
+        out.println("ALPHABET= ACGT");
+        out.println();
+        out.println("strands: +");
+        out.println();
+        out.println("Background letter frequencies");
+        out.println("A "+UNIFORM[0]+" C "+UNIFORM[1]+" G "+UNIFORM[2]+" T "+UNIFORM[3]);
+        out.println();
+        out.println("MOTIF "+name+" "+getConsensus());
+        out.println("letter-probability matrix: alength= "+BASES+" w= "+width+" nsites= "+sites+" E= 0");
+        for (int i=0; i<width; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int j=0; j<BASES; j++) line.append(" ").append(prob.format(getFrequency(i, j, UNIFORM)));
+            out.println(line);
+        }
+        out.println();
+        out.flush();
+        if (out.checkError()) throw new IOException("Error writing MEME motif "+name);
+    }
+
+    /**
+     * Write the PWM as tab-delimited lines of column, A, C, G and T log2-odds scores and the column's information content in bits.
+     */
+    public void writePWM(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        double[][] pwm = getPWM();
+        double[] ic = getInformationContent();
+        out.println("#pos\tA\tC\tG\tT\tbits");
+        for (int i=0; i<width; i++) {
+            StringBuilder line = new StringBuilder();
+            line.append(i+1);
+            for (int j=0; j<BASES; j++) line.append("\t").append(bits.format(pwm[i][j]));
+            line.append("\t").append(bits.format(ic[i]));
+            out.println(line);
+        }
+        out.flush();
+        if (out.checkError()) throw new IOException("Error writing PWM");
+    }
+
+}
@@ -1,71 +1,91 @@
 package org.ncgr.blast;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Set;
-import java.util.LinkedHashSet;
-import java.util.TreeSet;
-
-import org.biojava.nbio.core.sequence.DNASequence;
-import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
-import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
-import org.biojava.nbio.core.sequence.io.FastaWriterHelper;
-import org.biojava.nbio.core.sequence.template.Sequence;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Find the set of features which each contain one of each group of motif variations.
+ *
+ * All the variations of all the groups go into one MotifAutomaton, so each subject sequence is scanned once, however many
+ * motifs there are. The subject FASTA is streamed in batches which are scanned on a pool of threads, and the IDs are printed
+ * in the order of the file, so memory use depends on the batch size rather than the size of the file.
  */
 public class MotifVariationSharers  {
 
+    // subject records per batch, and the sequence bytes at which a batch is cut short
+    static int BATCH_RECORDS = 1000;
+    static long BATCH_BYTES = 8*1024*1024;
 
     public static void main(String[] args) {
 
         if (args.length<2) {
-            System.out.println("Usage: MotifVariationSharers <subject-fasta> <motif-fasta1> [motif-fasta2] [motif-fasta3] ...");
+            System.out.println("Usage: MotifVariationSharers [-t threads] <subject-fasta> <motif-fasta1> [motif-fasta2] [motif-fasta3] ...");
             System.exit(0);
         }
 
-        try {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (threads<1 || args.length<i+2) {
+            System.err.println("Error: threads must be positive and a subject FASTA and at least one motif FASTA are required.");
+            System.exit(1);
+        }
 
-            FastaReaderHelper frh = new FastaReaderHelper();
-            
-            LinkedHashMap<String,DNASequence> subjectSequenceMap = frh.readFastaDNASequence(new File(args[0]));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
 
-            LinkedHashSet<LinkedHashMap<String,DNASequence>> motifSequenceMaps = new LinkedHashSet<LinkedHashMap<String,DNASequence>>();
-            for (int i=1; i<args.length; i++) {
-                motifSequenceMaps.add(frh.readFastaDNASequence(new File(args[i])));
+            // each motif FASTA is one group of variations
+            List<List<FastaRecordReader.Record>> motifGroups = new ArrayList<List<FastaRecordReader.Record>>();
+            for (int j=i+1; j<args.length; j++) {
+                motifGroups.add(FastaRecordReader.readAll(new FileInputStream(args[j])));
             }
-
-            // plow through the subject sequences looking for one of the motif variations from each group
-            for (String subjectID : subjectSequenceMap.keySet()) {
-                DNASequence subjectSequence = subjectSequenceMap.get(subjectID);
-                String subject = subjectSequence.getSequenceAsString();
-                boolean containedInAll = true;
-                for (LinkedHashMap<String,DNASequence> motifSequenceMap : motifSequenceMaps) {
-                    boolean containedInMotifGroup = false;
-                    for (String motifID : motifSequenceMap.keySet()) {
-                        DNASequence motifSequence = motifSequenceMap.get(motifID);
-                        String motif = motifSequence.getSequenceAsString();
-                        if (subject.contains(motif)) containedInMotifGroup = true;
-                    }
-                    containedInAll = containedInAll && containedInMotifGroup;
+            final MotifAutomaton automaton = MotifAutomaton.fromRecords(motifGroups);
+
+            // plow through the subject sequences looking for one of the motif variations from each group, a few batches at a time
+            ArrayDeque<Future<List<String>>> pending = new ArrayDeque<Future<List<String>>>();
+            try (FastaRecordReader reader = new FastaRecordReader(new FileInputStream(args[i]))) {
+                List<FastaRecordReader.Record> batch;
+                while (!(batch=reader.next(BATCH_RECORDS, BATCH_BYTES)).isEmpty()) {
+                    final List<FastaRecordReader.Record> subjects = batch;
+                    pending.add(executor.submit(() -> findSharers(automaton, subjects)));
+                    if (pending.size()>=2*threads) printIDs(pending.poll().get());
                 }
-                if (containedInAll) System.out.println(subjectID);
             }
-            
-
-
-
-
+            while (!pending.isEmpty()) {
+                printIDs(pending.poll().get());
+            }
 
         } catch (Exception ex) {
             ex.printStackTrace();
             System.exit(1);
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Return the IDs of the subjects which contain a variation from every group, in order.
+     */
+    static List<String> findSharers(MotifAutomaton automaton, List<FastaRecordReader.Record> subjects) {
+        List<String> ids = new ArrayList<String>();
+        for (FastaRecordReader.Record subject : subjects) {
+            if (automaton.coversAll(subject.sequence)) ids.add(subject.header);
         }
+        return ids;
+    }
 
+    static void printIDs(List<String> ids) {
+        for (String id : ids) System.out.println(id);
     }
 
 }
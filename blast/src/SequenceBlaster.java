@@ -2,14 +2,25 @@ package org.ncgr.blast;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.TreeMap;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 import java.text.DecimalFormat;
 
 import org.biojava.nbio.alignment.Alignments;
@@ -27,6 +38,7 @@ import org.biojava.nbio.core.alignment.template.AlignedSequence;
 import org.biojava.nbio.core.alignment.template.Profile;
 import org.biojava.nbio.core.alignment.template.SequencePair;
 import org.biojava.nbio.core.alignment.template.SubstitutionMatrix;
+import org.biojava.nbio.core.exceptions.CompoundNotFoundException;
 import org.biojava.nbio.core.sequence.DNASequence;
 import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
 import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
@@ -56,13 +68,17 @@ public class SequenceBlaster {
     static int GEP = 1;               // gap extension penalty for pairwise and multi-sequence alignments
     static String ALIGNER = "SmithWaterman"; // AnchoredPairwiseSequenceAligner, GuanUberbacher, NeedlemanWunsch, SmithWaterman
 
+    // profile of the motifs gathered for the sequence logo
+    static String MEME_FILE = "/tmp/alignment.meme";
+    static String PWM_FILE = "/tmp/alignment.pwm";
+
     static DecimalFormat dec = new DecimalFormat("0.0000");
     static DecimalFormat rnd = new DecimalFormat("+00;-00");
     
     public static void main(String[] args) {
 
         if (args.length<1) {
-            System.err.println("Usage: SequenceBlaster <multi-sequence.fasta> [maxDistance] [gop] [gep]");
+            System.err.println("Usage: SequenceBlaster [-t threads] [-f xml|tabular] [-c cacheDir] <multi-sequence.fasta> [maxDistance] [gop] [gep]");
             System.exit(0);
         }
 
@@ -70,11 +86,34 @@ public class SequenceBlaster {
         double maxDistance = MAX_DISTANCE;
         int gop = GOP;
         int gep = GEP;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean tabular = false;
+        String cacheDir = null;
 
-        String fastaFilename = args[0];
-        if (args.length>1) maxDistance = Double.parseDouble(args[1]);
-        if (args.length>3) gop = Integer.parseInt(args[3]);
-        if (args.length>4) gep = Integer.parseInt(args[4]);
+        // options come before the FASTA file
+        int i = 0;
+        while (i<args.length-1 && args[i].startsWith("-")) {
+            if (args[i].equals("-t")) {
+                threads = Integer.parseInt(args[i+1]);
+            } else if (args[i].equals("-f") && (args[i+1].equals("xml") || args[i+1].equals("tabular"))) {
+                tabular = args[i+1].equals("tabular");
+            } else if (args[i].equals("-c")) {
+                cacheDir = args[i+1];
+            } else {
+                System.err.println("Error: unknown option "+args[i]+" "+args[i+1]);
+                System.exit(1);
+            }
+            i += 2;
+        }
+        if (threads<1) {
+            System.err.println("Error: threads must be positive.");
+            System.exit(1);
+        }
+
+        String fastaFilename = args[i];
+        if (args.length>i+1) maxDistance = Double.parseDouble(args[i+1]);
+        if (args.length>i+3) gop = Integer.parseInt(args[i+3]);
+        if (args.length>i+4) gep = Integer.parseInt(args[i+4]);
 
         GapPenalty gapPenalty = new SimpleGapPenalty(gop, gep);
         SubstitutionMatrix<NucleotideCompound> subMatrix = SubstitutionMatrixHelper.getNuc4_4();
@@ -91,127 +130,50 @@ public class SequenceBlaster {
             // timing
             long blastStart = System.currentTimeMillis();
 
-            // Run blast between all the sequences in the provided file, returning a TreeSet of SequenceHits summarizing the results.
-            // Uses temp storage to create the many FASTA files used in the BLAST command line.
-
-            // we'll add the found hits to this map of SequenceHits
-            TreeMap<String,SequenceHits> seqHitsMap = new TreeMap<String,SequenceHits>();
-            FastaReaderHelper frh = new FastaReaderHelper();
-            FastaWriterHelper fwh = new FastaWriterHelper();
-
             // pull out the individual sequences with BioJava help
             File multiFasta = new File(fastaFilename);
             LinkedHashMap<String,DNASequence> sequenceMap = null;
             try {
-                sequenceMap = frh.readFastaDNASequence(multiFasta);
+                sequenceMap = FastaReaderHelper.readFastaDNASequence(multiFasta);
             } catch (IOException ex) {
                 ex.printStackTrace();
                 System.exit(1);
             }
+            long readEnd = System.currentTimeMillis();
 
-            // loop through each sequence as query against the remaining as subject
-            for (DNASequence querySequence : sequenceMap.values()) {
-                
-                // write out the query fasta
-                String queryID = querySequence.getOriginalHeader();
-                File queryFile = File.createTempFile("query", ".fasta");
-                fwh.writeSequence(queryFile, querySequence);
-                String queryFilePath = queryFile.getAbsolutePath();
-                
-                // create the subject multi-fasta = all sequences but the query sequence
-                LinkedHashMap<String,DNASequence> subjectMap = new LinkedHashMap<String,DNASequence>(sequenceMap);
-                subjectMap.remove(queryID);
-                
-                // write out the subject file
-                File subjectFile = File.createTempFile("subject", ".fasta");
-                fwh.writeNucleotideSequence(subjectFile, subjectMap.values());
-                String subjectFilePath = subjectFile.getAbsolutePath();
-                
-                // now run BLAST with given parameters
-                BlastOutput blastOutput = BlastUtils.runBlastn(subjectFilePath, queryFilePath, blastParameters);
-                BlastOutputIterations iterations = blastOutput.getBlastOutputIterations();
-                if (iterations!=null) {
-                    List<Iteration> iterationList = iterations.getIteration();
-                    if (iterationList!=null) {
-                        for (Iteration iteration : iterationList) {
-                            if (iteration.getIterationMessage()==null) {
-                                List<Hit> hitList = iteration.getIterationHits().getHit();
-                                for (Hit hit : hitList) {
-                                    String hitID = hit.getHitDef();
-                                    HitHsps hsps = hit.getHitHsps();
-                                    if (hsps!=null) {
-                                        List<Hsp> hspList = hsps.getHsp();
-                                        if (hspList!=null) {
-                                            for (Hsp hsp : hspList) {
-                                                SequenceHit seqHit = new SequenceHit(queryID, hitID, hsp);
-                                                // cull motifs based on their size and content
-                                                boolean keep = true;
-                                                keep = keep && (seqHit.sequence.contains("C") || seqHit.sequence.contains("G"));
-                                                keep = keep && seqHit.sequence.length()<=MAX_MOTIF_LENGTH;
-                                                if (keep) {
-                                                    if (seqHitsMap.containsKey(seqHit.sequence)) {
-                                                        SequenceHits seqHits = seqHitsMap.get(seqHit.sequence);
-                                                        seqHits.addSequenceHit(seqHit);
-                                                    } else {
-                                                        SequenceHits seqHits = new SequenceHits(seqHit);
-                                                        seqHitsMap.put(seqHit.sequence, seqHits);
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            
-            // load the collected SequenceHits into a sorted set
+            // Run blast between all the sequences, collecting a TreeSet of SequenceHits summarizing the results.
+            BlastTiming timing = new BlastTiming();
+            BlastCache cache = null;
+            if (cacheDir!=null) cache = new BlastCache(new File(cacheDir));
+            Map<String,SequenceHits> seqHitsMap = blastAllVsAll(sequenceMap, blastParameters, threads, tabular, cache, timing);
             TreeSet<SequenceHits> seqHitsSet = new TreeSet<SequenceHits>(seqHitsMap.values());
             
             // timing
             long blastEnd = System.currentTimeMillis();
 
-            // now scan through the motifs, doing pairwise alignment with the top one to create a list for logo creation
+            // now score the motifs by pairwise alignment with the top one, in parallel, then list them in order, gathering those close to it for logo creation
             long pairwiseStart = System.currentTimeMillis();
+            List<String> motifs = new ArrayList<String>();
+            for (SequenceHits seqHits : seqHitsSet.descendingSet()) motifs.add(seqHits.sequence);
+            MotifAligner.Score[] scores = alignWithTopMotif(motifs, gapPenalty, subMatrix, threads);
             int count = 0;
-            boolean first = true;
-            DNASequence topMotif = null;
             List<DNASequence> logoMotifs = new ArrayList<DNASequence>();
+            MotifProfile motifProfile = null;
             for (SequenceHits seqHits : seqHitsSet.descendingSet()) {
                 count++;
-                if (first) {
-                    first = false;
-                    // save the top motif for pairwise alignments
-                    topMotif = new DNASequence(seqHits.sequence);
-                    logoMotifs.add(topMotif);
-                    System.out.print(count+"."+seqHits.sequence+"\t["+seqHits.score+"]["+seqHits.uniqueIDs.size()+"]");
+                System.out.print(count+"."+seqHits.sequence+"\t["+seqHits.score+"]["+seqHits.getUniqueIDCount()+"]");
+                if (count==1) {
+                    // the top motif
+                    logoMotifs.add(new DNASequence(seqHits.sequence));
+                    motifProfile = new MotifProfile(seqHits.sequence);
                     System.out.println("\tscore\tsimilarity\tdistance");
                 } else {
-                    // do a pairwise alignment with topMotif and add to logo list if close enough
-                    DNASequence thisMotif = new DNASequence(seqHits.sequence);
-                    // choose the desired pairwise aligner
-                    AbstractMatrixAligner<DNASequence,NucleotideCompound> aligner = null;
-                    if (ALIGNER.equals("AnchoredPairwiseSequenceAligner")) {
-                        aligner = new AnchoredPairwiseSequenceAligner<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else if (ALIGNER.equals("GuanUberbacher")) {
-                        aligner = new GuanUberbacher<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else if (ALIGNER.equals("NeedlemanWunsch")) {
-                        aligner = new NeedlemanWunsch<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else if (ALIGNER.equals("SmithWaterman")) {
-                        aligner = new SmithWaterman<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else {
-                        System.err.println("ERROR: ALIGNER must be one of AnchoredPairwiseSequenceAligner, GuanUberbacher, NeedlemanWunsch, SmithWaterman");
-                        System.exit(1);
-                    }
-                    double score = aligner.getScore();
-                    double distance = aligner.getDistance();
-                    double similarity = aligner.getSimilarity();
-                    System.out.print(count+"."+seqHits.sequence+"\t["+seqHits.score+"]["+seqHits.uniqueIDs.size()+"]");
-                    System.out.print("\t"+rnd.format(score)+"\t"+dec.format(similarity)+"\t"+dec.format(distance));
-                    if (distance<maxDistance) {
-                        logoMotifs.add(thisMotif);
+                    // add to logo list if close enough to the top motif
+                    MotifAligner.Score score = scores[count-1];
+                    System.out.print("\t"+rnd.format(score.score)+"\t"+dec.format(score.similarity)+"\t"+dec.format(score.distance));
+                    if (score.distance<maxDistance) {
+                        logoMotifs.add(new DNASequence(seqHits.sequence));
+                        motifProfile.add(seqHits.sequence);
                         System.out.println("\t*");
                     } else {
                         System.out.println();
@@ -223,6 +185,18 @@ public class SequenceBlaster {
             System.out.println();
             System.out.println("------- "+logoMotifs.size()+" motifs gathered for sequence logo -----");
 
+            // the profile of the gathered motifs goes straight to MEME and PWM files, no alignment needed
+            if (motifProfile!=null) {
+                System.out.println("Profile consensus "+motifProfile.getConsensus()+" from "+motifProfile.getSiteCount()+" sites, "+
+                                   dec.format(motifProfile.getTotalInformationContent())+" bits.");
+                try (Writer writer = Files.newBufferedWriter(new File(MEME_FILE).toPath())) {
+                    motifProfile.writeMEME(writer, new File(fastaFilename).getName());
+                }
+                try (Writer writer = Files.newBufferedWriter(new File(PWM_FILE).toPath())) {
+                    motifProfile.writePWM(writer);
+                }
+            }
+
             long multiStart = 0;
             long multiEnd = 0;
 
@@ -249,9 +223,15 @@ public class SequenceBlaster {
 
             // timing output
             System.out.println();
-            System.out.println("BLAST runs took "+(blastEnd-blastStart)+" ms.");
+            System.out.println("Reading "+sequenceMap.size()+" sequences took "+(readEnd-blastStart)+" ms.");
+            System.out.println("makeblastdb took "+timing.makeDBMillis+" ms.");
+            System.out.println("BLAST runs took "+(blastEnd-readEnd)+" ms wall-clock on "+threads+" threads: "+
+                               "blastn and "+(tabular || cache!=null ? "tabular" : "XML")+" reading "+timing.blastnMillis.get()+" ms, hit merge "+timing.mergeMillis.get()+" ms summed over "+sequenceMap.size()+" queries; "+
+                               timing.hspCount.get()+" HSPs gave "+seqHitsMap.size()+" motifs.");
+            if (cache!=null) System.out.println(cache.getStatistics());
             System.out.println("Pairwise alignments with top motif took "+(pairwiseEnd-pairwiseStart)+" ms.");
             if (multiStart>0) System.out.println("Multiple sequence alignment took "+(multiEnd-multiStart)+" ms.");
+            System.out.println("Total wall-clock time "+(System.currentTimeMillis()-blastStart)+" ms.");
 
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -262,4 +242,296 @@ public class SequenceBlaster {
 
     }
     
+    /**
+     * Align each motif after the first with the first (top) motif using ALIGNER, on a fork-join pool of the given number of threads.
+     * SmithWaterman and NeedlemanWunsch alignments of motifs up to MAX_MOTIF_LENGTH long are scored by a MotifAligner, which gives
+     * the same results without building a BioJava aligner and its matrices per pair; anything else goes to a new BioJava aligner.
+     *
+     * @param motifs the motif sequences, top motif first
+     * @return the score of each motif against the top motif, in the same order, with null for the top motif itself
+     */
+    public static MotifAligner.Score[] alignWithTopMotif(final List<String> motifs, final GapPenalty gapPenalty, final SubstitutionMatrix<NucleotideCompound> subMatrix,
+                                                         int threads) throws Exception {
+        if (!ALIGNER.equals("AnchoredPairwiseSequenceAligner") && !ALIGNER.equals("GuanUberbacher") &&
+            !ALIGNER.equals("NeedlemanWunsch") && !ALIGNER.equals("SmithWaterman")) {
+            throw new IllegalArgumentException("ALIGNER must be one of AnchoredPairwiseSequenceAligner, GuanUberbacher, NeedlemanWunsch, SmithWaterman");
+        }
+        final MotifAligner.Score[] scores = new MotifAligner.Score[motifs.size()];
+        if (motifs.size()<2) return scores;
+        final String topMotif = motifs.get(0);
+        final MotifAligner kernel;
+        if (ALIGNER.equals("SmithWaterman") || ALIGNER.equals("NeedlemanWunsch")) {
+            kernel = new MotifAligner(subMatrix, gapPenalty, ALIGNER.equals("SmithWaterman"));
+        } else {
+            kernel = null;
+        }
+        // each score goes to its own slot, so the order doesn't depend on the threads
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(1, motifs.size()).parallel().forEach((i) -> {
+                        String motif = motifs.get(i);
+                        if (kernel!=null && motif.length()<=MAX_MOTIF_LENGTH && topMotif.length()<=MAX_MOTIF_LENGTH && kernel.canAlign(motif, topMotif)) {
+                            scores[i] = kernel.align(motif, topMotif);
+                        } else {
+                            scores[i] = alignWithBioJava(motif, topMotif, gapPenalty, subMatrix);
+                        }
+                    })).get();
+        } finally {
+            pool.shutdown();
+        }
+        return scores;
+    }
+
+    /**
+     * Align a motif with the top motif using a new BioJava ALIGNER.
+     */
+    static MotifAligner.Score alignWithBioJava(String motif, String topMotif, GapPenalty gapPenalty, SubstitutionMatrix<NucleotideCompound> subMatrix) {
+        DNASequence thisSequence;
+        DNASequence topSequence;
+        try {
+            thisSequence = new DNASequence(motif);
+            topSequence = new DNASequence(topMotif);
+        } catch (CompoundNotFoundException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+        AbstractMatrixAligner<DNASequence,NucleotideCompound> aligner = null;
+        if (ALIGNER.equals("AnchoredPairwiseSequenceAligner")) {
+            aligner = new AnchoredPairwiseSequenceAligner<DNASequence,NucleotideCompound>(thisSequence, topSequence, gapPenalty, subMatrix);
+        } else if (ALIGNER.equals("GuanUberbacher")) {
+            aligner = new GuanUberbacher<DNASequence,NucleotideCompound>(thisSequence, topSequence, gapPenalty, subMatrix);
+        } else if (ALIGNER.equals("NeedlemanWunsch")) {
+            aligner = new NeedlemanWunsch<DNASequence,NucleotideCompound>(thisSequence, topSequence, gapPenalty, subMatrix);
+        } else {
+            aligner = new SmithWaterman<DNASequence,NucleotideCompound>(thisSequence, topSequence, gapPenalty, subMatrix);
+        }
+        MotifAligner.Score score = new MotifAligner.Score();
+        score.score = aligner.getScore();
+        score.similarity = aligner.getSimilarity();
+        score.distance = aligner.getDistance();
+        return score;
+    }
+
+    /**
+     * Run blastn with each sequence as query against all the others, merging the kept hits into a map of SequenceHits keyed by motif sequence.
+     * The subject database is built once with makeblastdb, and the queries are run on a fixed pool of the given number of threads, each
+     * running its own blastn process; self-hits are dropped, so each query is effectively searched against all the other sequences.
+     *
+     * With a cache, each query's HSPs are looked up by sequence content and only the subjects it hasn't been searched against with
+     * these parameters are searched, in tabular mode: all of them against the database if the query is new or changed, otherwise just
+     * the new or changed ones, given to blastn as a FASTA file with the database size set to that of all the sequences so that the
+     * E-value cutoff is about the same. The database is only made if some query needs it.
+     *
+     * @param sequenceMap the sequences keyed by their FASTA header
+     * @param blastParameters the blastn parameters without the dash
+     * @param threads the number of concurrent blastn runs
+     * @param tabular if true, request tabular output and read it from blastn's standard output, otherwise read XML
+     * @param cache the cache of earlier results, or null to search every query
+     * @param timing accumulates the per-stage times
+     * @return a map of SequenceHits keyed by motif sequence
+     */
+    public static Map<String,SequenceHits> blastAllVsAll(Map<String,DNASequence> sequenceMap, final Map<String,String> blastParameters, int threads, final boolean tabular,
+                                                         final BlastCache cache, final BlastTiming timing) throws Exception {
+        final ConcurrentHashMap<String,SequenceHits> seqHitsMap = new ConcurrentHashMap<String,SequenceHits>();
+        final File tempDir = Files.createTempDirectory("sequenceblaster").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final SubjectDatabase db = new SubjectDatabase(tempDir, sequenceMap.values(), timing);
+            if (cache==null) db.getName();
+            // the sequence hashes keyed by header, and their total length for blastn's database size
+            final Map<String,String> hashes = new LinkedHashMap<String,String>();
+            long letters = 0;
+            if (cache!=null) {
+                for (String header : sequenceMap.keySet()) {
+                    String sequence = sequenceMap.get(header).getSequenceAsString();
+                    hashes.put(header, BlastCache.hash(sequence));
+                    letters += sequence.length();
+                }
+            }
+            final String parameterKey = BlastCache.getParameterKey(blastParameters);
+            final long dbLetters = letters;
+            // one task per query
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final DNASequence querySequence : sequenceMap.values()) {
+                futures.add(executor.submit(() -> {
+                            if (cache==null) {
+                                blastQuery(querySequence, db.getName(), blastParameters, tabular, seqHitsMap, timing);
+                            } else {
+                                blastQueryCached(querySequence, hashes, dbLetters, db, sequenceMap, blastParameters, cache, parameterKey, seqHitsMap, timing);
+                            }
+                            return null;
+                        }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            for (File file : tempDir.listFiles()) file.delete();
+            tempDir.delete();
+        }
+        return seqHitsMap;
+    }
+
+    /**
+     * Run blastn with one query against the subject database, merging its kept hits into seqHitsMap as the HSPs are read.
+     */
+    static void blastQuery(DNASequence querySequence, String dbName, Map<String,String> blastParameters, boolean tabular,
+                           ConcurrentHashMap<String,SequenceHits> seqHitsMap, BlastTiming timing) throws IOException, InterruptedException {
+        String queryID = querySequence.getOriginalHeader();
+        byte[] queryFasta = BlastUtils.getFasta(querySequence);
+        long start = System.nanoTime();
+        final long[] mergeNanos = new long[1];
+        if (tabular) {
+            BlastUtils.runBlastnDBTabular(dbName, queryFasta, blastParameters, (hsp) -> {
+                    // self-hits are in the database but weren't searched before
+                    if (hsp.stitleEquals(queryID)) return;
+                    long mergeStart = System.nanoTime();
+                    timing.hspCount.incrementAndGet();
+                    // the combined sequence is as long as the alignment, so long HSPs can be dropped before making a SequenceHit
+                    if (hsp.getLength()<=MAX_MOTIF_LENGTH) {
+                        mergeSequenceHit(new SequenceHit(queryID, hsp.getStitle(), hsp.toHsp()), seqHitsMap);
+                    }
+                    mergeNanos[0] += System.nanoTime() - mergeStart;
+                });
+        } else {
+            BlastUtils.runBlastnDB(dbName, queryFasta, blastParameters, (iteration, hit, hsp) -> {
+                    // self-hits are in the database but weren't searched before
+                    if (hit.getHitDef().equals(queryID)) return;
+                    long mergeStart = System.nanoTime();
+                    timing.hspCount.incrementAndGet();
+                    mergeSequenceHit(new SequenceHit(queryID, hit.getHitDef(), hsp), seqHitsMap);
+                    mergeNanos[0] += System.nanoTime() - mergeStart;
+                });
+        }
+        timing.mergeMillis.addAndGet(mergeNanos[0]/1000000);
+        timing.blastnMillis.addAndGet((System.nanoTime()-start-mergeNanos[0])/1000000);
+    }
+
+    /**
+     * Look up a query's HSPs in the cache, search it against the subjects that aren't cached and cache the results, then merge its
+     * kept hits into seqHitsMap. Sequences with the same bases share their cached HSPs, so only one of them is searched.
+     */
+    static void blastQueryCached(DNASequence querySequence, Map<String,String> hashes, long dbLetters, SubjectDatabase db, Map<String,DNASequence> sequenceMap,
+                                 Map<String,String> blastParameters, BlastCache cache, String parameterKey,
+                                 ConcurrentHashMap<String,SequenceHits> seqHitsMap, BlastTiming timing) throws Exception {
+        String queryID = querySequence.getOriginalHeader();
+        String queryHash = hashes.get(queryID);
+        long start = System.nanoTime();
+        BlastCache.Entry entry = cache.get(queryHash, parameterKey);
+        if (entry==null) entry = new BlastCache.Entry(queryHash, parameterKey);
+        // the subjects to search, keyed by hash, each with the header of the one sequence to search
+        final Map<String,String> missing = new LinkedHashMap<String,String>();
+        Set<String> subjectHashes = new HashSet<String>();
+        for (String header : hashes.keySet()) {
+            if (header.equals(queryID)) continue;
+            String hash = hashes.get(header);
+            subjectHashes.add(hash);
+            if (!entry.hasSubject(hash) && !missing.containsKey(hash)) missing.put(hash, header);
+        }
+        cache.recordLookup(subjectHashes.size(), missing.size());
+        if (missing.size()>0) {
+            final Map<String,List<BlastCache.CachedHsp>> found = new HashMap<String,List<BlastCache.CachedHsp>>();
+            for (String hash : missing.keySet()) found.put(hash, new ArrayList<BlastCache.CachedHsp>());
+            BlastTabularReader.HspHandler handler = (hsp) -> {
+                String title = hsp.getStitle();
+                String hash = hashes.get(title);
+                // only keep one copy of the HSPs against sequences with the same bases
+                if (hash!=null && title.equals(missing.get(hash))) found.get(hash).add(new BlastCache.CachedHsp(hsp));
+            };
+            byte[] queryFasta = BlastUtils.getFasta(querySequence);
+            if (missing.size()==subjectHashes.size()) {
+                BlastUtils.runBlastnDBTabular(db.getName(), queryFasta, blastParameters, handler);
+            } else {
+                File subjectFile = File.createTempFile("subject", ".fasta", db.tempDir);
+                try {
+                    List<DNASequence> subjects = new ArrayList<DNASequence>();
+                    for (String header : missing.values()) subjects.add(sequenceMap.get(header));
+                    FastaWriterHelper.writeNucleotideSequence(subjectFile, subjects);
+                    Map<String,String> parameters = new HashMap<String,String>(blastParameters);
+                    parameters.put("dbsize", String.valueOf(dbLetters));
+                    BlastUtils.runBlastnTabular(subjectFile.getAbsolutePath(), queryFasta, parameters, handler);
+                } finally {
+                    subjectFile.delete();
+                }
+            }
+            for (String hash : found.keySet()) entry.putHsps(hash, found.get(hash));
+            cache.put(entry);
+        }
+        long mergeStart = System.nanoTime();
+        for (String header : hashes.keySet()) {
+            if (header.equals(queryID)) continue;
+            for (BlastCache.CachedHsp hsp : entry.getHsps(hashes.get(header))) {
+                timing.hspCount.incrementAndGet();
+                if (hsp.getLength()<=MAX_MOTIF_LENGTH) {
+                    mergeSequenceHit(new SequenceHit(queryID, header, hsp.toHsp()), seqHitsMap);
+                }
+            }
+        }
+        long end = System.nanoTime();
+        timing.mergeMillis.addAndGet((end-mergeStart)/1000000);
+        timing.blastnMillis.addAndGet((mergeStart-start)/1000000);
+    }
+
+    /**
+     * Merge a SequenceHit into seqHitsMap if its motif is short enough and contains C or G.
+     */
+    static void mergeSequenceHit(final SequenceHit seqHit, ConcurrentHashMap<String,SequenceHits> seqHitsMap) {
+        // cull motifs based on their size and content
+        boolean keep = true;
+        keep = keep && (seqHit.sequence.contains("C") || seqHit.sequence.contains("G"));
+        keep = keep && seqHit.sequence.length()<=MAX_MOTIF_LENGTH;
+        if (keep) {
+            // compute runs atomically per motif, so each SequenceHits is only modified by one thread at a time
+            seqHitsMap.compute(seqHit.sequence, (sequence, seqHitsForMotif) -> {
+                    if (seqHitsForMotif==null) return new SequenceHits(seqHit);
+                    seqHitsForMotif.addSequenceHit(seqHit);
+                    return seqHitsForMotif;
+                });
+        }
+    }
+
+    /**
+     * The subject database of all the sequences, made the first time it's needed.
+     */
+    static class SubjectDatabase {
+
+        File tempDir;
+        Collection<DNASequence> sequences;
+        BlastTiming timing;
+        String name;
+
+        SubjectDatabase(File tempDir, Collection<DNASequence> sequences, BlastTiming timing) {
+            this.tempDir = tempDir;
+            this.sequences = sequences;
+            this.timing = timing;
+        }
+
+        /**
+         * Return the database name, making it with makeblastdb from all the sequences written once to a FASTA file if need be.
+         */
+        synchronized String getName() throws Exception {
+            if (name==null) {
+                long start = System.currentTimeMillis();
+                File subjectFile = new File(tempDir, "subject.fasta");
+                FastaWriterHelper.writeNucleotideSequence(subjectFile, sequences);
+                String dbName = new File(tempDir, "subjectdb").getAbsolutePath();
+                BlastUtils.makeBlastDB(subjectFile.getAbsolutePath(), dbName);
+                timing.makeDBMillis = System.currentTimeMillis() - start;
+                name = dbName;
+            }
+            return name;
+        }
+
+    }
+
+    /**
+     * Per-stage times of blastAllVsAll; the per-query times are summed over the threads.
+     */
+    public static class BlastTiming {
+        public long makeDBMillis;
+        public AtomicLong blastnMillis = new AtomicLong(); // blastn runs and reading their output, less the merge time
+        public AtomicLong mergeMillis = new AtomicLong();
+        public AtomicLong hspCount = new AtomicLong();
+    }
+
 }
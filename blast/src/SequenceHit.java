@@ -12,6 +12,12 @@ public class SequenceHit implements Comparable {
     public String hitID;         // the ID of the hit sequence
     public Hsp hsp;              // the HSP representing the hit from blastn.
     public int score;            // the int score based on BlastUtils.scoreDNASequence().
+    public int queryIndex;       // the SequenceIDs index of queryID
+    public int hitIndex;         // the SequenceIDs index of hitID
+    public int queryFrom;        // the HSP's query and hit ranges
+    public int queryTo;
+    public int hitFrom;
+    public int hitTo;
 
     /**
      * Create a new SequenceHit from query and hit IDs and the HSP
@@ -21,6 +27,12 @@ public class SequenceHit implements Comparable {
         this.queryID = queryID;
         this.hitID = hitID;
         this.hsp = hsp;
+        this.queryIndex = SequenceIDs.intern(queryID);
+        this.hitIndex = SequenceIDs.intern(hitID);
+        this.queryFrom = Integer.parseInt(hsp.getHspQueryFrom());
+        this.queryTo = Integer.parseInt(hsp.getHspQueryTo());
+        this.hitFrom = Integer.parseInt(hsp.getHspHitFrom());
+        this.hitTo = Integer.parseInt(hsp.getHspHitTo());
         // set score to zero if sequence doesn't contain C or G with true below
         this.score = (int) Math.round(100.0*BlastUtils.scoreDNASequence(sequence));
     }
@@ -61,14 +73,14 @@ public class SequenceHit implements Comparable {
      * return a string representation of the query ID and range
      */
     public String getQueryLoc() {
-        return queryID+":"+hsp.getHspQueryFrom()+"-"+hsp.getHspQueryTo();
+        return queryID+":"+queryFrom+"-"+queryTo;
     }
 
     /**
      * return a string representation of the hit ID and range
      */
     public String getHitLoc() {
-        return hitID+":"+hsp.getHspHitFrom()+"-"+hsp.getHspHitTo();
+        return hitID+":"+hitFrom+"-"+hitTo;
     }
 
 }
@@ -1,39 +1,49 @@
 package org.ncgr.blast;
 
-import java.util.TreeMap;
+import java.util.BitSet;
 import java.util.TreeSet;
 
 /**
- * A container class that stores SequenceHit instances for the same combined sequence (motif).
+ * A container class that stores the hits for the same combined sequence (motif).
  * The method equals() matches against sequence only; compareTo() is designed to sort by score, then number of hits, then sequence alpha.
- * The score is the sum of SequenceHit.score values for DISTINCT query/subject IDs.
+ * The score is the SequenceHit.score of the motif times the number of DISTINCT query/subject IDs.
+ *
+ * The hits are not kept as SequenceHit instances: the IDs are interned with SequenceIDs and each hit's IDs and ranges are packed
+ * into int arrays, with hash sets and bitsets for uniqueness and membership, so adding a hit and the contains methods take constant
+ * time, and the score is updated as hits are added.
  *
  * @author Sam Hokin
  */
 public class SequenceHits implements Comparable {
 
-    public String sequence;                   // the sequence associated with the SequenceHit objects
-    public int score;                         // the full score = sum of SequenceHit.score values.
-    public TreeSet<SequenceHit> sequenceHits; // the SequenceHit instances contained within
-    public TreeSet<String> uniqueHits;        // a set of strings representing unique hits of the form seqID:start-end
-    public TreeSet<String> uniqueIDs;         // a set of unique query and hit IDs
+    public String sequence;                   // the sequence associated with the hits
+    public int score;                         // the full score = SequenceHit.score times the number of unique IDs
+
+    // the hits, one per unordered pair of query and hit ID indexes, smaller first
+    IntTupleSet idPairs = new IntTupleSet(2);
+
+    // queryIndex, hitIndex, queryFrom, queryTo, hitFrom, hitTo of each hit, in the order of idPairs
+    int[] hits = new int[2*HIT_WIDTH];
+    static final int HIT_WIDTH = 6;
+
+    // the unique hit ranges as (ID index, start, end)
+    IntTupleSet uniqueHits = new IntTupleSet(3);
+
+    // the unique query and hit ID indexes, and the query and hit ID indexes of the hits
+    BitSet uniqueIDs = new BitSet();
+    int uniqueIDCount;
+    BitSet queryIDs = new BitSet();
+    BitSet hitIDs = new BitSet();
 
     /**
      * Create a new SequenceHits instance from a SequenceHit
      */
     public SequenceHits(SequenceHit sequenceHit) {
-        this.sequenceHits = new TreeSet<SequenceHit>();
-        this.uniqueHits = new TreeSet<String>();
-        this.uniqueIDs = new TreeSet<String>();
         this.sequence = sequenceHit.sequence;
+        add(sequenceHit);
         this.score = sequenceHit.score*2; // double since already two hits from the start
-        this.sequenceHits.add(sequenceHit);
-        this.uniqueHits.add(sequenceHit.getQueryLoc());
-        this.uniqueHits.add(sequenceHit.getHitLoc());
-        this.uniqueIDs.add(sequenceHit.queryID);
-        this.uniqueIDs.add(sequenceHit.hitID);
     }
-        
+
     /**
      * Two are equal if they have the same sequence (regardless of hits)
      */
@@ -55,45 +65,141 @@ public class SequenceHits implements Comparable {
     }
 
     /**
-     * Adjust the score and add a SequenceHit to the set and add to uniqueHits set. The score is only incremented for new IDs.
+     * Adjust the score and add a SequenceHit and its query and hit ranges. The score is only incremented for new IDs.
      */
     public void addSequenceHit(SequenceHit sequenceHit) {
-        sequenceHits.add(sequenceHit);
-        uniqueHits.add(sequenceHit.getQueryLoc());
-        uniqueHits.add(sequenceHit.getHitLoc());
-        uniqueIDs.add(sequenceHit.queryID);
-        uniqueIDs.add(sequenceHit.hitID);
-        score = uniqueIDs.size()*sequenceHit.score;
+        add(sequenceHit);
+        score = uniqueIDCount*sequenceHit.score;
+    }
+
+    void add(SequenceHit sequenceHit) {
+        int queryIndex = sequenceHit.queryIndex;
+        int hitIndex = sequenceHit.hitIndex;
+        // a hit between the same two sequences is only kept once, in either order
+        if (idPairs.add(Math.min(queryIndex, hitIndex), Math.max(queryIndex, hitIndex))) {
+            int offset = (idPairs.size()-1)*HIT_WIDTH;
+            if (offset==hits.length) {
+                int[] grown = new int[hits.length*2];
+                System.arraycopy(hits, 0, grown, 0, hits.length);
+                hits = grown;
+            }
+            hits[offset] = queryIndex;
+            hits[offset+1] = hitIndex;
+            hits[offset+2] = sequenceHit.queryFrom;
+            hits[offset+3] = sequenceHit.queryTo;
+            hits[offset+4] = sequenceHit.hitFrom;
+            hits[offset+5] = sequenceHit.hitTo;
+            queryIDs.set(queryIndex);
+            hitIDs.set(hitIndex);
+        }
+        uniqueHits.add(queryIndex, sequenceHit.queryFrom, sequenceHit.queryTo);
+        uniqueHits.add(hitIndex, sequenceHit.hitFrom, sequenceHit.hitTo);
+        addUniqueID(queryIndex);
+        addUniqueID(hitIndex);
+    }
+
+    void addUniqueID(int index) {
+        if (!uniqueIDs.get(index)) {
+            uniqueIDs.set(index);
+            uniqueIDCount++;
+        }
     }
 
     /**
-     * Return true if this instance contains a SequenceHit with the given queryID
+     * Return the number of hits, counting hits between the same two sequences once.
      */
-    public boolean containsQueryID(String queryID) {
-        for (SequenceHit seqHit : sequenceHits) {
-            if (seqHit.queryID.equals(queryID)) return true;
+    public int getHitCount() {
+        return idPairs.size();
+    }
+
+    /**
+     * Return the query ID of hit i, in the order the hits were added.
+     */
+    public String getQueryID(int i) {
+        return SequenceIDs.get(hits[i*HIT_WIDTH]);
+    }
+
+    /**
+     * Return the hit ID of hit i, in the order the hits were added.
+     */
+    public String getHitID(int i) {
+        return SequenceIDs.get(hits[i*HIT_WIDTH+1]);
+    }
+
+    /**
+     * Return the query ID and range of hit i in the form seqID:start-end.
+     */
+    public String getQueryLoc(int i) {
+        int offset = i*HIT_WIDTH;
+        return SequenceIDs.get(hits[offset])+":"+hits[offset+2]+"-"+hits[offset+3];
+    }
+
+    /**
+     * Return the hit ID and range of hit i in the form seqID:start-end.
+     */
+    public String getHitLoc(int i) {
+        int offset = i*HIT_WIDTH;
+        return SequenceIDs.get(hits[offset+1])+":"+hits[offset+4]+"-"+hits[offset+5];
+    }
+
+    /**
+     * Return the number of unique hit ranges, query or hit.
+     */
+    public int getUniqueHitCount() {
+        return uniqueHits.size();
+    }
+
+    /**
+     * Return the unique hit ranges in the form seqID:start-end, sorted.
+     */
+    public TreeSet<String> getUniqueHits() {
+        TreeSet<String> locs = new TreeSet<String>();
+        for (int i=0; i<uniqueHits.size(); i++) {
+            locs.add(SequenceIDs.get(uniqueHits.get(i,0))+":"+uniqueHits.get(i,1)+"-"+uniqueHits.get(i,2));
         }
-        return false;
+        return locs;
     }
 
     /**
-     * Return true if this instance contains a SequenceHit with the given hitID
+     * Return the number of unique query and hit IDs.
      */
-    public boolean containsHitID(String hitID) {
-        for (SequenceHit seqHit : sequenceHits) {
-            if (seqHit.hitID.equals(hitID)) return true;
+    public int getUniqueIDCount() {
+        return uniqueIDCount;
+    }
+
+    /**
+     * Return the unique query and hit IDs, sorted.
+     */
+    public TreeSet<String> getUniqueIDs() {
+        TreeSet<String> ids = new TreeSet<String>();
+        for (int index=uniqueIDs.nextSetBit(0); index>=0; index=uniqueIDs.nextSetBit(index+1)) {
+            ids.add(SequenceIDs.get(index));
         }
-        return false;
+        return ids;
+    }
+
+    /**
+     * Return true if this instance contains a hit with the given queryID
+     */
+    public boolean containsQueryID(String queryID) {
+        int index = SequenceIDs.indexOf(queryID);
+        return index>=0 && queryIDs.get(index);
     }
 
     /**
-     * Return true if this instance contains a SequenceHit with either queryID or hitID matching the given ID
+     * Return true if this instance contains a hit with the given hitID
+     */
+    public boolean containsHitID(String hitID) {
+        int index = SequenceIDs.indexOf(hitID);
+        return index>=0 && hitIDs.get(index);
+    }
+
+    /**
+     * Return true if this instance contains a hit with either queryID or hitID matching the given ID
      */
     public boolean containsID(String id) {
-        for (SequenceHit seqHit : sequenceHits) {
-            if (seqHit.queryID.equals(id) || seqHit.hitID.equals(id)) return true;
-        }
-        return false;
+        int index = SequenceIDs.indexOf(id);
+        return index>=0 && (queryIDs.get(index) || hitIDs.get(index));
     }
 
 }
@@ -0,0 +1,61 @@
+package org.ncgr.blast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns sequence IDs as ints, numbered from zero in the order they're first seen, so that hits can be stored and compared
+ * as primitives. The numbering lasts for the life of the JVM. Safe to use from many threads at once.
+ *
+ * @author Sam Hokin
+ */
+public class SequenceIDs {
+
+    static final ConcurrentHashMap<String,Integer> INDEXES = new ConcurrentHashMap<String,Integer>();
+    static final List<String> IDS = new ArrayList<String>();
+
+    /**
+     * Return the index of the given ID, assigning the next one if it's new.
+     */
+    public static int intern(String id) {
+        Integer index = INDEXES.get(id);
+        if (index!=null) return index;
+        synchronized (IDS) {
+            index = INDEXES.get(id);
+            if (index==null) {
+                index = IDS.size();
+                IDS.add(id);
+                INDEXES.put(id, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Return the index of the given ID, or -1 if it hasn't been interned.
+     */
+    public static int indexOf(String id) {
+        Integer index = INDEXES.get(id);
+        return index==null ? -1 : index;
+    }
+
+    /**
+     * Return the ID with the given index.
+     */
+    public static String get(int index) {
+        synchronized (IDS) {
+            return IDS.get(index);
+        }
+    }
+
+    /**
+     * Return the number of IDs interned so far.
+     */
+    public static int size() {
+        synchronized (IDS) {
+            return IDS.size();
+        }
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.ncgr.blast;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One line of BLAST tabular output (-outfmt 6 or 7) with the columns in FORMAT. A BlastTabularReader reuses a single
+ * instance for every line, so a handler must copy anything it wants to keep; numeric columns are parsed without allocating,
+ * and the text columns are only turned into Strings when asked for.
+ *
+ * @author Sam Hokin
+ */
+public class TabularHsp {
+
+    /** the tabular columns, in order; stitle is last since it may contain spaces */
+    public static final String COLUMNS = "qseqid sseqid qstart qend sstart send evalue bitscore score length nident gaps qseq sseq stitle";
+    public static final int COLUMN_COUNT = 15;
+
+    /** the -outfmt value for tabular output with these columns */
+    public static final String FORMAT = "6 "+COLUMNS;
+
+    // the current line and the start and end offsets of its columns
+    byte[] line;
+    int[] starts = new int[COLUMN_COUNT];
+    int[] ends = new int[COLUMN_COUNT];
+
+    int qstart;
+    int qend;
+    int sstart;
+    int send;
+    double evalue;
+    double bitscore;
+    int score;
+    int length;
+    int nident;
+    int gaps;
+
+    /**
+     * Parse a line without its line terminator from buf[offset..end), which is kept until the next call.
+     *
+     * @throws NumberFormatException if the line doesn't have the FORMAT columns
+     */
+    void parse(byte[] buf, int offset, int end) {
+        line = buf;
+        int column = 0;
+        int start = offset;
+        for (int i=offset; i<end && column<COLUMN_COUNT-1; i++) {
+            if (buf[i]=='\t') {
+                starts[column] = start;
+                ends[column] = i;
+                column++;
+                start = i + 1;
+            }
+        }
+        if (column!=COLUMN_COUNT-1) {
+            throw new NumberFormatException("Expected "+COLUMN_COUNT+" tab-separated columns but found "+(column+1)+": "+
+                                            new String(buf, offset, end-offset, StandardCharsets.UTF_8));
+        }
+        // the last column runs to the end of the line
+        starts[column] = start;
+        ends[column] = end;
+        qstart = parseInt(2);
+        qend = parseInt(3);
+        sstart = parseInt(4);
+        send = parseInt(5);
+        evalue = parseDouble(6);
+        bitscore = parseDouble(7);
+        score = parseInt(8);
+        length = parseInt(9);
+        nident = parseInt(10);
+        gaps = parseInt(11);
+    }
+
+    int parseInt(int column) {
+        int i = starts[column];
+        int end = ends[column];
+        boolean negative = false;
+        if (i<end && line[i]=='-') {
+            negative = true;
+            i++;
+        }
+        if (i==end) throw new NumberFormatException("Empty integer in column "+(column+1)+".");
+        int value = 0;
+        for (; i<end; i++) {
+            int digit = line[i] - '0';
+            if (digit<0 || digit>9) throw new NumberFormatException("Bad integer in column "+(column+1)+": "+getString(column));
+            value = value*10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * BLAST writes evalue and bitscore as plain decimals or with an exponent, e.g. 2e-05 or 1.2e-140; the simple cases are
+     * done by hand and anything else goes to Double.parseDouble.
+     */
+    double parseDouble(int column) {
+        int i = starts[column];
+        int end = ends[column];
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i<end; i++) {
+            byte b = line[i];
+            if (b>='0' && b<='9') {
+                // more digits than a long mantissa converts exactly
+                if (digits==15) return Double.parseDouble(getString(column));
+                mantissa = mantissa*10 + (b-'0');
+                digits++;
+                if (point) scale--;
+            } else if (b=='.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (i<end && (line[i]=='e' || line[i]=='E')) {
+            i++;
+            boolean negative = false;
+            if (i<end && (line[i]=='-' || line[i]=='+')) {
+                negative = line[i]=='-';
+                i++;
+            }
+            for (; i<end; i++) {
+                int digit = line[i] - '0';
+                if (digit<0 || digit>9) break;
+                exponent = exponent*10 + digit;
+            }
+            if (negative) exponent = -exponent;
+        }
+        if (i!=end || digits==0) return Double.parseDouble(getString(column));
+        exponent += scale;
+        // exact when both the mantissa and the power of ten are exactly representable
+        if (exponent==0) return mantissa;
+        if (exponent>0 && exponent<=22) return mantissa*POWERS_OF_TEN[exponent];
+        if (exponent<0 && exponent>=-22) return mantissa/POWERS_OF_TEN[-exponent];
+        return Double.parseDouble(getString(column));
+    }
+
+    static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i=1; i<POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10.0;
+    }
+
+    String getString(int column) {
+        return new String(line, starts[column], ends[column]-starts[column], StandardCharsets.UTF_8);
+    }
+
+    public String getQseqid() {
+        return getString(0);
+    }
+
+    public String getSseqid() {
+        return getString(1);
+    }
+
+    public int getQstart() {
+        return qstart;
+    }
+
+    public int getQend() {
+        return qend;
+    }
+
+    public int getSstart() {
+        return sstart;
+    }
+
+    public int getSend() {
+        return send;
+    }
+
+    public double getEvalue() {
+        return evalue;
+    }
+
+    public double getBitscore() {
+        return bitscore;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    /** the alignment length */
+    public int getLength() {
+        return length;
+    }
+
+    public int getNident() {
+        return nident;
+    }
+
+    public int getGaps() {
+        return gaps;
+    }
+
+    /** the aligned part of the query */
+    public String getQseq() {
+        return getString(12);
+    }
+
+    /** the aligned part of the subject */
+    public String getSseq() {
+        return getString(13);
+    }
+
+    /** the subject's FASTA title, which is the Hit_def of XML output */
+    public String getStitle() {
+        return getString(14);
+    }
+
+    /**
+     * Return true if the subject title equals the given String, without creating a String from the line.
+     */
+    public boolean stitleEquals(String title) {
+        int start = starts[14];
+        int len = ends[14] - start;
+        for (int i=0; i<len; i++) {
+            // non-ASCII titles are compared as Strings
+            if (line[start+i]<0) return getStitle().equals(title);
+        }
+        if (len!=title.length()) return false;
+        for (int i=0; i<len; i++) {
+            if (line[start+i]!=title.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return an Hsp with the fields this line has, for code that works with the XML classes.
+     */
+    public Hsp toHsp() {
+        Hsp hsp = new Hsp();
+        hsp.setHspBitScore(getString(7));
+        hsp.setHspScore(String.valueOf(score));
+        hsp.setHspEvalue(getString(6));
+        hsp.setHspQueryFrom(String.valueOf(qstart));
+        hsp.setHspQueryTo(String.valueOf(qend));
+        hsp.setHspHitFrom(String.valueOf(sstart));
+        hsp.setHspHitTo(String.valueOf(send));
+        hsp.setHspIdentity(String.valueOf(nident));
+        hsp.setHspGaps(String.valueOf(gaps));
+        hsp.setHspAlignLen(String.valueOf(length));
+        hsp.setHspQseq(getQseq());
+        hsp.setHspHseq(getSseq());
+        return hsp;
+    }
+
+}
@@ -1,7 +1,5 @@
 package org.ncgr.datastore;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -47,6 +45,15 @@ public class CmapBuilder {
         String linkageGroupFilename = args[0];
         String markerFilename = args[1];
 
+        TabularWriter out = new TabularWriter(System.out);
+        build(linkageGroupFilename, markerFilename, out);
+        out.flush();
+    }
+
+    /**
+     * Write the CMap lines for the markers of the linkage groups in the given files to the given writer.
+     */
+    public static void build(String linkageGroupFilename, String markerFilename, TabularWriter out) throws IOException {
         // assume one genetic map per linkage group file
         String geneticMap = "";
         
@@ -54,34 +61,33 @@ public class CmapBuilder {
         Map<String,Integer> linkageGroups = new HashMap<>();
 
         // load the linkage groups for this run
-        BufferedReader lgin = new BufferedReader(new FileReader(linkageGroupFilename));
-        String lgline;
-        while ((lgline=lgin.readLine())!=null) {
-            String[] parts = lgline.split("\t");
-            if (parts[0].toLowerCase().equals("taxonid")) continue;
-            if (parts[0].startsWith("#")) continue;
-            geneticMap = parts[2];
-            linkageGroups.put(parts[0], Integer.parseInt(parts[1]));
+        TabularReader lgin = new TabularReader(linkageGroupFilename);
+        while (lgin.next()) {
+            if (lgin.fieldEqualsIgnoreCase(0, "taxonid")) continue;
+            if (lgin.fieldStartsWith(0, "#")) continue;
+            geneticMap = lgin.getString(2);
+            linkageGroups.put(lgin.getString(0), lgin.getInt(1));
         }
         lgin.close();
 
         // output header
-        System.out.println("map_acc\tmap_name\tmap_start\tmap_stop\tfeature_acc\tfeature_name\tfeature_aliases\tfeature_start\tfeature_stop\tfeature_type_acc\tis_landmark");
+        out.writeLine("map_acc\tmap_name\tmap_start\tmap_stop\tfeature_acc\tfeature_name\tfeature_aliases\tfeature_start\tfeature_stop\tfeature_type_acc\tis_landmark");
 
         // now spit out lines for the markers that belong to these linkage groups
         // PvCookUCDavis2009_Pv09 Pv09     0         66.1     PvCook...Pv09_Pv_TOG913042 Pv_TOG913042 TOG913042       66.1          66.1         SNP              0
-        BufferedReader min = new BufferedReader(new FileReader(markerFilename));
-        String mline;
-        while ((mline=min.readLine())!=null) {
-            String[] parts = mline.split("\t");
-            if (parts[0].toLowerCase().equals("taxonid")) continue;
-            if (parts[0].startsWith("#")) continue;
-            String markerName = parts[0];
-            String lgName = parts[1];
-            double position = Double.parseDouble(parts[2]);
-            String[] lgParts = lgName.split("_");
+        // the map name of each linkage group, the part after the underscore, is split out once
+        Map<String,String> mapNames = new HashMap<>();
+        TabularReader min = new TabularReader(markerFilename);
+        while (min.next()) {
+            if (min.fieldEqualsIgnoreCase(0, "taxonid")) continue;
+            if (min.fieldStartsWith(0, "#")) continue;
+            double position = min.getDouble(2);
+            String lgName = min.getString(1);
             if (linkageGroups.containsKey(lgName)) {
-                System.out.println(lgName+"\t"+lgParts[1]+"\t"+"0"+"\t"+position+"\t"+markerName+"\t\t\t"+position+"\t"+position+"\t\t");
+                String mapName = mapNames.computeIfAbsent(lgName, k -> k.split("_")[1]);
+                out.append(lgName).tab().append(mapName).append("\t0\t").append(position).tab();
+                min.copyField(0, out);
+                out.append("\t\t\t").append(position).tab().append(position).append("\t\t").newLine();
             }
         }
         min.close();
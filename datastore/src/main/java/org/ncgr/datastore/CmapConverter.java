@@ -1,6 +1,7 @@
 package org.ncgr.datastore;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -29,13 +30,20 @@ public class CmapConverter {
 
         String inFile = args[0];
 
+        convert(inFile, new File("."));
+    }
+
+    /**
+     * Write the mrk.tsv, qtl.tsv and expt.tsv files for the Cmap file into the given directory.
+     */
+    public static void convert(String inFile, File dir) throws FileNotFoundException, IOException {
         Map<String,Double> linkageGroups = new HashMap<>();
 
-        PrintWriter mrkWriter = new PrintWriter("mrk.tsv");
+        PrintWriter mrkWriter = new PrintWriter(new File(dir, "mrk.tsv"));
         mrkWriter.println("MapName\t");
         mrkWriter.println("#Marker\tLinkageGroup\tPosition");
 
-        PrintWriter qtlWriter = new PrintWriter("qtl.tsv");
+        PrintWriter qtlWriter = new PrintWriter(new File(dir, "qtl.tsv"));
         qtlWriter.println("MapName\t");
         qtlWriter.println("IntervalDescription\t");
         qtlWriter.println("#Identifier\tTrait\tLinkageGroup\tStart\tEnd");
@@ -80,11 +88,12 @@ public class CmapConverter {
             }
 
         }
+        in.close();
         mrkWriter.close();
         qtlWriter.close();
 
         // expt file
-        PrintWriter exptWriter = new PrintWriter("expt.tsv");
+        PrintWriter exptWriter = new PrintWriter(new File(dir, "expt.tsv"));
         exptWriter.println("MapName\t");
         exptWriter.println("Description\t");
         exptWriter.println("MappingParent\t");
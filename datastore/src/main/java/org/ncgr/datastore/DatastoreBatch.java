@@ -0,0 +1,388 @@
+package org.ncgr.datastore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs the datastore converters on many files in one JVM, on a fixed pool of threads, rather than starting a JVM per file.
+ *
+ * The jobs are read from a manifest with one job per tab-separated line: the converter, the output file, and the arguments
+ * its main takes. Relative output paths are under the output directory; blank lines and # comments are skipped.
+ * GWASConverter     glyma.KGK20170714.gwas.tsv  KGK20170714.1.txt  glyma  glyma.Wm82.gnm2
+ * GFFDeduper        glyma.Wm82.gnm2.gene.gff3   -o  glyma.Wm82.gnm2.gene.gff3.gz
+ * GTtoVCFConverter  Vu.iSelect.vcf              Vu.iSelect.gt.tsv  Vu.markers.gff3
+ *
+ * Or a directory tree is walked, classifying its files with LISFile: GFF files are deduped (or with -g singularize, reduced
+ * to one parent per record) and VCF files are converted to marker GFFs, each written to its relative path under the output
+ * directory without a .gz suffix.
+ *
+ * Each job writes to a .partial- file beside its output, which is renamed to the output when the job succeeds. A job that
+ * fails leaves no output and doesn't stop the others. The time and output size of each job, and the error of any that failed,
+ * are reported at the end, and the exit status is 1 if any failed. A .gz output is gzipped, except by GTtoVCFConverter, which
+ * leaves that to htsjdk. The .idx or .tbi index htsjdk writes beside a VCF is renamed or removed along with it.
+ */
+public class DatastoreBatch {
+
+    static final int BUFFER_SIZE = 64*1024;
+    static final String PARTIAL_PREFIX = ".partial-";
+
+    // the suffixes of the index files htsjdk writes beside a VCF
+    static final String[] INDEX_SUFFIXES = { ".idx", ".tbi" };
+
+    /**
+     * Runs a converter with its command-line arguments, writing to the given output file.
+     */
+    interface Converter {
+        void convert(String[] args, File output) throws IOException;
+    }
+
+    /**
+     * A converter run, with its timing and outcome once it's done.
+     */
+    static class Job {
+        String converter;
+        String[] args;
+        File output;
+        long millis;
+        long bytes;
+        Throwable error;
+
+        Job(String converter, File output, String... args) {
+            this.converter = converter;
+            this.output = output;
+            this.args = args;
+        }
+    }
+
+    int threads;
+    File outputDir;
+    Map<String,Converter> converters = new LinkedHashMap<>();
+
+    public DatastoreBatch(int threads, File outputDir) {
+        this.threads = threads;
+        this.outputDir = outputDir;
+
+        // conversions run one per thread, so the converters with threads of their own are given one
+        converters.put("CmapBuilder", (args, output) -> {
+                expect(args, 2, "<linkage group file> <marker file>");
+                try (TabularWriter out = new TabularWriter(openOutput(output))) {
+                    CmapBuilder.build(args[0], args[1], out);
+                }
+            });
+        converters.put("CmapConverter", (args, output) -> {
+                // the output is a directory for the mrk.tsv, qtl.tsv and expt.tsv files
+                expect(args, 1, "<Cmap file>");
+                output.mkdirs();
+                CmapConverter.convert(args[0], output);
+            });
+        converters.put("GFFDeduper", (args, output) -> {
+                boolean restoreOrder = args.length==2 && args[0].equals("-o");
+                if (args.length!=1 && !restoreOrder) throw new IllegalArgumentException("Usage: GFFDeduper [-o] <GFF file>");
+                // share the memory budget between the threads
+                long budget = (long) (GFFDeduper.DEFAULT_BUDGET_FRACTION*Runtime.getRuntime().maxMemory()/threads);
+                GFFDeduper deduper = new GFFDeduper(new File(System.getProperty("java.io.tmpdir")), budget, restoreOrder);
+                try (GFF3RecordWriter out = new GFF3RecordWriter(openOutput(output))) {
+                    deduper.dedupe(args[args.length-1], out);
+                }
+            });
+        converters.put("GFFParentSingularizer", (args, output) -> {
+                expect(args, 1, "<GFF file>");
+                try (GFF3RecordWriter out = new GFF3RecordWriter(openOutput(output))) {
+                    GFFParentSingularizer.singularize(args[0], out);
+                }
+            });
+        converters.put("GTtoVCFConverter", (args, output) -> {
+                expect(args, 2, "<gt file> <marker GFF file>");
+                GTtoVCFConverter.convert(args[0], args[1], output.getPath(), 1);
+            });
+        converters.put("GWASConverter", (args, output) -> {
+                expect(args, 3, "<GWAS file> <gensp> <chromosome prefix>");
+                try (TabularWriter out = new TabularWriter(openOutput(output))) {
+                    GWASConverter.convert(args[0], args[1], args[2], out);
+                }
+            });
+        converters.put("MarkerConverter", (args, output) -> {
+                expect(args, 5, "<marker file> <source> <coordVersion> <chromosome prefix> <marker prefix>");
+                try (GFF3RecordWriter out = new GFF3RecordWriter(openOutput(output))) {
+                    MarkerConverter.convert(args[0], args[1], args[2], args[3], args[4], out);
+                }
+            });
+        converters.put("ProbeToGene", (args, output) -> {
+                expect(args, 2, "<probe-to-gene-mapping-file> <expression-table-file>");
+                ProbeToGene probeToGene = new ProbeToGene();
+                probeToGene.loadMapping(args[0]);
+                ProbeToGene.Accumulator accumulator = probeToGene.accumulate(new File(args[1]), 1);
+                try (TabularWriter out = new TabularWriter(openOutput(output))) {
+                    probeToGene.write(accumulator, out);
+                }
+            });
+        converters.put("SoyQTLOntologyTrimmer", (args, output) -> {
+                expect(args, 1, "<Soy QTL-ontology term file>");
+                try (PrintWriter out = new PrintWriter(new OutputStreamWriter(openOutput(output), StandardCharsets.UTF_8))) {
+                    SoyQTLOntologyTrimmer.trim(args[0], out);
+                    if (out.checkError()) throw new IOException("Error writing "+output);
+                }
+            });
+        converters.put("VCFToGFFConverter", (args, output) -> {
+                expect(args, 3, "<VCF/TXT> <source> <input-file>");
+                try (GFF3RecordWriter out = new GFF3RecordWriter(openOutput(output))) {
+                    VCFToGFFConverter.convert(args[0], args[1], args[2], out);
+                }
+            });
+    }
+
+    public static void main(String[] args) throws FileNotFoundException, IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outputDir = null;
+        File walkDir = null;
+        String gffConverter = "GFFDeduper";
+        String source = "LIS";
+        int i = 0;
+        while (i<args.length-1 && args[i].startsWith("-")) {
+            if (args[i].equals("-t")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-o")) {
+                outputDir = new File(args[++i]);
+            } else if (args[i].equals("-d")) {
+                walkDir = new File(args[++i]);
+            } else if (args[i].equals("-g")) {
+                String gffOperation = args[++i];
+                gffConverter = gffOperation.equals("dedupe") ? "GFFDeduper" : (gffOperation.equals("singularize") ? "GFFParentSingularizer" : null);
+            } else if (args[i].equals("-s")) {
+                source = args[++i];
+            } else {
+                break;
+            }
+            i++;
+        }
+        boolean walk = walkDir!=null && i==args.length && outputDir!=null;
+        boolean manifest = walkDir==null && i==args.length-1;
+        if (threads<1 || gffConverter==null || (!walk && !manifest)) {
+            System.out.println("Usage: DatastoreBatch [-t threads] [-o output-dir] <manifest file>");
+            System.out.println("       DatastoreBatch [-t threads] -o <output-dir> [-g dedupe|singularize] [-s VCF source] -d <directory>");
+            System.out.println("  manifest lines: <converter> <output file> <converter arguments...>, tab-separated");
+            System.exit(0);
+        }
+        if (outputDir==null) outputDir = new File(".");
+
+        DatastoreBatch batch = new DatastoreBatch(threads, outputDir);
+        List<Job> jobs;
+        try {
+            if (walk) {
+                if (walkDir.getCanonicalFile().equals(outputDir.getCanonicalFile())) {
+                    throw new IllegalArgumentException("The output directory must not be the directory being walked.");
+                }
+                jobs = batch.walk(walkDir, gffConverter, source);
+            } else {
+                jobs = batch.readManifest(args[i]);
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        batch.run(jobs);
+        long millis = System.currentTimeMillis() - start;
+        if (batch.report(jobs, millis, System.out)>0) System.exit(1);
+    }
+
+    static void expect(String[] args, int count, String usage) {
+        if (args.length!=count) throw new IllegalArgumentException("Usage: "+usage);
+    }
+
+    /**
+     * Open an output file, gzipped if its name ends in .gz.
+     */
+    static OutputStream openOutput(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz")) out = new GZIPOutputStream(out, BUFFER_SIZE);
+        return out;
+    }
+
+    /**
+     * Read the jobs of a manifest, checking that their converters exist.
+     *
+     * @throws IllegalArgumentException if a line doesn't name a known converter and an output
+     */
+    public List<Job> readManifest(String manifestFile) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        try (TabularReader in = new TabularReader(manifestFile)) {
+            while (in.next()) {
+                if (in.isBlank() || in.startsWith("#")) continue;
+                int fields = in.getFieldCount();
+                if (fields<2) {
+                    throw new IllegalArgumentException("Manifest line "+in.getLineNumber()+" needs a converter and an output file: "+in.getLine());
+                }
+                String converter = in.getString(0).trim();
+                if (!converters.containsKey(converter)) {
+                    throw new IllegalArgumentException("Manifest line "+in.getLineNumber()+" has an unknown converter "+converter+"; known converters are "+
+                                                       converters.keySet());
+                }
+                File output = new File(in.getString(1));
+                if (!output.isAbsolute()) output = new File(outputDir, in.getString(1));
+                String[] args = new String[fields-2];
+                for (int j=0; j<args.length; j++) args[j] = in.getString(j+2);
+                jobs.add(new Job(converter, output, args));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Make a job for each GFF and VCF file under the directory, in name order.
+     */
+    public List<Job> walk(File dir, String gffConverter, String source) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        walk(dir.getCanonicalFile(), dir.getCanonicalFile(), outputDir.getCanonicalFile(), gffConverter, source, jobs);
+        return jobs;
+    }
+
+    void walk(File root, File dir, File skipDir, String gffConverter, String source, List<Job> jobs) {
+        File[] files = dir.listFiles();
+        if (files==null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            LISFile lisFile = new LISFile(file);
+            if (lisFile.isDirectory()) {
+                if (!file.equals(skipDir)) walk(root, file, skipDir, gffConverter, source, jobs);
+                continue;
+            }
+            if (!lisFile.isFile() || file.getName().startsWith(PARTIAL_PREFIX)) continue;
+            String path = root.toPath().relativize(file.toPath()).toString();
+            if (path.endsWith(".gz")) path = path.substring(0, path.length()-3);
+            if (lisFile.isGFF()) {
+                jobs.add(new Job(gffConverter, new File(outputDir, path), file.getPath()));
+            } else if (lisFile.isVCF()) {
+                path = path.substring(0, path.length()-3) + "gff3";
+                jobs.add(new Job("VCFToGFFConverter", new File(outputDir, path), "VCF", source, file.getPath()));
+            }
+        }
+    }
+
+    /**
+     * Run the jobs on the thread pool, returning when all are done.
+     */
+    public void run(List<Job> jobs) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final Job job : jobs) {
+                futures.add(executor.submit(() -> run(job)));
+            }
+            for (Future<?> future : futures) future.get();
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a job to its .partial- file and rename that to the output, or record the job's error and remove the partial output.
+     */
+    void run(Job job) {
+        File output = job.output.getAbsoluteFile();
+        File partial = new File(output.getParentFile(), PARTIAL_PREFIX+output.getName());
+        long start = System.currentTimeMillis();
+        try {
+            output.getParentFile().mkdirs();
+            deleteWithIndex(partial);
+            converters.get(job.converter).convert(job.args, partial);
+            job.bytes = size(partial);
+            moveInto(partial, output);
+            for (String suffix : INDEX_SUFFIXES) {
+                File index = new File(partial.getPath()+suffix);
+                if (index.exists()) moveInto(index, new File(output.getPath()+suffix));
+            }
+        } catch (Throwable t) {
+            // anything a converter throws, including running out of memory, fails only its own job
+            job.error = t;
+            deleteWithIndex(partial);
+        }
+        job.millis = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Replace the output with the partial file, or for a directory, move the partial directory's files into it.
+     */
+    static void moveInto(File partial, File output) throws IOException {
+        if (!partial.isDirectory()) {
+            Files.move(partial.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        output.mkdirs();
+        File[] files = partial.listFiles();
+        if (files!=null) {
+            for (File file : files) moveInto(file, new File(output, file.getName()));
+        }
+        partial.delete();
+    }
+
+    static long size(File file) {
+        if (!file.isDirectory()) return file.length();
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files!=null) {
+            for (File child : files) size += size(child);
+        }
+        return size;
+    }
+
+    static void deleteWithIndex(File file) {
+        delete(file);
+        for (String suffix : INDEX_SUFFIXES) delete(new File(file.getPath()+suffix));
+    }
+
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files!=null) {
+            for (File child : files) delete(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Print a line per job and a summary, returning the number of jobs that failed.
+     */
+    public int report(List<Job> jobs, long wallMillis, PrintStream out) {
+        int failed = 0;
+        long jobMillis = 0;
+        long bytes = 0;
+        out.println("#status\tms\tbytes\tconverter\toutput\targuments\terror");
+        for (Job job : jobs) {
+            jobMillis += job.millis;
+            bytes += job.bytes;
+            if (job.error!=null) failed++;
+            out.println((job.error==null ? "OK" : "FAILED")+"\t"+job.millis+"\t"+job.bytes+"\t"+job.converter+"\t"+job.output.getPath()+"\t"+
+                        String.join(" ", job.args)+"\t"+(job.error==null ? "" : job.error.toString()));
+        }
+        out.println("# "+jobs.size()+" jobs, "+failed+" failed, "+bytes+" bytes written; "+jobMillis+" ms of job time in "+wallMillis+
+                    " ms on "+threads+" thread"+(threads>1 ? "s" : "")+".");
+        return failed;
+    }
+
+}
@@ -46,20 +46,8 @@ public class GFF3Feature extends Feature {
      * Return a Feature given a GFF3 record string. Location contains strand.
      */
     private static Feature getFeature(String gff3Record) {
-    	String[] fields = gff3Record.split("\\t");
-	String seqname = fields[0];
-	String source = fields[1];
-	String type = fields[2];
-	int start = Integer.parseInt(fields[3]);
-	int end = Integer.parseInt(fields[4]);
-	char strand = fields[6].charAt(0);
-	Location location = Location.fromBio(start, end, strand);
-	double score = 0.0;
-	if (!fields[5].equals(".")) score = Double.parseDouble(fields[5]);
-	int frame = 0;
-	if (!fields[7].equals(".")) frame = Integer.parseInt(fields[7]);
-	String attributes = fields[8];
-	return new Feature(seqname, source, type, location, score, frame, attributes);
+	// GFF3Record finds the columns and parses the coordinates in place, without split
+	return new GFF3Record(gff3Record).toFeature();
     }
 
     /**
@@ -78,16 +66,22 @@ public class GFF3Feature extends Feature {
      * @override
      */
     public String toString() {
-	String rec = "";
-	rec += seqname() + "\t";
-	rec += source() + "\t";
-	rec += type() + "\t";
-	rec += location().bioStart() + "\t";
-	rec += location().bioEnd() + "\t";
-	rec += score() + "\t";
-	rec += location().bioStrand() + "\t";
-	rec += frame() + "\t";
-	rec += attributes();
-	return rec;
+	return appendTo(new StringBuilder(), this).toString();
+    }
+
+    /**
+     * Append the GFF3 columns of the given Feature to a StringBuilder, as toString formats them, without a line terminator.
+     */
+    public static StringBuilder appendTo(StringBuilder sb, Feature feature) {
+	Location location = feature.location();
+	return sb.append(feature.seqname()).append('\t')
+	    .append(feature.source()).append('\t')
+	    .append(feature.type()).append('\t')
+	    .append(location.bioStart()).append('\t')
+	    .append(location.bioEnd()).append('\t')
+	    .append(feature.score()).append('\t')
+	    .append(location.bioStrand()).append('\t')
+	    .append(feature.frame()).append('\t')
+	    .append(feature.attributes());
     }
 }
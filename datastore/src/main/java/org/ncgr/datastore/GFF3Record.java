@@ -0,0 +1,239 @@
+package org.ncgr.datastore;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.biojava.nbio.genome.parsers.gff.Location;
+
+/**
+ * A single line of a GFF3 file, as read by GFF3RecordReader: either a feature with its nine tab-separated columns, or a
+ * comment, directive or FASTA line that is passed through as it is.
+ *
+ * Only the tab positions are found when a line is read. Columns are cut out of the line when they're asked for, coordinates
+ * are parsed in place, and the attributes are only split into a map if getAttributes is called; getAttribute finds a single
+ * value without building the map.
+ *
+ * 0 seqid - name of the chromosome or scaffold
+ * 1 source - name of the program that generated this feature, or the data source (database or project name)
+ * 2 type - type of feature. Must be a term or accession from the SOFA sequence ontology
+ * 3 start - Start position of the feature, with sequence numbering starting at 1.
+ * 4 end - End position of the feature, with sequence numbering starting at 1.
+ * 5 score - A floating point value or '.'.
+ * 6 strand - defined as + (forward) or - (reverse).
+ * 7 phase - One of '0', '1', '2' or '.'.
+ * 8 attributes
+ */
+public class GFF3Record {
+
+    public static final int COLUMNS = 9;
+
+    String line;
+    long lineNumber;
+    boolean feature;
+
+    // the offset of the start of each column, plus one past the end of the line
+    int[] starts = new int[COLUMNS+1];
+
+    // parsed on demand
+    Map<String,String> attributes;
+
+    GFF3Record() {
+    }
+
+    /**
+     * Parse a single GFF3 line. Lines starting with # are comments or directives; anything else must have nine tab-separated
+     * columns, the last of which may be empty.
+     */
+    public GFF3Record(String line) {
+        set(line, 0, false);
+    }
+
+    /**
+     * Set this record to the given line, which is a feature line unless it starts with # or passThrough is true.
+     */
+    void set(String line, long lineNumber, boolean passThrough) {
+        this.line = line;
+        this.lineNumber = lineNumber;
+        attributes = null;
+        feature = !passThrough && !line.startsWith("#");
+        if (!feature) return;
+        int column = 1;
+        starts[0] = 0;
+        for (int i=line.indexOf('\t'); i>=0 && column<COLUMNS; i=line.indexOf('\t', i+1)) {
+            starts[column++] = i + 1;
+        }
+        if (column<COLUMNS) {
+            throw new IllegalArgumentException("GFF3 line "+(lineNumber>0 ? lineNumber+" " : "")+"has "+column+" columns, "+COLUMNS+" are required: "+line);
+        }
+        starts[COLUMNS] = line.length() + 1;
+    }
+
+    /**
+     * Return a copy of this record, for keeping a record from a reader that reuses it.
+     */
+    public GFF3Record copy() {
+        GFF3Record copy = new GFF3Record();
+        copy.line = line;
+        copy.lineNumber = lineNumber;
+        copy.feature = feature;
+        copy.starts = starts.clone();
+        copy.attributes = attributes;
+        return copy;
+    }
+
+    /**
+     * Return true if this is a feature line, false for a comment, directive or FASTA line.
+     */
+    public boolean isFeature() {
+        return feature;
+    }
+
+    /**
+     * Return the whole line, without its terminator.
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Return the line number in the file, starting at 1; zero for a record not read from a file.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Return the given column (0-8) as a String.
+     */
+    public String getColumn(int column) {
+        return line.substring(starts[column], starts[column+1]-1);
+    }
+
+    public String getSeqid() {
+        return getColumn(0);
+    }
+    public String getSource() {
+        return getColumn(1);
+    }
+    public String getType() {
+        return getColumn(2);
+    }
+    public int getStart() {
+        return parseInt(3);
+    }
+    public int getEnd() {
+        return parseInt(4);
+    }
+    public String getScore() {
+        return getColumn(5);
+    }
+    public char getStrand() {
+        return line.charAt(starts[6]);
+    }
+    public String getPhase() {
+        return getColumn(7);
+    }
+    public String getAttributesColumn() {
+        return getColumn(8);
+    }
+
+    /**
+     * Return true if the type column equals the given type, without cutting it out of the line.
+     */
+    public boolean isType(String type) {
+        return starts[3]-1-starts[2]==type.length() && line.startsWith(type, starts[2]);
+    }
+
+    /**
+     * Return the value of the given attribute, or null if it isn't present. The attributes column is scanned in place.
+     */
+    public String getAttribute(String name) {
+        if (attributes!=null) return attributes.get(name);
+        int end = starts[COLUMNS] - 1;
+        int pos = starts[8];
+        while (pos<end) {
+            int semicolon = line.indexOf(';', pos);
+            if (semicolon<0 || semicolon>end) semicolon = end;
+            int keyStart = pos;
+            while (keyStart<semicolon && line.charAt(keyStart)==' ') keyStart++;
+            if (line.startsWith(name, keyStart) && keyStart+name.length()<semicolon && line.charAt(keyStart+name.length())=='=') {
+                return line.substring(keyStart+name.length()+1, semicolon);
+            }
+            pos = semicolon + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Return the attributes as an unmodifiable map in the order of the line, parsed on first use.
+     */
+    public Map<String,String> getAttributes() {
+        if (attributes==null) {
+            Map<String,String> map = new LinkedHashMap<>();
+            if (feature) {
+                for (String attribute : getAttributesColumn().split(";")) {
+                    int equals = attribute.indexOf('=');
+                    if (equals<0) {
+                        if (attribute.trim().length()>0) map.put(attribute.trim(), "");
+                    } else {
+                        map.put(attribute.substring(0, equals).trim(), attribute.substring(equals+1));
+                    }
+                }
+            }
+            attributes = Collections.unmodifiableMap(map);
+        }
+        return attributes;
+    }
+
+    /**
+     * Return a GFF3Feature with the contents of this record, parsed as GFF3Feature(String) does.
+     */
+    public GFF3Feature toFeature() {
+        char strand = getStrand();
+        Location location = Location.fromBio(getStart(), getEnd(), strand);
+        String score = getScore();
+        String phase = getPhase();
+        return new GFF3Feature(getSeqid(), getSource(), getType(), location,
+                               score.equals(".") ? 0.0 : Double.parseDouble(score),
+                               phase.equals(".") ? 0 : Integer.parseInt(phase),
+                               getAttributesColumn());
+    }
+
+    /**
+     * Parse an integer column in place, as Integer.parseInt does; anything but a short run of digits is left to it.
+     */
+    int parseInt(int column) {
+        int from = starts[column];
+        int to = starts[column+1] - 1;
+        if (from==to) throw new NumberFormatException("GFF3 line "+lineNumber+" has an empty "+(column==3 ? "start" : "end")+" column.");
+        if (to-from<10) {
+            boolean negative = line.charAt(from)=='-';
+            int i = (negative || line.charAt(from)=='+') ? from + 1 : from;
+            if (i<to) {
+                int value = 0;
+                for (; i<to; i++) {
+                    int digit = line.charAt(i) - '0';
+                    if (digit<0 || digit>9) break;
+                    value = value*10 + digit;
+                }
+                if (i==to) return negative ? -value : value;
+            }
+        }
+        // long, a lone sign or malformed: let Integer.parseInt decide
+        try {
+            return Integer.parseInt(getColumn(column));
+        } catch (NumberFormatException ex) {
+            throw new NumberFormatException("GFF3 line "+lineNumber+" has a coordinate that is not an int: "+getColumn(column));
+        }
+    }
+
+    /**
+     * Return the line.
+     */
+    @Override
+    public String toString() {
+        return line;
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.ncgr.datastore;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the lines of a GFF3 file as GFF3Records, so that a file of any size can be processed one line at a time instead of
+ * being loaded into a FeatureList. Blank lines are skipped; comments and directives are returned as non-feature records so
+ * they can be passed through, as is everything after a ##FASTA directive.
+ *
+ * The reader reuses one character buffer, one line buffer and one GFF3Record for the whole file: the record returned by next()
+ * is only valid until the next call, so use GFF3Record.copy() to keep one.
+ */
+public class GFF3RecordReader implements Closeable, Iterable<GFF3Record> {
+
+    static final int BUFFER_SIZE = 64*1024;
+
+    Reader in;
+    char[] buffer = new char[BUFFER_SIZE];
+    int position;
+    int limit;
+
+    StringBuilder lineBuffer = new StringBuilder(256);
+    GFF3Record record = new GFF3Record();
+    long lineNumber;
+    boolean fasta;
+
+    public GFF3RecordReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read a GFF3 file, gunzipped if its name ends in .gz.
+     */
+    public GFF3RecordReader(String filename) throws IOException {
+        InputStream stream = new FileInputStream(filename);
+        if (filename.endsWith(".gz")) stream = new GZIPInputStream(stream, BUFFER_SIZE);
+        in = new InputStreamReader(stream, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the next non-blank line as a record, or null at the end of the file. The record is reused on the next call.
+     *
+     * @throws IllegalArgumentException if a feature line doesn't have nine columns
+     */
+    public GFF3Record next() throws IOException {
+        String line;
+        while ((line=readLine())!=null) {
+            if (line.length()==0) continue;
+            record.set(line, lineNumber, fasta);
+            if (!fasta && line.startsWith("##FASTA")) fasta = true;
+            return record;
+        }
+        return null;
+    }
+
+    /**
+     * Return the next feature record, skipping comments, directives and FASTA, or null at the end of the file.
+     */
+    public GFF3Record nextFeature() throws IOException {
+        GFF3Record next;
+        while ((next=next())!=null) {
+            if (next.isFeature()) return next;
+        }
+        return null;
+    }
+
+    /**
+     * Iterate over the feature records, reusing the record as next() does. IOExceptions are rethrown as UncheckedIOException.
+     */
+    @Override
+    public Iterator<GFF3Record> iterator() {
+        return new Iterator<GFF3Record>() {
+            GFF3Record next;
+            boolean fetched;
+
+            public boolean hasNext() {
+                if (!fetched) {
+                    try {
+                        next = nextFeature();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    fetched = true;
+                }
+                return next!=null;
+            }
+
+            public GFF3Record next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                fetched = false;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Read a line into the line buffer, dropping the terminator; null at the end of the file.
+     */
+    String readLine() throws IOException {
+        lineBuffer.setLength(0);
+        boolean any = false;
+        while (true) {
+            if (position==limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit<=0) {
+                    limit = 0;
+                    if (!any) return null;
+                    break;
+                }
+            }
+            any = true;
+            int start = position;
+            while (position<limit && buffer[position]!='\n') position++;
+            lineBuffer.append(buffer, start, position-start);
+            if (position<limit) {
+                position++;
+                break;
+            }
+        }
+        lineNumber++;
+        int length = lineBuffer.length();
+        if (length>0 && lineBuffer.charAt(length-1)=='\r') lineBuffer.setLength(length-1);
+        return lineBuffer.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
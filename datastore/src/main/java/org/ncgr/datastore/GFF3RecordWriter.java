@@ -0,0 +1,77 @@
+package org.ncgr.datastore;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.biojava.nbio.genome.parsers.gff.Feature;
+
+/**
+ * Writes GFF3 lines through a TabularWriter, instead of a System.out.println per feature. Feature lines are written a field
+ * at a time straight into its buffer, so writing a feature makes no intermediate Strings.
+ *
+ * Closing the writer flushes it; writers on System.out should be flushed rather than closed.
+ */
+public class GFF3RecordWriter implements Closeable, Flushable {
+
+    TabularWriter out;
+    StringBuilder line = new StringBuilder(256);
+
+    public GFF3RecordWriter(TabularWriter out) {
+        this.out = out;
+    }
+
+    public GFF3RecordWriter(OutputStream out) {
+        this(new TabularWriter(out));
+    }
+
+    /**
+     * Write a comment, directive or any other line as it is.
+     */
+    public void writeLine(String text) throws IOException {
+        out.writeLine(text);
+    }
+
+    /**
+     * Write a record's line as it was read.
+     */
+    public void write(GFF3Record record) throws IOException {
+        writeLine(record.getLine());
+    }
+
+    /**
+     * Write a feature line from its columns. The score and phase are written as given, so pass "." for none.
+     */
+    public void write(String seqid, String source, String type, int start, int end, String score, char strand, String phase, String attributes) throws IOException {
+        out.append(seqid).tab()
+            .append(source).tab()
+            .append(type).tab()
+            .append(start).tab()
+            .append(end).tab()
+            .append(score).tab()
+            .append(strand).tab()
+            .append(phase).tab()
+            .append(attributes).newLine();
+    }
+
+    /**
+     * Write a feature as GFF3Feature.toString formats it, with a strand column.
+     */
+    public void write(Feature feature) throws IOException {
+        line.setLength(0);
+        GFF3Feature.appendTo(line, feature).append('\n');
+        out.append(line);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
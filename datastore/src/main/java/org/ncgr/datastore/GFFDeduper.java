@@ -1,70 +1,414 @@
 package org.ncgr.datastore;
 
-import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-    
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-
-import org.biojava.nbio.genome.parsers.gff.FeatureList;
-import org.biojava.nbio.genome.parsers.gff.FeatureI;
-import org.biojava.nbio.genome.parsers.gff.GFF3Reader;
-import org.biojava.nbio.genome.parsers.gff.GFF3Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Removes dupe records (same ID) from a GFF.
+ * Removes dupe records (same ID) from a GFF. The first record of an ID is kept, unless a later one has a Name that isn't
+ * derived from the ID, in which case the last such record is kept. Records without an ID are all kept.
+ *
+ * The GFF is streamed, and the records are collected in memory, one per ID, until a memory budget is reached. They're then
+ * sorted by ID and spilled to a temporary run file, and at the end the runs are merged, combining the records of each ID, so
+ * the heap needed doesn't depend on the size of the GFF. A merge reads at most MAX_FAN_IN runs at once; when there are more,
+ * they're first merged in groups into longer runs, so the number of open files doesn't depend on it either. The output is in
+ * ID order, or with -o in the original order of the file, placing each kept record where its ID first appears, which takes a
+ * second external sort. The comment lines at the top of the file are written first.
  */
 public class GFFDeduper {
+
+    // default memory budget for buffered records, as a fraction of the maximum heap
+    static final double DEFAULT_BUDGET_FRACTION = 0.25;
+
+    // estimated heap bytes per buffered record besides its strings
+    static final int ENTRY_OVERHEAD = 160;
+
+    // the most run files a merge reads at once; more are first merged into longer runs
+    static final int MAX_FAN_IN = 64;
+
+    /**
+     * A kept record: its ID, where the ID first appears, and the line kept for it.
+     */
+    static class Entry {
+        String id;          // null for a record without an ID
+        long firstLine;     // line number of the first record with this ID
+        long line;          // line number of the kept record
+        boolean preferred;  // true if the kept record has a Name not derived from the ID
+        String text;
+
+        /**
+         * Fold in a later record, or a combined set of later records, with the same ID.
+         */
+        void combine(Entry later) {
+            firstLine = Math.min(firstLine, later.firstLine);
+            if (later.preferred) {
+                line = later.line;
+                preferred = true;
+                text = later.text;
+            }
+        }
+
+        long size() {
+            return ENTRY_OVERHEAD + 2L*(text.length() + (id==null ? 0 : id.length()));
+        }
+    }
+
+    static final Comparator<Entry> BY_ID = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            int c = e1.id.compareTo(e2.id);
+            return (c!=0) ? c : Long.compare(e1.firstLine, e2.firstLine);
+        }
+    };
+
+    static final Comparator<Entry> BY_FIRST_LINE = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            return Long.compare(e1.firstLine, e2.firstLine);
+        }
+    };
+
+    File tempDir;
+    long budget;
+    boolean restoreOrder;
+
+    List<String> headerLines = new ArrayList<>();
+    List<File> runs = new ArrayList<>();       // sorted by ID
+    List<File> orderRuns = new ArrayList<>();  // sorted by line
+    long records;
+    long noIdRecords;
+    long kept;
+    List<File> runFiles = new ArrayList<>();  // every run file made, for deleting at the end
+
+    /**
+     * @throws IllegalArgumentException if the memory budget isn't positive
+     */
+    public GFFDeduper(File tempDir, long budget, boolean restoreOrder) {
+        if (budget<=0) throw new IllegalArgumentException("The memory budget must be positive.");
+        this.tempDir = tempDir;
+        this.budget = budget;
+        this.restoreOrder = restoreOrder;
+    }
+
     public static void main(String[] args) throws FileNotFoundException, IOException {
-        if (args.length!=1) {
-            System.out.println("Usage: GFFDeduper <GFF file>");
+        boolean restoreOrder = false;
+        long budget = (long) (DEFAULT_BUDGET_FRACTION*Runtime.getRuntime().maxMemory());
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        int i = 0;
+        while (i<args.length-1 && args[i].startsWith("-")) {
+            if (args[i].equals("-o")) {
+                restoreOrder = true;
+            } else if (args[i].equals("-m") && i<args.length-2) {
+                budget = Long.parseLong(args[++i])*1024*1024;
+            } else if (args[i].equals("-T") && i<args.length-2) {
+                tempDir = new File(args[++i]);
+            } else {
+                break;
+            }
+            i++;
+        }
+        if (args.length-i!=1 || budget<=0) {
+            System.out.println("Usage: GFFDeduper [-o] [-m memory-MB] [-T temp-dir] <GFF file>");
+            System.out.println("  -o  write the records in their original order rather than by ID");
+            System.out.println("  -m  memory budget for buffered records, at least 1 MB");
             System.exit(0);
         }
 
-        String inFile = args[0];
+        String inFile = args[i];
 
-        // grab the top comment lines
-        List<String> headerLines = new ArrayList<>();
-        BufferedReader in = new BufferedReader(new FileReader(inFile));
-        String line;
-        while ((line=in.readLine()).startsWith("#")) {
-            headerLines.add(line);
+        GFFDeduper deduper = new GFFDeduper(tempDir, budget, restoreOrder);
+        GFF3RecordWriter out = new GFF3RecordWriter(System.out);
+        deduper.dedupe(inFile, out);
+        out.flush();
+        System.err.println("GFFDeduper: kept "+deduper.kept+" of "+deduper.records+" records, using "+deduper.runFiles.size()+" temporary runs.");
+    }
+
+    /**
+     * Dedupe the GFF file to the writer.
+     */
+    public void dedupe(String inFile, GFF3RecordWriter out) throws IOException {
+        try {
+            List<Entry> noIdEntries = new ArrayList<>();
+            Map<String,Entry> entries = new HashMap<>();
+            long bytes = 0;
+
+            // grab the top comment lines, and collect the records by ID, spilling runs when the budget is reached
+            try (GFF3RecordReader in = new GFF3RecordReader(inFile)) {
+                GFF3Record record;
+                while ((record=in.next())!=null) {
+                    if (!record.isFeature()) {
+                        if (records==0) headerLines.add(record.getLine());
+                        continue;
+                    }
+                    records++;
+                    Entry entry = new Entry();
+                    entry.id = record.getAttribute("ID");
+                    entry.firstLine = record.getLineNumber();
+                    entry.line = record.getLineNumber();
+                    entry.text = record.getLine();
+                    if (entry.id==null) {
+                        noIdRecords++;
+                        noIdEntries.add(entry);
+                        bytes += entry.size();
+                    } else {
+                        // replace if this name is not based on ID
+                        String name = record.getAttribute("Name");
+                        entry.preferred = name!=null && !entry.id.contains(name);
+                        Entry earlier = entries.get(entry.id);
+                        if (earlier==null) {
+                            entries.put(entry.id, entry);
+                            bytes += entry.size();
+                        } else if (entry.preferred) {
+                            bytes -= earlier.size();
+                            earlier.combine(entry);
+                            bytes += earlier.size();
+                        }
+                    }
+                    if (bytes>budget) {
+                        runs.add(spill(new ArrayList<>(entries.values()), BY_ID));
+                        entries.clear();
+                        if (noIdEntries.size()>0) orderRuns.add(spill(noIdEntries, BY_FIRST_LINE));
+                        noIdEntries.clear();
+                        bytes = 0;
+                    }
+                }
+            }
+
+            // output header
+            for (String headerLine : headerLines) {
+                out.writeLine(headerLine);
+            }
+
+            // merge the runs, or just sort if nothing was spilled
+            List<Entry> sorted = new ArrayList<>(entries.values());
+            entries = null;
+            Collections.sort(sorted, BY_ID);
+            reduce(runs, BY_ID);
+            List<EntryReader> readers = new ArrayList<>();
+            for (File run : runs) readers.add(new EntryReader(run));
+            readers.add(new EntryReader(sorted));
+
+            if (!restoreOrder) {
+                // output GFF lines by ID, then those without in file order
+                mergeById(readers, entry -> out.writeLine(entry.text));
+                reduce(orderRuns, BY_FIRST_LINE);
+                List<EntryReader> noIdReaders = new ArrayList<>();
+                for (File run : orderRuns) noIdReaders.add(new EntryReader(run));
+                noIdReaders.add(new EntryReader(noIdEntries));
+                merge(noIdReaders, BY_FIRST_LINE, entry -> {
+                        out.writeLine(entry.text);
+                        kept++;
+                    });
+                return;
+            }
+
+            // sort the kept records back into file order, with those without an ID (some of which may have been spilled already)
+            final List<Entry> buffer = noIdEntries;
+            final long[] bufferBytes = new long[1];
+            for (Entry entry : buffer) bufferBytes[0] += entry.size();
+            mergeById(readers, entry -> {
+                    buffer.add(entry);
+                    bufferBytes[0] += entry.size();
+                    if (bufferBytes[0]>budget) {
+                        orderRuns.add(spill(buffer, BY_FIRST_LINE));
+                        buffer.clear();
+                        bufferBytes[0] = 0;
+                    }
+                });
+            Collections.sort(buffer, BY_FIRST_LINE);
+            reduce(orderRuns, BY_FIRST_LINE);
+            List<EntryReader> orderReaders = new ArrayList<>();
+            for (File run : orderRuns) orderReaders.add(new EntryReader(run));
+            orderReaders.add(new EntryReader(buffer));
+            merge(orderReaders, BY_FIRST_LINE, entry -> out.writeLine(entry.text));
+            kept += noIdRecords;
+
+        } finally {
+            for (File run : runFiles) run.delete();
         }
-        in.close();
+    }
 
-        GFF3Reader gffReader = new GFF3Reader();
-        FeatureList featureList = gffReader.read(inFile);
+    interface EntryHandler {
+        void handle(Entry entry) throws IOException;
+    }
 
-        Map<String,FeatureI> featureMap = new HashMap<>();
+    /**
+     * Merge runs sorted by ID, combining the entries of each ID in file order, and hand each combined entry to the handler.
+     */
+    void mergeById(List<EntryReader> readers, EntryHandler handler) throws IOException {
+        final Entry[] current = new Entry[1];
+        merge(readers, BY_ID, entry -> {
+                if (current[0]!=null && current[0].id.equals(entry.id)) {
+                    current[0].combine(entry);
+                } else {
+                    if (current[0]!=null) {
+                        handler.handle(current[0]);
+                        kept++;
+                    }
+                    current[0] = entry;
+                }
+            });
+        if (current[0]!=null) {
+            handler.handle(current[0]);
+            kept++;
+        }
+    }
 
-        for (FeatureI feature : featureList) {
-            String id = feature.getAttribute("ID");
-            String name = feature.getAttribute("Name");
-            if (featureMap.containsKey(id)) {
-                // replace if this name is not based on ID
-                if (name!=null && !id.contains(name)) {
-                    featureMap.put(id, feature);
+    /**
+     * K-way merge of sorted runs, handing the entries to the handler in order.
+     */
+    static void merge(List<EntryReader> readers, final Comparator<Entry> comparator, EntryHandler handler) throws IOException {
+        PriorityQueue<EntryReader> queue = new PriorityQueue<>(Math.max(1, readers.size()), new Comparator<EntryReader>() {
+                public int compare(EntryReader r1, EntryReader r2) {
+                    return comparator.compare(r1.current, r2.current);
                 }
-            } else {
-                featureMap.put(id, feature);
+            });
+        try {
+            for (EntryReader reader : readers) {
+                if (reader.advance()) queue.add(reader);
             }
+            while (!queue.isEmpty()) {
+                EntryReader reader = queue.poll();
+                handler.handle(reader.current);
+                if (reader.advance()) queue.add(reader);
+            }
+        } finally {
+            for (EntryReader reader : readers) reader.close();
         }
+    }
+
+    /**
+     * Sort the entries and write them to a new temporary run file.
+     */
+    File spill(List<Entry> entries, Comparator<Entry> comparator) throws IOException {
+        Collections.sort(entries, comparator);
+        File run = createRun();
+        try (DataOutputStream out = openRun(run)) {
+            for (Entry entry : entries) writeEntry(out, entry);
+        }
+        return run;
+    }
+
+    /**
+     * Merge sorted run files, a group of MAX_FAN_IN at a time, into longer runs until there are few enough that they and the
+     * list in memory can be merged without reading more than MAX_FAN_IN files at once. The list of runs is updated in place.
+     */
+    void reduce(List<File> runs, Comparator<Entry> comparator) throws IOException {
+        while (runs.size()>=MAX_FAN_IN) {
+            List<File> merged = new ArrayList<>();
+            for (int i=0; i<runs.size(); i+=MAX_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(i+MAX_FAN_IN, runs.size()));
+                if (group.size()==1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                File run = createRun();
+                merged.add(run);
+                List<EntryReader> readers = new ArrayList<>();
+                for (File groupRun : group) readers.add(new EntryReader(groupRun));
+                try (DataOutputStream out = openRun(run)) {
+                    merge(readers, comparator, entry -> writeEntry(out, entry));
+                }
+                for (File groupRun : group) groupRun.delete();
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
 
-        // output header
-        for (String headerLine : headerLines) {
-            System.out.println(headerLine);
+    File createRun() throws IOException {
+        File run = File.createTempFile("gffdeduper", ".run", tempDir);
+        run.deleteOnExit();
+        runFiles.add(run);
+        return run;
+    }
+
+    static DataOutputStream openRun(File run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 64*1024));
+    }
+
+    static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        writeString(out, entry.id);
+        out.writeLong(entry.firstLine);
+        out.writeLong(entry.line);
+        out.writeBoolean(entry.preferred);
+        writeString(out, entry.text);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s==null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(DataInputStream in, int length) throws IOException {
+        if (length<0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the entries of a run file, or of a sorted list in memory.
+     */
+    static class EntryReader {
+        DataInputStream in;
+        List<Entry> list;
+        int index;
+        Entry current;
+
+        EntryReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 64*1024));
+        }
+
+        EntryReader(List<Entry> list) {
+            this.list = list;
+        }
+
+        /**
+         * Move to the next entry, returning false at the end.
+         */
+        boolean advance() throws IOException {
+            if (list!=null) {
+                current = (index<list.size()) ? list.get(index++) : null;
+                return current!=null;
+            }
+            int idLength;
+            try {
+                idLength = in.readInt();
+            } catch (EOFException ex) {
+                current = null;
+                return false;
+            }
+            current = new Entry();
+            current.id = readString(in, idLength);
+            current.firstLine = in.readLong();
+            current.line = in.readLong();
+            current.preferred = in.readBoolean();
+            current.text = readString(in, in.readInt());
+            return true;
         }
 
-        // output GFF lines
-        FeatureList newList = new FeatureList();
-        newList.add(featureMap.values());
-        for (FeatureI feature : newList) {
-            // System.out.println(new GFF3Feature(feature).toGFF3());
-	    System.out.println(feature.toString());
+        void close() throws IOException {
+            if (in!=null) in.close();
         }
     }
 }
@@ -0,0 +1,130 @@
+package org.ncgr.datastore;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.biojava.nbio.genome.parsers.gff.FeatureList;
+import org.biojava.nbio.genome.parsers.gff.GeneMarkGTFReader;
+
+/**
+ * Times GTtoVCFConverter on a synthetic genotyping matrix, 100k markers by 1k lines unless other sizes are given, with a
+ * marker GFF to match. The conversion is timed on one thread and on the given number of threads. For comparison, the
+ * FeatureList.selectByAttribute lookup the converter used to make for every row is timed on a sample of the markers and
+ * extrapolated to the whole matrix.
+ */
+public class GTtoVCFBenchmark {
+
+    static final String BASES = "ACGT";
+    static final int LEGACY_LOOKUPS = 200;
+
+    public static void main(String[] args) throws IOException {
+        int markers = 100000;
+        int samples = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length>0) markers = Integer.parseInt(args[0]);
+        if (args.length>1) samples = Integer.parseInt(args[1]);
+        if (args.length>2) threads = Integer.parseInt(args[2]);
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "gttovcf-benchmark-"+System.nanoTime());
+        dir.mkdirs();
+        File gffFile = new File(dir, "markers.gff3");
+        File gtFile = new File(dir, "matrix.gt");
+        File vcfFile = new File(dir, "matrix.vcf");
+        try {
+            long start = System.currentTimeMillis();
+            writeFiles(gffFile, gtFile, markers, samples);
+            System.out.println("Wrote "+markers+" markers x "+samples+" lines ("+(gtFile.length()/1024/1024)+" MB) in "+
+                               (System.currentTimeMillis()-start)+" ms.");
+
+            start = System.currentTimeMillis();
+            Map<String,GTtoVCFConverter.Marker> index = GTtoVCFConverter.readMarkers(gffFile.getPath());
+            System.out.println("Marker index of "+index.size()+" markers built in "+(System.currentTimeMillis()-start)+" ms.");
+
+            int[] threadCounts = (threads>1) ? new int[] { 1, threads } : new int[] { 1 };
+            for (int t : threadCounts) {
+                start = System.currentTimeMillis();
+                GTtoVCFConverter.convert(gtFile.getPath(), gffFile.getPath(), vcfFile.getPath(), t);
+                long millis = System.currentTimeMillis() - start;
+                System.out.println("Converted on "+t+" thread"+(t>1 ? "s" : "")+" in "+millis+" ms: "+
+                                   String.format("%.0f", 1000.0*markers/millis)+" rows/s, "+
+                                   String.format("%.1f", (double)markers*samples/millis/1000.0)+"M genotypes/s.");
+            }
+
+            // the old per-row linear scan, on a sample of the markers
+            start = System.currentTimeMillis();
+            FeatureList featureList = GeneMarkGTFReader.read(gffFile.getPath());
+            long readMillis = System.currentTimeMillis() - start;
+            int lookups = Math.min(LEGACY_LOOKUPS, markers);
+            start = System.currentTimeMillis();
+            int found = 0;
+            for (int i=0; i<lookups; i++) {
+                found += featureList.selectByAttribute("Name", markerName(i*(markers/lookups))).size();
+            }
+            long lookupMillis = System.currentTimeMillis() - start;
+            System.out.println("FeatureList read in "+readMillis+" ms; "+lookups+" selectByAttribute lookups ("+found+" found) took "+
+                               lookupMillis+" ms, about "+(lookupMillis*markers/lookups/1000)+" s for every row.");
+        } finally {
+            gffFile.delete();
+            gtFile.delete();
+            vcfFile.delete();
+            // the index htsjdk writes beside the VCF
+            new File(vcfFile.getPath()+".idx").delete();
+            dir.delete();
+        }
+    }
+
+    static String markerName(int i) {
+        return "mrk_"+i;
+    }
+
+    /**
+     * Write a marker GFF and a gt matrix of random genotypes: mostly base pairs of the marker's two alleles, some no-calls,
+     * and a tenth of the rows in parental A/B notation.
+     */
+    static void writeFiles(File gffFile, File gtFile, int markers, int samples) throws IOException {
+        Random random = new Random(19);
+        char[][] alleles = new char[markers][2];
+        try (PrintWriter gff = new PrintWriter(new BufferedWriter(new FileWriter(gffFile)))) {
+            gff.println("##gff-version 3");
+            for (int i=0; i<markers; i++) {
+                alleles[i][0] = BASES.charAt(random.nextInt(4));
+                alleles[i][1] = BASES.charAt((BASES.indexOf(alleles[i][0])+1+random.nextInt(3))%4);
+                int position = 1000 + 100*i;
+                gff.println("chr"+(1+i%11)+"\tbenchmark\tgenetic_marker\t"+position+"\t"+position+"\t.\t+\t.\t"+
+                            "ID="+markerName(i)+";Name="+markerName(i)+";Alleles="+alleles[i][0]+"/"+alleles[i][1]);
+            }
+        }
+        try (PrintWriter gt = new PrintWriter(new BufferedWriter(new FileWriter(gtFile)))) {
+            gt.println("TaxonID\t3920");
+            gt.println("GenotypingStudy\tbenchmark");
+            gt.println("MarkerType\tSNP");
+            StringBuilder line = new StringBuilder("Lines");
+            for (int j=0; j<samples; j++) line.append("\tline_").append(j);
+            gt.println(line);
+            for (int i=0; i<markers; i++) {
+                line.setLength(0);
+                line.append(markerName(i));
+                boolean parental = random.nextInt(10)==0;
+                for (int j=0; j<samples; j++) {
+                    line.append('\t');
+                    int r = random.nextInt(50);
+                    if (parental) {
+                        line.append(r==0 ? 'U' : (r==1 ? 'X' : (r<26 ? 'A' : 'B')));
+                    } else if (r==0) {
+                        line.append("--");
+                    } else {
+                        line.append(alleles[i][random.nextInt(2)]).append(alleles[i][random.nextInt(2)]);
+                    }
+                }
+                gt.println(line);
+            }
+        }
+    }
+
+}
@@ -1,18 +1,24 @@
 package org.ncgr.datastore;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 
-import java.util.LinkedList;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
-
-import org.biojava.nbio.genome.parsers.gff.FeatureI;
-import org.biojava.nbio.genome.parsers.gff.FeatureList;
-import org.biojava.nbio.genome.parsers.gff.GeneMarkGTFReader;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.variant.variantcontext.Allele;
@@ -30,7 +36,7 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
 /**
  * Converts a custom genotyping matrix .gt file to an LIS-standard VCF.
  * A GFF file is specified to map the markers in the gt file to genomic coordinates.
- * 
+ *
  * TaxonID 3920
  * MappingPopulation	CB27_x_IT82E-18
  * Parent	CB27
@@ -41,21 +47,77 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
  * 2_15811      GT          GG          AT          ...
  *
  * glyma.Wm82.gnm2.Gm01  490  source  G  A  24.4798  .  .  GT:PL  0/0:0,12,92  0/0:0,27,185  0/0:0,114,255  ...
+ *
+ * The GFF is read once into a map of marker name to position and alleles, rather than searched for every row. The matrix rows
+ * are encoded into VariantContexts in batches on a pool of threads, and written in the order of the file.
  */
 public class GTtoVCFConverter {
 
+    // gt rows per encoding task
+    static final int BATCH_ROWS = 500;
+
+    // both alleles of a no-call
+    static final List<Allele> NO_CALL_ALLELES = Collections.unmodifiableList(Arrays.asList(Allele.NO_CALL, Allele.NO_CALL));
+
+    // the single-base alleles by character, [1] for reference, [0] for alternate, built before any thread reads them
+    static final String BASES = "ACGTN";
+    static final Allele[][] BASE_ALLELES = new Allele[2][128];
+    static {
+        for (int i=0; i<BASES.length(); i++) {
+            char base = BASES.charAt(i);
+            BASE_ALLELES[1][base] = Allele.create(String.valueOf(base), true);
+            BASE_ALLELES[0][base] = Allele.create(String.valueOf(base), false);
+        }
+    }
+
+    // other alleles, such as the longer parental alleles from the GFF
+    static final Map<String,Allele> REF_ALLELES = new ConcurrentHashMap<>();
+    static final Map<String,Allele> ALT_ALLELES = new ConcurrentHashMap<>();
+
+    /**
+     * A marker's position and its parental alleles, from the GFF.
+     */
+    static class Marker {
+        String contig;
+        long start;
+        long stop;
+        String allele1;  // parent A, null unless the Alleles attribute is of the form A/B
+        String allele2;  // parent B
+    }
+
     public static void main(String[] args) throws FileNotFoundException, IOException {
         // input
-        if (args.length!=3) {
-            System.out.println("Usage: GTtoVCFConverter <gt file> <marker GFF file> <output VCF file>");
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (args.length>1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length-i!=3 || threads<1) {
+            System.out.println("Usage: GTtoVCFConverter [-t threads] <gt file> <marker GFF file> <output VCF file>");
             System.exit(0);
         }
-	String gtFilename = args[0];
-        String gffFilename = args[1];
-        String vcfFilename = args[2];
+	String gtFilename = args[i];
+        String gffFilename = args[i+1];
+        String vcfFilename = args[i+2];
 
+        try {
+            convert(gtFilename, gffFilename, vcfFilename, threads);
+        } catch (IllegalArgumentException ex) {
+            // a genotype or row that couldn't be converted
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Convert the gt file to a VCF, encoding rows on the given number of threads.
+     *
+     * @throws IllegalArgumentException if a genotype can't be interpreted or htsjdk rejects a row
+     */
+    public static void convert(String gtFilename, String gffFilename, String vcfFilename, int threads) throws IOException {
         // read in the GFF file
-        FeatureList featureList = GeneMarkGTFReader.read(gffFilename);
+        Map<String,Marker> markers = readMarkers(gffFilename);
 
         // read in the gt file
         VCFHeader vcfHeader = null;
@@ -66,153 +128,234 @@ public class GTtoVCFConverter {
         LinkedHashSet<VCFHeaderLine> metaData = new LinkedHashSet<>();
         String source = null;
         LinkedList<String> genotypeSampleNames = new LinkedList<>();
+        String[] sampleNames = new String[0];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<List<VariantContext>>> pending = new ArrayDeque<>();
+        List<String> batch = new ArrayList<>(BATCH_ROWS);
         String row = null;
-        BufferedReader br = new BufferedReader(new FileReader(gtFilename));
-        while ((row=br.readLine())!=null) {
-            String[] fields = row.split("\t");
-            if (row.startsWith("#") || fields.length<2) continue;
-            String key = fields[0].trim();
-            String value = fields[1].trim();
-            if (key.toLowerCase().equals("taxonid")) {
-                metaData.add(new VCFHeaderLine("taxon_id", value));
-            } else if (key.toLowerCase().equals("genotypingstudy")) {
-                metaData.add(new VCFHeaderLine("genotyping_study", value));
-                source = value;
-            } else if (key.toLowerCase().equals("description")) {
-                metaData.add(new VCFHeaderLine("description", value));
-            } else if (key.toLowerCase().equals("matrixnotes")) {
-                metaData.add(new VCFHeaderLine("notes", value));
-            } else if (key.toLowerCase().equals("markertype")) {
-                metaData.add(new VCFHeaderLine("marker_type", value));
-            } else if (key.toLowerCase().equals("pmid")) {
-                metaData.add(new VCFHeaderLine("PMID", value));
-            } else if (key.toLowerCase().equals("lines")) {
-                // Lines  CB27/BB-001  CB27/BB-003  CB27/BB-004  ...
-                int num = fields.length - 1;
-                for (int i=0; i<num; i++) {
-                    genotypeSampleNames.add(fields[i+1]);
-                }
-                metaData.add(new VCFFormatHeaderLine("GT", 1, VCFHeaderLineType.String, "Genotype"));
-                vcfHeader = new VCFHeader(metaData, genotypeSampleNames);
-                vcfWriter.writeHeader(vcfHeader);
-            } else {
-                // 2_15811  GT  GG  AT  ...
-                String marker = fields[0];
-                FeatureList fl = featureList.selectByAttribute("Name", marker);
-                LinkedList<Allele> noCallAlleles = new LinkedList<>();
-                LinkedList<Genotype> genotypes = new LinkedList<>();
-                noCallAlleles.add(Allele.NO_CALL);
-                noCallAlleles.add(Allele.NO_CALL);
-                if (fl.size()>0) {
-                    // marker position
-                    FeatureI feature = fl.get(0);
-                    String contig = feature.seqname();
-                    long start = (long) feature.location().bioStart();
-                    long stop = (long) feature.location().bioEnd();
-                    String gffAlleles = (String) feature.getAttribute("Alleles");
-                    String gffAllele1 = null;
-                    String gffAllele2 = null;
-                    if (gffAlleles.contains("/")) {
-                        String parts[] = gffAlleles.split("/");
-                        gffAllele1 = parts[0];
-                        gffAllele2 = parts[1];
-                    }
-                    LinkedHashMap<String,Allele> alleles = new LinkedHashMap<>(); // keyed by letter without *
-                    boolean isRef = true;
-                    for (int i=0; i<genotypeSampleNames.size(); i++) {
-                        String sampleName = genotypeSampleNames.get(i);
-                        String bothAlleles  = fields[i+1];
-                        Genotype genotype = null;
-                        if (bothAlleles.length()==1) {
-                            // single letter designation, refers to parental inheratance like parent A or B
-                            if (gffAllele1!=null && gffAllele2!=null) {
-                                if (bothAlleles.toUpperCase().equals("A")) {
-                                    // HOM parent A
-                                    Allele A = Allele.create(gffAllele1, true);
-                                    alleles.put("A", A);
-                                    LinkedList<Allele> sampleAlleles = new LinkedList<>();
-                                    sampleAlleles.add(A);
-                                    sampleAlleles.add(A);
-                                    genotype = GenotypeBuilder.create(sampleName, sampleAlleles);
-                                } else if (bothAlleles.toUpperCase().equals("B")) {
-                                    // HOM parent B
-                                    Allele B = Allele.create(gffAllele2, false);
-                                    alleles.put("B", B);
-                                    LinkedList<Allele> sampleAlleles = new LinkedList<>();
-                                    sampleAlleles.add(B);
-                                    sampleAlleles.add(B);
-                                    genotype = GenotypeBuilder.create(sampleName, sampleAlleles);
-                                } else if (bothAlleles.toUpperCase().equals("U")) {
-                                    // unknown?
-                                    genotype = GenotypeBuilder.create(sampleName, noCallAlleles);
-                                } else if (bothAlleles.toUpperCase().equals("X")) {
-                                    // both parents?
-                                    Allele A = Allele.create(gffAllele1, true);
-                                    Allele B = Allele.create(gffAllele2, false);
-                                    alleles.put("A", A);
-                                    alleles.put("B", B);
-                                    LinkedList<Allele> sampleAlleles = new LinkedList<>();
-                                    sampleAlleles.add(A);
-                                    sampleAlleles.add(B);
-                                    genotype = GenotypeBuilder.create(sampleName, sampleAlleles);
-                                } else {
-                                    System.err.println("Don't know what to do with genotype "+bothAlleles);
-                                    System.exit(1);
-                                }
-                            } else {
-                                System.err.println("Don't know what to do with genotype "+bothAlleles);
-                                System.exit(1);
-                            }
-                        } else if (bothAlleles.contains("-")) {
-                            // no-call
-                            genotype = GenotypeBuilder.create(sampleName, noCallAlleles);
-                        } else if (bothAlleles.contains("/")) {
-                            // TODO: split
-                            System.err.println("Don't know what to do with genotype "+bothAlleles);
-                            System.exit(1);
-                        } else if (bothAlleles.contains("|")) {
-                            // TODO: split
-                            System.err.println("Don't know what to do with genotype "+bothAlleles);
-                            System.exit(1);
-                        } else {
-                            // split two adjacent letters, e.g. CT
-                            String a1 = String.valueOf(bothAlleles.charAt(0)).toUpperCase();
-                            String a2 = String.valueOf(bothAlleles.charAt(1)).toUpperCase();
-                            if (!alleles.containsKey(a1)) {
-                                alleles.put(a1, Allele.create(a1,isRef));
-                                isRef = false;
-                            }
-                            if (!alleles.containsKey(a2)) {
-                                alleles.put(a2, Allele.create(a2,isRef));
-                                isRef = false;
-                            }
-                            LinkedList<Allele> sampleAlleles = new LinkedList<>();
-                            sampleAlleles.add(alleles.get(a1));
-                            sampleAlleles.add(alleles.get(a2));
-                            genotype = GenotypeBuilder.create(sampleName, sampleAlleles);
+        try (BufferedReader br = new BufferedReader(new FileReader(gtFilename))) {
+            while ((row=br.readLine())!=null) {
+                if (row.startsWith("#")) continue;
+                int tab = row.indexOf('\t');
+                if (tab<0 || !hasSecondField(row, tab)) continue;
+                String key = row.substring(0, tab).trim();
+                String lowerKey = key.toLowerCase();
+                if (lowerKey.equals("taxonid") || lowerKey.equals("genotypingstudy") || lowerKey.equals("description") ||
+                    lowerKey.equals("matrixnotes") || lowerKey.equals("markertype") || lowerKey.equals("pmid") || lowerKey.equals("lines")) {
+                    String[] fields = row.split("\t");
+                    if (fields.length<2) continue;
+                    String value = fields[1].trim();
+                    if (lowerKey.equals("taxonid")) {
+                        metaData.add(new VCFHeaderLine("taxon_id", value));
+                    } else if (lowerKey.equals("genotypingstudy")) {
+                        metaData.add(new VCFHeaderLine("genotyping_study", value));
+                        source = value;
+                    } else if (lowerKey.equals("description")) {
+                        metaData.add(new VCFHeaderLine("description", value));
+                    } else if (lowerKey.equals("matrixnotes")) {
+                        metaData.add(new VCFHeaderLine("notes", value));
+                    } else if (lowerKey.equals("markertype")) {
+                        metaData.add(new VCFHeaderLine("marker_type", value));
+                    } else if (lowerKey.equals("pmid")) {
+                        metaData.add(new VCFHeaderLine("PMID", value));
+                    } else {
+                        // Lines  CB27/BB-001  CB27/BB-003  CB27/BB-004  ...
+                        int num = fields.length - 1;
+                        for (int j=0; j<num; j++) {
+                            genotypeSampleNames.add(fields[j+1]);
                         }
-                        genotypes.add(genotype);
+                        sampleNames = genotypeSampleNames.toArray(new String[genotypeSampleNames.size()]);
+                        metaData.add(new VCFFormatHeaderLine("GT", 1, VCFHeaderLineType.String, "Genotype"));
+                        vcfHeader = new VCFHeader(metaData, genotypeSampleNames);
+                        vcfWriter.writeHeader(vcfHeader);
                     }
-                    // create the VariantContext
-                    VariantContextBuilder vcBuilder = new VariantContextBuilder();
-                    vcBuilder.source(source);
-                    vcBuilder.id(marker);
-                    vcBuilder.loc(contig, start, stop);
-                    try {
-                        vcBuilder.alleles(new LinkedList<Allele>(alleles.values()));
-                        vcBuilder.genotypes(genotypes);
-                    } catch (Exception ex) {
-                        System.err.println(ex);
-                        System.err.println("----------");
-                        System.err.println(row);
-                        System.exit(1);
+                } else if (markers.containsKey(row.substring(0, tab))) {
+                    // 2_15811  GT  GG  AT  ...
+                    batch.add(row);
+                    if (batch.size()==BATCH_ROWS) {
+                        submit(executor, pending, batch, markers, sampleNames, source);
+                        batch = new ArrayList<>(BATCH_ROWS);
+                        if (pending.size()>=2*threads) write(vcfWriter, pending.poll());
                     }
-                    // add the VCF record
-                    VariantContext vc = vcBuilder.make();
-                    vcfWriter.add(vc);
                 }
             }
+            if (batch.size()>0) submit(executor, pending, batch, markers, sampleNames, source);
+            while (!pending.isEmpty()) {
+                write(vcfWriter, pending.poll());
+            }
+        } finally {
+            executor.shutdownNow();
         }
         vcfWriter.close();
     }
+
+    /**
+     * Return true if there's anything but tabs after the first tab, i.e. row.split("\t") has at least two fields.
+     */
+    static boolean hasSecondField(String row, int tab) {
+        for (int i=tab+1; i<row.length(); i++) {
+            if (row.charAt(i)!='\t') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the marker GFF into a map of marker name to position and alleles. The first feature with a given Name wins.
+     */
+    public static Map<String,Marker> readMarkers(String gffFilename) throws IOException {
+        Map<String,Marker> markers = new HashMap<>();
+        try (GFF3RecordReader reader = new GFF3RecordReader(gffFilename)) {
+            GFF3Record record;
+            while ((record=reader.nextFeature())!=null) {
+                String name = record.getAttribute("Name");
+                if (name==null || markers.containsKey(name)) continue;
+                Marker marker = new Marker();
+                marker.contig = record.getSeqid();
+                marker.start = (long) record.getStart();
+                marker.stop = (long) record.getEnd();
+                String gffAlleles = record.getAttribute("Alleles");
+                if (gffAlleles!=null && gffAlleles.contains("/")) {
+                    String parts[] = gffAlleles.split("/");
+                    marker.allele1 = parts[0];
+                    marker.allele2 = parts[1];
+                }
+                markers.put(name, marker);
+            }
+        }
+        return markers;
+    }
+
+    static void submit(ExecutorService executor, ArrayDeque<Future<List<VariantContext>>> pending, final List<String> rows,
+                       final Map<String,Marker> markers, final String[] sampleNames, final String source) {
+        pending.add(executor.submit(() -> {
+                    List<VariantContext> vcs = new ArrayList<>(rows.size());
+                    for (String row : rows) vcs.add(encodeRow(row, markers, sampleNames, source));
+                    return vcs;
+                }));
+    }
+
+    static void write(VariantContextWriter vcfWriter, Future<List<VariantContext>> future) throws IOException {
+        try {
+            for (VariantContext vc : future.get()) vcfWriter.add(vc);
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Return the allele with the given bases, creating it the first time it's needed unless it's a single A, C, G, T or N.
+     */
+    static Allele getAllele(String bases, boolean isRef) {
+        if (bases.length()==1 && bases.charAt(0)<128) {
+            Allele allele = BASE_ALLELES[isRef ? 1 : 0][bases.charAt(0)];
+            if (allele!=null) return allele;
+        }
+        return (isRef ? REF_ALLELES : ALT_ALLELES).computeIfAbsent(bases, b -> Allele.create(b, isRef));
+    }
+
+    static Allele getAllele(char base, boolean isRef) {
+        Allele allele = BASE_ALLELES[isRef ? 1 : 0][base];
+        return (allele!=null) ? allele : getAllele(String.valueOf(base), isRef);
+    }
+
+    /**
+     * Encode a gt row of a marker in the index as a VariantContext.
+     *
+     * @throws IllegalArgumentException if a genotype can't be interpreted or htsjdk rejects the row
+     */
+    static VariantContext encodeRow(String row, Map<String,Marker> markers, String[] sampleNames, String source) {
+        String[] fields = row.split("\t");
+        String marker = fields[0];
+        Marker position = markers.get(marker);
+        // the row's alleles by key letter (a parent or a base), in the order they were first seen
+        Allele[] alleles = new Allele[128];
+        int[] places = new int[128];
+        List<Allele> alleleList = new ArrayList<>(4);
+        List<Genotype> genotypes = new ArrayList<>(sampleNames.length);
+        boolean isRef = true;
+        for (int i=0; i<sampleNames.length; i++) {
+            String sampleName = sampleNames[i];
+            String bothAlleles  = fields[i+1];
+            Genotype genotype = null;
+            if (bothAlleles.length()==1) {
+                // single letter designation, refers to parental inheratance like parent A or B
+                char code = Character.toUpperCase(bothAlleles.charAt(0));
+                if (position.allele1!=null && position.allele2!=null && (code=='A' || code=='B' || code=='U' || code=='X')) {
+                    if (code=='A') {
+                        // HOM parent A
+                        Allele A = putAllele(alleles, places, alleleList, 'A', getAllele(position.allele1, true));
+                        genotype = GenotypeBuilder.create(sampleName, Arrays.asList(A, A));
+                    } else if (code=='B') {
+                        // HOM parent B
+                        Allele B = putAllele(alleles, places, alleleList, 'B', getAllele(position.allele2, false));
+                        genotype = GenotypeBuilder.create(sampleName, Arrays.asList(B, B));
+                    } else if (code=='U') {
+                        // unknown?
+                        genotype = GenotypeBuilder.create(sampleName, NO_CALL_ALLELES);
+                    } else {
+                        // both parents?
+                        Allele A = putAllele(alleles, places, alleleList, 'A', getAllele(position.allele1, true));
+                        Allele B = putAllele(alleles, places, alleleList, 'B', getAllele(position.allele2, false));
+                        genotype = GenotypeBuilder.create(sampleName, Arrays.asList(A, B));
+                    }
+                } else {
+                    throw new IllegalArgumentException("Don't know what to do with genotype "+bothAlleles);
+                }
+            } else if (bothAlleles.contains("-")) {
+                // no-call
+                genotype = GenotypeBuilder.create(sampleName, NO_CALL_ALLELES);
+            } else if (bothAlleles.contains("/") || bothAlleles.contains("|")) {
+                // TODO: split
+                throw new IllegalArgumentException("Don't know what to do with genotype "+bothAlleles);
+            } else {
+                // split two adjacent letters, e.g. CT
+                char a1 = Character.toUpperCase(bothAlleles.charAt(0));
+                char a2 = Character.toUpperCase(bothAlleles.charAt(1));
+                if (a1>=128 || a2>=128) {
+                    throw new IllegalArgumentException("Don't know what to do with genotype "+bothAlleles);
+                }
+                if (alleles[a1]==null) {
+                    putAllele(alleles, places, alleleList, a1, getAllele(a1, isRef));
+                    isRef = false;
+                }
+                if (alleles[a2]==null) {
+                    putAllele(alleles, places, alleleList, a2, getAllele(a2, isRef));
+                    isRef = false;
+                }
+                genotype = GenotypeBuilder.create(sampleName, Arrays.asList(alleles[a1], alleles[a2]));
+            }
+            genotypes.add(genotype);
+        }
+        // create the VariantContext
+        VariantContextBuilder vcBuilder = new VariantContextBuilder();
+        vcBuilder.source(source);
+        vcBuilder.id(marker);
+        vcBuilder.loc(position.contig, position.start, position.stop);
+        try {
+            vcBuilder.alleles(alleleList);
+            vcBuilder.genotypes(genotypes);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException(ex+"\n----------\n"+row, ex);
+        }
+        return vcBuilder.make();
+    }
+
+    /**
+     * Set the allele for a key letter, adding it to the row's list the first time the key is seen, and return it.
+     */
+    static Allele putAllele(Allele[] alleles, int[] places, List<Allele> alleleList, char key, Allele allele) {
+        if (alleles[key]==null) {
+            places[key] = alleleList.size();
+            alleleList.add(allele);
+        } else {
+            // a parent letter that was also a base: the allele replaces the earlier one in its place, as in a LinkedHashMap
+            alleleList.set(places[key], allele);
+        }
+        alleles[key] = allele;
+        return allele;
+    }
 }
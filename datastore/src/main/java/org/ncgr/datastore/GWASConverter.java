@@ -1,7 +1,5 @@
 package org.ncgr.datastore;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -51,41 +49,55 @@ public class GWASConverter {
         String inFile = args[0];
         String gensp = args[1];
         String chrPrefix = args[2];
-        
-        BufferedReader in = new BufferedReader(new FileReader(inFile));
-        String line;
-        while ((line=in.readLine())!=null) {
-            String[] parts = line.split("\t");
-            if (parts.length==1) {
+
+        TabularWriter out = new TabularWriter(System.out);
+        convert(inFile, gensp, chrPrefix, out);
+        out.flush();
+    }
+
+    /**
+     * Convert the GWAS file to the given writer.
+     */
+    public static void convert(String inFile, String gensp, String chrPrefix, TabularWriter out) throws IOException {
+        TabularReader in = new TabularReader(inFile);
+        while (in.next()) {
+            int fieldCount = in.getFieldCount();
+            if (fieldCount==1) {
                 // skip metadata name without value
-            } else if (parts.length==2) {
+            } else if (fieldCount==2) {
                 // metadata: switch tab to = and output again as comment
-                boolean skip = false;
-                if (parts[0].toLowerCase().equals("numberlocitested")) parts[1] = parts[1].replace(",","");
-                if (parts[0].toLowerCase().equals("taxonid")) skip = true;
-                if (parts[0].toLowerCase().equals("strain")) skip = true;
-                if (parts[0].toLowerCase().equals("assembly")) parts[1] = parts[1].replace(".v1.1", "").replace(".v1","");
-                if (!skip) System.out.println("#"+parts[0]+"="+parts[1]);
-            } else if (parts[0].toLowerCase().equals("#phenotype")) {
+                if (in.fieldEqualsIgnoreCase(0, "taxonid") || in.fieldEqualsIgnoreCase(0, "strain")) continue;
+                String value = in.getString(1);
+                if (in.fieldEqualsIgnoreCase(0, "numberlocitested")) value = value.replace(",","");
+                if (in.fieldEqualsIgnoreCase(0, "assembly")) value = value.replace(".v1.1", "").replace(".v1","");
+                out.append('#');
+                in.copyField(0, out);
+                out.append('=').append(value).newLine();
+            } else if (in.fieldEqualsIgnoreCase(0, "#phenotype")) {
                 // output new header line
-                System.out.println("CHR\tBP\tMARKER\tPVAL\tBPEND\tPHENOTYPE\tONTOLOGY_IDENTIFIER");
-            } else if (line.startsWith("#")) {
+                out.writeLine("CHR\tBP\tMARKER\tPVAL\tBPEND\tPHENOTYPE\tONTOLOGY_IDENTIFIER");
+            } else if (in.startsWith("#")) {
                 // echo out a comment line
-                System.out.println(line);
+                in.copyLine(out);
+                out.newLine();
             } else {
                 //  Seed oil    SOY:0001668          ss715591649  1.12E-09  Gm05         41780982  41780982
-                String phenotype = parts[0];
-                String ontologyIdentifier = parts[1];
-                String marker = gensp+"."+parts[2];
-                String pval = parts[3];
-                String chr = chrPrefix+"."+parts[4];
-                String bp = parts[5];
-                String bpEnd = parts[6];
-                bp = String.valueOf(Integer.parseInt(bp));
-                if (pval.length()>0) pval = String.valueOf(Double.parseDouble(pval));
-                if (bpEnd.length()>0) bpEnd = String.valueOf(Integer.parseInt(bpEnd));
-                System.out.println(chr+"\t"+bp+"\t"+marker+"\t"+pval+"\t"+bpEnd+"\t"+phenotype+"\t"+ontologyIdentifier);
+                // chr, bp, marker, pval, bpEnd, phenotype, ontologyIdentifier
+                out.append(chrPrefix).append('.');
+                in.copyField(4, out);
+                out.tab().append(in.getInt(5)).tab().append(gensp).append('.');
+                in.copyField(2, out);
+                out.tab();
+                if (in.getFieldLength(3)>0) out.append(in.getDouble(3));
+                out.tab();
+                if (in.getFieldLength(6)>0) out.append(in.getInt(6));
+                out.tab();
+                in.copyField(0, out);
+                out.tab();
+                in.copyField(1, out);
+                out.newLine();
             }
         }
+        in.close();
     }
 }
@@ -111,6 +111,8 @@ public class LISFile extends File {
             type = "EXCEL";
         } else if (isHMP()) {
             type = "HMP";
+        } else if (isVCF()) {
+            type = "VCF";
         }
         return type;
     }
@@ -210,6 +212,10 @@ public class LISFile extends File {
         return getName().endsWith("hmp.gz") || getName().endsWith("hmp");
     }
 
+    public boolean isVCF() {
+        return getName().endsWith("vcf.gz") || getName().endsWith("vcf");
+    }
+
     // dir type getters
 
     public boolean isGenomeDir() {
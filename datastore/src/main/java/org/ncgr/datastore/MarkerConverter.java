@@ -1,7 +1,5 @@
 package org.ncgr.datastore;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -33,55 +31,56 @@ public class MarkerConverter {
         String chrPrefix = args[3];
         String markerPrefix = args[4];
 
+        GFF3RecordWriter out = new GFF3RecordWriter(System.out);
+        convert(inFile, source, coordVersion, chrPrefix, markerPrefix, out);
+        out.flush();
+    }
+
+    /**
+     * Convert the SoyBase marker file to GFF lines on the given writer.
+     */
+    public static void convert(String inFile, String source, String coordVersion, String chrPrefix, String markerPrefix, GFF3RecordWriter out) throws IOException {
         // output header lines
-        System.out.println("##gff-version 3");
-        System.out.println("##annot-version "+chrPrefix);
+        out.writeLine("##gff-version 3");
+        out.writeLine("##annot-version "+chrPrefix);
         
-        BufferedReader in = new BufferedReader(new FileReader(inFile));
-        String line;
-        while ((line=in.readLine())!=null) {
-            String[] parts = line.split("\t");
-            if (parts[0].equals("snp_ID") || parts.length!=12) {
+        TabularReader in = new TabularReader(inFile);
+        while (in.next()) {
+            if (in.getFieldCount()!=12 || in.fieldEquals(0, "snp_ID")) {
                 // header line or missing data
                 continue;
             }
-            String snpID = parts[0];
-            String snpName = parts[1];
-            String dbSNPId = parts[2];
-            String chromosome = parts[3];
-            String gbFlankStart = parts[4];
-            String gbFlankEnd = parts[5];
-            String snpStart = parts[6];
-            String snpEnd = parts[7];
-            String coordSystem = parts[8];
-            String exptId = parts[9];
-            String comments = parts[10];
-            String enteredBy = parts[11];
+            // 0 snp_ID, 1 snp_name, 2 dbSNP_ID, 3 chromosome, 4 gbrowse_L_flank_start_bp, 5 gbrowse_R_flank_end_bp,
+            // 6 snp_start_bp, 7 snp_end_bp, 8 coordinate_system, 9 experiment_ID, 10 comments, 11 entered_by
             // bail if we're not on the correct coordinate version
-            if (!coordSystem.equals(coordVersion)) {
+            if (!in.fieldEquals(8, coordVersion)) {
                 continue;
             }
             // bail if the start/end are not provided
-            if (snpStart.length()==0 || snpEnd.length()==0) {
+            if (in.getFieldLength(6)==0 || in.getFieldLength(7)==0) {
                 continue;
             }
             // choose dbSNP_ID as NAME if present, else snp_name
-            String name = dbSNPId;
-            String altName = snpName;
-            if (name.length()==0 || name.equals("NULL")) {
-                name = snpName;
+            String name;
+            String altName;
+            if (in.getFieldLength(2)==0 || in.fieldEquals(2, "NULL")) {
+                name = in.getString(1);
                 altName = "";
+            } else {
+                name = in.getString(2);
+                altName = in.getString(1);
             }
             // prepend the chrPrefix
-            String chr = chrPrefix+"."+chromosome;
+            String chr = chrPrefix+"."+in.getString(3);
             // positions
-            int start = Integer.parseInt(snpStart); // better be int
-            int end = Integer.parseInt(snpEnd); // ditto
+            int start = in.getInt(6); // better be int
+            int end = in.getInt(7); // ditto
             // output
             String attributes = "ID="+markerPrefix+"."+name;
             if (altName.length()>0) attributes += ";Name="+altName;
             // glyma.Wm82.gnm2.Gm01    soybase    marker    27214807 27214808   .       -       .       ID=ss107923907;Name=BARC-054163-12369
-            System.out.println(chr+"\t"+source+"\tgenetic_marker\t"+start+"\t"+end+"\t.\t-\t.\t"+attributes);
+            out.write(chr, source, "genetic_marker", start, end, ".", '-', ".", attributes);
         }
+        in.close();
     }
 }
@@ -1,15 +1,19 @@
 package org.ncgr.datastore;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.TreeMap;
-import java.text.DecimalFormat;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Converts an expression file with microarray probesets to a datastore-compliant expression file with genes.
@@ -24,89 +28,193 @@ import java.text.DecimalFormat;
  *
  * Since multiple probesets map to a single gene, we compute the arithmetic average of the values per gene for output.
  *
+ * The genes are numbered in sorted order when the mapping is loaded, and each probeset's values are summed in place into a
+ * double[] per gene. With -t the expression table is split into byte ranges which are summed on separate threads and then
+ * added together in file order; the sums are then grouped differently, so averages may differ from a single-threaded run
+ * in the last digit.
  */
 public class ProbeToGene {
 
-    static DecimalFormat idx = new DecimalFormat("000"); // ensure alphabeticity of geneSampleKey 
+    static final int BUFFER_SIZE = 64*1024;
+
+    String[] genes;                   // gene IDs in sorted order
+    Map<String,Integer> probesToGenes; // probeset to gene index
+
+    /**
+     * Sums and probeset counts per gene, for the whole table or for a range of it.
+     */
+    static class Accumulator {
+        double[][] sums;  // [gene][sample], null until the gene has a probeset
+        int[] counts;     // number of probesets per gene
+        int[] lengths;    // samples per gene: the fewest values of any of its probesets
+        double[] values = new double[64];
+
+        Accumulator(int geneCount) {
+            sums = new double[geneCount][];
+            counts = new int[geneCount];
+            lengths = new int[geneCount];
+        }
+
+        /**
+         * Add a probeset row's values to a gene.
+         */
+        void add(int gene, double[] values, int length) {
+            if (sums[gene]==null) {
+                sums[gene] = Arrays.copyOf(values, length);
+                lengths[gene] = length;
+            } else {
+                double[] sum = sums[gene];
+                int n = Math.min(lengths[gene], length);
+                for (int i=0; i<n; i++) sum[i] += values[i];
+                lengths[gene] = n;
+            }
+            counts[gene]++;
+        }
+
+        /**
+         * Add the sums of a later range of the table.
+         */
+        void merge(Accumulator later) {
+            for (int gene=0; gene<sums.length; gene++) {
+                if (later.sums[gene]!=null) {
+                    add(gene, later.sums[gene], later.lengths[gene]);
+                    counts[gene] += later.counts[gene] - 1;
+                }
+            }
+        }
+    }
 
     public static void main(String[] args) throws FileNotFoundException, IOException {
         // check args
-        if (args.length!=2) {
-            System.err.println("Usage: ProbeToGene <probe-to-gene-mapping-file> <expression-table-file>");
+        int threads = 1;
+        int i = 0;
+        if (args.length>1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
         }
+        if (args.length-i!=2 || threads<1) {
+            System.err.println("Usage: ProbeToGene [-t threads] <probe-to-gene-mapping-file> <expression-table-file>");
+            System.exit(1);
+        }
+
+        String mappingFilename = args[i];
+        String expressionFilename = args[i+1];
+
+        ProbeToGene probeToGene = new ProbeToGene();
+        probeToGene.loadMapping(mappingFilename);
+        Accumulator accumulator = probeToGene.accumulate(new File(expressionFilename), threads);
 
-        String mappingFilename = args[0];
-        String expressionFilename = args[1];
-        String line;
-
-        Map<String,Integer> geneCounts = new HashMap<>(); // number of probesets per gene
-        Map<String,List<Double>> geneValues = new TreeMap<>(); // cumulative values per gene, sorted
-
-        // load the probeset-gene mappings into a HashMap
-        HashMap<String,String> probesToGenes = new HashMap<>();
-        BufferedReader mappingReader = new BufferedReader(new FileReader(mappingFilename));
-        while ((line=mappingReader.readLine())!=null) {
-            if (line.startsWith("#")) continue;
-            String[] parts = line.split("\t");
-            if (parts.length>6) {
-                String gene = parts[0];
-                String probe = parts[6];
-                probesToGenes.put(probe,gene);
+        // output the average values per gene
+        TabularWriter out = new TabularWriter(System.out);
+        probeToGene.write(accumulator, out);
+        out.flush();
+    }
+
+    /**
+     * Load the probeset-gene mappings, numbering the genes in sorted order.
+     */
+    public void loadMapping(String mappingFilename) throws IOException {
+        Map<String,String> probeGenes = new HashMap<>();
+        try (TabularReader mappingReader = new TabularReader(mappingFilename)) {
+            while (mappingReader.next()) {
+                if (mappingReader.startsWith("#")) continue;
+                if (mappingReader.getFieldCount()>6) {
+                    String gene = mappingReader.getString(0);
+                    String probe = mappingReader.getString(6);
+                    probeGenes.put(probe,gene);
+                }
             }
         }
-        mappingReader.close();
-
-        // spin through the expression file and accumulate values per gene per sample
-        BufferedReader expressionReader = new BufferedReader(new FileReader(expressionFilename));
-        while ((line=expressionReader.readLine())!=null) {
-            if (line.startsWith("#")) continue;
-            String[] parts = line.split("\t");
-            String probe = parts[1];
-            String gene = probesToGenes.get(probe);
-            if (gene==null) continue;
-            // increment gene counter
-            if (geneCounts.containsKey(gene)) {
-                int count = geneCounts.get(gene) + 1;
-                geneCounts.put(gene, count);
-            } else {
-                geneCounts.put(gene, 1);
-            }
-            // get the values for this gene
-            List<Double> values = new LinkedList<>();
-            for (int i=2; i<parts.length; i++) {
-                double value = Double.parseDouble(parts[i]);
-                values.add(value);
+        genes = new TreeSet<>(probeGenes.values()).toArray(new String[0]);
+        Map<String,Integer> geneIndexes = new HashMap<>();
+        for (int g=0; g<genes.length; g++) geneIndexes.put(genes[g], g);
+        probesToGenes = new HashMap<>();
+        for (Map.Entry<String,String> entry : probeGenes.entrySet()) {
+            probesToGenes.put(entry.getKey(), geneIndexes.get(entry.getValue()));
+        }
+    }
+
+    /**
+     * Sum the expression table's values per gene, splitting it into byte ranges over the given number of threads.
+     */
+    public Accumulator accumulate(File expressionFile, int threads) throws IOException {
+        long length = expressionFile.length();
+        if (threads==1 || length<threads*(long)BUFFER_SIZE) {
+            return accumulate(expressionFile, 0, length);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Accumulator>> futures = new ArrayList<>();
+            for (int t=0; t<threads; t++) {
+                final long start = length*t/threads;
+                final long end = length*(t+1)/threads;
+                futures.add(executor.submit(() -> accumulate(expressionFile, start, end)));
             }
-            List<Double> oldValues = geneValues.get(gene);
-            if (oldValues==null) {
-                geneValues.put(gene, values);
-            } else {
-                List<Double> newValues = new LinkedList<>();
-                for (int i=0; i<values.size(); i++) {
-                    double oldValue = oldValues.get(i);
-                    double value = values.get(i);
-                    double newValue = oldValue + value;
-                    newValues.add(newValue);
-                }
-                geneValues.put(gene, newValues);
+            Accumulator accumulator = futures.get(0).get();
+            for (int t=1; t<threads; t++) {
+                accumulator.merge(futures.get(t).get());
             }
+            return accumulator;
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        expressionReader.close();
+    }
 
-        // output the average values per gene
-        for (String gene : geneValues.keySet()) {
-            List<Double> cumValues = geneValues.get(gene);
-            int count = geneCounts.get(gene);
-            System.out.print(gene);
-            for (double cumValue : cumValues) {
-                System.out.print("\t"+(cumValue/count));
+    /**
+     * Sum the values of the lines that start in the byte range [start,end) of the expression table.
+     */
+    Accumulator accumulate(File expressionFile, long start, long end) throws IOException {
+        Accumulator accumulator = new Accumulator(genes.length);
+        try (FileInputStream fis = new FileInputStream(expressionFile)) {
+            // back up one byte to see whether start is at the beginning of a line
+            long position = Math.max(0, start-1);
+            fis.getChannel().position(position);
+            TabularReader in = new TabularReader(fis);
+            if (start>0 && !in.next()) return accumulator;
+            while (in.next() && position+in.getLineOffset()<end) {
+                addLine(accumulator, in);
             }
-            System.out.println("");
         }
+        return accumulator;
     }
-}
-                
 
-        
-        
+    /**
+     * Add an expression table line to the accumulator, if its probeset maps to a gene.
+     */
+    void addLine(Accumulator accumulator, TabularReader in) {
+        if (in.startsWith("#")) return;
+        // like split, ignore trailing empty fields
+        int fields = in.getFieldCount();
+        if (fields<2) return;
+        Integer gene = probesToGenes.get(in.getString(1));
+        if (gene==null) return;
+        // get the values for this gene
+        int count = fields - 2;
+        if (count>accumulator.values.length) accumulator.values = new double[Math.max(count, 2*accumulator.values.length)];
+        for (int i=0; i<count; i++) {
+            accumulator.values[i] = in.getDouble(i+2);
+        }
+        accumulator.add(gene, accumulator.values, count);
+    }
 
+    /**
+     * Write the average values per gene, in gene order.
+     */
+    public void write(Accumulator accumulator, TabularWriter out) throws IOException {
+        for (int gene=0; gene<genes.length; gene++) {
+            double[] cumValues = accumulator.sums[gene];
+            if (cumValues==null) continue;
+            int count = accumulator.counts[gene];
+            out.append(genes[gene]);
+            for (int i=0; i<accumulator.lengths[gene]; i++) {
+                out.tab().append(cumValues[i]/count);
+            }
+            out.newLine();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import java.util.Set;
 import java.util.HashSet;
@@ -21,11 +22,19 @@ public class SoyQTLOntologyTrimmer {
             System.exit(0);
         }
 
+        String inFile = args[0];
+	PrintWriter out = new PrintWriter(System.out);
+	trim(inFile, out);
+	out.flush();
+    }
+
+    /**
+     * Write the unique phenotype-term pairs of the Soy QTL-ontology term file to the given writer.
+     */
+    public static void trim(String inFile, PrintWriter out) throws IOException {
 	// store the unique phenotype-terms in a Set 
 	Set<String> phenotypeTerms = new HashSet<>();
 
-
-        String inFile = args[0];
         BufferedReader in = new BufferedReader(new FileReader(inFile));
         String line;
         while ((line=in.readLine())!=null) {
@@ -46,7 +55,7 @@ public class SoyQTLOntologyTrimmer {
         }
 	in.close();
 	for (String phenotypeTerm : phenotypeTerms) {
-	    System.out.println(phenotypeTerm);
+	    out.println(phenotypeTerm);
 	}
     }
 }
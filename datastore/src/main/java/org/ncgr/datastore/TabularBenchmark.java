@@ -0,0 +1,169 @@
+package org.ncgr.datastore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.util.Random;
+
+/**
+ * Times the TabularReader/TabularWriter converters against the readLine, split and println loops they replaced, on a
+ * synthetic GWAS file and a synthetic expression table, 1M records each unless another size is given. Output goes to a
+ * discarding stream so only the parsing and formatting are timed. Each pass is run the given number of rounds (default 3)
+ * and the best is reported in records/s.
+ */
+public class TabularBenchmark {
+
+    static final int SAMPLES = 20;
+
+    public static void main(String[] args) throws IOException {
+        int records = 1000000;
+        int rounds = 3;
+        if (args.length>0) records = Integer.parseInt(args[0]);
+        if (args.length>1) rounds = Integer.parseInt(args[1]);
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "tabular-benchmark-"+System.nanoTime());
+        dir.mkdirs();
+        File gwasFile = new File(dir, "gwas.txt");
+        File expressionFile = new File(dir, "expression.txt");
+        PrintStream stdout = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+                public void write(int b) { }
+                public void write(byte[] b, int off, int len) { }
+            });
+        try {
+            writeFiles(gwasFile, expressionFile, records);
+            stdout.println("Wrote "+records+" GWAS records ("+(gwasFile.length()/1024/1024)+" MB) and "+records+" expression rows ("+
+                           (expressionFile.length()/1024/1024)+" MB).");
+
+            final String[] gwasArgs = new String[] { gwasFile.getPath(), "glyma", "glyma.Wm82.gnm2" };
+            long legacy = Long.MAX_VALUE;
+            long ported = Long.MAX_VALUE;
+            System.setOut(discard);
+            for (int r=0; r<rounds; r++) {
+                long start = System.currentTimeMillis();
+                legacyGWAS(gwasFile, "glyma", "glyma.Wm82.gnm2");
+                legacy = Math.min(legacy, System.currentTimeMillis()-start);
+                start = System.currentTimeMillis();
+                GWASConverter.main(gwasArgs);
+                ported = Math.min(ported, System.currentTimeMillis()-start);
+            }
+            System.setOut(stdout);
+            report("GWASConverter", records, legacy, ported);
+
+            legacy = Long.MAX_VALUE;
+            ported = Long.MAX_VALUE;
+            double legacySum = 0.0;
+            double portedSum = 0.0;
+            for (int r=0; r<rounds; r++) {
+                long start = System.currentTimeMillis();
+                legacySum = legacyExpression(expressionFile);
+                legacy = Math.min(legacy, System.currentTimeMillis()-start);
+                start = System.currentTimeMillis();
+                portedSum = expression(expressionFile);
+                ported = Math.min(ported, System.currentTimeMillis()-start);
+            }
+            report("Expression table", records, legacy, ported);
+            if (legacySum!=portedSum) stdout.println("WARNING: expression sums differ: "+legacySum+" and "+portedSum);
+        } finally {
+            System.setOut(stdout);
+            gwasFile.delete();
+            expressionFile.delete();
+            dir.delete();
+        }
+    }
+
+    static void report(String name, int records, long legacyMillis, long portedMillis) {
+        System.out.println(name+": legacy "+legacyMillis+" ms, "+String.format("%.0f", 1000.0*records/Math.max(1,legacyMillis))+" records/s; "+
+                           "ported "+portedMillis+" ms, "+String.format("%.0f", 1000.0*records/Math.max(1,portedMillis))+" records/s; "+
+                           String.format("%.1f", (double)legacyMillis/Math.max(1,portedMillis))+"x.");
+    }
+
+    /**
+     * The GWASConverter record loop as it was: readLine, split, parse to Strings and println.
+     */
+    static void legacyGWAS(File inFile, String gensp, String chrPrefix) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(inFile));
+        String line;
+        while ((line=in.readLine())!=null) {
+            String[] parts = line.split("\t");
+            if (parts.length<=2 || parts[0].toLowerCase().equals("#phenotype") || line.startsWith("#")) continue;
+            String marker = gensp+"."+parts[2];
+            String pval = parts[3];
+            String chr = chrPrefix+"."+parts[4];
+            String bp = String.valueOf(Integer.parseInt(parts[5]));
+            String bpEnd = parts[6];
+            if (pval.length()>0) pval = String.valueOf(Double.parseDouble(pval));
+            if (bpEnd.length()>0) bpEnd = String.valueOf(Integer.parseInt(bpEnd));
+            System.out.println(chr+"\t"+bp+"\t"+marker+"\t"+pval+"\t"+bpEnd+"\t"+parts[0]+"\t"+parts[1]);
+        }
+        in.close();
+    }
+
+    /**
+     * Sum the expression table's values with readLine, split and Double.parseDouble.
+     */
+    static double legacyExpression(File expressionFile) throws IOException {
+        double sum = 0.0;
+        BufferedReader in = new BufferedReader(new FileReader(expressionFile));
+        String line;
+        while ((line=in.readLine())!=null) {
+            if (line.startsWith("#")) continue;
+            String[] parts = line.split("\t");
+            for (int i=2; i<parts.length; i++) sum += Double.parseDouble(parts[i]);
+        }
+        in.close();
+        return sum;
+    }
+
+    /**
+     * Sum the expression table's values with TabularReader.getDouble.
+     */
+    static double expression(File expressionFile) throws IOException {
+        double sum = 0.0;
+        try (TabularReader in = new TabularReader(expressionFile.getPath())) {
+            while (in.next()) {
+                if (in.startsWith("#")) continue;
+                int fields = in.getFieldCount();
+                for (int i=2; i<fields; i++) sum += in.getDouble(i);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Write a GWAS file in the form GWASConverter reads and an expression table in the form ProbeToGene reads.
+     */
+    static void writeFiles(File gwasFile, File expressionFile, int records) throws IOException {
+        Random random = new Random(24);
+        try (PrintWriter gwas = new PrintWriter(new BufferedWriter(new FileWriter(gwasFile)))) {
+            gwas.println("TaxonID\t3847");
+            gwas.println("NumberLociTested\t1,234,567");
+            gwas.println("Assembly\tGlyma.Wm82.v1.1");
+            gwas.println("#Phenotype\tOntology\tMarker\tPval\tChr\tBp\tBpEnd");
+            for (int i=0; i<records; i++) {
+                int bp = 1000 + random.nextInt(50000000);
+                gwas.println("Seed oil\tSOY:0001668\tss"+(715591649+i)+"\t"+(1+random.nextInt(9))+"."+random.nextInt(100)+"E-"+(2+random.nextInt(20))+
+                             "\tGm"+String.format("%02d", 1+i%20)+"\t"+bp+"\t"+bp);
+            }
+        }
+        try (PrintWriter expression = new PrintWriter(new BufferedWriter(new FileWriter(expressionFile)))) {
+            StringBuilder line = new StringBuilder("#id\tprobeset");
+            for (int j=0; j<SAMPLES; j++) line.append("\tsample_").append(j);
+            expression.println(line);
+            for (int i=0; i<records; i++) {
+                line.setLength(0);
+                line.append(i).append("\tMtr.").append(i).append(".1.S1_at");
+                for (int j=0; j<SAMPLES; j++) line.append('\t').append(random.nextInt(1000000)/1000.0);
+                expression.println(line);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+package org.ncgr.datastore;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads tab-separated lines from a stream at the byte level. Each line is split in place into field offsets within a reused
+ * buffer, so fields can be compared, parsed as numbers or copied to a TabularWriter without making a String; getString makes
+ * one only when it's wanted. Lines end with \n, with any \r before it dropped. Text is UTF-8.
+ *
+ * getFieldCount counts fields the way String.split("\t") does, without trailing empty fields, so converters written with split
+ * keep their checks; the fields themselves are all available up to getRawFieldCount.
+ */
+public class TabularReader implements Closeable {
+
+    static final int BUFFER_SIZE = 64*1024;
+
+    // powers of ten that are exact doubles, for the fast path of getDouble
+    static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i=1; i<POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10.0;
+    }
+
+    InputStream in;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int limit;           // end of the data in the buffer
+    boolean eof;
+
+    int lineStart;       // the current line in the buffer
+    int lineEnd;
+    int next;            // start of the next line in the buffer
+    long bufferOffset;   // stream position of buffer[0]
+    long lineNumber;
+
+    int[] starts = new int[32];
+    int[] ends = new int[32];
+    int fields;          // raw field count
+    int splitFields;     // field count as split would give it
+
+    public TabularReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read a file, gunzipped if its name ends in .gz.
+     */
+    public TabularReader(String filename) throws IOException {
+        InputStream stream = new FileInputStream(filename);
+        if (filename.endsWith(".gz")) stream = new GZIPInputStream(stream, BUFFER_SIZE);
+        in = stream;
+    }
+
+    /**
+     * Advance to the next line, returning false at the end of the stream.
+     */
+    public boolean next() throws IOException {
+        int end;
+        while (true) {
+            end = indexOf((byte) '\n', next, limit);
+            if (end>=0) break;
+            if (eof) {
+                if (next==limit) return false;
+                end = limit;
+                break;
+            }
+            fill();
+        }
+        lineStart = next;
+        next = (end<limit) ? end + 1 : end;
+        lineEnd = (end>lineStart && buffer[end-1]=='\r') ? end - 1 : end;
+        lineNumber++;
+        split();
+        return true;
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer, growing it if a line fills it, and read more.
+     */
+    void fill() throws IOException {
+        if (next>0) {
+            System.arraycopy(buffer, next, buffer, 0, limit-next);
+            bufferOffset += next;
+            limit -= next;
+            next = 0;
+        }
+        if (limit==buffer.length) buffer = Arrays.copyOf(buffer, 2*buffer.length);
+        int n = in.read(buffer, limit, buffer.length-limit);
+        if (n<0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    int indexOf(byte b, int from, int to) {
+        for (int i=from; i<to; i++) {
+            if (buffer[i]==b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the field offsets of the current line.
+     */
+    void split() {
+        fields = 0;
+        int start = lineStart;
+        for (int i=lineStart; i<=lineEnd; i++) {
+            if (i==lineEnd || buffer[i]=='\t') {
+                if (fields==starts.length) {
+                    starts = Arrays.copyOf(starts, 2*fields);
+                    ends = Arrays.copyOf(ends, 2*fields);
+                }
+                starts[fields] = start;
+                ends[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        // String.split drops trailing empty fields, but an empty line is one empty field
+        splitFields = fields;
+        while (splitFields>0 && starts[splitFields-1]==ends[splitFields-1]) splitFields--;
+        if (lineStart==lineEnd) splitFields = 1;
+    }
+
+    /**
+     * Return the number of fields as String.split("\t") would, without trailing empty fields.
+     */
+    public int getFieldCount() {
+        return splitFields;
+    }
+
+    /**
+     * Return the number of fields including trailing empty ones.
+     */
+    public int getRawFieldCount() {
+        return fields;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Return the stream position of the start of the current line.
+     */
+    public long getLineOffset() {
+        return bufferOffset + lineStart;
+    }
+
+    /**
+     * Return the stream position just past the current line's terminator.
+     */
+    public long getNextOffset() {
+        return bufferOffset + next;
+    }
+
+    public boolean isEmpty() {
+        return lineStart==lineEnd;
+    }
+
+    /**
+     * Return true if the line is empty or only whitespace, as String.trim() sees it.
+     */
+    public boolean isBlank() {
+        for (int i=lineStart; i<lineEnd; i++) {
+            if ((buffer[i]&0xff)>' ') return false;
+        }
+        return true;
+    }
+
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd-lineStart, StandardCharsets.UTF_8);
+    }
+
+    public boolean startsWith(String prefix) {
+        return regionMatches(lineStart, lineEnd, prefix, false, true);
+    }
+
+    int start(int field) {
+        if (field>=fields) throw new ArrayIndexOutOfBoundsException("Line "+lineNumber+" has no field "+field+": "+getLine());
+        return starts[field];
+    }
+
+    public int getFieldLength(int field) {
+        return ends[field] - start(field);
+    }
+
+    public String getString(int field) {
+        int start = start(field);
+        return new String(buffer, start, ends[field]-start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return true if the field is the given string.
+     */
+    public boolean fieldEquals(int field, String s) {
+        return regionMatches(start(field), ends[field], s, false, false);
+    }
+
+    /**
+     * Return true if the field is the given string, ignoring case, as toLowerCase().equals() did.
+     */
+    public boolean fieldEqualsIgnoreCase(int field, String s) {
+        return regionMatches(start(field), ends[field], s, true, false);
+    }
+
+    public boolean fieldStartsWith(int field, String prefix) {
+        return regionMatches(start(field), ends[field], prefix, false, true);
+    }
+
+    boolean regionMatches(int from, int to, String s, boolean ignoreCase, boolean prefix) {
+        int length = s.length();
+        for (int i=0; i<length; i++) {
+            if (s.charAt(i)>=128) {
+                // not ASCII: compare as Strings
+                String region = new String(buffer, from, to-from, StandardCharsets.UTF_8);
+                if (ignoreCase) {
+                    region = region.toLowerCase();
+                    s = s.toLowerCase();
+                }
+                return prefix ? region.startsWith(s) : region.equals(s);
+            }
+        }
+        if (prefix ? to-from<length : to-from!=length) return false;
+        for (int i=0; i<length; i++) {
+            int b = buffer[from+i];
+            int c = s.charAt(i);
+            if (b!=c && !(ignoreCase && b<128 && c<128 && Character.toLowerCase(b)==Character.toLowerCase(c))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the field as an int in place, as Integer.parseInt does.
+     */
+    public int getInt(int field) {
+        int from = start(field);
+        int to = ends[field];
+        if (from<to && to-from<10) {
+            boolean negative = buffer[from]=='-';
+            int i = (negative || buffer[from]=='+') ? from + 1 : from;
+            if (i<to) {
+                int value = 0;
+                for (; i<to; i++) {
+                    int digit = buffer[i] - '0';
+                    if (digit<0 || digit>9) break;
+                    value = value*10 + digit;
+                }
+                if (i==to) return negative ? -value : value;
+            }
+        }
+        // long, malformed or empty: let Integer.parseInt decide
+        return Integer.parseInt(getString(field));
+    }
+
+    /**
+     * Parse the field as a double in place. Plain decimals with up to 15 significant digits are converted exactly with one
+     * multiplication or division by a power of ten; anything else goes to Double.parseDouble, so the result is always the same.
+     */
+    public double getDouble(int field) {
+        int from = start(field);
+        int to = ends[field];
+        int i = from;
+        boolean negative = false;
+        if (i<to && (buffer[i]=='-' || buffer[i]=='+')) {
+            negative = buffer[i]=='-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i<to; i++) {
+            int b = buffer[i];
+            if (b>='0' && b<='9') {
+                any = true;
+                if (mantissa==0 && b=='0') {
+                    // leading zeros aren't significant
+                } else if (++digits>15) {
+                    break;
+                } else {
+                    mantissa = mantissa*10 + (b-'0');
+                }
+                if (point) scale++;
+            } else if (b=='.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (any && i<to && (buffer[i]=='e' || buffer[i]=='E') && digits<=15) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j<to && (buffer[j]=='-' || buffer[j]=='+')) {
+                negativeExponent = buffer[j]=='-';
+                j++;
+            }
+            if (j<to && to-j<=3) {
+                for (; j<to; j++) {
+                    int digit = buffer[j] - '0';
+                    if (digit<0 || digit>9) break;
+                    exponent = exponent*10 + digit;
+                }
+                if (j==to) {
+                    i = to;
+                    if (negativeExponent) exponent = -exponent;
+                }
+            }
+        }
+        if (any && i==to && digits<=15) {
+            int power = exponent - scale;
+            double value = (double) mantissa;
+            if (power==0) {
+                return negative ? -value : value;
+            } else if (power>0 && power<POWERS_OF_TEN.length) {
+                value *= POWERS_OF_TEN[power];
+                return negative ? -value : value;
+            } else if (power<0 && -power<POWERS_OF_TEN.length) {
+                value /= POWERS_OF_TEN[-power];
+                return negative ? -value : value;
+            }
+        }
+        return Double.parseDouble(getString(field));
+    }
+
+    /**
+     * Copy the field's bytes to a TabularWriter.
+     */
+    public void copyField(int field, TabularWriter out) throws IOException {
+        int start = start(field);
+        out.write(buffer, start, ends[field]-start);
+    }
+
+    /**
+     * Copy the whole line, without its terminator, to a TabularWriter.
+     */
+    public void copyLine(TabularWriter out) throws IOException {
+        out.write(buffer, lineStart, lineEnd-lineStart);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
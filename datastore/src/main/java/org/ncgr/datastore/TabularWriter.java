@@ -0,0 +1,132 @@
+package org.ncgr.datastore;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffered byte sink for tab-separated output, in place of a System.out.println per record. Fields are appended straight
+ * into one large buffer: ASCII text byte by byte, other text as UTF-8, and ints without making Strings. Doubles are written as
+ * Double.toString writes them, so output matches what String concatenation gave.
+ *
+ * Closing the writer flushes it and closes the stream; writers on System.out should just be flushed.
+ */
+public class TabularWriter implements Closeable, Flushable {
+
+    static final int BUFFER_SIZE = 64*1024;
+
+    OutputStream out;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int count;
+
+    public TabularWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public TabularWriter append(CharSequence s) throws IOException {
+        if (s==null) s = "null";
+        int length = s.length();
+        if (BUFFER_SIZE-count<length) flushBuffer();
+        if (length>BUFFER_SIZE) {
+            byte[] bytes = s.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+        for (int i=0; i<length; i++) {
+            char c = s.charAt(i);
+            if (c>=128) {
+                // not ASCII: encode the rest properly
+                write(s.subSequence(i, length).toString().getBytes(StandardCharsets.UTF_8));
+                return this;
+            }
+            buffer[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    public TabularWriter append(char c) throws IOException {
+        if (c>=128) return append(String.valueOf(c));
+        if (count==BUFFER_SIZE) flushBuffer();
+        buffer[count++] = (byte) c;
+        return this;
+    }
+
+    public TabularWriter append(int i) throws IOException {
+        return append((long) i);
+    }
+
+    public TabularWriter append(long l) throws IOException {
+        if (BUFFER_SIZE-count<20) flushBuffer();
+        if (l==Long.MIN_VALUE) return append(Long.toString(l));
+        if (l<0) {
+            buffer[count++] = '-';
+            l = -l;
+        }
+        int digits = 1;
+        for (long x=l; x>=10; x/=10) digits++;
+        for (int i=count+digits-1; i>=count; i--) {
+            buffer[i] = (byte) ('0' + l%10);
+            l /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    public TabularWriter append(double d) throws IOException {
+        return append(Double.toString(d));
+    }
+
+    public TabularWriter tab() throws IOException {
+        return append('\t');
+    }
+
+    /**
+     * End the current line.
+     */
+    public TabularWriter newLine() throws IOException {
+        return append('\n');
+    }
+
+    /**
+     * Write a whole line.
+     */
+    public TabularWriter writeLine(String line) throws IOException {
+        return append(line).newLine();
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (BUFFER_SIZE-count<length) flushBuffer();
+        if (length>BUFFER_SIZE) {
+            out.write(bytes, offset, length);
+        } else {
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+    }
+
+    void flushBuffer() throws IOException {
+        if (count>0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+}
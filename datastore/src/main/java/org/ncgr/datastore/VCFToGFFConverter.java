@@ -1,9 +1,7 @@
 package org.ncgr.datastore;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 
 import org.biojava.nbio.genome.parsers.gff.Location;
@@ -28,9 +26,25 @@ public class VCFToGFFConverter {
 	String source = args[1];
         String inFile = args[2];
 
+	if (!fileType.toUpperCase().equals("VCF") && !fileType.toUpperCase().equals("TXT")) {
+	    System.err.println("Error: you must specify either VCF or TXT file type.");
+	    System.exit(1);
+	}
+
+	GFF3RecordWriter out = new GFF3RecordWriter(System.out);
+	convert(fileType, source, inFile, out);
+	out.flush();
+    }
+
+    /**
+     * Write the markers in a VCF or TXT file to the given writer as GFF lines.
+     *
+     * @throws IllegalArgumentException if the file type isn't VCF or TXT
+     */
+    public static void convert(String fileType, String source, String inFile, GFF3RecordWriter out) throws IOException {
 	if (fileType.toUpperCase().equals("VCF")) {
 	    // output GFF3 header
-	    System.out.println("##gff-version 3");
+	    out.writeLine("##gff-version 3");
 	    // read in the variants, only using the first ALT allele
 	    VCFFileReader reader = new VCFFileReader(new File(inFile));
 	    for (VariantContext vc : reader) {
@@ -44,35 +58,29 @@ public class VCFToGFFConverter {
 		Location location = Location.fromBio(start, end, strand); // 1-based
 		String attributes = "ID="+id+";Name="+id+";Alleles="+ref.toString()+"/"+alt.toString();
 		GFF3Feature feature = new GFF3Feature(contig, source, "genetic_marker", location, 0.0, 0, attributes);
-		System.out.println(feature.toString());
+		out.write(feature);
 	    }
 	    reader.close();
 	} else if (fileType.toUpperCase().equals("TXT")) {
 	    // output GFF3 header
-	    System.out.println("##gff-version 3");
+	    out.writeLine("##gff-version 3");
 	    // read in the variants
 	    // 0Chr	1Pos	2Marker	3Ref	4Alt	5Qual	6Filt	7Info	
 	    // Vu01	532169	1_0052	A	C	999	.	DP=999
-	    BufferedReader reader = new BufferedReader(new FileReader(inFile));
-	    String line = null;
-	    while ((line=reader.readLine())!=null) {
-		if (line.startsWith("#") || line.trim().length()==0) continue;
-		String[] fields = line.split("\\t");
-		String chr = fields[0];
-		int pos = Integer.parseInt(fields[1]);
-		String id = fields[2];
-		String ref = fields[3];
-		String alt = fields[4];
-		char strand = '+';
-		Location location = Location.fromBio(pos, pos, strand); // 1-based
-		String attributes = "ID="+id+";Name="+id+";Alleles="+ref+"/"+alt;
-		GFF3Feature feature = new GFF3Feature(chr, source, "genetic_marker", location, 0.0, 0, attributes);
-		System.out.println(feature.toString());
+	    // the coordinates are parsed and the columns copied without split; the line is written as the 1-based '+' strand
+	    // GFF3Feature with a 0.0 score and 0 frame was
+	    TabularReader reader = new TabularReader(inFile);
+	    while (reader.next()) {
+		if (reader.startsWith("#") || reader.isBlank()) continue;
+		String chr = reader.getString(0);
+		int pos = reader.getInt(1);
+		String id = reader.getString(2);
+		String attributes = "ID="+id+";Name="+id+";Alleles="+reader.getString(3)+"/"+reader.getString(4);
+		out.write(chr, source, "genetic_marker", pos, pos, "0.0", '+', "0", attributes);
 	    }
 	    reader.close();
 	} else {
-	    System.err.println("Error: you must specify either VCF or TXT file type.");
-	    System.exit(1);
-	}	    
+	    throw new IllegalArgumentException("File type must be VCF or TXT: "+fileType);
+	}
     }
 }
@@ -0,0 +1,75 @@
+package org.ncgr.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Connection with a bounded, least-recently-used cache of PreparedStatements keyed by their SQL.
+ * Not thread-safe: a CachedConnection is used by one thread at a time, either held by a DB or borrowed from a DBPool.
+ *
+ * @author Sam Hokin
+ */
+class CachedConnection {
+
+    /** the default number of PreparedStatements cached per connection */
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    Connection conn;
+    int cacheSize;
+    LinkedHashMap<String,PreparedStatement> statements;
+    long lastUsed;
+
+    /** statement cache counters, read by DBPool for its stats */
+    long hits;
+    long misses;
+
+    CachedConnection(Connection conn, int cacheSize) {
+        this.conn = conn;
+        this.cacheSize = cacheSize;
+        statements = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true);
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /** return the cached PreparedStatement for the given SQL, preparing and caching it if needed */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps!=null) {
+            hits++;
+            ps.clearParameters();
+            return ps;
+        }
+        misses++;
+        ps = conn.prepareStatement(sql);
+        statements.put(sql, ps);
+        // evict the least recently used statement
+        if (statements.size()>cacheSize) {
+            Iterator<Map.Entry<String,PreparedStatement>> iterator = statements.entrySet().iterator();
+            PreparedStatement eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.close();
+        }
+        return ps;
+    }
+
+    /** close the cached statements and the connection */
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                // closing anyway
+            }
+        }
+        statements.clear();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // closing anyway
+        }
+    }
+
+}
@@ -11,10 +11,19 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 
 /**
  * Database connection utility.
  *
+ * A DB either holds a single connection, or is backed by a DBPool. The query() and update() methods are thread-safe in
+ * both modes: they run a cached PreparedStatement on a connection borrowed for the duration of the call and return
+ * their own results. The older methods that share the rs, ps and stmt fields are only available on a single connection.
+ *
  * @author Sam Hokin
  */
 public class DB {
@@ -40,6 +49,16 @@ public class DB {
     /** database type, for database-specific methods */
     public String dbtype = "pgsql";  // default
 
+    /** pooled mode: connections are borrowed from the pool */
+    DBPool pool;
+
+    /** single connection mode: the connection's statement cache, and a lock held by query() and update() */
+    CachedConnection cachedConnection;
+    ReentrantLock lock = new ReentrantLock();
+
+    /** makes the disconnected ResultSets returned by query() */
+    static RowSetFactory rowSetFactory;
+
     /**
      * application constructor with db.properties file containing:
      *   db.driver
@@ -67,6 +86,16 @@ public class DB {
         if (type!=null) dbtype = type;
     }
 
+    /**
+     * pooled constructor: query() and update() borrow connections from the given pool
+     * @param pool the connection pool, which is not closed by close()
+     * @param type the type of database [pgsql, mysql, MSSQL]
+     */
+    public DB(DBPool pool, String type) {
+        this.pool = pool;
+        if (type!=null) dbtype = type;
+    }
+
     /** load the properties from a properties file */
     void getPropertiesFromFile() throws FileNotFoundException, IOException {
         properties = new Properties();
@@ -91,18 +120,124 @@ public class DB {
         stmt = conn.createStatement();
     }
 
+    /** true if this DB borrows its connections from a DBPool */
+    public boolean isPooled() {
+        return pool!=null;
+    }
+
+    /** the pool of a pooled DB, null otherwise */
+    public DBPool getPool() {
+        return pool;
+    }
+
+    /**
+     * thread-safe: run a query (SELECT) with the given parameters and return its rows as a disconnected ResultSet,
+     * which holds no connection and may be read after other queries have run
+     */
+    public ResultSet query(String query, Object... params) throws SQLException {
+        return query(query, new ResultSetHandler<ResultSet>() {
+            public ResultSet handle(ResultSet rs) throws SQLException {
+                CachedRowSet crs = getRowSetFactory().createCachedRowSet();
+                crs.populate(rs);
+                return crs;
+            }
+        }, params);
+    }
+
+    /**
+     * thread-safe: run a query (SELECT) with the given parameters and pass its ResultSet to the handler, holding the
+     * connection until the handler returns; this streams the rows rather than copying them
+     */
+    public <T> T query(String query, ResultSetHandler<T> handler, Object... params) throws SQLException {
+        CachedConnection cc = acquire();
+        boolean broken = false;
+        try {
+            PreparedStatement ps = cc.prepare(query);
+            setParameters(ps, params);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return handler.handle(rs);
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            broken = isConnectionError(e);
+            throw e;
+        } finally {
+            release(cc, broken);
+        }
+    }
+
+    /** thread-safe: run an update (INSERT/UPDATE/DELETE) with the given parameters and return the update count */
+    public int update(String query, Object... params) throws SQLException {
+        CachedConnection cc = acquire();
+        boolean broken = false;
+        try {
+            PreparedStatement ps = cc.prepare(query);
+            setParameters(ps, params);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            broken = isConnectionError(e);
+            throw e;
+        } finally {
+            release(cc, broken);
+        }
+    }
+
+    /** borrow a connection from the pool, or lock the single connection */
+    CachedConnection acquire() throws SQLException {
+        if (pool!=null) return pool.borrow();
+        lock.lock();
+        if (cachedConnection==null) cachedConnection = new CachedConnection(conn, CachedConnection.DEFAULT_STATEMENT_CACHE_SIZE);
+        return cachedConnection;
+    }
+
+    /** return a connection acquired with acquire() */
+    void release(CachedConnection cc, boolean broken) {
+        if (pool!=null) {
+            pool.release(cc, broken);
+        } else {
+            lock.unlock();
+        }
+    }
+
+    /** set the parameters of a prepared statement, in order */
+    static void setParameters(PreparedStatement ps, Object... params) throws SQLException {
+        for (int i=0; i<params.length; i++) {
+            ps.setObject(i+1, params[i]);
+        }
+    }
+
+    /** true if the exception means the connection itself is no good (SQLSTATE class 08) */
+    static boolean isConnectionError(SQLException e) {
+        return e.getSQLState()!=null && e.getSQLState().startsWith("08");
+    }
+
+    static synchronized RowSetFactory getRowSetFactory() throws SQLException {
+        if (rowSetFactory==null) rowSetFactory = RowSetProvider.newFactory();
+        return rowSetFactory;
+    }
+
+    /** fail with a clear message when a single connection method is called on a pooled DB */
+    void checkNotPooled() {
+        if (pool!=null) throw new IllegalStateException("Not available on a pooled DB; use query() or update().");
+    }
+
     /** execute a query which returns a ResultSet (SELECT) */
     public void executeQuery(String query) throws SQLException {
+        checkNotPooled();
         rs = stmt.executeQuery(query);
     }
 
     /** execute a query which does not return a ResultSet (INSERT/UPDATE/DELETE) */
     public void executeUpdate(String query) throws SQLException {
+        checkNotPooled();
         stmt.executeUpdate(query);
     }
 
     /** get a prepared statement */
     public void prepareStatement(String s) throws SQLException {
+        checkNotPooled();
         ps = conn.prepareStatement(s);
     }
 
@@ -111,12 +246,18 @@ public class DB {
         ps.executeUpdate();
     }
 
-    /** Close the connections, and set = null so they aren't closed again */
+    /** Close the connections, and set = null so they aren't closed again; a pooled DB leaves its pool open */
     public void close() throws SQLException {
         if (rs!=null) rs.close();
         if (ps!=null) ps.close();
         if (stmt!=null) stmt.close();
+        if (cachedConnection!=null) cachedConnection.close();
         if (conn!=null) conn.close();
+        rs = null;
+        ps = null;
+        stmt = null;
+        cachedConnection = null;
+        conn = null;
     }
 
     /** convenience routine to return an empty string if null, otherwise the string */
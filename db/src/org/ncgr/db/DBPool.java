@@ -0,0 +1,224 @@
+package org.ncgr.db;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of database connections, each with its own PreparedStatement cache, for use by pooled DB instances.
+ * At most maxConnections connections are open at once; they're opened on demand and kept idle for reuse. A thread that
+ * finds all of them in use waits up to the borrow timeout for one to be returned.
+ *
+ * @author Sam Hokin
+ */
+public class DBPool {
+
+    /** defaults */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    /** idle connections are validated before reuse after this long */
+    static final long VALIDATION_INTERVAL_MILLIS = 60000;
+
+    /** connection parameters */
+    String url;
+    String user;
+    String password;
+
+    int maxConnections;
+    long timeoutMillis;
+    int statementCacheSize = CachedConnection.DEFAULT_STATEMENT_CACHE_SIZE;
+
+    /** one permit per connection that may be borrowed */
+    Semaphore permits;
+    BlockingQueue<CachedConnection> idle;
+    volatile boolean closed;
+
+    /** metrics */
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger opened = new AtomicInteger();
+    AtomicLong borrows = new AtomicLong();
+    AtomicLong waitNanos = new AtomicLong();
+    AtomicLong maxWaitNanos = new AtomicLong();
+    AtomicLong timeouts = new AtomicLong();
+    AtomicLong statementHits = new AtomicLong();
+    AtomicLong statementMisses = new AtomicLong();
+
+    /**
+     * Create a pool with the default size and borrow timeout.
+     * @param driver the database driver class
+     * @param url the database connection URL
+     * @param user the database user
+     * @param password the database user's password
+     */
+    public DBPool(String driver, String url, String user, String password) throws ClassNotFoundException {
+        this(driver, url, user, password, DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a pool.
+     * @param driver the database driver class
+     * @param url the database connection URL
+     * @param user the database user
+     * @param password the database user's password
+     * @param maxConnections the maximum number of open connections
+     * @param timeoutMillis how long a borrower waits for a connection before failing
+     */
+    public DBPool(String driver, String url, String user, String password, int maxConnections, long timeoutMillis) throws ClassNotFoundException {
+        if (maxConnections<1) throw new IllegalArgumentException("maxConnections must be positive.");
+        Class.forName(driver);
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxConnections = maxConnections;
+        this.timeoutMillis = timeoutMillis;
+        permits = new Semaphore(maxConnections, true);
+        idle = new ArrayBlockingQueue<CachedConnection>(maxConnections);
+    }
+
+    /** set the number of PreparedStatements cached per connection, at least one, for connections opened from now on */
+    public void setStatementCacheSize(int statementCacheSize) {
+        // the statement just prepared is cached, so a smaller cache would evict and close it before it's returned
+        if (statementCacheSize<1) throw new IllegalArgumentException("statementCacheSize must be positive.");
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /** borrow a connection, waiting up to the timeout for one to become available */
+    CachedConnection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed.");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after "+timeoutMillis+" ms waiting for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+        long wait = System.nanoTime() - start;
+        waitNanos.addAndGet(wait);
+        long max = maxWaitNanos.get();
+        while (wait>max && !maxWaitNanos.compareAndSet(max, wait)) max = maxWaitNanos.get();
+        borrows.incrementAndGet();
+        try {
+            CachedConnection cc;
+            while ((cc=idle.poll())!=null) {
+                if (isUsable(cc)) break;
+                discard(cc);
+            }
+            if (cc==null) {
+                cc = new CachedConnection(DriverManager.getConnection(url, user, password), statementCacheSize);
+                opened.incrementAndGet();
+            }
+            active.incrementAndGet();
+            return cc;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** return a borrowed connection to the pool, or close it if it's broken or the pool is closed */
+    void release(CachedConnection cc, boolean broken) {
+        active.decrementAndGet();
+        statementHits.addAndGet(cc.hits);
+        statementMisses.addAndGet(cc.misses);
+        cc.hits = 0;
+        cc.misses = 0;
+        cc.lastUsed = System.currentTimeMillis();
+        if (broken || closed || !idle.offer(cc)) discard(cc);
+        permits.release();
+    }
+
+    /** check a connection that has been idle for a while */
+    boolean isUsable(CachedConnection cc) {
+        if (System.currentTimeMillis()-cc.lastUsed<VALIDATION_INTERVAL_MILLIS) return true;
+        try {
+            return cc.conn.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void discard(CachedConnection cc) {
+        opened.decrementAndGet();
+        cc.close();
+    }
+
+    /** close the idle connections; borrowed connections are closed when they're returned */
+    public void close() {
+        closed = true;
+        CachedConnection cc;
+        while ((cc=idle.poll())!=null) discard(cc);
+    }
+
+    /////////////
+    // metrics //
+    /////////////
+
+    /** the number of connections currently borrowed */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /** the number of open connections waiting to be borrowed */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /** the number of threads waiting for a connection (an estimate) */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /** the total time spent waiting for connections, in milliseconds */
+    public double getTotalWaitMillis() {
+        return waitNanos.get()/1.0e6;
+    }
+
+    /** the mean time spent waiting for a connection, in milliseconds */
+    public double getMeanWaitMillis() {
+        long n = borrows.get();
+        return (n==0) ? 0.0 : waitNanos.get()/1.0e6/n;
+    }
+
+    /** the longest time spent waiting for a connection, in milliseconds */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get()/1.0e6;
+    }
+
+    /** PreparedStatement cache hits and misses over returned connections */
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    /** a one-line summary of the metrics */
+    public String getStats() {
+        return "active="+getActiveCount()+" idle="+getIdleCount()+" max="+maxConnections+
+            " borrows="+getBorrowCount()+" timeouts="+getTimeoutCount()+
+            " meanWaitMs="+String.format("%.3f", getMeanWaitMillis())+" maxWaitMs="+String.format("%.3f", getMaxWaitMillis())+
+            " statementHits="+getStatementCacheHits()+" statementMisses="+getStatementCacheMisses();
+    }
+
+}
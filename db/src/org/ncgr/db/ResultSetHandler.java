@@ -0,0 +1,16 @@
+package org.ncgr.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Processes the ResultSet of a query run with DB.query while its connection is held.
+ *
+ * @author Sam Hokin
+ */
+public interface ResultSetHandler<T> {
+
+    /** process the rows of the ResultSet and return the result; the ResultSet is closed afterwards */
+    public T handle(ResultSet rs) throws SQLException;
+
+}
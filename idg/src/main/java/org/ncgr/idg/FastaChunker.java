@@ -1,72 +1,361 @@
 package org.ncgr.idg;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Simple routine that splits a FASTA file into n-mers, where n is given on the command line.
+ * Splits a FASTA file into n-mers, where n is given on the command line.
+ *
+ * The FASTA is streamed: in the default mode only an n-length ring buffer of the current record is kept in memory.
+ * Each record is chunked separately, n-mers are labeled with the record ID (up to the first whitespace) and their
+ * 1-based start position in that record.
+ *
+ * Options:
+ * <pre>
+ * -s step      emit every step-th n-mer (default 1)
+ * -c           emit canonical n-mers (the lexically smaller of the n-mer and its reverse complement)
+ * -t threads   split records into blocks that are chunked on a fork-join pool; output order is preserved
+ * -o file      write to file instead of standard out
+ * -z           gzip the output
+ * </pre>
+ * Input files ending in .gz are decompressed.
  */
 public class FastaChunker {
 
-    public static void main(String[] args) {
+    static final String USAGE = "Usage: FastaChunker [-s step] [-c] [-t threads] [-o output-file] [-z] <n> <FASTA file>";
 
-        if (args.length!=2) {
-            System.out.println("Usage: FastaChunker [n] [FASTA file]");
-            System.exit(0);
-        }
+    static final int INPUT_BUFFER_SIZE = 1024*1024;
+    static final int OUTPUT_BUFFER_SIZE = 4*1024*1024;
+
+    // number of bases handed to each fork-join task in parallel mode
+    static final int BLOCK_SIZE = 64*1024;
+
+    // maximum number of blocks per thread that are chunked or waiting to be written
+    static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
+    static final byte[] COMPLEMENT = new byte[256];
+    static {
+        for (int i=0; i<COMPLEMENT.length; i++) COMPLEMENT[i] = (byte) i;
+        String from = "ACGTUacgtuRYKMBVDHrykmbvdh";
+        String to   = "TGCAAtgcaaYRMKVBHDyrmkvbhd";
+        for (int i=0; i<from.length(); i++) COMPLEMENT[from.charAt(i)] = (byte) to.charAt(i);
+    }
+
+    int n;
+    int step = 1;
+    boolean canonical = false;
+    int threads = 1;
+
+    public FastaChunker(int n) {
+        if (n<1) throw new IllegalArgumentException("n must be positive.");
+        this.n = n;
+    }
 
-        int n = 0;
+    public void setStep(int step) {
+        if (step<1) throw new IllegalArgumentException("step must be positive.");
+        this.step = step;
+    }
+
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public void setThreads(int threads) {
+        if (threads<1) throw new IllegalArgumentException("threads must be positive.");
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+
+        FastaChunker chunker = null;
         File fastaFile = null;
-        
+        File outputFile = null;
+        boolean gzip = false;
+
         try {
-            n = Integer.parseInt(args[0]);
-        } catch (NumberFormatException e) {
-            System.err.println("Error: [N] must be an integer.");
-            System.err.println("Usage: FastaChunker [n] [FASTA file]");
+            int step = 1;
+            int threads = 1;
+            boolean canonical = false;
+            int i = 0;
+            while (i<args.length-2) {
+                if (args[i].equals("-s")) {
+                    step = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-c")) {
+                    canonical = true;
+                } else if (args[i].equals("-t")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-o")) {
+                    outputFile = new File(args[++i]);
+                } else if (args[i].equals("-z")) {
+                    gzip = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown option "+args[i]);
+                }
+                i++;
+            }
+            if (args.length-i!=2) {
+                System.out.println(USAGE);
+                System.exit(0);
+            }
+            chunker = new FastaChunker(Integer.parseInt(args[i]));
+            chunker.setStep(step);
+            chunker.setThreads(threads);
+            chunker.setCanonical(canonical);
+            fastaFile = new File(args[i+1]);
+        } catch (IllegalArgumentException e) {
+            // includes NumberFormatException
+            System.err.println("Error: "+e.getMessage());
+            System.err.println(USAGE);
             System.exit(1);
         }
 
         try {
-            fastaFile = new File(args[1]);
-        } catch (Exception e) {
-            System.err.println("Error reading "+args[1]);
-            System.err.println("Usage: FastaChunker [n] [FASTA file]");
+            InputStream in = new FileInputStream(fastaFile);
+            if (fastaFile.getName().endsWith(".gz")) in = new GZIPInputStream(in, INPUT_BUFFER_SIZE);
+            OutputStream out = (outputFile==null) ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(outputFile);
+            if (gzip) out = new GZIPOutputStream(out, OUTPUT_BUFFER_SIZE);
+            out = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+            try {
+                chunker.chunk(in, out);
+            } finally {
+                in.close();
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error chunking file "+args[args.length-1]+": "+e.getMessage());
             System.exit(1);
         }
 
-        try {
-            
-            BufferedReader reader = new BufferedReader(new FileReader(fastaFile));
-            StringBuffer sequence = new StringBuffer();
-
-            String id = "";
-
-            // read it into a StringBuffer
-            String line = null;
-            while ((line=reader.readLine())!=null) {
-                if (line.startsWith(">")) {
-                    // get the ID of the full fasta sequence up to first space
-                    String[] parts = line.split(" ");
-                    id = parts[0].substring(1);
+    }
+
+    /**
+     * Stream the FASTA records from in and write their n-mers to out.
+     */
+    public void chunk(InputStream in, OutputStream out) throws IOException {
+        RecordConsumer consumer = (threads>1) ? new ParallelConsumer(out) : new RingBufferConsumer(out);
+        byte[] buffer = new byte[INPUT_BUFFER_SIZE];
+        boolean lineStart = true;
+        boolean inHeader = false;
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int length;
+        while ((length=in.read(buffer))!=-1) {
+            for (int i=0; i<length; i++) {
+                byte b = buffer[i];
+                if (inHeader) {
+                    if (b=='\n') {
+                        consumer.startRecord(getID(header));
+                        header.reset();
+                        inHeader = false;
+                        lineStart = true;
+                    } else {
+                        header.write(b);
+                    }
+                } else if (b=='\n' || b=='\r') {
+                    lineStart = true;
+                } else if (lineStart && b=='>') {
+                    consumer.endRecord();
+                    inHeader = true;
                 } else {
-                    sequence.append(line);
+                    lineStart = false;
+                    if (b!=' ' && b!='\t') consumer.add(b);
                 }
             }
+        }
+        if (inHeader) consumer.startRecord(getID(header));
+        consumer.endRecord();
+        consumer.finish();
+        out.flush();
+    }
+
+    /**
+     * Return the ID from a header line (without the >), which is the part up to the first whitespace.
+     */
+    static String getID(ByteArrayOutputStream header) {
+        String line = new String(header.toByteArray(), StandardCharsets.ISO_8859_1);
+        int end = 0;
+        while (end<line.length() && !Character.isWhitespace(line.charAt(end))) end++;
+        return line.substring(0, end);
+    }
+
+    /**
+     * Write the n-mer in kmer[0..n-1] starting at the given 1-based position as a FASTA record into the scratch array,
+     * returning the record length. prefix holds ">ID." and scratch must hold prefix.length+20+2*n+2 bytes.
+     */
+    int formatKmer(byte[] prefix, long position, byte[] kmer, byte[] scratch) {
+        System.arraycopy(prefix, 0, scratch, 0, prefix.length);
+        int p = prefix.length;
+        // position digits
+        int digitsStart = p;
+        do {
+            scratch[p++] = (byte) ('0' + position%10);
+            position /= 10;
+        } while (position>0);
+        for (int i=digitsStart, j=p-1; i<j; i++, j--) {
+            byte t = scratch[i]; scratch[i] = scratch[j]; scratch[j] = t;
+        }
+        scratch[p++] = '\n';
+        if (canonical && isReverseComplementSmaller(kmer)) {
+            for (int i=n-1; i>=0; i--) scratch[p++] = COMPLEMENT[kmer[i] & 0xFF];
+        } else {
+            System.arraycopy(kmer, 0, scratch, p, n);
+            p += n;
+        }
+        scratch[p++] = '\n';
+        return p;
+    }
+
+    boolean isReverseComplementSmaller(byte[] kmer) {
+        for (int i=0, j=n-1; i<n; i++, j--) {
+            int forward = kmer[i] & 0xFF;
+            int reverse = COMPLEMENT[kmer[j] & 0xFF] & 0xFF;
+            if (reverse!=forward) return reverse<forward;
+        }
+        return false;
+    }
+
+    static byte[] getPrefix(String id) {
+        return (">"+id+".").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Receives the bases of the FASTA records in file order.
+     */
+    interface RecordConsumer {
+        void startRecord(String id) throws IOException;
+        void add(byte base) throws IOException;
+        void endRecord() throws IOException;
+        void finish() throws IOException;
+    }
+
+    /**
+     * Sequential consumer that keeps only the last n bases of the current record.
+     */
+    class RingBufferConsumer implements RecordConsumer {
+        OutputStream out;
+        byte[] ring = new byte[n];
+        byte[] kmer = new byte[n];
+        byte[] prefix;
+        byte[] scratch;
+        long count;
+
+        RingBufferConsumer(OutputStream out) {
+            this.out = out;
+        }
+
+        public void startRecord(String id) {
+            prefix = getPrefix(id);
+            scratch = new byte[prefix.length+20+2*n+2];
+            count = 0;
+        }
+
+        public void add(byte base) throws IOException {
+            if (prefix==null) throw new IOException("FASTA file does not start with a header line.");
+            ring[(int) (count%n)] = base;
+            count++;
+            long start = count-n;
+            if (start>=0 && start%step==0) {
+                int head = (int) (count%n); // oldest base
+                System.arraycopy(ring, head, kmer, 0, n-head);
+                System.arraycopy(ring, 0, kmer, n-head, head);
+                out.write(scratch, 0, formatKmer(prefix, start+1, kmer, scratch));
+            }
+        }
 
-            // spit out individual n-mers
-            for (int i=0; i<sequence.length()-n+1; i++) {
-                String seq = sequence.substring(i,i+n);
-                System.out.println(">"+id+"."+(i+1));
-                System.out.println(seq);
+        public void endRecord() {
+            prefix = null;
+        }
+
+        public void finish() {
+        }
+    }
+
+    /**
+     * Parallel consumer that cuts records into overlapping blocks which are chunked by fork-join tasks. The formatted
+     * blocks are written in submission order, with a bounded number of blocks in flight.
+     */
+    class ParallelConsumer implements RecordConsumer {
+        OutputStream out;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        byte[] block = new byte[BLOCK_SIZE+n-1];
+        int blockLength;
+        long blockStart;
+        byte[] prefix;
+
+        ParallelConsumer(OutputStream out) {
+            this.out = out;
+        }
+
+        public void startRecord(String id) {
+            prefix = getPrefix(id);
+            blockLength = 0;
+            blockStart = 0;
+        }
+
+        public void add(byte base) throws IOException {
+            if (prefix==null) throw new IOException("FASTA file does not start with a header line.");
+            block[blockLength++] = base;
+            if (blockLength==block.length) {
+                submit();
+                // keep the last n-1 bases for the n-mers that span the block boundary
+                System.arraycopy(block, blockLength-(n-1), block, 0, n-1);
+                blockStart += blockLength-(n-1);
+                blockLength = n-1;
             }
-            
-        } catch (Exception e) {
-            System.err.println("Error reading file "+args[1]);
-            System.err.println("Usage: FastaChunker [N] [FASTA-FILE]");
-            System.exit(1);
         }
 
+        public void endRecord() throws IOException {
+            if (prefix!=null && blockLength>=n) submit();
+            prefix = null;
+        }
+
+        void submit() throws IOException {
+            final byte[] bases = Arrays.copyOf(block, blockLength);
+            final long start = blockStart;
+            final byte[] recordPrefix = prefix;
+            pending.addLast(pool.submit(() -> chunkBlock(recordPrefix, start, bases)));
+            while (pending.size()>threads*BLOCKS_IN_FLIGHT_PER_THREAD) {
+                out.write(pending.removeFirst().join());
+            }
+        }
+
+        public void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                out.write(pending.removeFirst().join());
+            }
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Format the n-mers of a block whose first base has the given 0-based position in its record.
+     */
+    byte[] chunkBlock(byte[] prefix, long blockStart, byte[] bases) {
+        byte[] scratch = new byte[prefix.length+20+2*n+2];
+        byte[] kmer = new byte[n];
+        ByteArrayOutputStream result = new ByteArrayOutputStream((bases.length/step+1)*(prefix.length+n+10));
+        // first n-mer start in this block that is on the step grid
+        long first = ((blockStart+step-1)/step)*step;
+        for (long start=first; start-blockStart+n<=bases.length; start+=step) {
+            System.arraycopy(bases, (int) (start-blockStart), kmer, 0, n);
+            result.write(scratch, 0, formatKmer(prefix, start+1, kmer, scratch));
+        }
+        return result.toByteArray();
     }
 
 }
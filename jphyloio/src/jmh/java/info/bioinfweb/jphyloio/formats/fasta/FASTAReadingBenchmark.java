@@ -0,0 +1,196 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.formats.fasta;
+
+
+import info.bioinfweb.commons.io.PeekReader;
+import info.bioinfweb.jphyloio.ReadWriteParameterMap;
+import info.bioinfweb.jphyloio.events.JPhyloIOEvent;
+import info.bioinfweb.jphyloio.events.SequenceTokensEvent;
+import info.bioinfweb.jphyloio.events.type.EventContentType;
+import info.bioinfweb.jphyloio.utils.SequenceTokensEventManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+
+/**
+ * Compares creating one string object per residue (as {@link FASTAEventReader} did before sequence tokens events 
+ * supported the single character token mode) with passing the read lines directly as character sequences.
+ * <p>
+ * A random nucleotide <i>FASTA</i> file of {@link #megabytes} MB with 80 characters per line is generated once per 
+ * trial. {@link #legacyTokenLists()} and {@link #characterSequences()} read the file line by line using the same
+ * {@link PeekReader} calls as the reader and only differ in how events are created. {@link #fastaEventReader()} 
+ * measures the complete reader and {@link #memoryMappedFASTAEventReader()} the reader using 
+ * {@link ReadWriteParameterMap#KEY_USE_MEMORY_MAPPING}. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FASTAReadingBenchmark implements FASTAConstants {
+	private static final int SEQUENCE_LENGTH = 10 * 1024 * 1024;
+	private static final char[] NUCLEOTIDES = {'A', 'C', 'G', 'T'};
+	
+	
+	@Param({"256"})
+	public int megabytes;
+	
+	private File file;
+	
+	
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		file = File.createTempFile("FASTAReadingBenchmark", ".fasta");
+		file.deleteOnExit();
+		Random random = new Random(1);
+		long remaining = (long)megabytes * 1024 * 1024;
+		Writer writer = new BufferedWriter(new FileWriter(file), 1024 * 1024);
+		try {
+			int sequenceIndex = 0;
+			int position = SEQUENCE_LENGTH;
+			while (remaining > 0) {
+				if (position >= SEQUENCE_LENGTH) {
+					writer.write(NAME_START_CHAR + "chr" + sequenceIndex++ + "\n");
+					position = 0;
+				}
+				for (int i = 0; i < DEFAULT_LINE_LENGTH; i++) {
+					writer.write(NUCLEOTIDES[random.nextInt(NUCLEOTIDES.length)]);
+				}
+				writer.write('\n');
+				position += DEFAULT_LINE_LENGTH;
+				remaining -= DEFAULT_LINE_LENGTH + 1;
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+	
+	
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+	}
+	
+	
+	private SequenceTokensEventManager createManager() throws IOException {
+		return new SequenceTokensEventManager(new FASTAEventReader(new StringReader(""), new ReadWriteParameterMap()), null);
+	}
+	
+	
+	private long readLines(SequenceTokensEventManager manager, boolean legacy) throws IOException {
+		PeekReader reader = new PeekReader(new BufferedReader(new FileReader(file)));
+		try {
+			long result = 0;
+			String sequenceName = null;
+			while (reader.peek() != -1) {
+				if (reader.peekChar() == NAME_START_CHAR) {
+					reader.skip(1);
+					sequenceName = reader.readLine().getSequence().toString();
+				}
+				else {
+					CharSequence line = reader.readLine(DEFAULT_LINE_LENGTH * 2).getSequence();
+					SequenceTokensEvent event;
+					if (legacy) {
+						List<String> tokenList = new ArrayList<String>(line.length());
+						for (int i = 0; i < line.length(); i++) {
+							tokenList.add(Character.toString(line.charAt(i)));
+						}
+						event = manager.createEvent(sequenceName, tokenList);
+					}
+					else {
+						event = manager.createEvent(sequenceName, line);
+					}
+					result += event.getTokenCount();
+				}
+			}
+			return result;
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	
+	@Benchmark
+	public long legacyTokenLists() throws IOException {
+		return readLines(createManager(), true);
+	}
+
+	
+	@Benchmark
+	public long characterSequences() throws IOException {
+		return readLines(createManager(), false);
+	}
+	
+	
+	private long readEvents(boolean memoryMapping) throws IOException {
+		ReadWriteParameterMap parameters = new ReadWriteParameterMap();
+		parameters.put(ReadWriteParameterMap.KEY_REPLACE_MATCH_TOKENS, false);
+		parameters.put(ReadWriteParameterMap.KEY_USE_MEMORY_MAPPING, memoryMapping);
+		FASTAEventReader reader = new FASTAEventReader(file, parameters);
+		try {
+			long result = 0;
+			while (reader.hasNextEvent()) {
+				JPhyloIOEvent event = reader.next();
+				if (event.getType().getContentType().equals(EventContentType.SEQUENCE_TOKENS)) {
+					result += event.asSequenceTokensEvent().getTokenCount();
+				}
+			}
+			return result;
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	
+	@Benchmark
+	public long fastaEventReader() throws IOException {
+		return readEvents(false);
+	}
+	
+	
+	@Benchmark
+	public long memoryMappedFASTAEventReader() throws IOException {
+		return readEvents(true);
+	}
+}
@@ -25,6 +25,7 @@ import info.bioinfweb.jphyloio.events.CommentEvent;
 import info.bioinfweb.jphyloio.events.SequenceTokensEvent;
 import info.bioinfweb.jphyloio.events.SingleTokenDefinitionEvent;
 import info.bioinfweb.jphyloio.formatinfo.JPhyloIOFormatInfo;
+import info.bioinfweb.jphyloio.formats.fasta.FASTAEventReader;
 import info.bioinfweb.jphyloio.formats.newick.NewickEventReader;
 import info.bioinfweb.jphyloio.formats.nexml.NeXMLEventReader;
 import info.bioinfweb.jphyloio.formats.nexml.NeXMLEventWriter;
@@ -151,6 +152,22 @@ public interface ReadWriteParameterNames {
 	 */
 	public static final String KEY_ALLOW_INTERLEAVED_PARSING = KEY_PREFIX + "allowInterleavedParsing";
 	
+	/** 
+	 * Parameter which determines whether readers that support this feature (currently only {@link FASTAEventReader}) 
+	 * shall map input files into memory instead of reading them through a decoding reader. Single byte encoded contents
+	 * are then directly scanned in the mapped region and sequence tokens events will contain views on the mapped 
+	 * file, which avoids copying the data of large (e.g. genome) files. 
+	 * <p>
+	 * This parameter only has an effect if a reader is created with a {@link java.io.File}. Readers will fall back to
+	 * stream based reading for other inputs and for <i>GZIP</i> compressed files.
+	 * <p>
+	 * The value must have the type {@link Boolean}. If {@code true} is specified, files will be mapped. If {@code false} 
+	 * is specified or this parameter is omitted, files will be read using a reader. 
+	 * 
+	 * @since 0.6.0
+	 */
+	public static final String KEY_USE_MEMORY_MAPPING = KEY_PREFIX + "useMemoryMapping";
+	
 	/**
 	 * This parameter will only be used by {@link NexusEventReader} and {@link NewickEventReader} and allows to specify whether 
 	 * the <a href="http://dx.doi.org/10.1186/1471-2105-9-532"><i>eNewick</i> extension</a> of <i>Newick</i> strings is supported. 
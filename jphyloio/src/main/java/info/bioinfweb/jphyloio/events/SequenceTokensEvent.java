@@ -21,6 +21,7 @@ package info.bioinfweb.jphyloio.events;
 
 import info.bioinfweb.jphyloio.events.type.EventContentType;
 import info.bioinfweb.jphyloio.events.type.EventTopologyType;
+import info.bioinfweb.jphyloio.utils.CharacterTokenList;
 
 import java.util.Collections;
 import java.util.List;
@@ -33,12 +34,19 @@ import java.util.List;
  * <p>
  * It depends on the implementation of the format specific reader how many tokens are contained in a single event. For 
  * performance reasons most applications will group several tokens together in one event, but not necessarily a whole
- * sequence.  
+ * sequence.
+ * <p>
+ * Readers of formats that only allow single character tokens (e.g. <i>FASTA</i>) may create instances that store their 
+ * tokens in a {@link CharSequence} instead of a list of strings. This avoids creating one string object per token. 
+ * Such instances can be identified using {@link #isSingleCharacterTokens()} and applications processing large amounts 
+ * of data should read their tokens using {@link #getCharacters()}. {@link #getTokens()} is still supported for these 
+ * instances and will return a lazy list view on the character sequence.
  * 
  * @author Ben St&ouml;ver
  */
 public class SequenceTokensEvent extends ConcreteJPhyloIOEvent {
 	private List<String> tokens;
+	private CharSequence characters = null;
 	
 	
 	public SequenceTokensEvent(List<String> tokens) {
@@ -48,7 +56,79 @@ public class SequenceTokensEvent extends ConcreteJPhyloIOEvent {
 	}
 
 	
+	/**
+	 * Creates a new instance of this class in the single character token mode.
+	 * <p>
+	 * Note that the specified sequence is not copied. It must therefore not be modified after this event was created.
+	 * 
+	 * @param characters the sequence containing one token per character
+	 * @throws NullPointerException if {@code characters} is {@code null}
+	 * @since 0.6.0
+	 */
+	public SequenceTokensEvent(CharSequence characters) {
+		super(EventContentType.SEQUENCE_TOKENS, EventTopologyType.SOLE);
+		
+		if (characters == null) {
+			throw new NullPointerException("The character sequence must not be null.");
+		}
+		else {
+			this.characters = characters;
+			this.tokens = null;  // Will be created if getTokens() is called.
+		}
+	}
+
+	
+	/**
+	 * Returns the list of tokens contained in this event. If this instance is in the single character token mode, 
+	 * a read-only view on the underlying character sequence is returned.
+	 * 
+	 * @return the list of tokens
+	 */
 	public List<String> getTokens() {
+		if (tokens == null) {
+			tokens = new CharacterTokenList(characters);
+		}
 		return tokens;
 	}
+	
+	
+	/**
+	 * Returns the number of tokens contained in this event. Other than {@code getTokens().size()} this method will 
+	 * not create a list view for instances in the single character token mode.
+	 * 
+	 * @return the number of tokens
+	 * @since 0.6.0
+	 */
+	public int getTokenCount() {
+		if (characters != null) {
+			return characters.length();
+		}
+		else {
+			return tokens.size();
+		}
+	}
+	
+	
+	/**
+	 * Determines whether this event stores its tokens as a character sequence, where each character represents one
+	 * token.
+	 * 
+	 * @return {@code true} if {@link #getCharacters()} returns the tokens of this event or {@code false} otherwise
+	 * @since 0.6.0
+	 */
+	public boolean isSingleCharacterTokens() {
+		return characters != null;
+	}
+	
+	
+	/**
+	 * Returns the character sequence containing the tokens of this event, if this instance is in the single character 
+	 * token mode.
+	 * 
+	 * @return the tokens as a character sequence or {@code null} if this event was created with a list of tokens
+	 * @since 0.6.0
+	 */
+	public CharSequence getCharacters() {
+		return characters;
+	}
 }
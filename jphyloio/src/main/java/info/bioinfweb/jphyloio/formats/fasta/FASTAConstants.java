@@ -32,4 +32,8 @@ public interface FASTAConstants {
 	
 	public static final char NAME_START_CHAR = '>';
 	public static final char COMMENT_START_CHAR = ';';
+	
+	/** The extension of <i>samtools</i> compatible index files of <i>FASTA</i> files (see {@link FASTAIndex}). */
+	public static final String INDEX_FILE_EXTENSION = ".fai";
+	public static final char INDEX_FIELD_SEPARATOR = '\t';
 }
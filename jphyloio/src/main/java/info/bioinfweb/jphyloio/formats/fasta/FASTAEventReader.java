@@ -21,6 +21,7 @@ package info.bioinfweb.jphyloio.formats.fasta;
 
 import info.bioinfweb.commons.io.PeekReader;
 import info.bioinfweb.commons.io.PeekReader.ReadResult;
+import info.bioinfweb.commons.io.StreamLocationProvider;
 import info.bioinfweb.jphyloio.ReadWriteParameterMap;
 import info.bioinfweb.jphyloio.ReadWriteParameterNames;
 import info.bioinfweb.jphyloio.events.LinkedLabeledIDEvent;
@@ -39,11 +40,13 @@ import info.bioinfweb.jphyloio.formats.text.TextReaderStreamDataProvider;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 
 
@@ -67,6 +70,15 @@ import java.util.List;
  * <p>
  * This reader does not process the sequence names according to any conventions. The full string following '>' 
  * will be returned in each {@link SequenceTokensEvent} and can be parsed later on by the application.
+ * <p>
+ * All sequence tokens events created by this reader are in the single character token mode (see 
+ * {@link SequenceTokensEvent#getCharacters()}), so that no string object needs to be created for each residue.
+ * <p>
+ * If this reader is created using {@link #FASTAEventReader(File, ReadWriteParameterMap)} and 
+ * {@link ReadWriteParameterNames#KEY_USE_MEMORY_MAPPING} is set to {@code true}, the file is mapped into memory 
+ * and the single byte encoded content is scanned directly. The sequence tokens events will then contain views on 
+ * the mapped file. <i>GZIP</i> compressed files are always read using a reader. (Other than the other constructors,
+ * the file constructor also recognizes and decompresses such files if memory mapping is switched off.)
  * 
  * <h3><a id="parameters"></a>Recognized parameters</h3> 
  * <ul>
@@ -74,12 +86,14 @@ import java.util.List;
  *   <li>{@link ReadWriteParameterNames#KEY_REPLACE_MATCH_TOKENS}</li>
  *   <li>{@link ReadWriteParameterNames#KEY_MAXIMUM_TOKENS_TO_READ}</li>
  *   <li>{@link ReadWriteParameterNames#KEY_MAXIMUM_COMMENT_LENGTH}</li>
+ *   <li>{@link ReadWriteParameterNames#KEY_USE_MEMORY_MAPPING}</li>
  * </ul>
  * 
  * @author Ben St&ouml;ver
  */
 public class FASTAEventReader extends AbstractTextEventReader<TextReaderStreamDataProvider<FASTAEventReader>> implements FASTAConstants {
 	private String currentSequenceName = null;
+	private MappedFASTAInput mappedInput = null;
 	
 	
 	/**
@@ -102,7 +116,28 @@ public class FASTAEventReader extends AbstractTextEventReader<TextReaderStreamDa
 	 * @throws IOException if an I/O exception occurs while parsing the first event
 	 */
 	public FASTAEventReader(File file, ReadWriteParameterMap parameters) throws IOException {
-		super(file, parameters, parameters.getMatchToken());
+		super(createPeekReader(file, parameters), parameters, parameters.getMatchToken());
+		if (getReader() == null) {
+			mappedInput = new MappedFASTAInput(file);
+		}
+	}
+	
+	
+	/**
+	 * Creates the reader to be used for the specified file.
+	 * 
+	 * @return the reader or {@code null} if the file shall be mapped into memory
+	 */
+	private static PeekReader createPeekReader(File file, ReadWriteParameterMap parameters) throws IOException {
+		if (MappedFASTAInput.isGZIPFile(file)) {
+			return new PeekReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)))));
+		}
+		else if (parameters.getBoolean(ReadWriteParameterNames.KEY_USE_MEMORY_MAPPING, false)) {
+			return null;
+		}
+		else {
+			return new PeekReader(new BufferedReader(new FileReader(file)));
+		}
 	}
 
 	
@@ -134,28 +169,89 @@ public class FASTAEventReader extends AbstractTextEventReader<TextReaderStreamDa
 	public String getFormatID() {
 		return JPhyloIOFormatIDs.FASTA_FORMAT_ID;
 	}
+	
+	
+	/**
+	 * Determines whether this instance reads from a memory mapped file.
+	 * 
+	 * @return {@code true} if the input file is mapped into memory or {@code false} if it is read using a reader
+	 * @see ReadWriteParameterNames#KEY_USE_MEMORY_MAPPING
+	 * @since 0.6.0
+	 */
+	public boolean isMemoryMapped() {
+		return mappedInput != null;
+	}
+	
+	
+	private int peekInput() throws IOException {
+		return isMemoryMapped() ? mappedInput.peek() : getReader().peek();
+	}
+	
+	
+	private char peekInputChar() throws IOException {
+		return isMemoryMapped() ? mappedInput.peekChar() : getReader().peekChar();
+	}
+	
+	
+	private char readInputChar() throws IOException {
+		return isMemoryMapped() ? mappedInput.readChar() : getReader().readChar();
+	}
+	
+	
+	private void skipInputChar() throws IOException {
+		if (isMemoryMapped()) {
+			mappedInput.read();
+		}
+		else {
+			getReader().skip(1);
+		}
+	}
+	
+	
+	private String readInputLine() throws IOException {
+		return isMemoryMapped() ? mappedInput.readLine() : getReader().readLine().getSequence().toString();
+	}
+	
+	
+	private ReadResult readInputLine(int maxLength) throws IOException {
+		return isMemoryMapped() ? mappedInput.readLine(maxLength) : getReader().readLine(maxLength);
+	}
+	
+	
+	private StreamLocationProvider getLocation() {
+		return isMemoryMapped() ? mappedInput : getReader();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		if (isMemoryMapped()) {
+			mappedInput.close();
+		}
+	}
 
 
 	private JPhyloIOEvent readSequenceStart(String exceptionMessage) throws IOException {
 		try {
-			if (getReader().readChar() == NAME_START_CHAR) {
-				currentSequenceName = getReader().readLine().getSequence().toString();
+			if (readInputChar() == NAME_START_CHAR) {
+				currentSequenceName = readInputLine();
 			  //TODO Optionally an additional OTU event with an ID could be generated here.
 				getCurrentEventCollection().add(new LinkedLabeledIDEvent(EventContentType.SEQUENCE, 
 						DEFAULT_SEQUENCE_ID_PREFIX + getIDManager().createNewID(), currentSequenceName, null));  // This event may remain in the queue in addition to the upcoming characters event, since it will not consume much memory.
 				int maxCommentLength = getParameters().getMaxCommentLength();
-				while (getReader().peekChar() == COMMENT_START_CHAR) {
-					getReader().read();  // Consume ';'.
+				while (peekInputChar() == COMMENT_START_CHAR) {
+					skipInputChar();  // Consume ';'.
 					ReadResult readResult;
 					do {
-						readResult = getReader().readLine(maxCommentLength);
+						readResult = readInputLine(maxCommentLength);
 						getCurrentEventCollection().add(new CommentEvent(readResult.getSequence().toString(), !readResult.isCompletelyRead()));
 					} while (!readResult.isCompletelyRead());
 				}
 				return null;
 			}
 			else {
-				throw new JPhyloIOReaderException(exceptionMessage, getReader());
+				throw new JPhyloIOReaderException(exceptionMessage, getLocation());
 			}
 		}
 		catch (EOFException e) {
@@ -172,10 +268,10 @@ public class FASTAEventReader extends AbstractTextEventReader<TextReaderStreamDa
 	 */
 	private boolean consumeTokenIndex() throws IOException {
 		try {
-			char c = getReader().peekChar();
+			char c = peekInputChar();
 			while (Character.isWhitespace(c) || Character.isDigit(c)) {
-				getReader().skip(1);
-				c = getReader().peekChar();
+				skipInputChar();
+				c = peekInputChar();
 			}
 			return true;
 		}
@@ -224,7 +320,7 @@ public class FASTAEventReader extends AbstractTextEventReader<TextReaderStreamDa
 				case SEQUENCE_TOKENS:
 				case COMMENT:
 					// Check if new name needs to be read:
-					int c = getReader().peek();
+					int c = peekInput();
 					if ((c == -1) || (lineConsumed && (c == (int)NAME_START_CHAR))) {
 						getCurrentEventCollection().add(new PartEndEvent(EventContentType.SEQUENCE, true));
 						alignmentEndEvent = readSequenceStart(
@@ -245,13 +341,10 @@ public class FASTAEventReader extends AbstractTextEventReader<TextReaderStreamDa
 							break;
 						}
 					}
-					PeekReader.ReadResult lineResult = getReader().readLine(getParameters().getMaxTokensToRead());
-					List<String> tokenList = new ArrayList<String>(lineResult.getSequence().length());
-					for (int i = 0; i < lineResult.getSequence().length(); i++) {  //TODO Support tokens longer then one character. => According implementations should already be available in other readers.
-						tokenList.add(Character.toString(lineResult.getSequence().charAt(i)));
-					}
+					ReadResult lineResult = readInputLine(getParameters().getMaxTokensToRead());
 					lineConsumed = lineResult.isCompletelyRead();
-					getCurrentEventCollection().add(getSequenceTokensEventManager().createEvent(currentSequenceName, tokenList));
+					getCurrentEventCollection().add(getSequenceTokensEventManager().createEvent(currentSequenceName,  //TODO Support tokens longer then one character. => According implementations should already be available in other readers.
+							lineResult.getSequence()));  // The read result is newly created for each line (or a view on the mapped file) and can therefore directly be used by the event.
 					break;
 					
 				default:  // includes META_INFORMATION
@@ -107,6 +107,7 @@ public class FASTAFactory extends AbstractStartStringSingleFactory implements Si
 		supportedReaderParameters.add(ReadWriteParameterNames.KEY_REPLACE_MATCH_TOKENS);
 		supportedReaderParameters.add(ReadWriteParameterNames.KEY_MAXIMUM_TOKENS_TO_READ);
 		supportedReaderParameters.add(ReadWriteParameterNames.KEY_MAXIMUM_COMMENT_LENGTH);
+		supportedReaderParameters.add(ReadWriteParameterNames.KEY_USE_MEMORY_MAPPING);
 
 		Set<String> supportedWriterParameters = new HashSet<String>();
 		supportedWriterParameters.add(ReadWriteParameterNames.KEY_WRITER_INSTANCE);
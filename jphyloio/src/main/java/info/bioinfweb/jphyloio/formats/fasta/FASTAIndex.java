@@ -0,0 +1,388 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.formats.fasta;
+
+
+import info.bioinfweb.jphyloio.exception.JPhyloIOReaderException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+/**
+ * A <i>samtools</i> compatible index ({@code .fai}) of a <i>FASTA</i> file, that allows to calculate the file offset of 
+ * any position of the contained sequences. Such an index is used by {@link IndexedFASTAReader} to provide random access
+ * to sequences or subsequences without parsing the whole file.
+ * <p>
+ * An index can be created from a <i>FASTA</i> file in a single streaming pass using {@link #build(File)} or read from
+ * an existing {@code .fai} file using {@link #read(File)}. Names of indexed sequences are the contents of the name line
+ * up to the first whitespace. Comment lines following the name line (see {@link FASTAEventReader}) are skipped, but 
+ * indices in front of sequence lines are not supported. All lines of a sequence except the last one must have the
+ * same length.
+ * 
+ * @since 0.6.0
+ */
+public class FASTAIndex implements FASTAConstants {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	
+	private Map<String, FASTAIndexEntry> entries = new LinkedHashMap<String, FASTAIndexEntry>();
+	
+	
+	/**
+	 * Creates a new empty index.
+	 */
+	public FASTAIndex() {
+		super();
+	}
+	
+	
+	/**
+	 * Adds a new entry to this index.
+	 * 
+	 * @param entry the entry to be added
+	 * @throws IllegalArgumentException if an entry for a sequence with the same name is already present
+	 */
+	public void add(FASTAIndexEntry entry) {
+		if (entries.containsKey(entry.getName())) {
+			throw new IllegalArgumentException("The index already contains a sequence with the name \"" + entry.getName() + "\".");
+		}
+		else {
+			entries.put(entry.getName(), entry);
+		}
+	}
+	
+	
+	/**
+	 * Returns the index entry for the specified sequence.
+	 * 
+	 * @param name the name of the sequence
+	 * @return the entry or {@code null} if no sequence with this name is indexed
+	 */
+	public FASTAIndexEntry getEntry(String name) {
+		return entries.get(name);
+	}
+	
+	
+	/**
+	 * Returns all entries of this index in the order of the sequences in the <i>FASTA</i> file.
+	 * 
+	 * @return a read-only collection of entries
+	 */
+	public Collection<FASTAIndexEntry> getEntries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+	
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	
+	/**
+	 * Returns the file the index of the specified <i>FASTA</i> file is stored in by convention. 
+	 * 
+	 * @param fastaFile the indexed file
+	 * @return the file with the extension {@link FASTAConstants#INDEX_FILE_EXTENSION} appended
+	 */
+	public static File getIndexFile(File fastaFile) {
+		return new File(fastaFile.getPath() + INDEX_FILE_EXTENSION);
+	}
+	
+	
+	/**
+	 * Reads the index of the specified file from the according {@code .fai} file, if it exists and is not older than
+	 * the <i>FASTA</i> file. Otherwise a new index is created and written to that file, if possible.
+	 * 
+	 * @param fastaFile the <i>FASTA</i> file to be indexed
+	 * @return the index
+	 * @throws IOException if reading the <i>FASTA</i> or the index file fails or the <i>FASTA</i> file cannot be indexed
+	 */
+	public static FASTAIndex load(File fastaFile) throws IOException {
+		File indexFile = getIndexFile(fastaFile);
+		if (indexFile.isFile() && (indexFile.lastModified() >= fastaFile.lastModified())) {
+			return read(indexFile);
+		}
+		else {
+			FASTAIndex result = build(fastaFile);
+			if (indexFile.getAbsoluteFile().getParentFile().canWrite()) {
+				result.write(indexFile);
+			}
+			return result;
+		}
+	}
+	
+	
+	/**
+	 * Reads an index from a {@code .fai} file.
+	 * 
+	 * @param indexFile the index file
+	 * @return the index
+	 * @throws IOException if the file cannot be read or does not contain a valid index
+	 */
+	public static FASTAIndex read(File indexFile) throws IOException {
+		FASTAIndex result = new FASTAIndex();
+		BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+		try {
+			long lineNumber = 0;
+			String line = reader.readLine();
+			while (line != null) {
+				if (line.length() > 0) {
+					String[] fields = line.split(Character.toString(INDEX_FIELD_SEPARATOR));
+					if (fields.length < 5) {
+						throw new JPhyloIOReaderException("Invalid index line \"" + line + "\".", -1, lineNumber, 0);
+					}
+					try {
+						result.add(new FASTAIndexEntry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), 
+								Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+					}
+					catch (IllegalArgumentException e) {  // Also catches NumberFormatException.
+						throw new JPhyloIOReaderException("Invalid index line \"" + line + "\".", -1, lineNumber, 0, e);
+					}
+				}
+				lineNumber++;
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Writes this index in the {@code .fai} format.
+	 * 
+	 * @param writer the writer to write the index to
+	 * @throws IOException if writing fails
+	 */
+	public void write(Writer writer) throws IOException {
+		for (FASTAIndexEntry entry : entries.values()) {
+			writer.write(entry.toString());
+			writer.write('\n');
+		}
+	}
+	
+	
+	/**
+	 * Writes this index to a {@code .fai} file.
+	 * 
+	 * @param indexFile the file to write to
+	 * @throws IOException if writing fails
+	 */
+	public void write(File indexFile) throws IOException {
+		Writer writer = new BufferedWriter(new FileWriter(indexFile));
+		try {
+			write(writer);
+		}
+		finally {
+			writer.close();
+		}
+	}
+	
+	
+	/**
+	 * Creates the index of the specified <i>FASTA</i> file.
+	 * 
+	 * @param fastaFile the file to be indexed
+	 * @return the new index
+	 * @throws IOException if the file cannot be read or contains lines of inconsistent length
+	 */
+	public static FASTAIndex build(File fastaFile) throws IOException {
+		InputStream stream = new FileInputStream(fastaFile);
+		try {
+			return build(stream);
+		}
+		finally {
+			stream.close();
+		}
+	}
+	
+	
+	/**
+	 * Creates the index of the uncompressed <i>FASTA</i> data provided by the specified stream in a single pass. 
+	 * Only the current line length is kept in memory, so that files of any size can be indexed.
+	 * 
+	 * @param stream the stream providing the <i>FASTA</i> data
+	 * @return the new index
+	 * @throws IOException if reading from the stream fails or it contains lines of inconsistent length
+	 */
+	public static FASTAIndex build(InputStream stream) throws IOException {
+		return new Builder(stream).build();
+	}
+	
+	
+	private static class Builder {
+		private InputStream stream;
+		private byte[] buffer = new byte[BUFFER_SIZE];
+		private int bufferPosition = 0;
+		private int bufferLength = 0;
+		private long offset = 0;  // The file offset of the byte returned by the next call of read().
+		private long lineNumber = 0;
+		private FASTAIndex result = new FASTAIndex();
+		
+		
+		public Builder(InputStream stream) {
+			super();
+			this.stream = stream;
+		}
+		
+		
+		private int read() throws IOException {
+			if (bufferPosition >= bufferLength) {
+				bufferLength = stream.read(buffer);
+				bufferPosition = 0;
+				if (bufferLength <= 0) {
+					bufferLength = 0;
+					return -1;
+				}
+			}
+			offset++;
+			int result = buffer[bufferPosition++] & 0xFF;
+			if (result == '\n') {
+				lineNumber++;
+			}
+			return result;
+		}
+		
+		
+		private JPhyloIOReaderException createException(String message) {
+			return new JPhyloIOReaderException(message, offset, lineNumber, -1);
+		}
+		
+		
+		/**
+		 * Reads the rest of the current line.
+		 * 
+		 * @return the first character of the next line or -1
+		 */
+		private int readLine(StringBuilder content) throws IOException {
+			int c = read();
+			while ((c != -1) && (c != '\n')) {
+				if ((content != null) && (c != '\r')) {
+					content.append((char)c);
+				}
+				c = read();
+			}
+			return (c == -1) ? -1 : read();
+		}
+		
+		
+		private static String extractName(CharSequence nameLine) {
+			int end = 0;
+			while ((end < nameLine.length()) && !Character.isWhitespace(nameLine.charAt(end))) {
+				end++;
+			}
+			return nameLine.subSequence(0, end).toString();
+		}
+		
+		
+		/**
+		 * Reads the sequence lines of the current record and adds the according entry to the index.
+		 * 
+		 * @param c the first character of the first sequence line
+		 * @return the first character following the sequence lines (either {@link FASTAConstants#NAME_START_CHAR} or -1)
+		 */
+		private int readSequence(String name, int c) throws IOException {
+			long sequenceOffset = (c == -1) ? offset : offset - 1;
+			long length = 0;
+			int lineBases = -1;
+			int lineWidth = -1;
+			boolean lastLineFound = false;  // A line shorter than the previous or an empty line was found.
+			while ((c != -1) && (c != NAME_START_CHAR)) {
+				int bases = 0;
+				int width = 0;
+				while ((c != -1) && (c != '\n')) {
+					if (c != '\r') {
+						bases++;
+					}
+					width++;
+					c = read();
+				}
+				if (c == '\n') {
+					width++;
+					c = read();
+				}
+				
+				if (bases == 0) {
+					lastLineFound = true;
+				}
+				else if (lastLineFound) {
+					throw createException("The sequence \"" + name + "\" contains lines of different length, which cannot be indexed.");
+				}
+				else {
+					if (lineBases == -1) {
+						lineBases = bases;
+						lineWidth = width;
+					}
+					else if ((bases < lineBases) || ((bases == lineBases) && (c == -1))) {  // The last line may have no line break.
+						lastLineFound = true;
+					}
+					else if ((bases > lineBases) || (width != lineWidth)) {
+						throw createException("The sequence \"" + name + "\" contains lines of different length, which cannot be indexed.");
+					}
+					length += bases;
+				}
+			}
+			
+			try {
+				result.add(new FASTAIndexEntry(name, length, sequenceOffset, Math.max(0, lineBases), Math.max(0, lineWidth)));
+			}
+			catch (IllegalArgumentException e) {
+				throw new JPhyloIOReaderException(e.getMessage(), offset, lineNumber, -1, e);
+			}
+			return c;
+		}
+		
+		
+		public FASTAIndex build() throws IOException {
+			int c = read();
+			while (c != -1) {
+				if (c == NAME_START_CHAR) {
+					StringBuilder nameLine = new StringBuilder();
+					c = readLine(nameLine);
+					while (c == COMMENT_START_CHAR) {
+						c = readLine(null);
+					}
+					c = readSequence(extractName(nameLine), c);
+				}
+				else if (Character.isWhitespace(c)) {  // Empty lines in front of the first sequence
+					c = read();
+				}
+				else {
+					throw createException("FASTA file does not start with a \"" + NAME_START_CHAR + "\".");
+				}
+			}
+			return result;
+		}
+	}
+}
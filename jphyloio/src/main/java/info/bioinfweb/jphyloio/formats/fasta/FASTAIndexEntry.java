@@ -0,0 +1,121 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.formats.fasta;
+
+
+
+/**
+ * Describes the location of a single sequence in a <i>FASTA</i> file as stored in a line of a <i>samtools</i> compatible 
+ * ({@code .fai}) index. 
+ * <p>
+ * All sequence lines of an indexed record except the last one must contain the same number of bases, so that the file 
+ * offset of each position can be calculated using {@link #getFileOffset(long)}.
+ * 
+ * @since 0.6.0
+ * @see FASTAIndex
+ */
+public class FASTAIndexEntry implements FASTAConstants {
+	private String name;
+	private long length;
+	private long offset;
+	private int lineBases;
+	private int lineWidth;
+	
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param name the name of the sequence (the name line content up to the first whitespace)
+	 * @param length the number of bases in the sequence
+	 * @param offset the file offset (in bytes) of the first base of the sequence
+	 * @param lineBases the number of bases in each sequence line
+	 * @param lineWidth the number of bytes in each sequence line, including the line break
+	 * @throws IllegalArgumentException if {@code lineWidth} is smaller than {@code lineBases} or any value is negative
+	 */
+	public FASTAIndexEntry(String name, long length, long offset, int lineBases, int lineWidth) {
+		super();
+		if ((length < 0) || (offset < 0) || (lineBases < 0) || (lineWidth < lineBases)) {
+			throw new IllegalArgumentException("Invalid index entry for the sequence \"" + name + "\" (length " + length + 
+					", offset " + offset + ", line bases " + lineBases + ", line width " + lineWidth + ").");
+		}
+		else {
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+
+	public long getLength() {
+		return length;
+	}
+
+
+	public long getOffset() {
+		return offset;
+	}
+
+
+	public int getLineBases() {
+		return lineBases;
+	}
+
+
+	public int getLineWidth() {
+		return lineWidth;
+	}
+	
+	
+	/**
+	 * Calculates the offset in the <i>FASTA</i> file of the base at the specified position.
+	 * 
+	 * @param position the 0-based position in the sequence
+	 * @return the file offset in bytes
+	 * @throws IndexOutOfBoundsException if {@code position} is not between 0 and {@link #getLength()}
+	 */
+	public long getFileOffset(long position) {
+		if ((position < 0) || (position > length)) {
+			throw new IndexOutOfBoundsException("The position " + position + " is outside the sequence \"" + name + 
+					"\" with the length " + length + ".");
+		}
+		else if (lineBases == 0) {  // Empty sequence
+			return offset;
+		}
+		else {
+			return offset + (position / lineBases) * lineWidth + position % lineBases;
+		}
+	}
+
+
+	/**
+	 * Returns the representation of this entry as a line of a {@code .fai} file (without a line break).
+	 */
+	@Override
+	public String toString() {
+		return name + INDEX_FIELD_SEPARATOR + length + INDEX_FIELD_SEPARATOR + offset + INDEX_FIELD_SEPARATOR + lineBases + 
+				INDEX_FIELD_SEPARATOR + lineWidth;
+	}
+}
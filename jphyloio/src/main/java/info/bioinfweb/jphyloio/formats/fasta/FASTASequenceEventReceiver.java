@@ -30,6 +30,7 @@ import info.bioinfweb.jphyloio.events.SequenceTokensEvent;
 import info.bioinfweb.jphyloio.events.type.EventContentType;
 import info.bioinfweb.jphyloio.events.type.EventTopologyType;
 import info.bioinfweb.jphyloio.formats.text.TextWriterStreamDataProvider;
+import info.bioinfweb.jphyloio.utils.CharacterTokenList;
 
 import java.io.IOException;
 import java.io.Writer;
@@ -106,6 +107,26 @@ class FASTASequenceEventReceiver extends BasicEventReceiver<TextWriterStreamData
 	}
 	
 	
+	private void writeCharacters(CharSequence characters) throws IOException {
+		if (matrixDataAdapter.containsLongTokens(getParameterMap())) {
+			writeTokens(new CharacterTokenList(characters));  // Separators need to be written between the tokens.
+		}
+		else {
+			Writer writer = getStreamDataProvider().getWriter();
+			int start = 0;
+			while (start < characters.length()) {
+				if (charsPerLineWritten >= lineLength) {
+					writeNewLine(writer);
+				}
+				int end = (int)Math.min(characters.length(), start + lineLength - charsPerLineWritten);
+				writer.append(characters, start, end);
+				charsPerLineWritten += end - start;
+				start = end;
+			}
+		}
+	}
+	
+	
 	private void writeComment(CommentEvent commentEvent) throws IOException {
 		if (!continuedCommentExpected) {  // Writing starts in the previous comment line
 			getStreamDataProvider().getWriter().write(COMMENT_START_CHAR);
@@ -140,8 +161,13 @@ class FASTASequenceEventReceiver extends BasicEventReceiver<TextWriterStreamData
 		switch (event.getType().getContentType()) {
 			case SEQUENCE_TOKENS:
 				SequenceTokensEvent tokensEvent = event.asSequenceTokensEvent();
-				if (!tokensEvent.getTokens().isEmpty()) {
-					writeTokens(event.asSequenceTokensEvent().getTokens());
+				if (tokensEvent.getTokenCount() > 0) {
+					if (tokensEvent.isSingleCharacterTokens()) {
+						writeCharacters(tokensEvent.getCharacters());
+					}
+					else {
+						writeTokens(tokensEvent.getTokens());
+					}
 					tokenWritten = true;
 				}
 				break;
@@ -0,0 +1,281 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.formats.fasta;
+
+
+import info.bioinfweb.jphyloio.ReadWriteConstants;
+import info.bioinfweb.jphyloio.events.SequenceTokensEvent;
+import info.bioinfweb.jphyloio.utils.ByteBufferCharSequence;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+
+/**
+ * Provides random access to sequences and subsequences of an uncompressed <i>FASTA</i> file using a {@link FASTAIndex}. 
+ * <p>
+ * Other than {@link FASTAEventReader}, this class does not parse the file from its beginning, but directly reads the 
+ * requested bytes from the calculated file offsets. All positions are 0-based and end positions are exclusive. 
+ * Instances may be used concurrently by multiple threads.
+ * <p>
+ * <b>Example:</b>
+ * <pre>
+ *   IndexedFASTAReader reader = new IndexedFASTAReader(new File("genome.fa"));  // Reads or creates genome.fa.fai.
+ *   try {
+ *     byte[] bases = reader.readBytes("chr1", 10000, 10500);
+ *     Iterator&lt;SequenceTokensEvent&gt; events = reader.readTokens("chr2", 0, 1000000);
+ *     ...
+ *   }
+ *   finally {
+ *     reader.close();
+ *   }
+ * </pre>
+ * 
+ * @since 0.6.0
+ */
+public class IndexedFASTAReader implements Closeable, FASTAConstants {
+	private FASTAIndex index;
+	private FileChannel channel;
+	
+	
+	/**
+	 * Creates a new instance of this class using the specified index.
+	 * 
+	 * @param file the <i>FASTA</i> file to be read
+	 * @param index the index of {@code file}
+	 * @throws IOException if the file cannot be opened
+	 */
+	public IndexedFASTAReader(File file, FASTAIndex index) throws IOException {
+		super();
+		this.index = index;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+	
+	
+	/**
+	 * Creates a new instance of this class. The index is read from the according {@code .fai} file or created, if no 
+	 * up-to-date index file exists (see {@link FASTAIndex#load(File)}).
+	 * 
+	 * @param file the <i>FASTA</i> file to be read
+	 * @throws IOException if the file cannot be opened or indexed
+	 */
+	public IndexedFASTAReader(File file) throws IOException {
+		this(file, FASTAIndex.load(file));
+	}
+
+
+	public FASTAIndex getIndex() {
+		return index;
+	}
+	
+	
+	private FASTAIndexEntry getEntry(String name) {
+		FASTAIndexEntry result = index.getEntry(name);
+		if (result == null) {
+			throw new IllegalArgumentException("The FASTA file does not contain a sequence with the name \"" + name + "\".");
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the length of the specified sequence.
+	 * 
+	 * @param name the name of the sequence
+	 * @return the number of bases
+	 * @throws IllegalArgumentException if no sequence with the specified name is indexed
+	 */
+	public long getSequenceLength(String name) {
+		return getEntry(name).getLength();
+	}
+	
+	
+	/**
+	 * Reads a subsequence.
+	 * 
+	 * @param name the name of the sequence
+	 * @param start the position of the first base to be read
+	 * @param end the position after the last base to be read
+	 * @return the bases (without line breaks) as they are stored in the file
+	 * @throws IllegalArgumentException if no sequence with the specified name is indexed or the range is too long 
+	 *         to be stored in an array
+	 * @throws IndexOutOfBoundsException if the range is not located within the sequence
+	 * @throws IOException if reading from the file fails
+	 */
+	public byte[] readBytes(String name, long start, long end) throws IOException {
+		FASTAIndexEntry entry = getEntry(name);
+		if (start > end) {
+			throw new IndexOutOfBoundsException("The start position " + start + " is greater than the end position " + end + ".");
+		}
+		long fileStart = entry.getFileOffset(start);
+		long fileLength = entry.getFileOffset(end) - fileStart;
+		if (fileLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Ranges covering more than " + Integer.MAX_VALUE + " bytes cannot be read at once.");
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate((int)fileLength);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, fileStart + buffer.position()) == -1) {
+				throw new EOFException("The FASTA file ended before the end of the sequence \"" + name + 
+						"\". (The index might be outdated.)");
+			}
+		}
+		
+		byte[] result = buffer.array();
+		if (fileLength != end - start) {  // Remove line breaks.
+			byte[] bases = new byte[(int)(end - start)];
+			int basesIndex = 0;
+			for (int i = 0; i < result.length; i++) {
+				if ((result[i] != '\n') && (result[i] != '\r')) {
+					bases[basesIndex++] = result[i];
+				}
+			}
+			result = bases;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Reads a whole sequence.
+	 * 
+	 * @param name the name of the sequence
+	 * @return the bases (without line breaks) as they are stored in the file
+	 * @throws IllegalArgumentException if no sequence with the specified name is indexed
+	 * @throws IOException if reading from the file fails
+	 * @see #readBytes(String, long, long)
+	 */
+	public byte[] readBytes(String name) throws IOException {
+		return readBytes(name, 0, getSequenceLength(name));
+	}
+	
+	
+	/**
+	 * Returns an iterator providing the specified subsequence as sequence tokens events in single character token 
+	 * mode. The data of each event is only read from the file when the event is requested. Each event will contain
+	 * up to {@link ReadWriteConstants#DEFAULT_MAX_TOKENS_TO_READ} tokens. 
+	 * <p>
+	 * Note that {@link Iterator#next()} of the returned instance will throw a {@link ReadingFailedException}, if 
+	 * reading from the file fails.
+	 * 
+	 * @param name the name of the sequence
+	 * @param start the position of the first base to be read
+	 * @param end the position after the last base to be read
+	 * @return the iterator
+	 * @throws IllegalArgumentException if no sequence with the specified name is indexed
+	 * @throws IndexOutOfBoundsException if the range is not located within the sequence
+	 */
+	public Iterator<SequenceTokensEvent> readTokens(String name, long start, long end) {
+		return readTokens(name, start, end, ReadWriteConstants.DEFAULT_MAX_TOKENS_TO_READ);
+	}
+	
+	
+	/**
+	 * Returns an iterator providing the specified subsequence as sequence tokens events in single character token 
+	 * mode.
+	 * 
+	 * @param name the name of the sequence
+	 * @param start the position of the first base to be read
+	 * @param end the position after the last base to be read
+	 * @param maxTokensPerEvent the maximum number of tokens to be contained in each event
+	 * @return the iterator
+	 * @throws IllegalArgumentException if no sequence with the specified name is indexed or {@code maxTokensPerEvent} 
+	 *         is lower than 1
+	 * @throws IndexOutOfBoundsException if the range is not located within the sequence
+	 * @see #readTokens(String, long, long)
+	 */
+	public Iterator<SequenceTokensEvent> readTokens(final String name, final long start, final long end, final int maxTokensPerEvent) {
+		FASTAIndexEntry entry = getEntry(name);
+		entry.getFileOffset(start);  // Check range.
+		entry.getFileOffset(end);
+		if (start > end) {
+			throw new IndexOutOfBoundsException("The start position " + start + " is greater than the end position " + end + ".");
+		}
+		else if (maxTokensPerEvent < 1) {
+			throw new IllegalArgumentException("Each event must contain at least one token.");
+		}
+		
+		return new Iterator<SequenceTokensEvent>() {
+			private long position = start;
+			
+			@Override
+			public boolean hasNext() {
+				return position < end;
+			}
+
+			@Override
+			public SequenceTokensEvent next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				else {
+					long eventEnd = Math.min(end, position + maxTokensPerEvent);
+					byte[] bases;
+					try {
+						bases = readBytes(name, position, eventEnd);
+					}
+					catch (IOException e) {
+						throw new ReadingFailedException(e);
+					}
+					position = eventEnd;
+					return new SequenceTokensEvent(new ByteBufferCharSequence(ByteBuffer.wrap(bases), 0, bases.length));
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Events cannot be removed from a FASTA file.");
+			}
+		};
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	
+	/**
+	 * Thrown by the iterators returned by {@link IndexedFASTAReader#readTokens(String, long, long, int)}, if reading 
+	 * from the underlying file fails.
+	 */
+	public static class ReadingFailedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+
+		public ReadingFailedException(IOException cause) {
+			super(cause);
+		}
+		
+		
+		@Override
+		public IOException getCause() {
+			return (IOException)super.getCause();
+		}
+	}
+}
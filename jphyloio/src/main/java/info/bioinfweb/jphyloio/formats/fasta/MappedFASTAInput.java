@@ -0,0 +1,251 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.formats.fasta;
+
+
+import info.bioinfweb.commons.io.PeekReader.ReadResult;
+import info.bioinfweb.commons.io.StreamLocationProvider;
+import info.bioinfweb.jphyloio.utils.ByteBufferCharSequence;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+
+
+/**
+ * Provides the contents of a single byte encoded text file using memory mapping. Used internally by {@link FASTAEventReader} 
+ * as an alternative to a {@link info.bioinfweb.commons.io.PeekReader}, if 
+ * {@link info.bioinfweb.jphyloio.ReadWriteParameterNames#KEY_USE_MEMORY_MAPPING} was specified.
+ * <p>
+ * Files larger than {@link #WINDOW_SIZE} are mapped in subsequent windows. Lines read by {@link #readLine(int)} are 
+ * returned as views on the mapped window and therefore never span more than one window. Longer lines are returned as 
+ * multiple incompletely read results. 
+ * 
+ * @since 0.6.0
+ */
+class MappedFASTAInput implements StreamLocationProvider, Closeable {
+	public static final int WINDOW_SIZE = 256 * 1024 * 1024;
+	
+	/** The maximum number of bytes following the current position that need to be in the current window to avoid remapping. */
+	public static final int LOOK_AHEAD = 64 * 1024;
+	
+	
+	private FileChannel channel;
+	private long size;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private int windowLength = 0;
+	private long position = 0;
+	private long lineNumber = 0;
+	private long columnNumber = 0;
+	
+	
+	public MappedFASTAInput(File file) throws IOException {
+		super();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = channel.size();
+	}
+	
+	
+	/**
+	 * Determines whether the specified file starts with the <i>GZIP</i> magic number. Such files cannot be mapped
+	 * and need to be read using an {@link GZIPInputStream}.
+	 * 
+	 * @param file the file to be tested
+	 * @return {@code true} if the file is compressed, {@code false} otherwise 
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isGZIPFile(File file) throws IOException {
+		InputStream stream = new FileInputStream(file);
+		try {
+			int first = stream.read();
+			int second = stream.read();
+			return (first != -1) && (second != -1) && (((second << 8) | first) == GZIPInputStream.GZIP_MAGIC);
+		}
+		finally {
+			stream.close();
+		}
+	}
+	
+	
+	/**
+	 * Makes sure that the current window contains the current position and as many as possible of the following 
+	 * {@code length} bytes (but at most {@link #LOOK_AHEAD}).
+	 * 
+	 * @return the index of the current position in {@link #window}
+	 */
+	private int mapWindow(int length) throws IOException {
+		if ((window == null) || (position < windowStart) || 
+				(position + Math.min(Math.min(length, LOOK_AHEAD), size - position) > windowStart + windowLength)) {
+			
+			windowStart = position;
+			windowLength = (int)Math.min(WINDOW_SIZE, size - position);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+		}
+		return (int)(position - windowStart);
+	}
+	
+	
+	private void advance(int c) {
+		position++;
+		if (c == '\n') {
+			lineNumber++;
+			columnNumber = 0;
+		}
+		else {
+			columnNumber++;
+		}
+	}
+	
+	
+	public int peek() throws IOException {
+		if (position >= size) {
+			return -1;
+		}
+		else {
+			int index = mapWindow(1);  // Must be called before window is accessed.
+			return window.get(index) & 0xFF;
+		}
+	}
+	
+	
+	public char peekChar() throws IOException {
+		int result = peek();
+		if (result == -1) {
+			throw new EOFException();
+		}
+		return (char)result;
+	}
+	
+	
+	public int read() throws IOException {
+		int result = peek();
+		if (result != -1) {
+			advance(result);
+		}
+		return result;
+	}
+	
+	
+	public char readChar() throws IOException {
+		char result = peekChar();
+		advance(result);
+		return result;
+	}
+	
+	
+	private static boolean isNewLineByte(int c) {
+		return (c == '\n') || (c == '\r');
+	}
+	
+	
+	/**
+	 * Reads the following characters until the end of the current line or until the specified maximum length or the end of 
+	 * the current window is reached. If the end of the line is reached, the line break is consumed.
+	 * 
+	 * @param maxLength the maximum number of characters to be returned
+	 * @return the result containing a view on the mapped characters
+	 * @throws IOException if mapping the next window fails
+	 */
+	public ReadResult readLine(int maxLength) throws IOException {
+		int start = mapWindow(maxLength);
+		int end = start + (int)Math.min(Math.min(maxLength, size - position), windowLength - start);
+		int index = start;
+		while ((index < end) && !isNewLineByte(window.get(index))) {
+			index++;
+		}
+		ByteBufferCharSequence result = new ByteBufferCharSequence(window, start, index - start);
+		columnNumber += index - start;
+		position += index - start;
+		
+		boolean completelyRead = true;
+		int c = peek();
+		if (c == '\r') {
+			advance(c);
+			lineNumber++;
+			columnNumber = 0;
+			if (peek() == '\n') {
+				position++;
+			}
+		}
+		else if (c == '\n') {
+			advance(c);
+		}
+		else if (c != -1) {
+			completelyRead = false;
+		}
+		return new ReadResult(result, completelyRead);
+	}
+	
+	
+	/**
+	 * Reads the rest of the current line as a string. Other than {@link #readLine(int)} this method also reads lines 
+	 * spanning more than one window.
+	 * 
+	 * @return the read line without the line break
+	 * @throws IOException if mapping the next window fails
+	 */
+	public String readLine() throws IOException {
+		ReadResult result = readLine(Integer.MAX_VALUE);
+		if (result.isCompletelyRead()) {
+			return result.getSequence().toString();
+		}
+		else {
+			StringBuilder builder = new StringBuilder(result.getSequence());
+			do {
+				result = readLine(Integer.MAX_VALUE);
+				builder.append(result.getSequence());
+			} while (!result.isCompletelyRead());
+			return builder.toString();
+		}
+	}
+	
+
+	@Override
+	public long getCharacterOffset() {
+		return position;
+	}
+
+
+	@Override
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+
+	@Override
+	public long getColumnNumber() {
+		return columnNumber;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
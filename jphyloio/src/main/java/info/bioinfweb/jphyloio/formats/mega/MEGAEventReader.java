@@ -439,7 +439,7 @@ public class MEGAEventReader extends AbstractTextEventReader<TextReaderStreamDat
 		if (event.getType().getContentType().equals(EventContentType.SEQUENCE_TOKENS)) {
 			SequenceTokensEvent charactersEvent = event.asSequenceTokensEvent();
 			if (currentSequenceName.equals(firstSequenceName)) {
-				charactersRead += charactersEvent.getTokens().size();
+				charactersRead += charactersEvent.getTokenCount();
 			}
 		}
 	}
@@ -177,7 +177,7 @@ public class SequentialPhylipEventReader extends AbstractPhylipEventReader<TextR
 					else {
 						getCurrentEventCollection().add(event);
 						if (EventContentType.SEQUENCE_TOKENS.equals(event.getType().getContentType())) {
-							charactersRead += ((SequenceTokensEvent)event).getTokens().size();
+							charactersRead += ((SequenceTokensEvent)event).getTokenCount();
 						}
 					}
 					break;
@@ -116,6 +116,31 @@ public abstract class AbstractTextEventReader<P extends TextReaderStreamDataProv
 	}
 
 
+	/**
+	 * Returns the non-whitespace characters of the specified sequence. Each character of the returned sequence represents
+	 * a single token. The specified sequence is returned directly, if it does not contain any whitespace.
+	 * 
+	 * @param sequence the sequence read from the underlying reader
+	 * @return the sequence of token characters
+	 */
+	protected CharSequence createTokenCharacters(CharSequence sequence) {
+		for (int i = 0; i < sequence.length(); i++) {
+			if (Character.isWhitespace(sequence.charAt(i))) {  // E.g. Phylip and MEGA allow white spaces in between sequences
+				StringBuilder result = new StringBuilder(sequence.length());
+				result.append(sequence, 0, i);
+				for (int j = i + 1; j < sequence.length(); j++) {
+					char c = sequence.charAt(j);
+					if (!Character.isWhitespace(c)) {
+						result.append(c);
+					}
+				}
+				return result;
+			}
+		}
+		return sequence;
+	}
+
+
 	protected List<String> createTokenList(CharSequence sequence) {
 		List<String> result = new ArrayList<String>(sequence.length());
 		for (int i = 0; i < sequence.length(); i++) {
@@ -187,8 +212,8 @@ public abstract class AbstractTextEventReader<P extends TextReaderStreamDataProv
 	
 	
 	private JPhyloIOEvent eventFromCharacters(String currentSequenceName, CharSequence content) throws IOException {
-		List<String> characters = createTokenList(content);
-		if (characters.isEmpty()) {  // The rest of the line was consisting only of spaces
+		CharSequence characters = createTokenCharacters(content);
+		if (characters.length() == 0) {  // The rest of the line was consisting only of spaces
 			return null;
 		}
 		else {
@@ -312,6 +337,8 @@ public abstract class AbstractTextEventReader<P extends TextReaderStreamDataProv
 	@Override
 	public void close() throws IOException {
 		super.close();
-		reader.close();
+		if (reader != null) {  // Subclasses may read from other sources.
+			reader.close();
+		}
 	}
 }
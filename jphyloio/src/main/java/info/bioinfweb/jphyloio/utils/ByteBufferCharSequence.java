@@ -0,0 +1,117 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.utils;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+
+/**
+ * Character sequence view of a region of a {@link ByteBuffer} containing single byte (<i>ASCII</i> or <i>ISO 8859-1</i>)
+ * encoded text.
+ * <p>
+ * Instances do not copy the underlying bytes. If the buffer is a {@link java.nio.MappedByteBuffer}, the characters are 
+ * directly read from the mapped file region. Note that the absolute methods of {@link ByteBuffer} are used, so the 
+ * position and limit of the buffer are not relevant and not modified.
+ * 
+ * @since 0.6.0
+ */
+public class ByteBufferCharSequence implements CharSequence {
+	private ByteBuffer buffer;
+	private int offset;
+	private int length;
+	
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param buffer the buffer containing the characters
+	 * @param offset the absolute index of the first character in {@code buffer}
+	 * @param length the number of characters (bytes) in the view
+	 * @throws NullPointerException if {@code buffer} is {@code null}
+	 * @throws IndexOutOfBoundsException if the specified region is not located within the capacity of {@code buffer}
+	 */
+	public ByteBufferCharSequence(ByteBuffer buffer, int offset, int length) {
+		super();
+		if (buffer == null) {
+			throw new NullPointerException("The buffer must not be null.");
+		}
+		else if ((offset < 0) || (length < 0) || (offset + length > buffer.capacity())) {
+			throw new IndexOutOfBoundsException("The region " + offset + " - " + (offset + length) + 
+					" is not located within a buffer with the capacity " + buffer.capacity() + ".");
+		}
+		else {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+
+	@Override
+	public char charAt(int index) {
+		if ((index < 0) || (index >= length)) {
+			throw new IndexOutOfBoundsException("Invalid index " + index + " for a sequence of length " + length + ".");
+		}
+		else {
+			return (char)(buffer.get(offset + index) & 0xFF);
+		}
+	}
+
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if ((start < 0) || (end > length) || (start > end)) {
+			throw new IndexOutOfBoundsException("Invalid subsequence " + start + " - " + end + " for a sequence of length " + 
+					length + ".");
+		}
+		else {
+			return new ByteBufferCharSequence(buffer, offset + start, end - start);
+		}
+	}
+	
+	
+	/**
+	 * Copies the bytes of this view into the specified array.
+	 * 
+	 * @param target the array to copy to
+	 * @param targetOffset the index in {@code target} where the first byte shall be copied to
+	 */
+	public void copyBytes(byte[] target, int targetOffset) {
+		for (int i = 0; i < length; i++) {
+			target[targetOffset + i] = buffer.get(offset + i);
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		byte[] bytes = new byte[length];
+		copyBytes(bytes, 0);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * JPhyloIO - Event based parsing and stream writing of multiple sequence alignment and tree formats. 
+ * Copyright (C) 2015-2019  Ben Stöver, Sarah Wiechers
+ * <http://bioinfweb.info/JPhyloIO>
+ * 
+ * This file is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.bioinfweb.jphyloio.utils;
+
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+
+
+/**
+ * Read-only list view of a {@link CharSequence} that represents each character as a single token. 
+ * <p>
+ * No string objects are created for characters in the <i>ISO 8859-1</i> range, since the tokens returned by 
+ * {@link #get(int)} are taken from a shared cache. This view is used to provide {@link java.util.List} access
+ * to sequence tokens events that store their tokens in a primitive buffer.
+ * 
+ * @since 0.6.0
+ */
+public class CharacterTokenList extends AbstractList<String> implements RandomAccess {
+	private static final int CACHED_TOKEN_COUNT = 256;
+	private static final String[] TOKEN_CACHE = new String[CACHED_TOKEN_COUNT];
+	static {
+		for (int i = 0; i < CACHED_TOKEN_COUNT; i++) {
+			TOKEN_CACHE[i] = Character.toString((char)i).intern();
+		}
+	}
+	
+	
+	private CharSequence characters;
+	
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param characters the characters to be viewed as tokens
+	 * @throws NullPointerException if {@code characters} is {@code null}
+	 */
+	public CharacterTokenList(CharSequence characters) {
+		super();
+		if (characters == null) {
+			throw new NullPointerException("The character sequence must not be null.");
+		}
+		else {
+			this.characters = characters;
+		}
+	}
+	
+	
+	/**
+	 * Returns the string representation of a single character token. Characters with a code lower than 256 are 
+	 * taken from a cache, so that no new object is created.
+	 * 
+	 * @param c the character to be converted
+	 * @return a string with the length 1
+	 */
+	public static String toToken(char c) {
+		if (c < CACHED_TOKEN_COUNT) {
+			return TOKEN_CACHE[c];
+		}
+		else {
+			return Character.toString(c);
+		}
+	}
+	
+	
+	/**
+	 * Returns the character sequence backing this list.
+	 * 
+	 * @return the underlying sequence
+	 */
+	public CharSequence getCharacters() {
+		return characters;
+	}
+
+
+	@Override
+	public String get(int index) {
+		return toToken(characters.charAt(index));
+	}
+
+
+	@Override
+	public int size() {
+		return characters.length();
+	}
+}
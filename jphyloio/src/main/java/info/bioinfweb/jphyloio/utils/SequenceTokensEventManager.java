@@ -22,6 +22,7 @@ package info.bioinfweb.jphyloio.utils;
 import info.bioinfweb.jphyloio.JPhyloIOEventReader;
 import info.bioinfweb.jphyloio.events.SequenceTokensEvent;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -31,6 +32,10 @@ import java.util.List;
 /**
  * Class used by implementations of {@link JPhyloIOEventReader} to keep track of the current alignment
  * position and replacing match tokens by the according tokens from the first sequence. 
+ * <p>
+ * Readers that only support single character tokens should use {@link #createEvent(String, CharSequence)}, which 
+ * stores the first sequence and performs the match token replacement on primitive character buffers instead of lists
+ * of strings.
  * 
  * @author Ben St&ouml;ver
  */
@@ -39,6 +44,7 @@ public class SequenceTokensEventManager {
 	private String matchToken;
 	private List<String> firstSequence;
 	private List<String> unmodifiableFirstSequence;
+	private StringBuilder firstSequenceCharacters;
 	private long currentPosition = 0;  //TODO Does -1 need to be specified here? If so, this would be inconsistent with the initial block start.
 	private long currentBlockStartPosition = 0;
 	private long currentBlockLength = 0;
@@ -63,6 +69,7 @@ public class SequenceTokensEventManager {
 			this.matchToken = matchToken;
 			firstSequence = new ArrayList<String>();
 			unmodifiableFirstSequence = Collections.unmodifiableList(firstSequence);
+			firstSequenceCharacters = new StringBuilder();
 		}
 	}
 
@@ -112,23 +119,50 @@ public class SequenceTokensEventManager {
 	}
 	
 	
+	/**
+	 * Returns the tokens of the first sequence read so far. If the first sequence was provided using 
+	 * {@link #createEvent(String, CharSequence)}, a list view on the stored characters is returned.
+	 * 
+	 * @return a read-only list of the tokens of the first sequence
+	 */
 	public List<String> getFirstSequence() {
-		return unmodifiableFirstSequence;
+		if (firstSequenceCharacters.length() > 0) {
+			return new CharacterTokenList(firstSequenceCharacters);
+		}
+		else {
+			return unmodifiableFirstSequence;
+		}
 	}
-
+	
+	
+	private int getFirstSequenceLength() {
+		return firstSequence.size() + firstSequenceCharacters.length();  // Only one of both will be non-empty.
+	}
+	
+	
+	private int checkMatchPosition() {
+		if (currentPosition > Integer.MAX_VALUE) {
+			throw new IndexOutOfBoundsException("Sequences with more than " + Integer.MAX_VALUE + 
+					" characters are not supported if replacing match tokens is switched on."); 
+		}
+		else if (currentPosition >= getFirstSequenceLength()) {
+			throw new IndexOutOfBoundsException("The match token in column " + currentPosition + 
+					" cannot be replaced because the first sequence only has " + getFirstSequenceLength() + " characters."); 
+		}
+		else {
+			return (int)currentPosition;
+		}
+	}
+	
 
 	private String replaceMatchToken(String token) {
 		if (token.equals(matchToken)) {
-			if (currentPosition > Integer.MAX_VALUE) {
-				throw new IndexOutOfBoundsException("Sequences with more than " + Integer.MAX_VALUE + 
-						" characters are not supported if replacing match tokens is switched on."); 
-			}
-			else if (currentPosition >= firstSequence.size()) {
-				throw new IndexOutOfBoundsException("The match token in column " + currentPosition + 
-						" cannot be replaced because the first sequence only has " + firstSequence.size() + " characters."); 
+			int position = checkMatchPosition();
+			if (firstSequenceCharacters.length() > 0) {
+				return CharacterTokenList.toToken(firstSequenceCharacters.charAt(position));
 			}
 			else {
-				return firstSequence.get((int)currentPosition);
+				return firstSequence.get(position);
 			}
 		}
 		else {
@@ -137,6 +171,40 @@ public class SequenceTokensEventManager {
 	}
 	
 	
+	private void moveFirstSequenceCharactersToList() {
+		if (firstSequenceCharacters.length() > 0) {
+			firstSequence.addAll(new CharacterTokenList(firstSequenceCharacters));
+			firstSequenceCharacters = new StringBuilder();
+		}
+	}
+	
+	
+	private void updateFirstSequencePositions(boolean sequenceNameChange, int tokenCount) {
+		if (sequenceNameChange) {
+			currentBlockStartPosition += currentBlockLength;  // Add length of previous block that is now finished.
+			currentBlockLength = tokenCount;  // Save length of current block to add it to the start after it was processed.
+			currentPosition = currentBlockStartPosition;
+		}
+		else {
+			currentBlockLength += tokenCount;  // Add additional length, if one block is split into separate events.
+		}
+		currentPosition += tokenCount;
+	}
+	
+	
+	private boolean registerSequenceID(String sequenceID) {
+		boolean sequenceNameChange = !sequenceID.equals(currentSequenceName);
+		if (sequenceNameChange) {
+			currentSequenceName = sequenceID;
+			currentPosition = currentBlockStartPosition;  // Will be 0, until the second interleaved block is reached. (Therefore this implementation also works for non-interleaved data, where the sequences have an unequal length.) 
+		}
+		if (firstSequenceName == null) {
+			firstSequenceName = sequenceID;
+		}
+		return sequenceNameChange;
+	}
+	
+	
 	/**
 	 * Creates a sequence character event object from the provided data and manages the replacement of match tokens
 	 * by tokens of the first sequence.
@@ -158,26 +226,11 @@ public class SequenceTokensEventManager {
 			throw new NullPointerException("Sequence names must not be null.");
 		}
 		else {
-			boolean sequenceNameChange = !sequenceID.equals(currentSequenceName);
-			if (sequenceNameChange) {
-				currentSequenceName = sequenceID;
-				currentPosition = currentBlockStartPosition;  // Will be 0, until the second interleaved block is reached. (Therefore this implementation also works for non-interleaved data, where the sequences have an unequal length.) 
-			}
-			if (firstSequenceName == null) {
-				firstSequenceName = sequenceID;
-			}
-			
+			boolean sequenceNameChange = registerSequenceID(sequenceID);
 			if (firstSequenceName.equals(sequenceID)) {
+				moveFirstSequenceCharactersToList();  // Only relevant if a reader mixes both event modes.
 				firstSequence.addAll(tokens);
-				if (sequenceNameChange) {
-					currentBlockStartPosition += currentBlockLength;  // Add length of previous block that is now finished.
-					currentBlockLength = tokens.size();  // Save length of current block to add it to the start after it was processed.
-					currentPosition = currentBlockStartPosition;
-				}
-				else {
-					currentBlockLength += tokens.size();  // Add additional length, if one block is split into separate events.
-				}
-				currentPosition += tokens.size();
+				updateFirstSequencePositions(sequenceNameChange, tokens.size());
 			}
 			else if (matchToken != null) {
 				for (int i = 0; i < tokens.size(); i++) {
@@ -191,4 +244,88 @@ public class SequenceTokensEventManager {
 			return new SequenceTokensEvent(tokens);
 		}
 	}
+	
+	
+	/**
+	 * Creates a sequence character event object in the single character token mode (see 
+	 * {@link SequenceTokensEvent#SequenceTokensEvent(CharSequence)}) and manages the replacement of match tokens by 
+	 * characters of the first sequence.
+	 * <p>
+	 * This method works like {@link #createEvent(String, List)} but never creates string objects for single tokens. 
+	 * The first sequence is stored as a character buffer (only if a match token is defined, otherwise 
+	 * {@link #getFirstSequence()} will remain empty) and the specified sequence is only copied, if it actually 
+	 * contains a match token that needs to be replaced. Note that the specified sequence must therefore not be modified
+	 * by the calling reader after this method was called.
+	 * 
+	 * @param sequenceID the event ID or another unique name of the sequence to append the tokens to
+	 * @param characters the newly read tokens, where each character represents one token
+	 * @return the event object
+	 * @throws NullPointerException if either {@code sequenceID} or {@code characters} is {@code null}
+	 * @since 0.6.0
+	 */
+	public SequenceTokensEvent createEvent(String sequenceID, CharSequence characters) {
+		if ((sequenceID == null) || (characters == null)) {
+			throw new NullPointerException("Sequence names must not be null.");
+		}
+		else {
+			boolean sequenceNameChange = registerSequenceID(sequenceID);
+			if (firstSequenceName.equals(sequenceID)) {
+				if (matchToken != null) {  // The first sequence is only needed for replacing match tokens. (Avoids buffering whole chromosomes.)
+					if (firstSequence.isEmpty()) {
+						firstSequenceCharacters.append(characters);
+					}
+					else {  // Only relevant if a reader mixes both event modes.
+						firstSequence.addAll(new CharacterTokenList(characters));
+					}
+				}
+				updateFirstSequencePositions(sequenceNameChange, characters.length());
+			}
+			else if ((matchToken != null) && (matchToken.length() == 1)) {  // Longer match tokens can never be contained in single character tokens.
+				characters = replaceMatchCharacters(characters, matchToken.charAt(0));
+			}
+			else {
+				currentPosition += characters.length();
+			}
+			return new SequenceTokensEvent(characters);
+		}
+	}
+	
+	
+	private CharSequence replaceMatchCharacters(CharSequence characters, char matchChar) {
+		char[] buffer = null;  // Only created if a match character is found.
+		for (int i = 0; i < characters.length(); i++) {
+			char c = characters.charAt(i);
+			if (c == matchChar) {
+				if (buffer == null) {
+					buffer = new char[characters.length()];
+					for (int j = 0; j < i; j++) {
+						buffer[j] = characters.charAt(j);
+					}
+				}
+				int position = checkMatchPosition();
+				if (firstSequenceCharacters.length() > 0) {
+					c = firstSequenceCharacters.charAt(position);
+				}
+				else {
+					String replacement = firstSequence.get(position);
+					if (replacement.length() != 1) {
+						throw new IllegalArgumentException("The match token in column " + currentPosition + " cannot be replaced by the "
+								+ "token \"" + replacement + "\" of the first sequence, since only single character tokens are supported here.");
+					}
+					c = replacement.charAt(0);
+				}
+			}
+			if (buffer != null) {
+				buffer[i] = c;
+			}
+			currentPosition++;
+		}
+		
+		if (buffer == null) {
+			return characters;
+		}
+		else {
+			return CharBuffer.wrap(buffer);
+		}
+	}
 }
@@ -0,0 +1,86 @@
+package org.ncgr.motifs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sliding-window scan throughput on random sequence against a set of random JASPAR-sized matrices, so no database is needed.
+ * One operation is one base, so the scores are in bases/second.
+ *
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MotifScanBenchmark {
+
+    static final int SEQUENCE_LENGTH = 4*1024*1024;
+    static final int LINE_LENGTH = 60;
+
+    @Param({"100", "1000"})
+    public int matrixCount;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    MotifScanner scanner;
+    byte[] fasta;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        // matrices of 6 to 20 columns, each column favoring one base
+        List<Matrix> matrices = new ArrayList<>();
+        Map<Integer,int[][]> data = new HashMap<>();
+        for (int id=1; id<=matrixCount; id++) {
+            int len = 6 + random.nextInt(15);
+            matrices.add(new Matrix(id, "CORE", "MA"+id, 1, "M"+id, len));
+            int[][] vals = new int[len][MatrixSet.BASES];
+            for (int[] column : vals) {
+                int favored = random.nextInt(MatrixSet.BASES);
+                for (int j=0; j<MatrixSet.BASES; j++) column[j] = random.nextInt(5) + (j==favored ? 20 : 0);
+            }
+            data.put(id, vals);
+        }
+        scanner = new MotifScanner(new MatrixSet(matrices, data));
+        // a single record of random bases
+        ByteArrayOutputStream out = new ByteArrayOutputStream(SEQUENCE_LENGTH+SEQUENCE_LENGTH/LINE_LENGTH+100);
+        byte[] header = ">chr1\n".getBytes(StandardCharsets.ISO_8859_1);
+        out.write(header, 0, header.length);
+        byte[] bases = { 'A', 'C', 'G', 'T' };
+        for (int i=0; i<SEQUENCE_LENGTH; i++) {
+            out.write(bases[random.nextInt(bases.length)]);
+            if (i%LINE_LENGTH==LINE_LENGTH-1) out.write('\n');
+        }
+        fasta = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCE_LENGTH)
+    public long scanFasta() throws IOException {
+        final long[] hits = new long[1];
+        scanner.scanFasta(new ByteArrayInputStream(fasta), Double.NEGATIVE_INFINITY, MotifScanner.DEFAULT_P_VALUE, threads, hit -> hits[0]++);
+        return hits[0];
+    }
+
+}
@@ -14,6 +14,10 @@ import java.sql.SQLException;
 
 /**
  * Encapsulates a single MATRIX record from the Jaspar2018 database.
+ *
+ * The static loaders fetch ALL records of a table with a single prepared query each, so loadAll() assembles every matrix
+ * with its data, annotation and proteins in four queries regardless of the number of matrices. All queries go through
+ * DB.query, so they may be run concurrently on a pooled DB.
  */
 public class Matrix {
 
@@ -27,6 +31,11 @@ public class Matrix {
     // utility values
     int motifLength;
 
+    // associated values, set by loadAll
+    int[][] data;
+    Map<String,String> annotation;
+    List<String> proteins;
+
     /**
      * Construct from a loaded ResultSet. This DOES NOT SET motifLength.
      */
@@ -38,14 +47,26 @@ public class Matrix {
      * Construct from a connected DB instance, given an id. This DOES SET motifLength.
      */
     public Matrix(DB db, int id) throws SQLException {
-        db.executeQuery("SELECT * FROM matrix WHERE id="+id);
-        if (db.rs.next()) {
-            populate(db.rs);
-        }
-        db.executeQuery("SELECT max(col) FROM matrix_data WHERE id="+id);
-        if (db.rs.next()) {
-            setMotifLength(db.rs.getInt("max"));
-        }
+        db.query("SELECT * FROM matrix WHERE id=?", rs -> {
+                if (rs.next()) populate(rs);
+                return null;
+            }, id);
+        db.query("SELECT max(col) AS max FROM matrix_data WHERE id=?", rs -> {
+                if (rs.next()) setMotifLength(rs.getInt("max"));
+                return null;
+            }, id);
+    }
+
+    /**
+     * Construct from explicit values, for matrices that don't come from the database. This DOES SET motifLength.
+     */
+    public Matrix(int id, String collection, String baseId, int version, String name, int motifLength) {
+        this.id = id;
+        this.collection = collection;
+        this.baseId = baseId;
+        this.version = version;
+        this.name = name;
+        this.motifLength = motifLength;
     }
 
     /**
@@ -86,6 +107,27 @@ public class Matrix {
         return motifLength;
     }
 
+    /**
+     * Return the matrix data set by loadAll, null if not loaded.
+     */
+    public int[][] getData() {
+        return data;
+    }
+
+    /**
+     * Return the annotation set by loadAll, null if not loaded.
+     */
+    public Map<String,String> getAnnotation() {
+        return annotation;
+    }
+
+    /**
+     * Return the protein accession IDs set by loadAll, null if not loaded.
+     */
+    public List<String> getProteins() {
+        return proteins;
+    }
+
     //////////////////////
     // instance methods //
     //////////////////////
@@ -94,18 +136,16 @@ public class Matrix {
      * Return an array of matrix data associated with this instance, given an instantiated DB object.
      */
     public int[][] getData(DB db) throws SQLException {
-        // loop over columns
+        // query over all columns, rows A, C, G, T
         int[][] vals = new int[motifLength][4];
-        for (int i=0; i<motifLength; i++) {
-            int col = i+1;
-            // query over rows A, C, G, T
-            int rowId = 0;
-            db.executeQuery("SELECT * FROM matrix_data WHERE id="+id+" AND col="+col+" ORDER BY row");
-            while (db.rs.next()) {
-                int val = db.rs.getInt("val");
-                vals[i][rowId++] = val;
-            }
-        }
+        db.query("SELECT * FROM matrix_data WHERE id=? ORDER BY col,row", rs -> {
+                while (rs.next()) {
+                    int col = rs.getInt("col");
+                    int rowId = MatrixSet.getBaseIndex(rs.getString("row").charAt(0));
+                    if (col>=1 && col<=motifLength && rowId>=0) vals[col-1][rowId] = rs.getInt("val");
+                }
+                return null;
+            }, id);
         return vals;
     }
 
@@ -114,10 +154,12 @@ public class Matrix {
      */
     public Map<String,String> getAnnotation(DB db) throws SQLException {
         Map<String,String> annotation = new HashMap<String,String>();
-        db.executeQuery("SELECT * FROM matrix_annotation WHERE id="+id+" ORDER BY tag");
-        while (db.rs.next()) {
-            annotation.put(db.rs.getString("tag"), db.rs.getString("val"));
-        }
+        db.query("SELECT * FROM matrix_annotation WHERE id=? ORDER BY tag", rs -> {
+                while (rs.next()) {
+                    annotation.put(rs.getString("tag"), rs.getString("val"));
+                }
+                return null;
+            }, id);
         return annotation;
     }
 
@@ -126,10 +168,12 @@ public class Matrix {
      */
     public List<String> getProteins(DB db) throws SQLException {
         List<String> acc = new ArrayList<String>();
-        db.executeQuery("SELECT * FROM matrix_protein WHERE id="+id);
-        while (db.rs.next()) {
-            acc.add(db.rs.getString("acc"));
-        }
+        db.query("SELECT * FROM matrix_protein WHERE id=?", rs -> {
+                while (rs.next()) {
+                    acc.add(rs.getString("acc"));
+                }
+                return null;
+            }, id);
         return acc;
     }
 
@@ -152,22 +196,120 @@ public class Matrix {
     ////////////////////
 
     /**
-     * Return a list of ALL matrix records by querying the database, given an instantiated DB object.
+     * Return ALL matrix records in id order, without motifLength, given an instantiated DB object.
+     */
+    static List<Matrix> getMatrices(DB db) throws SQLException {
+        return db.query("SELECT * FROM matrix ORDER BY id", rs -> {
+                List<Matrix> matrices = new ArrayList<Matrix>();
+                while (rs.next()) {
+                    matrices.add(new Matrix(rs));
+                }
+                return matrices;
+            });
+    }
+
+    /**
+     * Return a list of ALL matrix records, with motifLength set, using two queries, given an instantiated DB object.
      */
     public static List<Matrix> getAll(DB db) throws SQLException {
-        List<Matrix> matrices = new ArrayList<Matrix>();
-        db.executeQuery("SELECT * FROM matrix ORDER BY id");
-        while (db.rs.next()) {
-            matrices.add(new Matrix(db.rs));
+        List<Matrix> matrices = getMatrices(db);
+        // query and set motifLength for all matrices at once
+        Map<Integer,Integer> lengths = new HashMap<Integer,Integer>();
+        db.query("SELECT id,max(col) AS max FROM matrix_data GROUP BY id", rs -> {
+                while (rs.next()) {
+                    lengths.put(rs.getInt("id"), rs.getInt("max"));
+                }
+                return null;
+            });
+        for (Matrix m : matrices) {
+            if (lengths.containsKey(m.getId())) m.setMotifLength(lengths.get(m.getId()));
         }
-        // query and set motifLength for each matrix
+        return matrices;
+    }
+
+    /**
+     * Return a list of ALL matrix records with their data, annotation and proteins set, using four queries, given an
+     * instantiated DB object.
+     */
+    public static List<Matrix> loadAll(DB db) throws SQLException {
+        List<Matrix> matrices = getMatrices(db);
+        // motifLength comes from the data
+        Map<Integer,int[][]> data = getAllData(db);
+        Map<Integer,Map<String,String>> annotations = getAllAnnotation(db);
+        Map<Integer,List<String>> proteins = getAllProteins(db);
         for (Matrix m : matrices) {
-            db.executeQuery("SELECT max(col) FROM matrix_data WHERE id="+m.getId());
-            if (db.rs.next()) {
-                m.setMotifLength(db.rs.getInt("max"));
-            }
+            m.data = data.containsKey(m.id) ? data.get(m.id) : new int[0][4];
+            m.motifLength = m.data.length;
+            m.annotation = annotations.containsKey(m.id) ? annotations.get(m.id) : new HashMap<String,String>();
+            m.proteins = proteins.containsKey(m.id) ? proteins.get(m.id) : new ArrayList<String>();
         }
         return matrices;
     }
 
+    /**
+     * Return the matrix data of ALL matrices, keyed by matrix id, with a single query, given an instantiated DB object.
+     * Each array is indexed [col-1][row] with rows A, C, G, T, the same as getData.
+     */
+    public static Map<Integer,int[][]> getAllData(DB db) throws SQLException {
+        Map<Integer,List<int[]>> columnMap = new HashMap<Integer,List<int[]>>();
+        db.query("SELECT * FROM matrix_data ORDER BY id,col,row", rs -> {
+                while (rs.next()) {
+                    int rowId = MatrixSet.getBaseIndex(rs.getString("row").charAt(0));
+                    if (rowId<0) continue;
+                    List<int[]> columns = columnMap.get(rs.getInt("id"));
+                    if (columns==null) {
+                        columns = new ArrayList<int[]>();
+                        columnMap.put(rs.getInt("id"), columns);
+                    }
+                    int col = rs.getInt("col");
+                    while (columns.size()<col) columns.add(new int[MatrixSet.BASES]);
+                    columns.get(col-1)[rowId] = rs.getInt("val");
+                }
+                return null;
+            });
+        Map<Integer,int[][]> data = new HashMap<Integer,int[][]>();
+        for (Map.Entry<Integer,List<int[]>> entry : columnMap.entrySet()) {
+            data.put(entry.getKey(), entry.getValue().toArray(new int[entry.getValue().size()][]));
+        }
+        return data;
+    }
+
+    /**
+     * Return the annotation of ALL matrices, keyed by matrix id, with a single query, given an instantiated DB object.
+     */
+    public static Map<Integer,Map<String,String>> getAllAnnotation(DB db) throws SQLException {
+        Map<Integer,Map<String,String>> annotations = new HashMap<Integer,Map<String,String>>();
+        db.query("SELECT * FROM matrix_annotation ORDER BY id,tag", rs -> {
+                while (rs.next()) {
+                    Map<String,String> annotation = annotations.get(rs.getInt("id"));
+                    if (annotation==null) {
+                        annotation = new HashMap<String,String>();
+                        annotations.put(rs.getInt("id"), annotation);
+                    }
+                    annotation.put(rs.getString("tag"), rs.getString("val"));
+                }
+                return null;
+            });
+        return annotations;
+    }
+
+    /**
+     * Return the protein accession IDs of ALL matrices, keyed by matrix id, with a single query, given an instantiated DB object.
+     */
+    public static Map<Integer,List<String>> getAllProteins(DB db) throws SQLException {
+        Map<Integer,List<String>> proteins = new HashMap<Integer,List<String>>();
+        db.query("SELECT * FROM matrix_protein ORDER BY id", rs -> {
+                while (rs.next()) {
+                    List<String> acc = proteins.get(rs.getInt("id"));
+                    if (acc==null) {
+                        acc = new ArrayList<String>();
+                        proteins.put(rs.getInt("id"), acc);
+                    }
+                    acc.add(rs.getString("acc"));
+                }
+                return null;
+            });
+        return proteins;
+    }
+
 }
@@ -0,0 +1,331 @@
+package org.ncgr.motifs;
+
+import org.ncgr.db.DB;
+
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, in-memory set of motif matrices, loaded once from the database.
+ *
+ * The counts of all matrices are stored in a single flat array indexed by (matrix column, base), where the matrix columns
+ * of matrix m start at offsets[m]. Column sums and base frequencies (count/column sum) are precomputed, so scoring a query
+ * needs no database access and no allocation. Instances are never modified after construction and may be shared by any
+ * number of threads.
+ *
+ * For sliding-window scans each matrix is also stored as a position weight matrix of log2-odds scores against a uniform
+ * background, with pseudocounts, for both strands. These tables have a fifth row for N (or any other non-ACGT character)
+ * whose score is so low that a window containing one can never be a hit. The scanning tables combine three columns
+ * into one lookup, indexed by the codes of three consecutive bases (see encodeTriples), which cuts the number of
+ * lookups per window by three.
+ */
+public class MatrixSet {
+
+    // the number of bases (rows) per matrix column: A, C, G, T
+    public static final int BASES = 4;
+
+    // the number of rows in the log-odds tables: A, C, G, T and N
+    public static final int CODES = 5;
+
+    // the code of any character that isn't A, C, G or T
+    public static final byte N = 4;
+
+    // the total pseudocount added to each column, split evenly across the bases
+    public static final double PSEUDOCOUNT = 0.8;
+
+    // the log-odds score of an N, low enough that no window containing one can reach a threshold
+    static final float N_SCORE = -1.0e6f;
+
+    // sliding-window scores are looked up three columns at a time, indexed by the codes of three consecutive bases
+    static final int TRIPLE = 3;
+    static final int TRIPLES = CODES*CODES*CODES;
+
+    // maps a character to its base index, -1 for anything that isn't A, C, G or T (in either case)
+    static final byte[] BASE_INDEX = new byte[256];
+    static {
+        Arrays.fill(BASE_INDEX, (byte) -1);
+        BASE_INDEX['A'] = 0; BASE_INDEX['a'] = 0;
+        BASE_INDEX['C'] = 1; BASE_INDEX['c'] = 1;
+        BASE_INDEX['G'] = 2; BASE_INDEX['g'] = 2;
+        BASE_INDEX['T'] = 3; BASE_INDEX['t'] = 3;
+    }
+
+    final Matrix[] matrices;
+    final int[] offsets;      // first column of each matrix in the flat arrays
+    final int[] lengths;      // motif length of each matrix
+    final int[] counts;       // [column*BASES + base]
+    final int[] columnSums;   // [column]
+    final double[] frequencies; // [column*BASES + base], 0.0 for empty columns
+    final float[] logOdds;      // [column*CODES + code], forward strand
+    final float[] reverseLogOdds; // [column*CODES + code], reverse complement of the matrix
+    final int[] tripleOffsets;  // first column triple of each matrix in the triple tables
+    final float[] tripleLogOdds; // [triple*TRIPLES + triple code], forward strand
+    final float[] reverseTripleLogOdds;
+    final float[] tripleMaxSuffix; // [triple], best score attainable from this triple to the end of its matrix
+    final float[] reverseTripleMaxSuffix;
+    final float[] minScores;    // [matrix]
+    final float[] maxScores;    // [matrix]
+    final int maxMotifLength;
+
+    // p-value tables, computed on demand
+    final ScoreDistribution[] distributions;
+
+    /**
+     * Construct from the given matrices and their count data, keyed by matrix id as returned by Matrix.getAllData.
+     * Matrices without data get an all-zero matrix of their motif length.
+     */
+    public MatrixSet(List<Matrix> matrixList, Map<Integer,int[][]> data) {
+        matrices = matrixList.toArray(new Matrix[matrixList.size()]);
+        offsets = new int[matrices.length];
+        lengths = new int[matrices.length];
+        tripleOffsets = new int[matrices.length];
+        int columns = 0;
+        int triples = 0;
+        for (int m=0; m<matrices.length; m++) {
+            offsets[m] = columns;
+            tripleOffsets[m] = triples;
+            lengths[m] = matrices[m].getMotifLength();
+            columns += lengths[m];
+            triples += (lengths[m]+TRIPLE-1)/TRIPLE;
+        }
+        counts = new int[columns*BASES];
+        columnSums = new int[columns];
+        frequencies = new double[columns*BASES];
+        logOdds = new float[columns*CODES];
+        reverseLogOdds = new float[columns*CODES];
+        tripleLogOdds = new float[triples*TRIPLES];
+        reverseTripleLogOdds = new float[triples*TRIPLES];
+        tripleMaxSuffix = new float[triples];
+        reverseTripleMaxSuffix = new float[triples];
+        minScores = new float[matrices.length];
+        maxScores = new float[matrices.length];
+        distributions = new ScoreDistribution[matrices.length];
+        for (int m=0; m<matrices.length; m++) {
+            int[][] vals = data.get(matrices[m].getId());
+            if (vals==null) continue;
+            for (int i=0; i<lengths[m] && i<vals.length; i++) {
+                int column = offsets[m] + i;
+                for (int j=0; j<BASES; j++) {
+                    counts[column*BASES+j] = vals[i][j];
+                    columnSums[column] += vals[i][j];
+                }
+                if (columnSums[column]>0) {
+                    for (int j=0; j<BASES; j++) {
+                        frequencies[column*BASES+j] = (double)counts[column*BASES+j]/(double)columnSums[column];
+                    }
+                }
+            }
+        }
+        int maxLength = 0;
+        for (int m=0; m<matrices.length; m++) {
+            maxLength = Math.max(maxLength, lengths[m]);
+            setLogOdds(m);
+        }
+        maxMotifLength = maxLength;
+    }
+
+    /**
+     * Fill in the log-odds tables and score range of matrix m from its counts.
+     */
+    void setLogOdds(int m) {
+        int len = lengths[m];
+        double background = 1.0/BASES;
+        for (int i=0; i<len; i++) {
+            int column = offsets[m] + i;
+            // the reverse complement reads the columns backwards with complemented bases
+            int reverseColumn = offsets[m] + len - 1 - i;
+            for (int j=0; j<BASES; j++) {
+                double p = (counts[column*BASES+j] + PSEUDOCOUNT*background) / (columnSums[column] + PSEUDOCOUNT);
+                float score = (float) (Math.log(p/background)/Math.log(2.0));
+                logOdds[column*CODES+j] = score;
+                reverseLogOdds[reverseColumn*CODES+(BASES-1-j)] = score;
+            }
+            logOdds[column*CODES+N] = N_SCORE;
+            reverseLogOdds[reverseColumn*CODES+N] = N_SCORE;
+        }
+        float min = 0.0f;
+        float max = 0.0f;
+        for (int i=0; i<len; i++) {
+            min += getColumnScore(logOdds, offsets[m]+i, false);
+            max += getColumnScore(logOdds, offsets[m]+i, true);
+        }
+        minScores[m] = min;
+        maxScores[m] = max;
+        setTripleLogOdds(m, logOdds, tripleLogOdds, tripleMaxSuffix);
+        setTripleLogOdds(m, reverseLogOdds, reverseTripleLogOdds, reverseTripleMaxSuffix);
+    }
+
+    /**
+     * Return the lowest or highest A, C, G or T score of the given column of a log-odds table.
+     */
+    static float getColumnScore(float[] table, int column, boolean highest) {
+        float score = table[column*CODES];
+        for (int j=1; j<BASES; j++) {
+            score = highest ? Math.max(score, table[column*CODES+j]) : Math.min(score, table[column*CODES+j]);
+        }
+        return score;
+    }
+
+    /**
+     * Combine the column scores of matrix m in the given log-odds table into triples of columns, with their suffix maxima.
+     * A last triple that runs past the end of the matrix scores zero for its missing columns.
+     */
+    void setTripleLogOdds(int m, float[] table, float[] tripleTable, float[] suffix) {
+        int len = lengths[m];
+        int triples = (len+TRIPLE-1)/TRIPLE;
+        for (int t=0; t<triples; t++) {
+            int triple = tripleOffsets[m] + t;
+            for (int code=0; code<TRIPLES; code++) {
+                float score = 0.0f;
+                for (int k=0, c=code; k<TRIPLE; k++, c/=CODES) {
+                    // the first column of the triple is the most significant code digit
+                    int i = t*TRIPLE + TRIPLE-1-k;
+                    if (i<len) score += table[(offsets[m]+i)*CODES+c%CODES];
+                }
+                tripleTable[triple*TRIPLES+code] = score;
+            }
+        }
+        float best = 0.0f;
+        for (int t=triples-1; t>=0; t--) {
+            for (int k=0; k<TRIPLE; k++) {
+                int i = t*TRIPLE + k;
+                if (i<len) best += getColumnScore(table, offsets[m]+i, true);
+            }
+            suffix[tripleOffsets[m]+t] = best;
+        }
+    }
+
+    /**
+     * Return the triple codes of codes[0..length-1]: element i combines the codes of bases i, i+1 and i+2, with N past
+     * the end. These index the triple tables of every matrix, so they're computed once per sequence.
+     */
+    public static int[] encodeTriples(byte[] codes, int length) {
+        int[] triples = new int[length];
+        int code = 0;
+        for (int i=length+TRIPLE-2; i>=0; i--) {
+            int c = (i<length) ? codes[i] : N;
+            code = code/CODES + c*CODES*CODES;
+            if (i<length) triples[i] = code;
+        }
+        return triples;
+    }
+
+    /**
+     * Load all matrices and their data from the database. The data of all matrices is fetched in a single query.
+     */
+    public static MatrixSet load(DB db) throws SQLException {
+        List<Matrix> matrixList = Matrix.getAll(db);
+        return new MatrixSet(matrixList, Matrix.getAllData(db));
+    }
+
+    /**
+     * Return the base index (0-3 for A, C, G, T) of the given character, or -1 if it isn't one of them.
+     */
+    public static int getBaseIndex(char c) {
+        return (c<BASE_INDEX.length) ? BASE_INDEX[c] : -1;
+    }
+
+    /**
+     * Return the log-odds table code (0-3 for A, C, G, T, N for anything else) of the given byte.
+     */
+    public static byte getCode(byte b) {
+        byte index = BASE_INDEX[b & 0xFF];
+        return (index<0) ? N : index;
+    }
+
+    /////////////
+    // getters //
+    /////////////
+
+    public int size() {
+        return matrices.length;
+    }
+    public Matrix getMatrix(int m) {
+        return matrices[m];
+    }
+    public List<Matrix> getMatrices() {
+        return Collections.unmodifiableList(Arrays.asList(matrices));
+    }
+    public int getMotifLength(int m) {
+        return lengths[m];
+    }
+    public int getCount(int m, int column, int base) {
+        return counts[(offsets[m]+column)*BASES+base];
+    }
+    public int getColumnSum(int m, int column) {
+        return columnSums[offsets[m]+column];
+    }
+    public double getFrequency(int m, int column, int base) {
+        return frequencies[(offsets[m]+column)*BASES+base];
+    }
+    public float getLogOdds(int m, int column, int code) {
+        return logOdds[(offsets[m]+column)*CODES+code];
+    }
+    public float getMinScore(int m) {
+        return minScores[m];
+    }
+    public float getMaxScore(int m) {
+        return maxScores[m];
+    }
+    public int getMaxMotifLength() {
+        return maxMotifLength;
+    }
+
+    /**
+     * Return the log-odds score distribution of matrix m under the uniform background, computed on first use.
+     */
+    public ScoreDistribution getDistribution(int m) {
+        synchronized (distributions) {
+            if (distributions[m]==null) distributions[m] = new ScoreDistribution(this, m);
+            return distributions[m];
+        }
+    }
+
+    /**
+     * Return the counts of matrix m as an int[column][base] array, like Matrix.getData.
+     */
+    public int[][] getData(int m) {
+        int[][] vals = new int[lengths[m]][BASES];
+        for (int i=0; i<lengths[m]; i++) {
+            System.arraycopy(counts, (offsets[m]+i)*BASES, vals[i], 0, BASES);
+        }
+        return vals;
+    }
+
+    /**
+     * Score the query against matrix m, aligned at the first column: the sum over the columns of the frequency of the
+     * query base in that column. Positions that aren't A, C, G or T score zero. The query must be as long as the motif.
+     */
+    public double score(int m, CharSequence query) {
+        double sum = 0.0;
+        int base = offsets[m]*BASES;
+        for (int i=0; i<lengths[m]; i++) {
+            int row = getBaseIndex(query.charAt(i));
+            if (row>=0) sum += frequencies[base+row];
+            base += BASES;
+        }
+        return sum;
+    }
+
+    /**
+     * Return the log-odds score of matrix m on the given strand for the window starting at pos, given the triple codes of
+     * the sequence, or a value below threshold as soon as the window can no longer reach threshold.
+     */
+    float logOddsScore(int m, boolean reverse, int[] triples, int pos, float threshold) {
+        float[] table = reverse ? reverseTripleLogOdds : tripleLogOdds;
+        float[] suffix = reverse ? reverseTripleMaxSuffix : tripleMaxSuffix;
+        int triple = tripleOffsets[m];
+        int end = triple + (lengths[m]+TRIPLE-1)/TRIPLE;
+        float sum = 0.0f;
+        for (int i=pos; triple<end; i+=TRIPLE, triple++) {
+            if (sum+suffix[triple]<threshold) return -Float.MAX_VALUE;
+            sum += table[triple*TRIPLES+triples[i]];
+        }
+        return sum;
+    }
+
+}
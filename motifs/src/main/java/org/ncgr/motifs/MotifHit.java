@@ -0,0 +1,66 @@
+package org.ncgr.motifs;
+
+/**
+ * A single hit of a matrix in a sliding-window scan of a sequence.
+ */
+public class MotifHit {
+
+    String sequenceId;
+    long start;       // 1-based
+    int length;
+    char strand;      // + or -
+    Matrix matrix;
+    double score;     // log2-odds
+    double pValue;
+    String sequence;  // the matched bases, read on the hit strand
+
+    public MotifHit(String sequenceId, long start, int length, char strand, Matrix matrix, double score, double pValue, String sequence) {
+        this.sequenceId = sequenceId;
+        this.start = start;
+        this.length = length;
+        this.strand = strand;
+        this.matrix = matrix;
+        this.score = score;
+        this.pValue = pValue;
+        this.sequence = sequence;
+    }
+
+    /////////////
+    // getters //
+    /////////////
+
+    public String getSequenceId() {
+        return sequenceId;
+    }
+    public long getStart() {
+        return start;
+    }
+    public long getEnd() {
+        return start + length - 1;
+    }
+    public char getStrand() {
+        return strand;
+    }
+    public Matrix getMatrix() {
+        return matrix;
+    }
+    public double getScore() {
+        return score;
+    }
+    public double getPValue() {
+        return pValue;
+    }
+    public String getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Return this hit as a tab-delimited line: sequence ID, start, end, strand, matrix ID, matrix name, score, p-value, matched sequence.
+     */
+    @Override
+    public String toString() {
+        return sequenceId+"\t"+start+"\t"+getEnd()+"\t"+strand+"\t"+matrix.getId()+"\t"+matrix.getName()+"\t"+
+            String.format("%.3f", score)+"\t"+String.format("%.3g", pValue)+"\t"+sequence;
+    }
+
+}
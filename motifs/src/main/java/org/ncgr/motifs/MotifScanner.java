@@ -2,101 +2,409 @@ package org.ncgr.motifs;
 
 import org.ncgr.db.DB;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 
 import java.sql.SQLException;
 
 import java.text.DecimalFormat;
 
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Scan a sequence for likely motifs using MEME-format data stored in a Postgres database, imported from JASPAR.
+ *
+ * All matrices are loaded into an immutable MatrixSet when the scanner is created, so scans are done entirely in memory
+ * and may run concurrently. Call reload() to pick up changes to the database; scans in progress finish against the
+ * previous set.
+ *
+ * scan() scores a query against the motifs of the same length. scanSequence() and scanFasta() slide every matrix across
+ * sequences of any length on both strands and report the windows whose log-odds score and p-value pass the given
+ * thresholds. FASTA input is streamed in overlapping chunks that are scanned in parallel, split across groups of
+ * matrices, so memory use doesn't depend on the sequence length.
  */
 public class MotifScanner {
 
-    // store all the motif matrices
-    List<Matrix> matrices;
+    static final String USAGE = "Usage: MotifScanner CGGTCTAGAT\n"+
+        "       MotifScanner [-p max-p-value] [-s min-score] [-t threads] -f <FASTA file>";
+
+    // the default p-value threshold for sliding-window scans
+    public static final double DEFAULT_P_VALUE = 1.0e-4;
+
+    // the number of bases in a sliding-window scan chunk, not counting the overlap with the previous chunk
+    static final int CHUNK_SIZE = 1024*1024;
+
+    // maximum number of chunks per thread that are scanned or waiting to be reported
+    static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    static final int INPUT_BUFFER_SIZE = 1024*1024;
+
+    // the characters of the log-odds codes, and of their complements
+    static final char[] CODE_CHARS = { 'A', 'C', 'G', 'T', 'N' };
+    static final char[] COMPLEMENT_CHARS = { 'T', 'G', 'C', 'A', 'N' };
 
-    // a little convenience object
-    Map<Character,Integer> rows = new TreeMap<Character,Integer>();
+    // hits are reported by position, then strand, then matrix
+    static final Comparator<MotifHit> HIT_ORDER = new Comparator<MotifHit>() {
+        public int compare(MotifHit h1, MotifHit h2) {
+            if (h1.start!=h2.start) return (h1.start<h2.start) ? -1 : 1;
+            if (h1.strand!=h2.strand) return (h1.strand=='+') ? -1 : 1;
+            return Integer.compare(h1.matrix.getId(), h2.matrix.getId());
+        }
+    };
+
+    // the in-memory matrices, replaced as a whole by reload()
+    volatile MatrixSet matrixSet;
 
-    // a DB object
+    // a DB that is kept for reload(), typically pooled
     DB db;
 
+    // DB connection parameters for reload()
+    boolean usePropertiesFile;
+    String driver;
+    String url;
+    String user;
+    String password;
+
     /**
      * Instantiate using a db.properties file to connect to the database.
      */
     public MotifScanner() throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
-        // initialize the matrix row values for DNA sequences (a convenience)
-        rows.put('A', 0);
-        rows.put('C', 1);
-        rows.put('G', 2);
-        rows.put('T', 3);
-        // retrieve all of the matrices in the database
-        db = new DB();
-        matrices = Matrix.getAll(db);
+        usePropertiesFile = true;
+        reload();
     }
 
     /**
      * Instantiate using input database connection parameters.
      */
     public MotifScanner(String driver, String url, String user, String password) throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
-        // initialize the matrix row values for DNA sequences (a convenience)
-        rows.put('A', 0);
-        rows.put('C', 1);
-        rows.put('G', 2);
-        rows.put('T', 3);
-        // retrieve all of the matrices in the database
-        db = new DB(driver, url, user, password, "pgsql");
-        matrices = Matrix.getAll(db);
+        this.driver = driver;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        reload();
+    }
+
+    /**
+     * Instantiate using the given DB, typically a pooled one, which is kept for reload() and not closed.
+     */
+    public MotifScanner(DB db) throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
+        this.db = db;
+        reload();
+    }
+
+    /**
+     * Instantiate with an already loaded matrix set. reload() is not supported on such an instance.
+     */
+    public MotifScanner(MatrixSet matrixSet) {
+        this.matrixSet = matrixSet;
+    }
+
+    /**
+     * Reload all of the matrices from the database and swap them in.
+     */
+    public void reload() throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
+        if (this.db!=null) {
+            matrixSet = MatrixSet.load(this.db);
+            return;
+        }
+        DB db;
+        if (url!=null) {
+            db = new DB(driver, url, user, password, "pgsql");
+        } else if (usePropertiesFile) {
+            db = new DB();
+        } else {
+            throw new IllegalStateException("This MotifScanner was not created with database connection parameters.");
+        }
+        try {
+            matrixSet = MatrixSet.load(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Return the current matrix set.
+     */
+    public MatrixSet getMatrixSet() {
+        return matrixSet;
     }
 
     /**
      * Scan the matrices for hits against the given query string, return results in a Map keyed by matrix.
      */
-    public Map<Matrix,Double> scan(String query) throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
+    public Map<Matrix,Double> scan(String query) {
         // stick to upper-case
         String queryUC = query.toUpperCase();
+        MatrixSet set = matrixSet;
         Map<Matrix,Double> hitMap = new HashMap<Matrix,Double>();
-        for (Matrix matrix : matrices) {
-            int id = matrix.getId();
-            String name = matrix.getName();
-            int len = matrix.getMotifLength();
+        for (int m=0; m<set.size(); m++) {
             // BIG RESTRICTION: only look at motifs with same length as query!
-            if (len==queryUC.length()) {
-                // loop over columns
-                int[][] vals = matrix.getData(db);
-                int[] colSum = new int[len];
-                double querySum = 0.0;
-                for (int i=0; i<len; i++) {
-                    char queryChar = queryUC.charAt(i);
-                    // skip this position if 'N' or some other character
-                    if (queryChar=='A' || queryChar=='C' || queryChar=='G' || queryChar=='T') {
-                        int row = rows.get(queryChar);
-                        int queryVal = vals[i][row];
-                        for (int j=0; j<rows.size(); j++) colSum[i] += vals[i][j];
-                        if (colSum[i]>0) querySum += (double)queryVal/(double)colSum[i];
+            if (set.getMotifLength(m)==queryUC.length()) {
+                hitMap.put(set.getMatrix(m), set.score(m, queryUC));
+            }
+        }
+        return hitMap;
+    }
+
+    /**
+     * Slide every matrix across the given sequence on both strands, returning the hits with a log-odds score of at least
+     * minScore and a p-value of at most maxPValue, ordered by position.
+     */
+    public List<MotifHit> scanSequence(String id, CharSequence sequence, double minScore, double maxPValue) {
+        SlidingScan scan = new SlidingScan(matrixSet, minScore, maxPValue);
+        byte[] codes = new byte[sequence.length()];
+        for (int i=0; i<codes.length; i++) {
+            char c = sequence.charAt(i);
+            codes[i] = (c<256) ? MatrixSet.getCode((byte) c) : MatrixSet.N;
+        }
+        List<MotifHit> hits = scan.scanChunk(id, codes, codes.length, 0, codes.length, 0, scan.set.size());
+        Collections.sort(hits, HIT_ORDER);
+        return hits;
+    }
+
+    /**
+     * Stream the FASTA records from in, sliding every matrix across each record on both strands. The hits with a log-odds
+     * score of at least minScore and a p-value of at most maxPValue are passed to the handler in file and position order,
+     * on the calling thread. Returns the number of bases scanned.
+     */
+    public long scanFasta(InputStream in, double minScore, double maxPValue, int threads, Consumer<MotifHit> handler) throws IOException {
+        if (threads<1) throw new IllegalArgumentException("threads must be positive.");
+        SlidingScan scan = new SlidingScan(matrixSet, minScore, maxPValue);
+        ChunkScanner chunkScanner = new ChunkScanner(scan, threads, handler);
+        try {
+            byte[] buffer = new byte[INPUT_BUFFER_SIZE];
+            boolean lineStart = true;
+            boolean inHeader = false;
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            int length;
+            while ((length=in.read(buffer))!=-1) {
+                for (int i=0; i<length; i++) {
+                    byte b = buffer[i];
+                    if (inHeader) {
+                        if (b=='\n') {
+                            chunkScanner.startRecord(getID(header));
+                            header.reset();
+                            inHeader = false;
+                            lineStart = true;
+                        } else {
+                            header.write(b);
+                        }
+                    } else if (b=='\n' || b=='\r') {
+                        lineStart = true;
+                    } else if (lineStart && b=='>') {
+                        chunkScanner.endRecord();
+                        inHeader = true;
+                    } else {
+                        lineStart = false;
+                        if (b!=' ' && b!='\t') chunkScanner.add(MatrixSet.getCode(b));
                     }
                 }
-                hitMap.put(matrix, querySum);
             }
+            if (inHeader) chunkScanner.startRecord(getID(header));
+            chunkScanner.endRecord();
+            chunkScanner.finish();
+            return chunkScanner.bases;
+        } finally {
+            chunkScanner.shutdown();
+        }
+    }
+
+    /**
+     * Return the ID from a FASTA header line (without the >), which is the part up to the first whitespace.
+     */
+    static String getID(ByteArrayOutputStream header) {
+        String line = new String(header.toByteArray(), StandardCharsets.ISO_8859_1);
+        int end = 0;
+        while (end<line.length() && !Character.isWhitespace(line.charAt(end))) end++;
+        return line.substring(0, end);
+    }
+
+    /**
+     * The per-matrix thresholds of one sliding-window scan, and the scan of a single chunk of codes.
+     */
+    static class SlidingScan {
+        MatrixSet set;
+        double maxPValue;
+        float[] thresholds;
+        ScoreDistribution[] distributions;
+
+        SlidingScan(MatrixSet set, double minScore, double maxPValue) {
+            this.set = set;
+            this.maxPValue = maxPValue;
+            thresholds = new float[set.size()];
+            distributions = new ScoreDistribution[set.size()];
+            for (int m=0; m<set.size(); m++) {
+                distributions[m] = set.getDistribution(m);
+                double threshold = minScore;
+                if (maxPValue<1.0) threshold = Math.max(threshold, distributions[m].getScore(maxPValue));
+                // never let a window containing an N through
+                thresholds[m] = (float) Math.max(threshold, MatrixSet.N_SCORE/2);
+            }
+        }
+
+        /**
+         * Scan codes[0..length-1] with matrices from..to-1. The chunk starts at the given 0-based position in its record.
+         * Only windows starting before limit are scanned; the ones after it belong to the next chunk, which starts there.
+         */
+        List<MotifHit> scanChunk(String id, byte[] codes, int length, long chunkStart, int limit, int from, int to) {
+            List<MotifHit> hits = new ArrayList<MotifHit>();
+            int[] triples = MatrixSet.encodeTriples(codes, length);
+            for (int m=from; m<to; m++) {
+                int len = set.getMotifLength(m);
+                if (len==0) continue;
+                float threshold = thresholds[m];
+                int end = Math.min(limit-1, length-len);
+                for (int pos=0; pos<=end; pos++) {
+                    float forward = set.logOddsScore(m, false, triples, pos, threshold);
+                    if (forward>=threshold) addHit(hits, id, codes, chunkStart, pos, m, false, forward);
+                    float reverse = set.logOddsScore(m, true, triples, pos, threshold);
+                    if (reverse>=threshold) addHit(hits, id, codes, chunkStart, pos, m, true, reverse);
+                }
+            }
+            return hits;
+        }
+
+        void addHit(List<MotifHit> hits, String id, byte[] codes, long chunkStart, int pos, int m, boolean reverse, float score) {
+            double pValue = distributions[m].getPValue(codes, pos, reverse);
+            if (pValue>maxPValue) return;
+            int len = set.getMotifLength(m);
+            char[] bases = new char[len];
+            for (int i=0; i<len; i++) {
+                bases[i] = reverse ? COMPLEMENT_CHARS[codes[pos+len-1-i]] : CODE_CHARS[codes[pos+i]];
+            }
+            hits.add(new MotifHit(id, chunkStart+pos+1, len, reverse ? '-' : '+', set.getMatrix(m), score, pValue, new String(bases)));
+        }
+    }
+
+    /**
+     * Cuts records into chunks that overlap by the longest motif length less one, and scans each chunk with a task per
+     * group of matrices. Each window is scanned with the chunk it starts in, so the chunks' hits don't interleave; they
+     * are sorted and handed on in submission order, with a bounded number of chunks in flight.
+     */
+    static class ChunkScanner {
+        SlidingScan scan;
+        int threads;
+        Consumer<MotifHit> handler;
+        ExecutorService executor;
+        int overlap;
+        // matrix group boundaries
+        int[] groups;
+        Deque<List<Future<List<MotifHit>>>> pending = new ArrayDeque<List<Future<List<MotifHit>>>>();
+        String id;
+        byte[] chunk;
+        int chunkLength;
+        long chunkStart;
+        long bases;
+
+        ChunkScanner(SlidingScan scan, int threads, Consumer<MotifHit> handler) {
+            this.scan = scan;
+            this.threads = threads;
+            this.handler = handler;
+            executor = Executors.newFixedThreadPool(threads);
+            overlap = Math.max(0, scan.set.getMaxMotifLength()-1);
+            int groupCount = Math.max(1, Math.min(threads, scan.set.size()));
+            groups = new int[groupCount+1];
+            for (int g=0; g<=groupCount; g++) groups[g] = (int) ((long)scan.set.size()*g/groupCount);
+            chunk = new byte[CHUNK_SIZE+overlap];
+        }
+
+        void startRecord(String id) {
+            this.id = id;
+            chunkLength = 0;
+            chunkStart = 0;
+        }
+
+        void add(byte code) throws IOException {
+            if (id==null) throw new IOException("FASTA file does not start with a header line.");
+            chunk[chunkLength++] = code;
+            bases++;
+            if (chunkLength==chunk.length) {
+                // windows starting in the last overlap codes are left to the next chunk, which starts with them
+                submit(chunkLength-overlap);
+                System.arraycopy(chunk, chunkLength-overlap, chunk, 0, overlap);
+                chunkStart += chunkLength-overlap;
+                chunkLength = overlap;
+            }
+        }
+
+        void endRecord() throws IOException {
+            if (id!=null && chunkLength>0) submit(chunkLength);
+            id = null;
+        }
+
+        void submit(int limit) throws IOException {
+            final String chunkId = id;
+            final byte[] codes = Arrays.copyOf(chunk, chunkLength);
+            final int length = chunkLength;
+            final long start = chunkStart;
+            List<Future<List<MotifHit>>> futures = new ArrayList<Future<List<MotifHit>>>();
+            for (int g=0; g<groups.length-1; g++) {
+                final int from = groups[g];
+                final int to = groups[g+1];
+                futures.add(executor.submit(() -> scan.scanChunk(chunkId, codes, length, start, limit, from, to)));
+            }
+            pending.addLast(futures);
+            while (pending.size()>threads*CHUNKS_IN_FLIGHT_PER_THREAD) report(pending.removeFirst());
+        }
+
+        void report(List<Future<List<MotifHit>>> futures) throws IOException {
+            List<MotifHit> hits = new ArrayList<MotifHit>();
+            try {
+                for (Future<List<MotifHit>> future : futures) hits.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error scanning chunk: "+e.getCause(), e.getCause());
+            }
+            Collections.sort(hits, HIT_ORDER);
+            for (MotifHit hit : hits) handler.accept(hit);
+        }
+
+        void finish() throws IOException {
+            while (!pending.isEmpty()) report(pending.removeFirst());
+        }
+
+        void shutdown() {
+            executor.shutdownNow();
         }
-        return hitMap;
     }
 
     /**
      * Command-line utility.
      */
     public static void main(String[] args) throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
+        // sliding-window scan of a FASTA file
+        if (args.length>1) {
+            scanFastaFile(args);
+            return;
+        }
         DecimalFormat df = new DecimalFormat("0.0000");
         // validate arguments
         if (args.length!=1) {
-            System.err.println("Usage: MotifScanner CGGTCTAGAT");
+            System.err.println(USAGE);
             System.exit(1);
         }
         String query = args[0];
@@ -118,4 +426,55 @@ public class MotifScanner {
         System.out.println(topId+"\t"+topName+"\t"+df.format(topScore)+"/"+query.length());
     }
 
+    /**
+     * Command-line sliding-window scan of a FASTA file, printing the hits as tab-delimited lines and the throughput to stderr.
+     */
+    static void scanFastaFile(String[] args) throws ClassNotFoundException, FileNotFoundException, IOException, SQLException {
+        double maxPValue = DEFAULT_P_VALUE;
+        double minScore = Double.NEGATIVE_INFINITY;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String fastaFile = null;
+        try {
+            for (int i=0; i<args.length; i++) {
+                if (args[i].equals("-p")) {
+                    maxPValue = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("-s")) {
+                    minScore = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("-t")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-f")) {
+                    fastaFile = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Unknown option "+args[i]);
+                }
+            }
+            if (fastaFile==null) throw new IllegalArgumentException("A FASTA file must be given with -f.");
+            if (threads<1) throw new IllegalArgumentException("threads must be positive.");
+        } catch (IllegalArgumentException|ArrayIndexOutOfBoundsException e) {
+            // includes NumberFormatException
+            System.err.println("Error: "+e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        MotifScanner ms = new MotifScanner();
+        InputStream in = new BufferedInputStream(new FileInputStream(fastaFile), INPUT_BUFFER_SIZE);
+        if (fastaFile.endsWith(".gz")) in = new GZIPInputStream(in, INPUT_BUFFER_SIZE);
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, INPUT_BUFFER_SIZE), false);
+        final long[] hitCount = new long[1];
+        long bases;
+        long start = System.nanoTime();
+        try {
+            bases = ms.scanFasta(in, minScore, maxPValue, threads, hit -> {
+                out.println(hit);
+                hitCount[0]++;
+            });
+        } finally {
+            in.close();
+            out.flush();
+        }
+        double seconds = (System.nanoTime()-start)/1.0e9;
+        System.err.println(hitCount[0]+" hits for "+ms.getMatrixSet().size()+" matrices on "+bases+" bases in "+String.format("%.1f", seconds)+" s, "+
+                           String.format("%.0f", bases/seconds)+" bases/s");
+    }
+
 }
@@ -0,0 +1,119 @@
+package org.ncgr.motifs;
+
+import java.util.Arrays;
+
+/**
+ * The distribution of a matrix's log-odds score over random sequence with a uniform background, used to convert between
+ * scores and p-values.
+ *
+ * The column scores are scaled and rounded to integers so that the distribution can be computed exactly by dynamic
+ * programming over the columns; the whole score range is spread over about BINS integer values, so p-values are accurate
+ * to that resolution. The p-value of a window is looked up from the sum of the same rounded column scores, so it lands in
+ * exactly the bin it was counted in; rounding the window's float score instead could be off by up to half a bin per column.
+ */
+public class ScoreDistribution {
+
+    // the number of integer bins spanning the score range of a matrix
+    static final int BINS = 1000;
+
+    double scale;
+    int minScaled;
+    // scaled[i][j] is the rounded, scaled log-odds score of base j in column i
+    int[][] scaled;
+    // tail[k] = P(scaled score >= minScaled+k)
+    double[] tail;
+
+    /**
+     * Compute the distribution of matrix m of the given set.
+     */
+    ScoreDistribution(MatrixSet set, int m) {
+        int len = set.getMotifLength(m);
+        float range = set.getMaxScore(m) - set.getMinScore(m);
+        scale = (range>0.0f) ? BINS/range : 1.0;
+        // scaled column scores and the scaled score range
+        scaled = new int[len][MatrixSet.BASES];
+        int maxScaled = 0;
+        minScaled = 0;
+        for (int i=0; i<len; i++) {
+            int columnMin = Integer.MAX_VALUE;
+            int columnMax = Integer.MIN_VALUE;
+            for (int j=0; j<MatrixSet.BASES; j++) {
+                scaled[i][j] = (int) Math.round(set.getLogOdds(m, i, j)*scale);
+                columnMin = Math.min(columnMin, scaled[i][j]);
+                columnMax = Math.max(columnMax, scaled[i][j]);
+            }
+            minScaled += columnMin;
+            maxScaled += columnMax;
+        }
+        // probability of each scaled score, one column at a time
+        int size = maxScaled - minScaled + 1;
+        double[] probs = new double[size];
+        double[] next = new double[size];
+        // probs[k] is the probability of the running scaled sum sumMin+k
+        probs[0] = 1.0;
+        int sumMin = 0;
+        int sumMax = 0;
+        for (int i=0; i<len; i++) {
+            Arrays.fill(next, 0.0);
+            int columnMin = Integer.MAX_VALUE;
+            int columnMax = Integer.MIN_VALUE;
+            for (int j=0; j<MatrixSet.BASES; j++) {
+                columnMin = Math.min(columnMin, scaled[i][j]);
+                columnMax = Math.max(columnMax, scaled[i][j]);
+            }
+            for (int k=sumMin; k<=sumMax; k++) {
+                double p = probs[k-sumMin];
+                if (p==0.0) continue;
+                for (int j=0; j<MatrixSet.BASES; j++) {
+                    next[k+scaled[i][j]-sumMin-columnMin] += p/MatrixSet.BASES;
+                }
+            }
+            sumMin += columnMin;
+            sumMax += columnMax;
+            double[] t = probs; probs = next; next = t;
+        }
+        // after the last column sumMin==minScaled, so probs[k] is the probability of minScaled+k
+        tail = new double[size+1];
+        for (int k=size-1; k>=0; k--) {
+            tail[k] = tail[k+1] + probs[k];
+        }
+    }
+
+    /**
+     * Return the probability that a random window scores at least as high as the window of codes starting at pos, read on
+     * the reverse strand if reverse is true. Windows containing an N are not scored, and get 1.0.
+     */
+    public double getPValue(byte[] codes, int pos, boolean reverse) {
+        int len = scaled.length;
+        int sum = 0;
+        for (int i=0; i<len; i++) {
+            int code = reverse ? codes[pos+len-1-i] : codes[pos+i];
+            if (code>=MatrixSet.BASES) return 1.0;
+            sum += scaled[i][reverse ? MatrixSet.BASES-1-code : code];
+        }
+        return tail[sum-minScaled];
+    }
+
+    /**
+     * Return the probability that a random window scores at least the given log-odds score, to within the rounding of the
+     * column scores. Scores beyond the maximum get the p-value of the best window rather than 0.
+     */
+    public double getPValue(double score) {
+        int k = (int) Math.round(score*scale) - minScaled;
+        if (k<=0) return 1.0;
+        return Math.min(1.0, tail[Math.min(k, tail.length-2)]);
+    }
+
+    /**
+     * Return a log-odds score below which no window can have a p-value of at most the given p-value, or +infinity if no
+     * score is that rare. It allows for the rounding of each column, so it is a lower bound for filtering windows before
+     * their exact p-value is looked up.
+     */
+    public double getScore(double pValue) {
+        for (int k=0; k<tail.length-1; k++) {
+            if (tail[k]<=pValue) return (minScaled+k-0.5*(scaled.length+1))/scale;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+}
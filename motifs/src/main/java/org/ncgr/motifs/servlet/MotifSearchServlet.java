@@ -3,12 +3,15 @@ package org.ncgr.motifs.servlet;
 import org.ncgr.motifs.Matrix;
 import org.ncgr.motifs.MotifScanner;
 
+import org.ncgr.db.DB;
+import org.ncgr.db.DBPool;
+
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.HashMap;
-import java.sql.SQLException;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -20,6 +23,11 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Searches known motifs of the same size as the query and outputs the scores and associated proteins and family names.
  *
+ * The scanner is built once in init() and shared by the request threads. Responses are kept in an LRU cache keyed by
+ * the upper-cased query, sized by the cache.size context parameter (default 10000, 0 disables it) with entries expiring
+ * after cache.ttl.seconds (default 3600, 0 never). Requests mapped to /motifSearchStats get the cache and connection
+ * pool statistics as JSON.
+ *
  * @author Sam Hokin
  */
 public class MotifSearchServlet extends HttpServlet {
@@ -30,6 +38,21 @@ public class MotifSearchServlet extends HttpServlet {
     String user;
     String password;
 
+    // the connection pool, sized by the optional db.pool.size context parameter
+    DBPool pool;
+
+    // the scanner, built once and shared by all request threads
+    MotifScanner scanner;
+
+    // serialized responses keyed by upper-cased query
+    ResultCache cache;
+
+    // the servlet path of statistics requests
+    static final String STATS_PATH = "/motifSearchStats";
+
+    static final int DEFAULT_CACHE_SIZE = 10000;
+    static final long DEFAULT_CACHE_TTL_SECONDS = 3600;
+
     /**
      * @see javax.servlet.GenericServlet#init(javax.servlet.ServletConfig)
      */
@@ -40,6 +63,24 @@ public class MotifSearchServlet extends HttpServlet {
         url = getServletContext().getInitParameter("db.url");
         user = getServletContext().getInitParameter("db.user");
         password = getServletContext().getInitParameter("db.password");
+        // load the matrices over a pooled connection
+        try {
+            String poolSize = getServletContext().getInitParameter("db.pool.size");
+            int maxConnections = (poolSize==null) ? DBPool.DEFAULT_MAX_CONNECTIONS : Integer.parseInt(poolSize);
+            pool = new DBPool(driver, url, user, password, maxConnections, DBPool.DEFAULT_TIMEOUT_MILLIS);
+            scanner = new MotifScanner(new DB(pool, "pgsql"));
+        } catch (Exception e) {
+            throw new ServletException("Could not load motif matrices: "+e.getMessage(), e);
+        }
+        // set up the result cache
+        String cacheSize = getServletContext().getInitParameter("cache.size");
+        String cacheTtl = getServletContext().getInitParameter("cache.ttl.seconds");
+        try {
+            cache = new ResultCache((cacheSize==null) ? DEFAULT_CACHE_SIZE : Integer.parseInt(cacheSize),
+                                    1000*((cacheTtl==null) ? DEFAULT_CACHE_TTL_SECONDS : Long.parseLong(cacheTtl)));
+        } catch (IllegalArgumentException e) {
+            throw new ServletException("Bad cache parameter: "+e.getMessage(), e);
+        }
     }
 
     /**
@@ -55,25 +96,35 @@ public class MotifSearchServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
         ServletOutputStream out = response.getOutputStream();
-        
-        try {
-
-            // our input
-            String query = request.getParameter("query").toUpperCase();
 
-            // do the motif scan
-            MotifScanner ms = new MotifScanner(driver,url,user,password);
-            Map<Matrix,Double> hitMap = ms.scan(query);
+        // setting the content type
+        response.setContentType("application/json;charset=UTF-8");
             
-            // setting the content type
-            response.setContentType("application/json;charset=UTF-8");
-            
-            // setting some response headers
-            response.setHeader("Expires", "0");
-            response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
-            response.setHeader("Pragma", "public");
-            
-            // write JSON to the ServletOutputStream
+        // setting some response headers
+        response.setHeader("Expires", "0");
+        response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
+        response.setHeader("Pragma", "public");
+
+        // statistics request
+        if (STATS_PATH.equals(request.getServletPath())) {
+            out.write(getStatsJSON().toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return;
+        }
+        
+        // our input
+        String query = request.getParameter("query");
+        if (query==null) {
+            out.print("Error: query parameter is required.");
+            out.flush();
+            return;
+        }
+        query = query.toUpperCase();
+
+        // do the motif scan unless we've seen the query recently
+        byte[] result = cache.get(query);
+        if (result==null) {
+            Map<Matrix,Double> hitMap = scanner.scan(query);
             Map<Integer,JSONObject> jsonMap = new HashMap<Integer,JSONObject>();
             for (Matrix m : hitMap.keySet()) {
                 JSONObject json = m.getJSON();
@@ -81,23 +132,42 @@ public class MotifSearchServlet extends HttpServlet {
                 jsonMap.put(m.getId(),json);
             }
             JSONObject output = new JSONObject(jsonMap);
-            out.print(output.toString());
-            
-        } catch (ClassNotFoundException e) {
-            out.print(e.toString());
-        } catch (SQLException e) {
-            out.print(e.toString());
+            result = output.toString().getBytes(StandardCharsets.UTF_8);
+            cache.put(query, result);
         }
+            
+        // write JSON to the ServletOutputStream
+        out.write(result);
 
         // always remember to flush!
         out.flush();
             
     }
  
+    /**
+     * Return the result cache, matrix and connection pool statistics as a JSON object.
+     */
+    JSONObject getStatsJSON() {
+        JSONObject json = new JSONObject();
+        json.put("cache", cache.getJSON());
+        json.put("matrices", scanner.getMatrixSet().size());
+        JSONObject poolJSON = new JSONObject();
+        poolJSON.put("active", pool.getActiveCount());
+        poolJSON.put("idle", pool.getIdleCount());
+        poolJSON.put("maxConnections", pool.getMaxConnections());
+        poolJSON.put("borrows", pool.getBorrowCount());
+        poolJSON.put("timeouts", pool.getTimeoutCount());
+        poolJSON.put("meanWaitMillis", pool.getMeanWaitMillis());
+        poolJSON.put("maxWaitMillis", pool.getMaxWaitMillis());
+        json.put("pool", poolJSON);
+        return json;
+    }
+
     /**
      * @see javax.servlet.GenericServlet#destroy()
      */
     public void destroy() {
+        if (pool!=null) pool.close();
     }
 
 }
@@ -0,0 +1,109 @@
+package org.ncgr.motifs.servlet;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of serialized search results keyed by query, with an optional time to live.
+ * All methods are synchronized, so one instance is shared by the request threads.
+ *
+ * @author Sam Hokin
+ */
+public class ResultCache {
+
+    int maxSize;
+    long ttlMillis;
+
+    LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+    // counters
+    long hits;
+    long misses;
+    long evictions;
+    long expirations;
+
+    /**
+     * A cached result and the time it was stored.
+     */
+    static class Entry {
+        byte[] result;
+        long created;
+        Entry(byte[] result, long created) {
+            this.result = result;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Create a cache of at most maxSize results, each kept for at most ttlMillis; a ttlMillis of 0 keeps results until
+     * they are evicted. A maxSize of 0 disables the cache.
+     */
+    public ResultCache(int maxSize, long ttlMillis) {
+        if (maxSize<0) throw new IllegalArgumentException("maxSize must not be negative.");
+        if (ttlMillis<0) throw new IllegalArgumentException("ttlMillis must not be negative.");
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Return the cached result for the query, or null if there is none or it has expired.
+     */
+    public synchronized byte[] get(String query) {
+        Entry entry = entries.get(query);
+        if (entry!=null && ttlMillis>0 && System.currentTimeMillis()-entry.created>ttlMillis) {
+            entries.remove(query);
+            expirations++;
+            entry = null;
+        }
+        if (entry==null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * Store the result for the query, evicting the least recently used results beyond maxSize.
+     */
+    public synchronized void put(String query, byte[] result) {
+        if (maxSize==0) return;
+        entries.put(query, new Entry(result, System.currentTimeMillis()));
+        Iterator<Map.Entry<String,Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size()>maxSize) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+    public synchronized long getHits() {
+        return hits;
+    }
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Return the cache settings and counters as a JSON object.
+     */
+    public synchronized JSONObject getJSON() {
+        JSONObject json = new JSONObject();
+        json.put("size", entries.size());
+        json.put("maxSize", maxSize);
+        json.put("ttlSeconds", ttlMillis/1000);
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("hitRate", (hits+misses==0) ? 0.0 : (double)hits/(double)(hits+misses));
+        json.put("evictions", evictions);
+        json.put("expirations", expirations);
+        return json;
+    }
+
+}